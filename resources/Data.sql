@@ -5,8 +5,11 @@ use prod;
 create table parking(
 PARKING_NUMBER int PRIMARY KEY,
 AVAILABLE bool NOT NULL,
-TYPE varchar(10) NOT NULL
+TYPE varchar(10) NOT NULL,
+ZONE varchar(10),
+DISTANCE int NOT NULL DEFAULT 0
 );
+create index IDX_PARKING_TYPE_AVAILABLE on parking(TYPE, AVAILABLE, PARKING_NUMBER);
 
 create table ticket(
  ID int PRIMARY KEY AUTO_INCREMENT,
@@ -17,6 +20,57 @@ create table ticket(
  OUT_TIME DATETIME,
  FOREIGN KEY (PARKING_NUMBER)
  REFERENCES parking(PARKING_NUMBER));
+/* Finds the open ticket of a vehicle */
+create index IDX_TICKET_OPEN on ticket(VEHICLE_REG_NUMBER, OUT_TIME);
+/* Revenue over a period */
+create index IDX_TICKET_OUT_TIME on ticket(OUT_TIME, PRICE);
+/* Reports, streamed by ranges of entry time */
+create index IDX_TICKET_IN_TIME on ticket(IN_TIME);
+
+/* Tickets closed for longer than parkit.ticket.archive.afterDays, moved out of the ticket table in the background */
+create table ticket_archive(
+ ID int PRIMARY KEY,
+ PARKING_NUMBER int NOT NULL,
+ VEHICLE_REG_NUMBER varchar(10) NOT NULL,
+ PRICE double,
+ IN_TIME DATETIME NOT NULL,
+ OUT_TIME DATETIME NOT NULL);
+create index IDX_TICKET_ARCHIVE_VEHICLE on ticket_archive(VEHICLE_REG_NUMBER, IN_TIME);
+create index IDX_TICKET_ARCHIVE_OUT_TIME on ticket_archive(OUT_TIME, PRICE);
+create index IDX_TICKET_ARCHIVE_IN_TIME on ticket_archive(IN_TIME);
+
+/* Number of tickets per vehicle, kept up to date on each ticket insert */
+create table vehicle_visit(
+ VEHICLE_REG_NUMBER varchar(10) PRIMARY KEY,
+ VISIT_COUNT int NOT NULL);
+
+/* Last journal event applied to the tables, per local journal of the gates (see parkit.journal.dir) */
+create table journal_checkpoint(
+ JOURNAL_ID varchar(36) PRIMARY KEY,
+ LAST_SEQUENCE bigint NOT NULL);
+/* Journal events refused by the tables, set aside with the error so that the replay goes on after them */
+create table journal_dead_letter(
+ JOURNAL_ID varchar(36) NOT NULL,
+ JOURNAL_SEQUENCE bigint NOT NULL,
+ ACTION varchar(10) NOT NULL,
+ TYPE varchar(10) NOT NULL,
+ PARKING_NUMBER int NOT NULL,
+ VEHICLE_REG_NUMBER varchar(256) NOT NULL,
+ PRICE double,
+ IN_TIME DATETIME NOT NULL,
+ OUT_TIME DATETIME,
+ ERROR varchar(1000),
+ PRIMARY KEY (JOURNAL_ID, JOURNAL_SEQUENCE));
+
+/* Parking type booked by a vehicle for a time window, the spot is chosen when it arrives */
+create table reservation(
+ ID int PRIMARY KEY AUTO_INCREMENT,
+ TYPE varchar(10) NOT NULL,
+ VEHICLE_REG_NUMBER varchar(10) NOT NULL,
+ START_TIME DATETIME NOT NULL,
+ END_TIME DATETIME NOT NULL,
+ STATUS varchar(10) NOT NULL);
+create index IDX_RESERVATION_END_TIME on reservation(END_TIME);
 
 insert into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(1,true,'CAR');
 insert into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(2,true,'CAR');
@@ -32,8 +86,11 @@ use test;
 create table parking(
 PARKING_NUMBER int PRIMARY KEY,
 AVAILABLE bool NOT NULL,
-TYPE varchar(10) NOT NULL
+TYPE varchar(10) NOT NULL,
+ZONE varchar(10),
+DISTANCE int NOT NULL DEFAULT 0
 );
+create index IDX_PARKING_TYPE_AVAILABLE on parking(TYPE, AVAILABLE, PARKING_NUMBER);
 
 create table ticket(
  ID int PRIMARY KEY AUTO_INCREMENT,
@@ -44,6 +101,57 @@ create table ticket(
  OUT_TIME DATETIME,
  FOREIGN KEY (PARKING_NUMBER)
  REFERENCES parking(PARKING_NUMBER));
+/* Finds the open ticket of a vehicle */
+create index IDX_TICKET_OPEN on ticket(VEHICLE_REG_NUMBER, OUT_TIME);
+/* Revenue over a period */
+create index IDX_TICKET_OUT_TIME on ticket(OUT_TIME, PRICE);
+/* Reports, streamed by ranges of entry time */
+create index IDX_TICKET_IN_TIME on ticket(IN_TIME);
+
+/* Tickets closed for longer than parkit.ticket.archive.afterDays, moved out of the ticket table in the background */
+create table ticket_archive(
+ ID int PRIMARY KEY,
+ PARKING_NUMBER int NOT NULL,
+ VEHICLE_REG_NUMBER varchar(10) NOT NULL,
+ PRICE double,
+ IN_TIME DATETIME NOT NULL,
+ OUT_TIME DATETIME NOT NULL);
+create index IDX_TICKET_ARCHIVE_VEHICLE on ticket_archive(VEHICLE_REG_NUMBER, IN_TIME);
+create index IDX_TICKET_ARCHIVE_OUT_TIME on ticket_archive(OUT_TIME, PRICE);
+create index IDX_TICKET_ARCHIVE_IN_TIME on ticket_archive(IN_TIME);
+
+/* Number of tickets per vehicle, kept up to date on each ticket insert */
+create table vehicle_visit(
+ VEHICLE_REG_NUMBER varchar(10) PRIMARY KEY,
+ VISIT_COUNT int NOT NULL);
+
+/* Last journal event applied to the tables, per local journal of the gates (see parkit.journal.dir) */
+create table journal_checkpoint(
+ JOURNAL_ID varchar(36) PRIMARY KEY,
+ LAST_SEQUENCE bigint NOT NULL);
+/* Journal events refused by the tables, set aside with the error so that the replay goes on after them */
+create table journal_dead_letter(
+ JOURNAL_ID varchar(36) NOT NULL,
+ JOURNAL_SEQUENCE bigint NOT NULL,
+ ACTION varchar(10) NOT NULL,
+ TYPE varchar(10) NOT NULL,
+ PARKING_NUMBER int NOT NULL,
+ VEHICLE_REG_NUMBER varchar(256) NOT NULL,
+ PRICE double,
+ IN_TIME DATETIME NOT NULL,
+ OUT_TIME DATETIME,
+ ERROR varchar(1000),
+ PRIMARY KEY (JOURNAL_ID, JOURNAL_SEQUENCE));
+
+/* Parking type booked by a vehicle for a time window, the spot is chosen when it arrives */
+create table reservation(
+ ID int PRIMARY KEY AUTO_INCREMENT,
+ TYPE varchar(10) NOT NULL,
+ VEHICLE_REG_NUMBER varchar(10) NOT NULL,
+ START_TIME DATETIME NOT NULL,
+ END_TIME DATETIME NOT NULL,
+ STATUS varchar(10) NOT NULL);
+create index IDX_RESERVATION_END_TIME on reservation(END_TIME);
 
 insert into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(1,true,'CAR');
 insert into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(2,true,'CAR');
@@ -0,0 +1,120 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.model.ExitTicket;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of single DAO calls against the embedded H2 database: the lookups served from SQL,
+ * the ones served from the in-memory indexes, and a spot update round trip.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DaoBenchmark {
+
+    private static final String PARKED_VEHICLE = "PARKED";
+
+    private EmbeddedDataBaseConfig dataBaseConfig;
+    private ParkingSpotDAO parkingSpotDAO;
+    private TicketDAO ticketDAO;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseConfig("daobenchmark", 8);
+        dataBaseConfig.createSchema(16, 16);
+        parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.dataBaseConfig = dataBaseConfig;
+        parkingSpotDAO.loadFreeSpotIndex();
+        ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBaseConfig;
+        ticketDAO.loadOpenTickets();
+
+        int parkingNumber = parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR);
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(parkingNumber, ParkingType.CAR, false));
+        ticket.setVehicleRegNumber(PARKED_VEHICLE);
+        ticket.setInTime(new Date(System.currentTimeMillis() - 3600000));
+        ticketDAO.saveTicket(ticket);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    // one spot per thread, flipped between free and taken
+    @State(Scope.Thread)
+    public static class Spot {
+        private static int nextNumber = 16;
+        ParkingSpot parkingSpot;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            synchronized (Spot.class) {
+                parkingSpot = new ParkingSpot(nextNumber--, ParkingType.CAR, true);
+            }
+        }
+    }
+
+    @Benchmark
+    public Ticket getTicket() {
+        return ticketDAO.getTicket(PARKED_VEHICLE);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Ticket getTicketThreads4() {
+        return ticketDAO.getTicket(PARKED_VEHICLE);
+    }
+
+    @Benchmark
+    public ExitTicket getTicketForExit() {
+        return ticketDAO.getTicketForExit(PARKED_VEHICLE);
+    }
+
+    @Benchmark
+    public int getNbTicket() {
+        return ticketDAO.getNbTicket(PARKED_VEHICLE);
+    }
+
+    @Benchmark
+    public int getNextAvailableSlot() {
+        return parkingSpotDAO.getNextAvailableSlot(ParkingType.BIKE);
+    }
+
+    @Benchmark
+    public boolean updateParking(Spot spot) {
+        spot.parkingSpot.setAvailable(!spot.parkingSpot.isAvailable());
+        return parkingSpotDAO.updateParking(spot.parkingSpot);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean updateParkingThreads4(Spot spot) {
+        return updateParking(spot);
+    }
+}
@@ -0,0 +1,180 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.FreeSpotIndex;
+import com.parkit.parkingsystem.dao.OccupancyModel;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.Tariff;
+import com.parkit.parkingsystem.service.TariffEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of FareCalculatorService, through the Ticket method, the primitive method and the bulk method,
+ * on a fixed set of random stays. The 4 thread variants share one calculator. The surge variants price the tickets
+ * with dynamic pricing, against live occupancy counters being updated by another gate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FareCalculatorBenchmark {
+
+    private static final int STAYS = 1024;
+
+    private FareCalculatorService fareCalculatorService;
+    private FareCalculatorService surgeCalculatorService;
+    private OccupancyModel occupancy;
+    private FreeSpotIndex freeSpotIndex;
+    private Ticket[] tickets;
+    private long[] inTimes;
+    private long[] outTimes;
+    private int[] parkingTypes;
+    private boolean[] discounts;
+
+    @Setup
+    public void setUp() {
+        fareCalculatorService = new FareCalculatorService();
+        Properties surge = new Properties();
+        surge.setProperty("surge.levels", "0.5:1.25,0.9:1.5");
+        surgeCalculatorService = new FareCalculatorService(ZoneId.systemDefault(), new TariffEngine(Tariff.compile(surge)));
+        List<ParkingSpot> spots = new ArrayList<>();
+        for (int number = 1; number <= 100; number++) {
+            spots.add(new ParkingSpot(number, number % 2 == 0 ? ParkingType.CAR : ParkingType.BIKE, number % 3 != 0));
+        }
+        freeSpotIndex = new FreeSpotIndex(spots);
+        occupancy = freeSpotIndex.getOccupancy();
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        tickets = new Ticket[STAYS];
+        inTimes = new long[STAYS];
+        outTimes = new long[STAYS];
+        parkingTypes = new int[STAYS];
+        discounts = new boolean[STAYS];
+        for (int i = 0; i < STAYS; i++) {
+            ParkingType parkingType = ParkingType.values()[random.nextInt(ParkingType.values().length)];
+            inTimes[i] = now - (long) (random.nextDouble() * 48 * 60 * 60 * 1000);
+            outTimes[i] = now;
+            parkingTypes[i] = parkingType.ordinal();
+            discounts[i] = random.nextBoolean();
+            Ticket ticket = new Ticket();
+            ticket.setParkingSpot(new ParkingSpot(1, parkingType, false));
+            ticket.setInTime(new Date(inTimes[i]));
+            ticket.setOutTime(new Date(outTimes[i]));
+            tickets[i] = ticket;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+        double[] prices = new double[STAYS];
+
+        int next() {
+            next = (next + 1) & (STAYS - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public double ticket(Cursor cursor) {
+        Ticket ticket = tickets[cursor.next()];
+        fareCalculatorService.calculateFare(ticket, discounts[cursor.next]);
+        return ticket.getPrice();
+    }
+
+    @Benchmark
+    public double ticketSurge(Cursor cursor) {
+        Ticket ticket = tickets[cursor.next()];
+        surgeCalculatorService.calculateFare(ticket, discounts[cursor.next], occupancy);
+        return ticket.getPrice();
+    }
+
+    // 3 threads price tickets while one gate takes and frees spots, each change updating the average fill
+    @Benchmark
+    @Group("surgeUnderChanges")
+    @GroupThreads(3)
+    public double surgePricing(TicketCopies copies, Cursor cursor) {
+        Ticket ticket = copies.tickets[cursor.next()];
+        surgeCalculatorService.calculateFare(ticket, discounts[cursor.next], occupancy);
+        return ticket.getPrice();
+    }
+
+    @Benchmark
+    @Group("surgeUnderChanges")
+    @GroupThreads(1)
+    public boolean spotChanges(Cursor cursor) {
+        // the car spots, even numbers from 2 to 100
+        int parkingNumber = 2 * (1 + cursor.next() % 50);
+        if (freeSpotIndex.claim(ParkingType.CAR, parkingNumber)) {
+            return true;
+        }
+        freeSpotIndex.markAvailable(ParkingType.CAR, parkingNumber);
+        return false;
+    }
+
+    @Benchmark
+    public double primitive(Cursor cursor) {
+        int i = cursor.next();
+        return fareCalculatorService.calculateFare(inTimes[i], outTimes[i], parkingTypes[i], discounts[i]);
+    }
+
+    // one operation prices all the stays
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public double[] bulk(Cursor cursor) {
+        fareCalculatorService.calculateFares(inTimes, outTimes, parkingTypes, discounts, cursor.prices);
+        return cursor.prices;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public double primitiveThreads4(Cursor cursor) {
+        return primitive(cursor);
+    }
+
+    // tickets are shared between threads, each thread prices its own copies
+    @Benchmark
+    @Threads(4)
+    public double ticketThreads4(TicketCopies copies, Cursor cursor) {
+        Ticket ticket = copies.tickets[cursor.next()];
+        fareCalculatorService.calculateFare(ticket, discounts[cursor.next]);
+        return ticket.getPrice();
+    }
+
+    @State(Scope.Thread)
+    public static class TicketCopies {
+        Ticket[] tickets;
+
+        @Setup
+        public void setUp(FareCalculatorBenchmark benchmark) {
+            tickets = new Ticket[STAYS];
+            for (int i = 0; i < STAYS; i++) {
+                tickets[i] = new Ticket(benchmark.tickets[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.model.ParkingEvent;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.service.ParkingSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Entries and exits with gates sharing one ParkingService, against the embedded H2 database. Each thread is a gate
+ * parking and letting out its own car, on a lot with a spot for every gate.
+ * The in-memory database answers in microseconds, so every statement and commit is delayed by dbLatencyMicros to
+ * stand in for the network round trip to MySQL: throughput should grow almost linearly with the gates until they
+ * outnumber the poolSize connections.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GateScalingBenchmark {
+
+    private static final int MAX_GATES = 64;
+
+    @Param({"500"})
+    public long dbLatencyMicros;
+
+    @Param({"16"})
+    public int poolSize;
+
+    private final AtomicInteger gates = new AtomicInteger();
+    private ParkingSystem parkingSystem;
+    private ParkingService parkingService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        long latencyNanos = TimeUnit.MICROSECONDS.toNanos(dbLatencyMicros);
+        EmbeddedDataBaseConfig dataBaseConfig = new EmbeddedDataBaseConfig("gatebenchmark", poolSize) {
+            @Override
+            protected Connection createConnection() throws SQLException {
+                return withLatency(super.createConnection(), latencyNanos);
+            }
+        };
+        dataBaseConfig.createSchema(MAX_GATES, 0);
+        parkingSystem = new ParkingSystem(dataBaseConfig);
+        parkingService = new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        parkingSystem.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class Gate {
+        String vehicleRegNumber;
+        long time;
+
+        @Setup(Level.Trial)
+        public void setUp(GateScalingBenchmark benchmark) {
+            vehicleRegNumber = "GATE-" + benchmark.gates.incrementAndGet();
+        }
+    }
+
+    @Benchmark
+    public Ticket entryAndExit(Gate gate) {
+        Ticket entered = parkingService.process(new ParkingEvent(ParkingEvent.Action.ENTRY, ParkingType.CAR,
+                gate.vehicleRegNumber, gate.time));
+        gate.time += TimeUnit.HOURS.toMillis(1);
+        Ticket left = parkingService.process(new ParkingEvent(ParkingEvent.Action.EXIT, null, gate.vehicleRegNumber,
+                gate.time));
+        if (entered == null || left == null) {
+            throw new IllegalStateException("Gate " + gate.vehicleRegNumber + " had an event refused");
+        }
+        return left;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Ticket entryAndExitThreads4(Gate gate) {
+        return entryAndExit(gate);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Ticket entryAndExitThreads16(Gate gate) {
+        return entryAndExit(gate);
+    }
+
+    @Benchmark
+    @Threads(MAX_GATES)
+    public Ticket entryAndExitThreads64(Gate gate) {
+        return entryAndExit(gate);
+    }
+
+    // Delays statement executions and commits by the simulated round trip, without using CPU
+    private static Connection withLatency(Connection connection, long latencyNanos) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("commit")) {
+                        LockSupport.parkNanos(latencyNanos);
+                    }
+                    Object result = invoke(connection, method, args);
+                    if (result instanceof PreparedStatement) {
+                        PreparedStatement statement = (PreparedStatement) result;
+                        result = Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                                new Class<?>[]{PreparedStatement.class}, delayExecutions(statement, latencyNanos));
+                    }
+                    return result;
+                });
+    }
+
+    private static InvocationHandler delayExecutions(PreparedStatement statement, long latencyNanos) {
+        return (proxy, method, args) -> {
+            if (method.getName().startsWith("execute")) {
+                LockSupport.parkNanos(latencyNanos);
+            }
+            return invoke(statement, method, args);
+        };
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
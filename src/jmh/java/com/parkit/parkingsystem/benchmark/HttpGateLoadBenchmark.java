@@ -0,0 +1,125 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.api.GateHttpServer;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.service.ParkingSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GateHttpServer in front of the embedded H2 database, each thread a client on kept-alive connections driving its
+ * own vehicle: entry, availability, quote and exit, four requests per call.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HttpGateLoadBenchmark {
+
+    private static final int MAX_CLIENTS = 64;
+
+    @Param({"64"})
+    public int serverWorkers;
+
+    private final AtomicInteger clients = new AtomicInteger();
+    private ParkingSystem parkingSystem;
+    private GateHttpServer gateHttpServer;
+    private String baseUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        EmbeddedDataBaseConfig dataBaseConfig = new EmbeddedDataBaseConfig("httpbenchmark", 16);
+        dataBaseConfig.createSchema(MAX_CLIENTS, 0);
+        parkingSystem = new ParkingSystem(dataBaseConfig);
+        ParkingService parkingService = new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO());
+        gateHttpServer = new GateHttpServer(parkingService, new InetSocketAddress("localhost", 0), serverWorkers);
+        gateHttpServer.start();
+        baseUrl = "http://localhost:" + gateHttpServer.getPort();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        gateHttpServer.stop(0);
+        parkingSystem.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        String entryUrl;
+        String quoteUrl;
+        String exitUrl;
+
+        @Setup(Level.Trial)
+        public void setUp(HttpGateLoadBenchmark benchmark) {
+            String plate = "CLIENT-" + benchmark.clients.incrementAndGet();
+            entryUrl = benchmark.baseUrl + "/entry?plate=" + plate + "&type=CAR";
+            quoteUrl = benchmark.baseUrl + "/quote?plate=" + plate;
+            exitUrl = benchmark.baseUrl + "/exit?plate=" + plate;
+        }
+    }
+
+    @Benchmark
+    public void visit(Client client) throws IOException {
+        call(client.entryUrl, "POST", 201);
+        call(baseUrl + "/availability", "GET", 200);
+        call(client.quoteUrl, "GET", 200);
+        call(client.exitUrl, "POST", 200);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void visitThreads4(Client client) throws IOException {
+        visit(client);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void visitThreads16(Client client) throws IOException {
+        visit(client);
+    }
+
+    @Benchmark
+    @Threads(MAX_CLIENTS)
+    public void visitThreads64(Client client) throws IOException {
+        visit(client);
+    }
+
+    private static void call(String url, String method, int expectedStatus) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        int status = connection.getResponseCode();
+        // reading the whole body lets the connection go back to the keep-alive cache
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            byte[] buffer = new byte[512];
+            while (in.read(buffer) >= 0) {
+                // discard
+            }
+        }
+        if (status != expectedStatus) {
+            throw new IllegalStateException(method + " " + url + " answered " + status);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.service.Tariff;
+import com.parkit.parkingsystem.service.TariffEngine;
+import com.parkit.parkingsystem.util.InputReaderUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.ZoneId;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * End-to-end entry then exit of a car through ParkingService, against the embedded H2 database.
+ * Each thread drives its own gate with its own vehicle, the DAOs are shared as in the app.
+ * With dynamicPricing, exits are priced with surge levels on the live occupancy of the lot.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParkingServiceBenchmark {
+
+    @Param({"false", "true"})
+    public boolean dynamicPricing;
+
+    private final AtomicInteger gates = new AtomicInteger();
+    private EmbeddedDataBaseConfig dataBaseConfig;
+    private ParkingSpotDAO parkingSpotDAO;
+    private TicketDAO ticketDAO;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseConfig("parkingservicebenchmark", 8);
+        dataBaseConfig.createSchema(16, 16);
+        parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.dataBaseConfig = dataBaseConfig;
+        parkingSpotDAO.loadFreeSpotIndex();
+        ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBaseConfig;
+        ticketDAO.loadOpenTickets();
+        // the service prints its messages for the user, they would only measure the console
+        console = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(console);
+        dataBaseConfig.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class Gate {
+        ParkingService parkingService;
+
+        @Setup(Level.Trial)
+        public void setUp(ParkingServiceBenchmark benchmark) {
+            ScriptedInput input = new ScriptedInput("GATE-" + benchmark.gates.incrementAndGet());
+            TariffEngine tariffEngine = TariffEngine.getShared();
+            if (benchmark.dynamicPricing) {
+                Properties surge = new Properties();
+                surge.setProperty("surge.levels", "0.5:1.25,0.9:1.5");
+                tariffEngine = new TariffEngine(Tariff.compile(surge));
+            }
+            parkingService = new ParkingService(input, benchmark.parkingSpotDAO, benchmark.ticketDAO,
+                    new FareCalculatorService(ZoneId.systemDefault(), tariffEngine));
+        }
+    }
+
+    @Benchmark
+    public void entryAndExit(Gate gate) {
+        gate.parkingService.processIncomingVehicle();
+        gate.parkingService.processExitingVehicle();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void entryAndExitThreads4(Gate gate) {
+        entryAndExit(gate);
+    }
+
+    // Answers the prompts of the service: always a car, always the same vehicle
+    private static class ScriptedInput extends InputReaderUtil {
+        private final String vehicleRegNumber;
+
+        ScriptedInput(String vehicleRegNumber) {
+            this.vehicleRegNumber = vehicleRegNumber;
+        }
+
+        @Override
+        public int readSelection() {
+            return 1;
+        }
+
+        @Override
+        public String readVehicleRegistrationNumber() {
+            return vehicleRegNumber;
+        }
+    }
+}
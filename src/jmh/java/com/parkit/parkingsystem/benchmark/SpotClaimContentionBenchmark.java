@@ -0,0 +1,130 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Time for gates claiming spots at the same time to fill a lot of the given size, against the embedded H2
+ * database. Each measured call fills the lot from empty, and the iteration fails if a spot was given twice.
+ * With shared, all gates use one DAO and races are settled by its in-memory free spot index; otherwise each gate
+ * has its own DAO (like separate service instances) and races are settled by the conditional update in the database.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpotClaimContentionBenchmark {
+
+    @Param({"true", "false"})
+    public boolean shared;
+
+    @Param({"4000"})
+    public int spots;
+
+    private EmbeddedDataBaseConfig dataBaseConfig;
+    private ParkingSpotDAO sharedDAO;
+    // number of times each parking number was claimed in the iteration
+    private AtomicIntegerArray claims;
+    private final AtomicInteger total = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataBaseConfig = new EmbeddedDataBaseConfig("claimbenchmark", 64);
+    }
+
+    @Setup(Level.Iteration)
+    public void fillSchema() throws Exception {
+        dataBaseConfig.createSchema(spots, 0);
+        sharedDAO = newDAO();
+        claims = new AtomicIntegerArray(spots + 1);
+        total.set(0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkClaims() {
+        for (int parkingNumber = 1; parkingNumber <= spots; parkingNumber++) {
+            if (claims.get(parkingNumber) > 1) {
+                throw new IllegalStateException("Spot " + parkingNumber + " was given twice");
+            }
+        }
+        if (total.get() != spots) {
+            throw new IllegalStateException(total.get() + " spots claimed out of " + spots);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    private ParkingSpotDAO newDAO() {
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.dataBaseConfig = dataBaseConfig;
+        parkingSpotDAO.loadFreeSpotIndex();
+        return parkingSpotDAO;
+    }
+
+    @State(Scope.Thread)
+    public static class Gate {
+        ParkingSpotDAO parkingSpotDAO;
+
+        @Setup(Level.Iteration)
+        public void setUp(SpotClaimContentionBenchmark benchmark) {
+            parkingSpotDAO = benchmark.shared ? benchmark.sharedDAO : benchmark.newDAO();
+        }
+    }
+
+    @Benchmark
+    public int fillLot(Gate gate) {
+        int claimed = 0;
+        int parkingNumber;
+        while ((parkingNumber = gate.parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR)) > 0) {
+            claims.incrementAndGet(parkingNumber);
+            claimed++;
+        }
+        if (parkingNumber < 0) {
+            throw new IllegalStateException("Claim failed");
+        }
+        total.addAndGet(claimed);
+        return claimed;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int fillLotThreads4(Gate gate) {
+        return fillLot(gate);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public int fillLotThreads16(Gate gate) {
+        return fillLot(gate);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public int fillLotThreads64(Gate gate) {
+        return fillLot(gate);
+    }
+}
@@ -1,13 +1,49 @@
 package com.parkit.parkingsystem;
 
+import com.parkit.parkingsystem.api.GateHttpServer;
+import com.parkit.parkingsystem.export.TicketColumnExporter;
+import com.parkit.parkingsystem.report.ReportService;
+import com.parkit.parkingsystem.service.EventStreamProcessor;
 import com.parkit.parkingsystem.service.InteractiveShell;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 public class App {
     private static final Logger logger = LogManager.getLogger("App");
-    public static void main(String args[]){
+    public static void main(String args[]) throws Exception {
         logger.info("Initializing Parking System");
-        InteractiveShell.loadInterface();
+        // --events <file or -> [--workers <n>] processes gate events instead of starting the shell,
+        // --http <port> [--workers <n>] serves the gate API,
+        // --report <from> <to> [--workers <n>] prints the revenue and occupancy report of a period,
+        // --export <from> <to> <file> writes the tickets of a period to a columnar file
+        String events = null;
+        Integer httpPort = null;
+        String[] reportPeriod = null;
+        String[] export = null;
+        Integer workers = null;
+        for(int i = 0; i < args.length - 1; i++){
+            if("--events".equals(args[i])){
+                events = args[++i];
+            }else if("--http".equals(args[i])){
+                httpPort = Integer.parseInt(args[++i]);
+            }else if("--report".equals(args[i]) && i < args.length - 2){
+                reportPeriod = new String[]{args[++i], args[++i]};
+            }else if("--export".equals(args[i]) && i < args.length - 3){
+                export = new String[]{args[++i], args[++i], args[++i]};
+            }else if("--workers".equals(args[i])){
+                workers = Integer.parseInt(args[++i]);
+            }
+        }
+        if(events != null){
+            EventStreamProcessor.run(events, workers != null ? workers : 4);
+        }else if(httpPort != null){
+            GateHttpServer.run(httpPort, workers != null ? workers : 64);
+        }else if(reportPeriod != null){
+            ReportService.run(reportPeriod[0], reportPeriod[1], workers != null ? workers : 4);
+        }else if(export != null){
+            TicketColumnExporter.run(export[0], export[1], export[2]);
+        }else{
+            InteractiveShell.loadInterface();
+        }
     }
 }
@@ -0,0 +1,429 @@
+package com.parkit.parkingsystem.api;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.OccupancyModel;
+import com.parkit.parkingsystem.metrics.MetricsRegistry;
+import com.parkit.parkingsystem.model.GateResult;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.service.GateExecutor;
+import com.parkit.parkingsystem.service.MultiLotParkingSystem;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.service.ParkingSystem;
+import com.parkit.parkingsystem.tracing.Span;
+import com.parkit.parkingsystem.tracing.Tracer;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP front end for gate hardware and payment kiosks, on the JDK embedded server. Answers are JSON:
+ * <pre>
+ * POST /entry?plate=ABC123&amp;type=CAR   parks a vehicle, 201 with its spot, 409 if no spot is free
+ * POST /exit?plate=ABC123               lets a vehicle out, 200 with the fare, 404 if it is not parked
+ * GET  /quote?plate=ABC123              fare if the vehicle left now, the ticket stays open, 404 if it is not parked
+ * GET  /availability                    free spots per parking type
+ * GET  /occupancy                       capacity, free and occupied spots per parking type
+ * GET  /metrics                         requests, errors and latency percentiles per endpoint, and the values of
+ *                                       the metrics registry (DAO timers, entry and exit rates, occupancy)
+ * </pre>
+ * Entry, exit and quote accept a time parameter in epoch milliseconds, the current time otherwise. When several
+ * lots are served, every endpoint but /metrics takes a lot parameter, the first lot being the default.
+ * Registration numbers must fit the tables (see Ticket.isValidVehicleRegNumber), 400 otherwise. A request that could
+ * not be served because of an error, such as the database being unreachable, gets 503: the gate may try again.
+ * Connections are kept alive between requests. The server threads only parse requests, the service is called
+ * from a virtual thread per request when the JDK has them, from a bounded pool of platform threads otherwise.
+ * Headers and body are written separately, so without TCP_NODELAY every answer waits for the delayed ACK of the
+ * client: run sets -Dsun.net.httpserver.nodelay=true unless it is given, embedders should set it before starting.
+ */
+public class GateHttpServer {
+
+    private static final Logger logger = LogManager.getLogger("GateHttpServer");
+
+    private final Map<String, ParkingService> parkingServices;
+    private final ParkingService defaultParkingService;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, EndpointMetrics> metrics = new LinkedHashMap<>();
+
+    /**
+     * @param address port 0 picks a free port, see getPort
+     * @param maxPlatformThreads threads serving requests when virtual threads are not available
+     */
+    public GateHttpServer(ParkingService parkingService, InetSocketAddress address, int maxPlatformThreads)
+            throws IOException {
+        this(Collections.singletonMap(ParkingSpot.DEFAULT_LOT_ID, parkingService), address, maxPlatformThreads);
+    }
+
+    /**
+     * @param parkingServices service of each lot, requests without a lot parameter go to the first one
+     */
+    public GateHttpServer(Map<String, ParkingService> parkingServices, InetSocketAddress address,
+                          int maxPlatformThreads) throws IOException {
+        this.parkingServices = new LinkedHashMap<>(parkingServices);
+        this.defaultParkingService = this.parkingServices.values().iterator().next();
+        this.server = HttpServer.create(address, 1024);
+        this.executor = GateExecutor.newExecutor(maxPlatformThreads, true);
+        server.setExecutor(executor);
+        addEndpoint("entry", "POST", this::entry);
+        addEndpoint("exit", "POST", this::exit);
+        addEndpoint("quote", "GET", this::quote);
+        addEndpoint("availability", "GET", this::availability);
+        addEndpoint("occupancy", "GET", this::occupancy);
+        addEndpoint("metrics", "GET", params -> metrics());
+    }
+
+    public void start() {
+        server.start();
+        logger.info("Gate API listening on port " + getPort());
+    }
+
+    /**
+     * Stops accepting requests, waits up to the delay for the ones in progress, then releases the threads.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private Response entry(Map<String, String> params) {
+        String vehicleRegNumber = plate(params);
+        ParkingType parkingType;
+        try {
+            parkingType = ParkingType.valueOf(required(params, "type").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Unknown vehicle type: " + params.get("type"));
+        }
+        return response(parkingService(params).enter(parkingType, vehicleRegNumber, time(params)), 201, 409);
+    }
+
+    private Response exit(Map<String, String> params) {
+        String vehicleRegNumber = plate(params);
+        return response(parkingService(params).leave(vehicleRegNumber, time(params)), 200, 404);
+    }
+
+    private Response quote(Map<String, String> params) {
+        String vehicleRegNumber = plate(params);
+        ParkingService parkingService = parkingService(params);
+        Ticket ticket = parkingService.quoteExit(vehicleRegNumber, time(params));
+        if (ticket != null) {
+            return new Response(200, ticketJson(ticket));
+        }
+        if (parkingService.countOpenTickets(vehicleRegNumber) == 0) {
+            return Response.error(404, "No parked vehicle found with registration number: " + vehicleRegNumber);
+        }
+        return Response.error(503, "Unable to look up the ticket");
+    }
+
+    private static Response response(GateResult result, int doneStatus, int refusedStatus) {
+        switch (result.getStatus()) {
+            case DONE:
+                return new Response(doneStatus, ticketJson(result.getTicket()));
+            case REFUSED:
+                return Response.error(refusedStatus, result.getReason());
+            default:
+                return Response.error(503, result.getReason());
+        }
+    }
+
+    private Response availability(Map<String, String> params) {
+        ParkingService parkingService = parkingService(params);
+        StringBuilder json = new StringBuilder("{");
+        for (ParkingType parkingType : ParkingType.values()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(parkingType).append("\":").append(parkingService.countAvailableSpots(parkingType));
+        }
+        return new Response(200, json.append('}').toString());
+    }
+
+    private Response occupancy(Map<String, String> params) {
+        OccupancyModel occupancy = parkingService(params).getOccupancy();
+        if (occupancy == null) {
+            return Response.error(503, "Occupancy not available");
+        }
+        StringBuilder json = new StringBuilder("{");
+        for (ParkingType parkingType : ParkingType.values()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(parkingType).append("\":{")
+                    .append("\"capacity\":").append(occupancy.getCapacity(parkingType))
+                    .append(",\"available\":").append(occupancy.getAvailable(parkingType))
+                    .append(",\"occupied\":").append(occupancy.getOccupied(parkingType));
+            StringBuilder zones = new StringBuilder();
+            for (String zone : occupancy.getZones()) {
+                if (zone.isEmpty() || occupancy.getCapacity(parkingType, zone) == 0) {
+                    continue;
+                }
+                zones.append(zones.length() > 0 ? "," : "").append('"').append(zone).append("\":{")
+                        .append("\"capacity\":").append(occupancy.getCapacity(parkingType, zone))
+                        .append(",\"available\":").append(occupancy.getAvailable(parkingType, zone))
+                        .append(",\"occupied\":").append(occupancy.getOccupied(parkingType, zone))
+                        .append('}');
+            }
+            if (zones.length() > 0) {
+                json.append(",\"zones\":{").append(zones).append('}');
+            }
+            json.append('}');
+        }
+        return new Response(200, json.append('}').toString());
+    }
+
+    private Response metrics() {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, EndpointMetrics> entry : metrics.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            EndpointMetrics endpoint = entry.getValue();
+            LatencyHistogram latency = endpoint.latency;
+            json.append('"').append(entry.getKey()).append("\":{")
+                    .append("\"requests\":").append(latency.getCount())
+                    .append(",\"errors\":").append(endpoint.errors.sum())
+                    .append(",\"p50Micros\":").append(latency.getPercentile(50, TimeUnit.MICROSECONDS))
+                    .append(",\"p99Micros\":").append(latency.getPercentile(99, TimeUnit.MICROSECONDS))
+                    .append(",\"maxMicros\":").append(latency.getMax(TimeUnit.MICROSECONDS))
+                    .append('}');
+        }
+        json.append(",\"registry\":{");
+        int length = json.length();
+        for (Map.Entry<String, Number> value : MetricsRegistry.getDefault().snapshot().entrySet()) {
+            if (json.length() > length) {
+                json.append(',');
+            }
+            json.append('"').append(escape(value.getKey())).append("\":").append(value.getValue());
+        }
+        return new Response(200, json.append("}}").toString());
+    }
+
+    private static String ticketJson(Ticket ticket) {
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"vehicleRegNumber\":\"").append(escape(ticket.getVehicleRegNumber())).append('"')
+                .append(",\"parkingNumber\":").append(ticket.getParkingSpot().getId())
+                .append(",\"parkingType\":\"").append(ticket.getParkingSpot().getParkingType()).append('"')
+                .append(",\"inTime\":").append(ticket.getInTime().getTime());
+        if (ticket.getOutTime() != null) {
+            json.append(",\"outTime\":").append(ticket.getOutTime().getTime())
+                    .append(",\"price\":").append(ticket.getPrice());
+        }
+        return json.append('}').toString();
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private void addEndpoint(String name, String method, Endpoint endpoint) {
+        EndpointMetrics endpointMetrics = new EndpointMetrics();
+        metrics.put(name, endpointMetrics);
+        server.createContext("/" + name, exchange -> {
+            long start = System.nanoTime();
+            Response response;
+            // the request is the root of the trace, the service and the DAOs add their spans to it
+            Span span = Tracer.getDefault().start(method + " /" + name);
+            try {
+                drain(exchange.getRequestBody());
+                if (!method.equals(exchange.getRequestMethod())) {
+                    response = Response.error(405, "Use " + method);
+                } else {
+                    response = endpoint.handle(parseQuery(exchange.getRequestURI().getRawQuery()));
+                }
+            } catch (BadRequestException e) {
+                response = Response.error(400, e.getMessage());
+            } catch (RuntimeException e) {
+                logger.error("Error serving /" + name, e);
+                response = Response.error(500, "Internal error");
+            } finally {
+                span.end();
+            }
+            // recorded before answering, so a client reading /metrics next sees its own request
+            if (response.status >= 400) {
+                endpointMetrics.errors.increment();
+            }
+            endpointMetrics.latency.record(System.nanoTime() - start);
+            send(exchange, response);
+        });
+    }
+
+    private static void send(HttpExchange exchange, Response response) {
+        byte[] body = response.json.getBytes(StandardCharsets.UTF_8);
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(response.status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (IOException e) {
+            logger.error("Error sending response", e);
+            exchange.close();
+        }
+    }
+
+    // the request body must be read for the connection to be reused
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) >= 0) {
+            // discard
+        }
+        in.close();
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        try {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                            URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            throw new BadRequestException("Invalid query string");
+        }
+        return params;
+    }
+
+    private ParkingService parkingService(Map<String, String> params) {
+        String lotId = params.get("lot");
+        if (lotId == null) {
+            return defaultParkingService;
+        }
+        ParkingService parkingService = parkingServices.get(lotId.trim());
+        if (parkingService == null) {
+            throw new BadRequestException("Unknown parking lot: " + lotId);
+        }
+        return parkingService;
+    }
+
+    private static String plate(Map<String, String> params) {
+        String vehicleRegNumber = required(params, "plate");
+        if (!Ticket.isValidVehicleRegNumber(vehicleRegNumber)) {
+            throw new BadRequestException("Invalid registration number, expected 1 to "
+                    + Ticket.MAX_VEHICLE_REG_NUMBER_LENGTH + " characters: " + vehicleRegNumber);
+        }
+        return vehicleRegNumber;
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new BadRequestException("Missing parameter: " + name);
+        }
+        return value.trim();
+    }
+
+    private static Date time(Map<String, String> params) {
+        String value = params.get("time");
+        if (value == null) {
+            return new Date();
+        }
+        try {
+            return new Date(Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Invalid time, expected epoch milliseconds: " + value);
+        }
+    }
+
+    /**
+     * Serves the gate API in front of the production database until the process is stopped, or in front of the
+     * databases of the lots listed by -Dparkit.lots.
+     */
+    public static void run(int port, int maxPlatformThreads) throws IOException {
+        // read by the JDK server when its class is loaded, so before the first server is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        if (System.getProperty("parkit.lots") != null) {
+            MultiLotParkingSystem multiLotParkingSystem = MultiLotParkingSystem.start();
+            GateHttpServer gateHttpServer = new GateHttpServer(multiLotParkingSystem.getParkingServices(),
+                    new InetSocketAddress(port), maxPlatformThreads);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                gateHttpServer.stop(2);
+                multiLotParkingSystem.shutdown();
+            }, "gate-api-shutdown"));
+            gateHttpServer.start();
+            System.out.println("Gate API listening on port " + gateHttpServer.getPort() + " for lots "
+                    + multiLotParkingSystem.getLotIds());
+            return;
+        }
+        ParkingSystem parkingSystem = ParkingSystem.start();
+        ParkingService parkingService = new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO(),
+                parkingSystem.getReservationDAO());
+        GateHttpServer gateHttpServer = new GateHttpServer(parkingService, new InetSocketAddress(port), maxPlatformThreads);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            gateHttpServer.stop(2);
+            parkingSystem.shutdown();
+        }, "gate-api-shutdown"));
+        gateHttpServer.start();
+        System.out.println("Gate API listening on port " + gateHttpServer.getPort());
+    }
+
+    private interface Endpoint {
+        Response handle(Map<String, String> params);
+    }
+
+    private static class Response {
+        private final int status;
+        private final String json;
+
+        Response(int status, String json) {
+            this.status = status;
+            this.json = json;
+        }
+
+        static Response error(int status, String message) {
+            return new Response(status, "{\"error\":\"" + escape(message) + "\"}");
+        }
+    }
+
+    private static class BadRequestException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BadRequestException(String message) {
+            super(message);
+        }
+    }
+
+    private static class EndpointMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+    }
+}
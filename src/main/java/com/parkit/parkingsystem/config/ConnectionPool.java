@@ -0,0 +1,355 @@
+package com.parkit.parkingsystem.config;
+
+import com.parkit.parkingsystem.metrics.MetricsRegistry;
+import com.parkit.parkingsystem.tracing.Span;
+import com.parkit.parkingsystem.tracing.Tracer;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of JDBC connections.
+ * Connections handed out are proxies: calling close() closes the statements the borrower left open and gives the
+ * physical connection back to the pool instead of closing it. Idle connections are validated before reuse and evicted once they stay
+ * unused for longer than the idle timeout.
+ */
+public class ConnectionPool {
+
+    private static final Logger logger = LogManager.getLogger("ConnectionPool");
+
+    /**
+     * Connections idle for less than this are handed out again without a validation round-trip.
+     */
+    private static final long VALIDATION_INTERVAL_MILLIS = 1000;
+
+    // all pools of the process together, the getters below are per pool
+    private static final LatencyHistogram ACQUIRE_TIME = MetricsRegistry.getDefault().timer("ConnectionPool.acquire");
+    private static final LongAdder ACQUIRE_TIMEOUTS = MetricsRegistry.getDefault().counter("ConnectionPool.acquireTimeouts");
+
+    public interface ConnectionFactory {
+        Connection create() throws ClassNotFoundException, SQLException;
+    }
+
+    private final ConnectionFactory factory;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final int validationTimeoutSeconds;
+
+    private final Semaphore permits;
+    // most recently returned connections are kept at the head, so the tail holds the oldest idle ones
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private volatile boolean closed;
+
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong acquireTimeoutCount = new AtomicLong();
+    private final AtomicLong acquireWaitNanos = new AtomicLong();
+    private final AtomicLong maxAcquireWaitNanos = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong validationFailureCount = new AtomicLong();
+
+    public ConnectionPool(ConnectionFactory factory, int maxSize, long acquireTimeoutMillis,
+                          long idleTimeoutMillis, int validationTimeoutSeconds) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive: " + maxSize);
+        }
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Borrows a connection, waiting at most the acquire timeout when all connections are in use.
+     */
+    public Connection borrow() throws ClassNotFoundException, SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                acquireTimeoutCount.incrementAndGet();
+                ACQUIRE_TIMEOUTS.increment();
+                throw new SQLTimeoutException("Timed out after " + acquireTimeoutMillis
+                        + " ms waiting for a DB connection (pool size " + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a DB connection", e);
+        }
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isReusable(pooled)) {
+                    break;
+                }
+                discard(pooled);
+            }
+            if (pooled == null) {
+                Span span = Tracer.getDefault().startChild("ConnectionPool.connect", null);
+                try {
+                    pooled = new PooledConnection(factory.create());
+                } finally {
+                    span.end();
+                }
+                createdCount.incrementAndGet();
+            }
+            recordAcquire(System.nanoTime() - start);
+            return pooled.lease();
+        } catch (ClassNotFoundException | SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private boolean isReusable(PooledConnection pooled) {
+        long idleMillis = System.currentTimeMillis() - pooled.lastReturned;
+        if (idleMillis > idleTimeoutMillis) {
+            evictedCount.incrementAndGet();
+            return false;
+        }
+        if (idleMillis < VALIDATION_INTERVAL_MILLIS) {
+            return true;
+        }
+        try {
+            if (pooled.raw.isValid(validationTimeoutSeconds)) {
+                return true;
+            }
+        } catch (SQLException e) {
+            logger.error("Error while validating pooled connection", e);
+        }
+        validationFailureCount.incrementAndGet();
+        return false;
+    }
+
+    private void recordAcquire(long waitNanos) {
+        acquireCount.incrementAndGet();
+        acquireWaitNanos.addAndGet(waitNanos);
+        ACQUIRE_TIME.record(waitNanos);
+        long max;
+        while (waitNanos > (max = maxAcquireWaitNanos.get())) {
+            if (maxAcquireWaitNanos.compareAndSet(max, waitNanos)) {
+                break;
+            }
+        }
+    }
+
+    private void giveBack(PooledConnection pooled) {
+        boolean reusable = !closed;
+        try {
+            if (pooled.raw.isClosed()) {
+                reusable = false;
+            } else if (!pooled.raw.getAutoCommit()) {
+                // never hand out a connection with a half-done transaction
+                pooled.raw.rollback();
+                pooled.raw.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.error("Error while resetting pooled connection", e);
+            reusable = false;
+        }
+        if (reusable) {
+            pooled.lastReturned = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        } else {
+            discard(pooled);
+        }
+        permits.release();
+        evictIdle();
+    }
+
+    /**
+     * Closes the connections that have been idle for longer than the idle timeout.
+     */
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+        while (oldestFirst.hasNext()) {
+            PooledConnection pooled = oldestFirst.next();
+            if (now - pooled.lastReturned <= idleTimeoutMillis) {
+                break;
+            }
+            if (idle.removeLastOccurrence(pooled)) {
+                evictedCount.incrementAndGet();
+                discard(pooled);
+            }
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        try {
+            pooled.raw.close();
+        } catch (SQLException e) {
+            logger.error("Error while closing pooled connection", e);
+        }
+    }
+
+    /**
+     * Closes idle connections; connections still borrowed are closed when they are given back.
+     */
+    public void close() {
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    public long getAcquireTimeoutCount() {
+        return acquireTimeoutCount.get();
+    }
+
+    public long getTotalAcquireWaitNanos() {
+        return acquireWaitNanos.get();
+    }
+
+    public long getMaxAcquireWaitNanos() {
+        return maxAcquireWaitNanos.get();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailureCount.get();
+    }
+
+    private final class PooledConnection {
+        private final Connection raw;
+        private volatile long lastReturned;
+
+        private PooledConnection(Connection raw) {
+            this.raw = raw;
+        }
+
+        private Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Lease(this));
+        }
+    }
+
+    /**
+     * One borrow of a physical connection. Once closed, the lease can no longer reach the connection,
+     * so a stale reference cannot disturb the next borrower, nor can the statements it created.
+     */
+    private final class Lease implements InvocationHandler {
+        // statements are pruned of the closed ones once there are this many
+        private static final int PRUNE_STATEMENTS_AT = 16;
+
+        private PooledConnection pooled;
+        // statements created through this lease, closed with it
+        private final List<Statement> statements = new ArrayList<>();
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name)) {
+                if (pooled != null) {
+                    PooledConnection released = pooled;
+                    pooled = null;
+                    closeStatements();
+                    giveBack(released);
+                }
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return pooled == null || pooled.raw.isClosed();
+            }
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            if ("toString".equals(name)) {
+                return "PooledConnection[" + (pooled == null ? "closed" : pooled.raw) + "]";
+            }
+            if (pooled == null) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            Object result;
+            try {
+                result = method.invoke(pooled.raw, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof Statement) {
+                track((Statement) result);
+            }
+            return result;
+        }
+
+        private void track(Statement statement) {
+            if (statements.size() >= PRUNE_STATEMENTS_AT) {
+                statements.removeIf(this::isClosed);
+            }
+            statements.add(statement);
+        }
+
+        private boolean isClosed(Statement statement) {
+            try {
+                return statement.isClosed();
+            } catch (SQLException e) {
+                return true;
+            }
+        }
+
+        // statements left open on an error path, their result sets are closed with them
+        private void closeStatements() {
+            for (Statement statement : statements) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    logger.error("Error while closing a statement left open", e);
+                }
+            }
+            statements.clear();
+        }
+    }
+}
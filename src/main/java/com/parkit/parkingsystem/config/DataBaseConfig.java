@@ -1,5 +1,8 @@
 package com.parkit.parkingsystem.config;
 
+import com.parkit.parkingsystem.tracing.Span;
+import com.parkit.parkingsystem.tracing.Tracer;
+import com.parkit.parkingsystem.tracing.TracingConnection;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -9,31 +12,124 @@ public class DataBaseConfig {
 
     private static final Logger logger = LogManager.getLogger("DataBaseConfig");
 
+    // Pool settings, can be overridden with -Dparkit.db.pool.*
+    private static final int POOL_MAX_SIZE = Integer.getInteger("parkit.db.pool.maxSize", 10);
+    private static final long POOL_ACQUIRE_TIMEOUT_MILLIS = Long.getLong("parkit.db.pool.acquireTimeoutMs", 5000L);
+    private static final long POOL_IDLE_TIMEOUT_MILLIS = Long.getLong("parkit.db.pool.idleTimeoutMs", 10 * 60 * 1000L);
+    private static final int POOL_VALIDATION_TIMEOUT_SECONDS = Integer.getInteger("parkit.db.pool.validationTimeoutSec", 2);
+
+    private static final String PROD_URL = "jdbc:mysql://localhost:3306/prod?useUnicode=true"
+            + "&useJDBCCompliantTimezoneShift=true&useLegacyDatetimeCode=false&"
+            + "serverTimezone=UTC";
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private volatile ConnectionPool pool;
+
+    /**
+     * Connects to the prod database, or to -Dparkit.db.url as -Dparkit.db.user with -Dparkit.db.password.
+     */
+    public DataBaseConfig() {
+        this(System.getProperty("parkit.db.url", PROD_URL), System.getProperty("parkit.db.user", "root"),
+                System.getProperty("parkit.db.password", "rootroot"));
+    }
+
+    /**
+     * Connects to another database, the one of a parking lot for instance (see ShardMap).
+     */
+    public DataBaseConfig(String url, String user, String password) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+    }
+
+    /**
+     * Borrows a connection from the pool. Closing it (see closeConnection) gives it back to the pool.
+     * Within a trace, the wait for the connection and each statement run on it are spans of the trace.
+     */
     public Connection getConnection() throws ClassNotFoundException, SQLException {
-        logger.info("Create DB connection");
-        Class.forName("com.mysql.cj.jdbc.Driver");
-        return DriverManager.getConnection(
-                "jdbc:mysql://localhost:3306/prod?useUnicode=true"
-                + "&useJDBCCompliantTimezoneShift=true&useLegacyDatetimeCode=false&"
-                + "serverTimezone=UTC","root","rootroot");
+        Tracer tracer = Tracer.getDefault();
+        if (!tracer.isTracing()) {
+            return getPool().borrow();
+        }
+        Span span = tracer.startChild("DataBaseConfig.getConnection", null);
+        try {
+            return TracingConnection.wrap(getPool().borrow(), tracer);
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Opens a new physical connection. Only called by the pool when it needs to grow,
+     * subclasses override this to point the pool at another database.
+     */
+    protected Connection createConnection() throws ClassNotFoundException, SQLException {
+        logger.debug("Create DB connection");
+        if (url.startsWith("jdbc:mysql:")) {
+            Class.forName("com.mysql.cj.jdbc.Driver");
+        }
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    protected ConnectionPool createPool() {
+        return new ConnectionPool(this::createConnection, POOL_MAX_SIZE, POOL_ACQUIRE_TIMEOUT_MILLIS,
+                POOL_IDLE_TIMEOUT_MILLIS, POOL_VALIDATION_TIMEOUT_SECONDS);
+    }
+
+    public ConnectionPool getPool() {
+        ConnectionPool result = pool;
+        if (result == null) {
+            synchronized (this) {
+                result = pool;
+                if (result == null) {
+                    result = createPool();
+                    pool = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Closes the pooled connections, the pool is recreated if a connection is requested afterwards.
+     */
+    public synchronized void shutdown() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
     }
 
     public void closeConnection(Connection con){
         if(con!=null){
             try {
                 con.close();
-                logger.info("Closing DB connection");
+                logger.debug("Closing DB connection");
             } catch (SQLException e) {
                 logger.error("Error while closing connection",e);
             }
         }
     }
 
+    public void rollback(Connection con){
+        if(con!=null){
+            try {
+                con.rollback();
+                logger.debug("Rolled back DB transaction");
+            } catch (SQLException e) {
+                logger.error("Error while rolling back transaction",e);
+            }
+        }
+    }
+
     public void closePreparedStatement(PreparedStatement ps) {
         if(ps!=null){
             try {
                 ps.close();
-                logger.info("Closing Prepared Statement");
+                logger.debug("Closing Prepared Statement");
             } catch (SQLException e) {
                 logger.error("Error while closing prepared statement",e);
             }
@@ -44,7 +140,7 @@ public class DataBaseConfig {
         if(rs!=null){
             try {
                 rs.close();
-                logger.info("Closing Result Set");
+                logger.debug("Closing Result Set");
             } catch (SQLException e) {
                 logger.error("Error while closing result set",e);
             }
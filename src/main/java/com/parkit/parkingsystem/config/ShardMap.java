@@ -0,0 +1,69 @@
+package com.parkit.parkingsystem.config;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Database of each parking lot. Every lot has its own parking, ticket and vehicle_visit tables, in a database
+ * or schema of its own, so each lot is served by its own DAOs and connection pool.
+ */
+public class ShardMap {
+
+    private final Map<String, DataBaseConfig> shards;
+
+    /**
+     * @param shards database of each lot, in the order the lots are listed
+     */
+    public ShardMap(Map<String, DataBaseConfig> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("No parking lot configured");
+        }
+        this.shards = Collections.unmodifiableMap(new LinkedHashMap<>(shards));
+    }
+
+    /**
+     * Reads the lots from properties such as
+     * <pre>
+     * parkit.lots=north,south
+     * parkit.lot.north.db.url=jdbc:mysql://db-north:3306/prod
+     * parkit.lot.north.db.user=root
+     * parkit.lot.north.db.password=rootroot
+     * </pre>
+     * A lot without a url gets the schema named after it on the prod server; user and password default to
+     * those of the prod database.
+     */
+    public static ShardMap fromProperties(Properties properties) {
+        String lots = properties.getProperty("parkit.lots", "").trim();
+        if (lots.isEmpty()) {
+            throw new IllegalArgumentException("parkit.lots lists no parking lot");
+        }
+        Map<String, DataBaseConfig> shards = new LinkedHashMap<>();
+        for (String lotId : lots.split(",")) {
+            lotId = lotId.trim();
+            String prefix = "parkit.lot." + lotId + ".db.";
+            String url = properties.getProperty(prefix + "url", "jdbc:mysql://localhost:3306/" + lotId
+                    + "?useUnicode=true&useJDBCCompliantTimezoneShift=true&useLegacyDatetimeCode=false&serverTimezone=UTC");
+            shards.put(lotId, new DataBaseConfig(url, properties.getProperty(prefix + "user", "root"),
+                    properties.getProperty(prefix + "password", "rootroot")));
+        }
+        return new ShardMap(shards);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the lot is unknown
+     */
+    public DataBaseConfig get(String lotId) {
+        DataBaseConfig dataBaseConfig = shards.get(lotId);
+        if (dataBaseConfig == null) {
+            throw new IllegalArgumentException("Unknown parking lot: " + lotId);
+        }
+        return dataBaseConfig;
+    }
+
+    public Set<String> getLotIds() {
+        return shards.keySet();
+    }
+}
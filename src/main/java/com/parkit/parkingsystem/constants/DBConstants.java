@@ -4,9 +4,44 @@ public class DBConstants {
 
     public static final String GET_NEXT_PARKING_SPOT = "select min(PARKING_NUMBER) from parking where AVAILABLE = true and TYPE = ?";
     public static final String UPDATE_PARKING_SPOT = "update parking set available = ? where PARKING_NUMBER = ?";
+    public static final String CLAIM_PARKING_SPOT = "update parking set available = false where PARKING_NUMBER = ? and AVAILABLE = true";
+    public static final String GET_PARKING_SPOTS = "select PARKING_NUMBER, AVAILABLE, TYPE, ZONE, DISTANCE from parking";
+    public static final String COUNT_AVAILABLE_PARKING_SPOTS = "select count(*) from parking where AVAILABLE = true and TYPE = ?";
+    public static final String COUNT_PARKING_SPOTS_BY_TYPE = "select TYPE, count(*) from parking group by TYPE";
 
     public static final String SAVE_TICKET = "insert into ticket(PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME) values(?,?,?,?,?)";
     public static final String UPDATE_TICKET = "update ticket set PRICE=?, OUT_TIME=? where ID=?";
     public static final String UPDATE_TICKET_IN_TIME = "update ticket set IN_TIME=? where ID=?";
     public static final String GET_TICKET = "select t.PARKING_NUMBER, t.ID, t.PRICE, t.IN_TIME, t.OUT_TIME, p.TYPE from ticket t,parking p where p.parking_number = t.parking_number and t.VEHICLE_REG_NUMBER=? order by t.IN_TIME DESC limit 1";
+    public static final String COUNT_OPEN_TICKETS = "select count(*) from ticket where VEHICLE_REG_NUMBER=? and OUT_TIME is null";
+    public static final String GET_TICKET_FOR_EXIT = "select t.PARKING_NUMBER, t.ID, t.PRICE, t.IN_TIME, t.OUT_TIME, p.TYPE, coalesce(v.VISIT_COUNT, 1) from ticket t join parking p on p.parking_number = t.parking_number left join vehicle_visit v on v.VEHICLE_REG_NUMBER = t.VEHICLE_REG_NUMBER where t.VEHICLE_REG_NUMBER=? and t.OUT_TIME is null order by t.IN_TIME DESC limit 1";
+    public static final String GET_OPEN_TICKETS = "select t.PARKING_NUMBER, t.ID, t.PRICE, t.IN_TIME, t.OUT_TIME, p.TYPE, t.VEHICLE_REG_NUMBER, coalesce(v.VISIT_COUNT, 1) from ticket t join parking p on p.parking_number = t.parking_number left join vehicle_visit v on v.VEHICLE_REG_NUMBER = t.VEHICLE_REG_NUMBER where t.OUT_TIME is null";
+    public static final String GET_ARCHIVED_TICKET = "select t.PARKING_NUMBER, t.ID, t.PRICE, t.IN_TIME, t.OUT_TIME, p.TYPE from ticket_archive t,parking p where p.parking_number = t.parking_number and t.VEHICLE_REG_NUMBER=? order by t.IN_TIME DESC limit 1";
+    public static final String GET_TICKETS_OF_VEHICLE = "select t.PARKING_NUMBER, t.ID, t.PRICE, t.IN_TIME, t.OUT_TIME, p.TYPE from ticket t join parking p on p.parking_number = t.parking_number where t.VEHICLE_REG_NUMBER=? union all select t.PARKING_NUMBER, t.ID, t.PRICE, t.IN_TIME, t.OUT_TIME, p.TYPE from ticket_archive t join parking p on p.parking_number = t.parking_number where t.VEHICLE_REG_NUMBER=? order by IN_TIME DESC";
+    public static final String GET_REVENUE = "select coalesce(sum(PRICE), 0) from (select PRICE from ticket where OUT_TIME >= ? and OUT_TIME < ? union all select PRICE from ticket_archive where OUT_TIME >= ? and OUT_TIME < ?) closed";
+    public static final String CLOSE_TICKET = "update ticket set PRICE=?, OUT_TIME=? where ID=? and OUT_TIME is null";
+    public static final String CLOSE_OPEN_TICKET_OF_VEHICLE = "update ticket set PRICE=?, OUT_TIME=? where VEHICLE_REG_NUMBER=? and OUT_TIME is null";
+
+    public static final String GET_ARCHIVE_BATCH_LAST_ID = "select max(ID) from (select ID from ticket where OUT_TIME < ? order by ID limit ?) batch";
+    public static final String GET_MAX_TICKET_IDS = "select (select coalesce(max(ID), 0) from ticket), (select coalesce(max(ID), 0) from ticket_archive)";
+    // followed by the next id, DDL takes no parameter
+    public static final String SET_TICKET_AUTO_INCREMENT = "alter table ticket AUTO_INCREMENT = ";
+    public static final String ARCHIVE_TICKETS = "insert into ticket_archive(ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME) select ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME from ticket where OUT_TIME < ? and ID <= ?";
+    public static final String DELETE_ARCHIVED_TICKETS = "delete from ticket where OUT_TIME < ? and ID <= ?";
+
+    public static final String SCAN_TICKETS = "select PARKING_NUMBER, IN_TIME, OUT_TIME, PRICE from ticket where IN_TIME >= ? and IN_TIME < ? and (OUT_TIME is null or OUT_TIME >= ?) union all select PARKING_NUMBER, IN_TIME, OUT_TIME, PRICE from ticket_archive where IN_TIME >= ? and IN_TIME < ? and OUT_TIME >= ?";
+    public static final String SCAN_TICKET_HISTORY = "select VEHICLE_REG_NUMBER, PARKING_NUMBER, IN_TIME, OUT_TIME, PRICE from ticket where IN_TIME >= ? and IN_TIME < ? order by IN_TIME";
+    public static final String SCAN_ARCHIVED_TICKET_HISTORY = "select VEHICLE_REG_NUMBER, PARKING_NUMBER, IN_TIME, OUT_TIME, PRICE from ticket_archive where IN_TIME >= ? and IN_TIME < ? order by IN_TIME";
+
+    public static final String INCREMENT_VISIT_COUNT = "insert into vehicle_visit(VEHICLE_REG_NUMBER, VISIT_COUNT) values(?,1) on duplicate key update VISIT_COUNT = VISIT_COUNT + 1";
+    public static final String GET_VISIT_COUNT = "select VISIT_COUNT from vehicle_visit where VEHICLE_REG_NUMBER = ?";
+
+    public static final String GET_JOURNAL_CHECKPOINT = "select LAST_SEQUENCE from journal_checkpoint where JOURNAL_ID = ?";
+    public static final String SAVE_JOURNAL_CHECKPOINT = "insert into journal_checkpoint(JOURNAL_ID, LAST_SEQUENCE) values(?,?) on duplicate key update LAST_SEQUENCE = ?";
+    public static final String SAVE_JOURNAL_DEAD_LETTER = "insert into journal_dead_letter(JOURNAL_ID, JOURNAL_SEQUENCE, ACTION, TYPE, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME, ERROR) values(?,?,?,?,?,?,?,?,?,?)";
+
+    public static final String SAVE_RESERVATION = "insert into reservation(TYPE, VEHICLE_REG_NUMBER, START_TIME, END_TIME, STATUS) values(?,?,?,?,'BOOKED')";
+    public static final String CANCEL_RESERVATION = "update reservation set STATUS='CANCELLED' where ID=? and STATUS='BOOKED'";
+    public static final String CHECK_IN_RESERVATION = "update reservation set STATUS='CHECKED_IN' where ID=? and STATUS='BOOKED'";
+    public static final String GET_LIVE_RESERVATIONS = "select ID, TYPE, VEHICLE_REG_NUMBER, START_TIME, END_TIME, STATUS from reservation where END_TIME > ? and STATUS <> 'CANCELLED'";
 }
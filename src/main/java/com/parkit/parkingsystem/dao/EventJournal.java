@@ -0,0 +1,496 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.metrics.MetricsRegistry;
+import com.parkit.parkingsystem.model.ParkingEvent;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only local log of ticket changes, written by the gates instead of the DB in journal mode (see
+ * TicketDAO.enableJournal) and applied to the DB later by a JournalReplayer. An append is a single write to the
+ * active segment file; a background thread fsyncs every sync interval, or as soon as a caller waits for it, all
+ * the events appended since its previous fsync at once.
+ * <pre>
+ * record   body length (int), CRC32 of the body (int), body
+ * body     sequence (long), action (byte), parking type (byte), parking number (int), in time (long),
+ *          out time (long), price (double), [recurring user price (double)], plate length (short), plate UTF-8
+ * </pre>
+ * The recurring user price is only there for an exit whose discount is pending, flagged in the action byte.
+ * The log is split in segments named after the sequence of their first event, the segments whose events have all
+ * been applied are deleted. A record left incomplete by a crash at the end of the last segment is dropped when the
+ * journal is opened. The directory also holds journal.id, under which the DB keeps how far it has replayed.
+ */
+public class EventJournal implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger("EventJournal");
+
+    private static final LatencyHistogram APPEND_TIME = MetricsRegistry.getDefault().timer("EventJournal.append");
+    private static final LatencyHistogram SYNC_TIME = MetricsRegistry.getDefault().timer("EventJournal.sync");
+
+    static final int RECORD_HEADER_SIZE = 8;
+    static final int FIXED_BODY_SIZE = 40;
+    static final int MAX_PLATE_SIZE = 256;
+    private static final int DISCOUNT_PENDING = 0x80;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String ID_FILE = "journal.id";
+
+    private final Path directory;
+    private final String journalId;
+    private final long segmentBytes;
+    private final long syncIntervalMillis;
+    // by sequence of their first event
+    private final ConcurrentSkipListMap<Long, Path> segments = new ConcurrentSkipListMap<>();
+
+    // appends, under the lock of the journal
+    private final ByteBuffer record = ByteBuffer.allocateDirect(RECORD_HEADER_SIZE + FIXED_BODY_SIZE + 8 + MAX_PLATE_SIZE);
+    private final CRC32 crc = new CRC32();
+    private FileChannel active;
+    private long activeSize;
+    private volatile long lastSequence;
+    private volatile boolean open = true;
+
+    // fsyncs, under syncMonitor
+    private final Object syncMonitor = new Object();
+    private final Thread syncer;
+    private volatile long syncedSequence;
+    private boolean syncRequested;
+    private IOException syncFailure;
+
+    // reads, under readMonitor: where the previous read stopped
+    private final Object readMonitor = new Object();
+    private final ByteBuffer readHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    private FileChannel readChannel;
+    private long readSegment;
+    private long readPosition;
+    private long readSequence = -1;
+
+    private EventJournal(Path directory, long segmentBytes, long syncIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.syncIntervalMillis = syncIntervalMillis;
+        journalId = readOrCreateId(directory.resolve(ID_FILE));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(1L, segmentPath(1));
+        }
+        Map.Entry<Long, Path> last = segments.lastEntry();
+        active = FileChannel.open(last.getValue(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long sequence = last.getKey() - 1;
+        long size = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        JournalEvent event;
+        while ((event = readRecord(active, size, header)) != null) {
+            sequence = event.getSequence();
+            size += RECORD_HEADER_SIZE + header.getInt(0);
+        }
+        if (active.size() > size) {
+            logger.warn("Dropping " + (active.size() - size) + " bytes of incomplete record at the end of "
+                    + last.getValue());
+            active.truncate(size);
+        }
+        active.position(size);
+        active.force(true);
+        activeSize = size;
+        lastSequence = sequence;
+        syncedSequence = sequence;
+        syncer = new Thread(this::runSyncer, "event-journal-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+        logger.info("Opened event journal " + directory + " at sequence " + sequence);
+    }
+
+    /**
+     * Opens the journal of the directory, creating it if needed, and starts its fsync thread.
+     * @param segmentBytes size from which the next append starts a new segment
+     * @param syncIntervalMillis longest time between the append of an event and its fsync
+     */
+    public static EventJournal open(Path directory, long segmentBytes, long syncIntervalMillis) throws IOException {
+        Files.createDirectories(directory);
+        return new EventJournal(directory, segmentBytes, syncIntervalMillis);
+    }
+
+    private static String readOrCreateId(Path file) throws IOException {
+        if (Files.exists(file)) {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+        }
+        String id = UUID.randomUUID().toString();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(id.getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+        return id;
+    }
+
+    private Path segmentPath(long firstSequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Writes the event at the end of the journal. It is on disk once the fsync thread has run, see awaitSynced.
+     * @return the sequence of the event
+     * @throws IllegalArgumentException if the registration number does not fit the tables
+     */
+    public long append(JournalEvent event) throws IOException {
+        long start = System.nanoTime();
+        // refused here rather than by the tables when the event is replayed, long after the gate let the vehicle through
+        if (!Ticket.isValidVehicleRegNumber(event.getVehicleRegNumber())) {
+            throw new IllegalArgumentException("Invalid registration number: " + event.getVehicleRegNumber());
+        }
+        byte[] plate = event.getVehicleRegNumber().getBytes(StandardCharsets.UTF_8);
+        try {
+            synchronized (this) {
+                if (!open) {
+                    throw new IOException("Event journal " + directory + " is closed");
+                }
+                long sequence = lastSequence + 1;
+                record.clear();
+                record.position(RECORD_HEADER_SIZE);
+                record.putLong(sequence)
+                        .put((byte) (event.getAction().ordinal() | (event.isDiscountPending() ? DISCOUNT_PENDING : 0)))
+                        .put((byte) event.getParkingType().ordinal())
+                        .putInt(event.getParkingNumber())
+                        .putLong(event.getInTime())
+                        .putLong(event.getOutTime())
+                        .putDouble(event.getPrice());
+                if (event.isDiscountPending()) {
+                    record.putDouble(event.getRecurringUserPrice());
+                }
+                record.putShort((short) plate.length)
+                        .put(plate);
+                int length = record.position() - RECORD_HEADER_SIZE;
+                record.flip();
+                record.position(RECORD_HEADER_SIZE);
+                crc.reset();
+                crc.update(record);
+                record.putInt(0, length).putInt(4, (int) crc.getValue());
+                record.position(0);
+                try {
+                    while (record.hasRemaining()) {
+                        active.write(record);
+                    }
+                } catch (IOException e) {
+                    // a partial record would hide the ones appended after it
+                    try {
+                        active.truncate(activeSize);
+                        active.position(activeSize);
+                    } catch (IOException truncateError) {
+                        logger.error("Error removing a partial journal record", truncateError);
+                    }
+                    throw e;
+                }
+                activeSize += RECORD_HEADER_SIZE + length;
+                lastSequence = sequence;
+                if (activeSize >= segmentBytes) {
+                    roll(sequence + 1);
+                }
+                return sequence;
+            }
+        } finally {
+            APPEND_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    // under the lock of the journal
+    private void roll(long nextSequence) {
+        try {
+            active.force(false);
+            Path path = segmentPath(nextSequence);
+            FileChannel next = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            FileChannel previous = active;
+            active = next;
+            activeSize = 0;
+            segments.put(nextSequence, path);
+            previous.close();
+            synced(nextSequence - 1);
+        } catch (IOException e) {
+            logger.error("Error starting a new journal segment, the current one keeps growing", e);
+        }
+    }
+
+    /**
+     * Waits until the event of this sequence, and every one before it, is on disk. The fsync thread is woken up
+     * right away, callers waiting at the same time share its fsync.
+     */
+    public void awaitSynced(long sequence) throws IOException, InterruptedException {
+        synchronized (syncMonitor) {
+            while (syncedSequence < sequence) {
+                if (syncFailure != null) {
+                    throw new IOException("Event journal " + directory + " could not be synced", syncFailure);
+                }
+                if (!open) {
+                    throw new IOException("Event journal " + directory + " is closed");
+                }
+                syncRequested = true;
+                syncMonitor.notifyAll();
+                syncMonitor.wait();
+            }
+        }
+    }
+
+    /**
+     * Waits until an event after this sequence is on disk, or for the timeout.
+     */
+    public void awaitSyncedAfter(long sequence, long timeoutMillis) throws InterruptedException {
+        synchronized (syncMonitor) {
+            if (syncedSequence <= sequence && open) {
+                syncMonitor.wait(timeoutMillis);
+            }
+        }
+    }
+
+    private void runSyncer() {
+        while (open) {
+            synchronized (syncMonitor) {
+                if (!syncRequested) {
+                    try {
+                        syncMonitor.wait(syncIntervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                syncRequested = false;
+            }
+            sync();
+        }
+    }
+
+    private void sync() {
+        long sequence;
+        FileChannel channel;
+        synchronized (this) {
+            sequence = lastSequence;
+            channel = active;
+        }
+        if (sequence <= syncedSequence) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            channel.force(false);
+            synced(sequence);
+        } catch (ClosedChannelException e) {
+            // the segment was rolled or the journal closed in the meantime, both fsync it first
+        } catch (IOException e) {
+            logger.error("Error syncing event journal " + directory, e);
+            synchronized (syncMonitor) {
+                syncFailure = e;
+                syncMonitor.notifyAll();
+            }
+        } finally {
+            SYNC_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    private void synced(long sequence) {
+        synchronized (syncMonitor) {
+            if (sequence > syncedSequence) {
+                syncedSequence = sequence;
+            }
+            syncFailure = null;
+            syncMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Reads the events on disk following this sequence, in order. Meant for a single reader: reading on from
+     * where the previous read stopped does not go through the segment again.
+     * @return up to maxEvents events, none when the reader is up to date
+     */
+    public List<JournalEvent> read(long afterSequence, int maxEvents) throws IOException {
+        long limit = syncedSequence;
+        List<JournalEvent> events = new ArrayList<>();
+        synchronized (readMonitor) {
+            if (readChannel == null || readSequence != afterSequence) {
+                Map.Entry<Long, Path> segment = segments.floorEntry(afterSequence + 1);
+                if (segment == null) {
+                    throw new IOException("Events of journal " + directory + " after " + afterSequence
+                            + " have been deleted");
+                }
+                openReader(segment.getKey(), segment.getValue());
+            }
+            while (events.size() < maxEvents && readSequence < limit) {
+                JournalEvent event = readRecord(readChannel, readPosition, readHeader);
+                if (event == null) {
+                    Map.Entry<Long, Path> next = segments.higherEntry(readSegment);
+                    if (next == null || next.getKey() != readSequence + 1) {
+                        throw new IOException("Damaged record after sequence " + readSequence + " in journal "
+                                + directory);
+                    }
+                    openReader(next.getKey(), next.getValue());
+                    continue;
+                }
+                readPosition += RECORD_HEADER_SIZE + readHeader.getInt(0);
+                readSequence = event.getSequence();
+                if (readSequence > afterSequence) {
+                    events.add(event);
+                }
+            }
+        }
+        return events;
+    }
+
+    // under readMonitor
+    private void openReader(long firstSequence, Path path) throws IOException {
+        if (readChannel != null) {
+            readChannel.close();
+        }
+        readChannel = FileChannel.open(path, StandardOpenOption.READ);
+        readSegment = firstSequence;
+        readPosition = 0;
+        readSequence = firstSequence - 1;
+    }
+
+    /**
+     * @return the event at this position, null if there is none or it is incomplete or damaged;
+     * the length of its body is left in the header buffer
+     */
+    private static JournalEvent readRecord(FileChannel channel, long position, ByteBuffer header) throws IOException {
+        header.clear();
+        if (!readFully(channel, position, header)) {
+            return null;
+        }
+        int length = header.getInt(0);
+        if (length < FIXED_BODY_SIZE || length > FIXED_BODY_SIZE + 8 + MAX_PLATE_SIZE) {
+            return null;
+        }
+        ByteBuffer body = ByteBuffer.allocate(length);
+        if (!readFully(channel, position + RECORD_HEADER_SIZE, body)) {
+            return null;
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(body.array(), 0, length);
+        if ((int) checksum.getValue() != header.getInt(4)) {
+            return null;
+        }
+        long sequence = body.getLong(0);
+        int actionByte = body.get(8) & 0xFF;
+        ParkingEvent.Action action = ParkingEvent.Action.values()[actionByte & ~DISCOUNT_PENDING];
+        ParkingType parkingType = ParkingType.values()[body.get(9)];
+        int parkingNumber = body.getInt(10);
+        long inTime = body.getLong(14);
+        long outTime = body.getLong(22);
+        double price = body.getDouble(30);
+        double recurringUserPrice = -1;
+        int fixedSize = FIXED_BODY_SIZE;
+        if ((actionByte & DISCOUNT_PENDING) != 0) {
+            recurringUserPrice = body.getDouble(38);
+            fixedSize += 8;
+        }
+        int plateLength = body.getShort(fixedSize - 2);
+        if (fixedSize + plateLength != length) {
+            return null;
+        }
+        String plate = new String(body.array(), fixedSize, plateLength, StandardCharsets.UTF_8);
+        return new JournalEvent(sequence, action, plate, parkingType, parkingNumber, inTime, outTime, price,
+                recurringUserPrice);
+    }
+
+    private static boolean readFully(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the segments whose events have all been applied, the active segment excepted.
+     */
+    public void release(long appliedSequence) {
+        Map.Entry<Long, Path> segment = segments.firstEntry();
+        while (segment != null) {
+            Map.Entry<Long, Path> next = segments.higherEntry(segment.getKey());
+            if (next == null || next.getKey() - 1 > appliedSequence) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(segment.getValue());
+                segments.remove(segment.getKey());
+            } catch (IOException e) {
+                logger.warn("Unable to delete journal segment " + segment.getValue(), e);
+                return;
+            }
+            segment = next;
+        }
+    }
+
+    public String getJournalId() {
+        return journalId;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public long getSyncedSequence() {
+        return syncedSequence;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Syncs the events appended so far and closes the files. Appends fail afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        long sequence;
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            active.force(false);
+            sequence = lastSequence;
+        }
+        synced(sequence);
+        try {
+            syncer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            active.close();
+        }
+        synchronized (readMonitor) {
+            if (readChannel != null) {
+                readChannel.close();
+                readChannel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.util.ConcurrentBitSet;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory copy of the AVAILABLE column of the parking table, one bit set per parking type
+ * indexed by parking number. It assumes this process is the only one updating the parking table.
+ * Every spot that actually changes state is also counted in the occupancy model of the index, in its type and zone.
+ * With an allocation strategy, the free spots are also kept in its queue, which picks the next spot to hand out;
+ * the bit and the queue entry of a spot change together under a lock striped by parking number.
+ */
+public class FreeSpotIndex {
+
+    private final Map<ParkingType, ConcurrentBitSet> freeSpots;
+    // parking numbers of the spots loaded, per type, never changed after construction
+    private final Map<ParkingType, BitSet> knownSpots;
+    private final OccupancyModel occupancy;
+    // null without allocation strategy
+    private final Map<ParkingType, FreeSpotQueue> queues;
+    private final Object[] locks = new Object[64];
+
+    public FreeSpotIndex(Collection<ParkingSpot> spots) {
+        this(spots, null);
+    }
+
+    /**
+     * @param strategy how the next free spot is chosen, null for the lowest free parking number
+     */
+    public FreeSpotIndex(Collection<ParkingSpot> spots, SpotAllocationStrategy strategy) {
+        occupancy = new OccupancyModel(spots);
+        Map<ParkingType, Integer> maxNumbers = new EnumMap<>(ParkingType.class);
+        for (ParkingSpot spot : spots) {
+            maxNumbers.merge(spot.getParkingType(), spot.getId(), Math::max);
+        }
+        freeSpots = new EnumMap<>(ParkingType.class);
+        knownSpots = new EnumMap<>(ParkingType.class);
+        for (ParkingType parkingType : ParkingType.values()) {
+            freeSpots.put(parkingType, new ConcurrentBitSet(maxNumbers.getOrDefault(parkingType, 0) + 1));
+            knownSpots.put(parkingType, new BitSet());
+        }
+        for (ParkingSpot spot : spots) {
+            knownSpots.get(spot.getParkingType()).set(spot.getId());
+            if (spot.isAvailable()) {
+                freeSpots.get(spot.getParkingType()).set(spot.getId());
+            }
+        }
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        queues = strategy != null ? newQueues(spots, strategy) : null;
+    }
+
+    private static Map<ParkingType, FreeSpotQueue> newQueues(Collection<ParkingSpot> spots, SpotAllocationStrategy strategy) {
+        Map<ParkingType, FreeSpotQueue> queues = new EnumMap<>(ParkingType.class);
+        for (ParkingType parkingType : ParkingType.values()) {
+            List<ParkingSpot> spotsOfType = new ArrayList<>();
+            for (ParkingSpot spot : spots) {
+                if (spot.getParkingType() == parkingType) {
+                    spotsOfType.add(spot);
+                }
+            }
+            spotsOfType.sort(Comparator.comparingInt(ParkingSpot::getId));
+            FreeSpotQueue queue = strategy.newQueue(spotsOfType);
+            for (ParkingSpot spot : spotsOfType) {
+                if (spot.isAvailable()) {
+                    queue.add(spot.getId());
+                }
+            }
+            queues.put(parkingType, queue);
+        }
+        return queues;
+    }
+
+    /**
+     * Returns the available parking number of this type the allocation strategy picks, by default the lowest one,
+     * or 0 if the type is full.
+     */
+    public int firstAvailable(ParkingType parkingType) {
+        if (queues != null) {
+            return queues.get(parkingType).peek();
+        }
+        int number = freeSpots.get(parkingType).nextSetBit(1);
+        return number > 0 ? number : 0;
+    }
+
+    /**
+     * Returns false when the index was not loaded with a spot of this type and number, meaning the index is out of
+     * date (the spot was added or changed type since).
+     */
+    public boolean contains(ParkingType parkingType, int parkingNumber) {
+        return parkingNumber > 0 && knownSpots.get(parkingType).get(parkingNumber);
+    }
+
+    public void markAvailable(ParkingType parkingType, int parkingNumber) {
+        if (queues == null) {
+            if (freeSpots.get(parkingType).set(parkingNumber)) {
+                occupancy.spotFreed(parkingType, parkingNumber);
+            }
+            return;
+        }
+        synchronized (locks[parkingNumber & (locks.length - 1)]) {
+            if (!freeSpots.get(parkingType).set(parkingNumber)) {
+                return;
+            }
+            queues.get(parkingType).add(parkingNumber);
+        }
+        occupancy.spotFreed(parkingType, parkingNumber);
+    }
+
+    public void markOccupied(ParkingType parkingType, int parkingNumber) {
+        claim(parkingType, parkingNumber);
+    }
+
+    /**
+     * Takes the spot out of the index, returns false if it was not available (another gate got it first).
+     */
+    public boolean claim(ParkingType parkingType, int parkingNumber) {
+        if (queues == null) {
+            if (freeSpots.get(parkingType).clear(parkingNumber)) {
+                occupancy.spotTaken(parkingType, parkingNumber);
+                return true;
+            }
+            return false;
+        }
+        // the loser of a race finds the spot already out of the queue, so its next peek gives another one
+        synchronized (locks[parkingNumber & (locks.length - 1)]) {
+            if (!freeSpots.get(parkingType).clear(parkingNumber)) {
+                return false;
+            }
+            queues.get(parkingType).remove(parkingNumber);
+        }
+        occupancy.spotTaken(parkingType, parkingNumber);
+        return true;
+    }
+
+    public int countAvailable(ParkingType parkingType) {
+        return occupancy.getAvailable(parkingType);
+    }
+
+    public OccupancyModel getOccupancy() {
+        return occupancy;
+    }
+}
@@ -0,0 +1,18 @@
+package com.parkit.parkingsystem.dao;
+
+/**
+ * Free spots of one parking type, in the order a SpotAllocationStrategy hands them out. FreeSpotIndex adds and
+ * removes each spot as it changes state, never for the same parking number from two threads at once; calls for
+ * different numbers and peeks may run at the same time.
+ */
+public interface FreeSpotQueue {
+
+    /**
+     * @return the parking number to hand out next, 0 if no spot is free
+     */
+    int peek();
+
+    void add(int parkingNumber);
+
+    void remove(int parkingNumber);
+}
@@ -0,0 +1,113 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingEvent;
+
+/**
+ * A ticket change recorded in the EventJournal: the ticket saved at an entry, or its closing at an exit.
+ * Carries everything needed to apply the change to the tables, without the ticket id the DB has not given yet.
+ */
+public final class JournalEvent {
+
+    private final long sequence;
+    private final ParkingEvent.Action action;
+    private final String vehicleRegNumber;
+    private final ParkingType parkingType;
+    private final int parkingNumber;
+    private final long inTime;
+    // -1 for a ticket saved open
+    private final long outTime;
+    private final double price;
+    // -1 unless the visit count of the vehicle was unknown at its exit
+    private final double recurringUserPrice;
+
+    JournalEvent(long sequence, ParkingEvent.Action action, String vehicleRegNumber, ParkingType parkingType,
+                 int parkingNumber, long inTime, long outTime, double price, double recurringUserPrice) {
+        this.sequence = sequence;
+        this.action = action;
+        this.vehicleRegNumber = vehicleRegNumber;
+        this.parkingType = parkingType;
+        this.parkingNumber = parkingNumber;
+        this.inTime = inTime;
+        this.outTime = outTime;
+        this.price = price;
+        this.recurringUserPrice = recurringUserPrice;
+    }
+
+    /**
+     * A ticket saved, usually open (outTime -1) at the entry of the vehicle.
+     */
+    public static JournalEvent entry(String vehicleRegNumber, ParkingType parkingType, int parkingNumber,
+                                     long inTime, long outTime, double price) {
+        return new JournalEvent(0, ParkingEvent.Action.ENTRY, vehicleRegNumber, parkingType, parkingNumber,
+                inTime, outTime, price, -1);
+    }
+
+    /**
+     * The open ticket of the vehicle closed at its exit, freeing its spot.
+     */
+    public static JournalEvent exit(String vehicleRegNumber, ParkingType parkingType, int parkingNumber,
+                                    long inTime, long outTime, double price) {
+        return exit(vehicleRegNumber, parkingType, parkingNumber, inTime, outTime, price, -1);
+    }
+
+    /**
+     * The exit of a vehicle whose visit count could not be read, priced without the recurring user discount.
+     * The discount is settled when the event is applied: the ticket is closed at recurringUserPrice if the
+     * vehicle turns out to be a regular.
+     */
+    public static JournalEvent exit(String vehicleRegNumber, ParkingType parkingType, int parkingNumber,
+                                    long inTime, long outTime, double price, double recurringUserPrice) {
+        return new JournalEvent(0, ParkingEvent.Action.EXIT, vehicleRegNumber, parkingType, parkingNumber,
+                inTime, outTime, price, recurringUserPrice);
+    }
+
+    /**
+     * @return the position of the event in the journal, 0 for an event not appended yet
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public ParkingEvent.Action getAction() {
+        return action;
+    }
+
+    public String getVehicleRegNumber() {
+        return vehicleRegNumber;
+    }
+
+    public ParkingType getParkingType() {
+        return parkingType;
+    }
+
+    public int getParkingNumber() {
+        return parkingNumber;
+    }
+
+    public long getInTime() {
+        return inTime;
+    }
+
+    public long getOutTime() {
+        return outTime;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    /**
+     * @return true for an exit whose recurring user discount is settled when it is applied
+     */
+    public boolean isDiscountPending() {
+        return recurringUserPrice >= 0;
+    }
+
+    /**
+     * @return the price of the stay with the recurring user discount, -1 unless the discount is pending
+     */
+    public double getRecurringUserPrice() {
+        return recurringUserPrice;
+    }
+}
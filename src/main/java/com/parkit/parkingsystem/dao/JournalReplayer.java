@@ -0,0 +1,412 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.metrics.MetricsRegistry;
+import com.parkit.parkingsystem.model.ParkingEvent;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Applies the events of an EventJournal to the tables, in order, by batches each committed in one transaction
+ * together with the sequence of its last event in journal_checkpoint. An event is thus applied exactly once, even
+ * when the process stops between a commit and the deletion of the journal segments. While the DB cannot be
+ * reached, batches are retried with a backoff doubling up to maxRetryMillis. A batch failing otherwise is applied
+ * again one event at a time, and an event the tables refuse (data or constraint error) is moved to
+ * journal_dead_letter with the error, so the events after it are still applied.
+ */
+public class JournalReplayer {
+
+    private static final Logger logger = LogManager.getLogger("JournalReplayer");
+
+    private static final LatencyHistogram BATCH_TIME = MetricsRegistry.getDefault().timer("JournalReplayer.batch");
+    private static final LongAdder REPLAYED = MetricsRegistry.getDefault().counter("JournalReplayer.replayed");
+    private static final LongAdder DEAD_LETTERS = MetricsRegistry.getDefault().counter("JournalReplayer.deadLetters");
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    // how long a read waits for the replayer to apply the events journaled before it
+    private static final long CATCH_UP_WAIT_MILLIS = Long.getLong("parkit.journal.readWaitMs", 1000L);
+
+    private final DataBaseConfig dataBaseConfig;
+    private final EventJournal journal;
+    // fed with the visit counts of the vehicles whose entries are applied, may be null
+    private final VisitCountCache visitCountCache;
+    private final int batchSize;
+    private final long retryMillis;
+    private final long maxRetryMillis;
+    private final Object replayLock = new Object();
+    private final Object sleepMonitor = new Object();
+    // notified after each batch of the background thread
+    private final Object progressMonitor = new Object();
+    private Thread thread;
+    private volatile boolean running;
+    // the last batch of the background thread failed
+    private volatile boolean failing;
+
+    // -1 until read from journal_checkpoint
+    private volatile long appliedSequence = -1;
+
+    /**
+     * @param batchSize events applied per transaction
+     * @param retryMillis wait before the first retry of a failed batch
+     */
+    public JournalReplayer(DataBaseConfig dataBaseConfig, EventJournal journal, int batchSize, long retryMillis,
+                           long maxRetryMillis) {
+        this(dataBaseConfig, journal, null, batchSize, retryMillis, maxRetryMillis);
+    }
+
+    /**
+     * @param visitCountCache cache given the visit count of each vehicle whose entry is applied, so that its exit
+     * does not have to read it from the DB
+     */
+    public JournalReplayer(DataBaseConfig dataBaseConfig, EventJournal journal, VisitCountCache visitCountCache,
+                           int batchSize, long retryMillis, long maxRetryMillis) {
+        this.dataBaseConfig = dataBaseConfig;
+        this.journal = journal;
+        this.visitCountCache = visitCountCache;
+        this.batchSize = batchSize;
+        this.retryMillis = retryMillis;
+        this.maxRetryMillis = maxRetryMillis;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "journal-replayer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the background thread, letting the batch in progress finish.
+     */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        synchronized (sleepMonitor) {
+            sleepMonitor.notifyAll();
+        }
+        synchronized (progressMonitor) {
+            progressMonitor.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void run() {
+        long wait = retryMillis;
+        while (running) {
+            try {
+                int applied = replayBatch();
+                failing = applied < 0;
+                synchronized (progressMonitor) {
+                    progressMonitor.notifyAll();
+                }
+                if (applied < 0) {
+                    synchronized (sleepMonitor) {
+                        if (running) {
+                            sleepMonitor.wait(wait);
+                        }
+                    }
+                    wait = Math.min(maxRetryMillis, wait * 2);
+                } else {
+                    wait = retryMillis;
+                    if (applied == 0) {
+                        journal.awaitSyncedAfter(appliedSequence, retryMillis);
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits, for at most parkit.journal.readWaitMs (default 1000), until the background thread has applied every
+     * event appended so far. Returns at once while the DB fails, the thread then waits before trying again.
+     * @return true if the events appended so far are applied
+     */
+    public boolean awaitCaughtUp() {
+        long target = journal.getLastSequence();
+        long deadline = System.currentTimeMillis() + CATCH_UP_WAIT_MILLIS;
+        try {
+            synchronized (progressMonitor) {
+                while (appliedSequence < target) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (failing || !running || wait <= 0) {
+                        return false;
+                    }
+                    progressMonitor.wait(wait);
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Applies, from the calling thread, every event appended so far and not applied yet, once it is on disk.
+     * @return false if a batch could not be applied
+     */
+    public boolean replayAll() {
+        try {
+            journal.awaitSynced(journal.getLastSequence());
+        } catch (Exception ex) {
+            logger.error("Error syncing the journal before replaying it", ex);
+            return false;
+        }
+        synchronized (replayLock) {
+            int applied;
+            do {
+                applied = replayBatch();
+            } while (applied > 0);
+            return applied == 0;
+        }
+    }
+
+    /**
+     * @return the number of events applied, -1 on error
+     */
+    private int replayBatch() {
+        synchronized (replayLock) {
+            return applyBatch();
+        }
+    }
+
+    private int applyBatch() {
+        long start = System.nanoTime();
+        Connection con = null;
+        List<JournalEvent> events = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            if (appliedSequence < 0) {
+                appliedSequence = readCheckpoint(con);
+            }
+            events = journal.read(appliedSequence, batchSize);
+            if (events.isEmpty()) {
+                return 0;
+            }
+            con.setAutoCommit(false);
+            Map<String, Integer> visitCounts = apply(con, events);
+            commit(con, events.get(events.size() - 1).getSequence(), visitCounts);
+            REPLAYED.add(events.size());
+            return events.size();
+        } catch (Exception ex) {
+            dataBaseConfig.rollback(con);
+            if (events == null || events.isEmpty()) {
+                logger.error("Error reading journal events after sequence " + appliedSequence, ex);
+                return -1;
+            }
+            logger.warn("Error replaying " + events.size() + " journal events after sequence " + appliedSequence
+                    + ", applying them one at a time", ex);
+            return applyOneByOne(con, events);
+        } finally {
+            dataBaseConfig.closeConnection(con);
+            BATCH_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Applies the events of a failed batch in a transaction each, so that a bad event cannot hold back the others.
+     * An event the tables refuse is set aside in journal_dead_letter, the replay goes on after it.
+     * @return the number of events applied or set aside, -1 if the DB failed
+     */
+    private int applyOneByOne(Connection con, List<JournalEvent> events) {
+        int count = 0;
+        for (JournalEvent event : events) {
+            try {
+                commit(con, event.getSequence(), apply(con, Collections.singletonList(event)));
+                REPLAYED.increment();
+            } catch (Exception ex) {
+                dataBaseConfig.rollback(con);
+                if (!isRefused(ex)) {
+                    logger.error("Error replaying journal event " + event.getSequence(), ex);
+                    return -1;
+                }
+                try {
+                    deadLetter(con, event, ex);
+                    commit(con, event.getSequence(), Collections.emptyMap());
+                    DEAD_LETTERS.increment();
+                    logger.error("Journal event " + event.getSequence() + " (" + event.getAction() + " of vehicle "
+                            + event.getVehicleRegNumber() + ") refused by the DB, moved to journal_dead_letter", ex);
+                } catch (Exception deadLetterError) {
+                    logger.error("Error setting aside journal event " + event.getSequence(), deadLetterError);
+                    dataBaseConfig.rollback(con);
+                    return -1;
+                }
+            }
+            count++;
+        }
+        return count;
+    }
+
+    // data and constraint errors come back whenever the event is applied, unlike lost connections, deadlocks or timeouts
+    private static boolean isRefused(Exception ex) {
+        if (ex instanceof SQLDataException || ex instanceof SQLIntegrityConstraintViolationException) {
+            return true;
+        }
+        String state = ex instanceof SQLException ? ((SQLException) ex).getSQLState() : null;
+        return state != null && (state.startsWith("22") || state.startsWith("23"));
+    }
+
+    /**
+     * @return the visit count of the vehicles entering, as of their entry
+     */
+    private Map<String, Integer> apply(Connection con, List<JournalEvent> events) throws SQLException {
+        Map<String, Integer> visitCounts = new HashMap<>();
+        PreparedStatement insertPs = null;
+        PreparedStatement visitPs = null;
+        PreparedStatement countPs = null;
+        PreparedStatement closePs = null;
+        PreparedStatement spotPs = null;
+        try {
+            insertPs = con.prepareStatement(DBConstants.SAVE_TICKET);
+            visitPs = con.prepareStatement(DBConstants.INCREMENT_VISIT_COUNT);
+            countPs = con.prepareStatement(DBConstants.GET_VISIT_COUNT);
+            closePs = con.prepareStatement(DBConstants.CLOSE_OPEN_TICKET_OF_VEHICLE);
+            spotPs = con.prepareStatement(DBConstants.UPDATE_PARKING_SPOT);
+            for (JournalEvent event : events) {
+                if (event.getAction() == ParkingEvent.Action.ENTRY) {
+                    insertPs.setInt(1, event.getParkingNumber());
+                    insertPs.setString(2, event.getVehicleRegNumber());
+                    insertPs.setDouble(3, event.getPrice());
+                    insertPs.setTimestamp(4, new Timestamp(event.getInTime()));
+                    insertPs.setTimestamp(5, event.getOutTime() < 0 ? null : new Timestamp(event.getOutTime()));
+                    insertPs.executeUpdate();
+                    visitPs.setString(1, event.getVehicleRegNumber());
+                    visitPs.executeUpdate();
+                    visitCounts.put(event.getVehicleRegNumber(), readVisitCount(countPs, event.getVehicleRegNumber()));
+                    if (event.getOutTime() < 0) {
+                        spotPs.setBoolean(1, false);
+                        spotPs.setInt(2, event.getParkingNumber());
+                        spotPs.executeUpdate();
+                    }
+                } else {
+                    double price = event.getPrice();
+                    // the entries of the vehicle are all applied by now, so is the open one
+                    if (event.isDiscountPending() && readVisitCount(countPs, event.getVehicleRegNumber()) > 1) {
+                        price = event.getRecurringUserPrice();
+                        logger.info("Vehicle " + event.getVehicleRegNumber() + " is a regular: its exit at journal"
+                                + " sequence " + event.getSequence() + ", charged " + event.getPrice()
+                                + " without the discount, is closed at " + price);
+                    }
+                    closePs.setDouble(1, price);
+                    closePs.setTimestamp(2, new Timestamp(event.getOutTime()));
+                    closePs.setString(3, event.getVehicleRegNumber());
+                    if (closePs.executeUpdate() == 0) {
+                        logger.warn("No open ticket to close for vehicle " + event.getVehicleRegNumber()
+                                + " at journal sequence " + event.getSequence());
+                    }
+                    spotPs.setBoolean(1, true);
+                    spotPs.setInt(2, event.getParkingNumber());
+                    spotPs.executeUpdate();
+                }
+            }
+        } finally {
+            dataBaseConfig.closePreparedStatement(insertPs);
+            dataBaseConfig.closePreparedStatement(visitPs);
+            dataBaseConfig.closePreparedStatement(countPs);
+            dataBaseConfig.closePreparedStatement(closePs);
+            dataBaseConfig.closePreparedStatement(spotPs);
+        }
+        return visitCounts;
+    }
+
+    private int readVisitCount(PreparedStatement countPs, String vehicleRegNumber) throws SQLException {
+        countPs.setString(1, vehicleRegNumber);
+        ResultSet rs = countPs.executeQuery();
+        try {
+            return rs.next() ? rs.getInt(1) : 0;
+        } finally {
+            dataBaseConfig.closeResultSet(rs);
+        }
+    }
+
+    private void deadLetter(Connection con, JournalEvent event, Exception error) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(DBConstants.SAVE_JOURNAL_DEAD_LETTER);
+        try {
+            String message = String.valueOf(error.getMessage());
+            ps.setString(1, journal.getJournalId());
+            ps.setLong(2, event.getSequence());
+            ps.setString(3, event.getAction().name());
+            ps.setString(4, event.getParkingType().name());
+            ps.setInt(5, event.getParkingNumber());
+            ps.setString(6, event.getVehicleRegNumber());
+            ps.setDouble(7, event.getPrice());
+            ps.setTimestamp(8, new Timestamp(event.getInTime()));
+            ps.setTimestamp(9, event.getOutTime() < 0 ? null : new Timestamp(event.getOutTime()));
+            ps.setString(10, message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message);
+            ps.executeUpdate();
+        } finally {
+            dataBaseConfig.closePreparedStatement(ps);
+        }
+    }
+
+    // records that the events up to this sequence are applied, along with them
+    private void commit(Connection con, long lastSequence, Map<String, Integer> visitCounts) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(DBConstants.SAVE_JOURNAL_CHECKPOINT);
+        try {
+            ps.setString(1, journal.getJournalId());
+            ps.setLong(2, lastSequence);
+            ps.setLong(3, lastSequence);
+            ps.executeUpdate();
+        } finally {
+            dataBaseConfig.closePreparedStatement(ps);
+        }
+        con.commit();
+        appliedSequence = lastSequence;
+        journal.release(lastSequence);
+        if (visitCountCache != null) {
+            visitCounts.forEach(visitCountCache::put);
+        }
+    }
+
+    private long readCheckpoint(Connection con) throws Exception {
+        PreparedStatement ps = con.prepareStatement(DBConstants.GET_JOURNAL_CHECKPOINT);
+        ps.setString(1, journal.getJournalId());
+        ResultSet rs = ps.executeQuery();
+        long sequence = rs.next() ? rs.getLong(1) : 0;
+        dataBaseConfig.closeResultSet(rs);
+        dataBaseConfig.closePreparedStatement(ps);
+        return sequence;
+    }
+
+    /**
+     * @return the sequence of the last event applied to the DB, -1 until the DB has been reached
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * @return the number of journaled events not applied yet, counting them all until the DB has been reached
+     */
+    public long getLag() {
+        return journal.getLastSequence() - Math.max(0, appliedSequence);
+    }
+}
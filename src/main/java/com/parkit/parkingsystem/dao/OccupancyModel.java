@@ -0,0 +1,219 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+
+import com.parkit.parkingsystem.util.DecayingAverage;
+import com.parkit.parkingsystem.util.RunningIntegral;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live count of free and occupied spots per parking type, seeded from the parking table and kept up to date by
+ * FreeSpotIndex on every change of a spot. Counters are striped, so gates updating them at once do not contend,
+ * and reading one sums a few cells: polls are served without touching the database.
+ * The fill ratio of each type is also integrated over time (see RunningIntegral), so that its average over the stay
+ * of a vehicle comes from a reading at entry and one at exit, and averaged over time (see DecayingAverage) with a
+ * half-life of -Dparkit.pricing.halfLifeMinutes (default 60), for the stays without a reading at entry. Both are
+ * updated on every change rather than polled.
+ * Their time is that of the vehicles let in and out (see advanceClock), not the wall clock, so that the streams
+ * replayed at full speed and the entries and exits given with their own time are priced on the fill over their stay.
+ * The series start at the time of the first vehicle, with the fill read from the parking table.
+ * Free spots are also counted per zone (ZONE column of the parking table) and type, the zone of each spot looked up by
+ * its parking number; spots without a zone are counted in the zone "".
+ */
+public class OccupancyModel {
+
+    private final int[] capacity = new int[ParkingType.values().length];
+    private static final long HALF_LIFE_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong("parkit.pricing.halfLifeMinutes", 60L));
+
+    private final LongAdder[] available = new LongAdder[ParkingType.values().length];
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    // replaced once, when the first vehicle sets the clock
+    private volatile DecayingAverage[] averageFill;
+    private volatile RunningIntegral[] fillIntegral;
+    // latest time of a vehicle let in or out, NO_TIME before the first one
+    private final AtomicLong clock = new AtomicLong(NO_TIME);
+
+    // zone name -> index in the per zone counters, in the order first seen
+    private final Map<String, Integer> zones = new LinkedHashMap<>();
+    // per type, the zone index of each parking number
+    private final int[][] zoneOf = new int[ParkingType.values().length][];
+    // per type and zone index
+    private final int[][] zoneCapacity;
+    private final LongAdder[][] zoneAvailable;
+
+    public OccupancyModel(Collection<ParkingSpot> spots) {
+        for (int i = 0; i < available.length; i++) {
+            available[i] = new LongAdder();
+        }
+        int[] maxNumber = new int[available.length];
+        for (ParkingSpot spot : spots) {
+            int type = spot.getParkingType().ordinal();
+            capacity[type]++;
+            if (spot.isAvailable()) {
+                available[type].increment();
+            }
+            maxNumber[type] = Math.max(maxNumber[type], spot.getId());
+            zones.putIfAbsent(zoneName(spot), zones.size());
+        }
+        zoneCapacity = new int[available.length][zones.size()];
+        zoneAvailable = new LongAdder[available.length][zones.size()];
+        for (int type = 0; type < available.length; type++) {
+            zoneOf[type] = new int[maxNumber[type] + 1];
+            for (int zone = 0; zone < zones.size(); zone++) {
+                zoneAvailable[type][zone] = new LongAdder();
+            }
+        }
+        for (ParkingSpot spot : spots) {
+            int type = spot.getParkingType().ordinal();
+            int zone = zones.get(zoneName(spot));
+            zoneOf[type][spot.getId()] = zone;
+            zoneCapacity[type][zone]++;
+            if (spot.isAvailable()) {
+                zoneAvailable[type][zone].increment();
+            }
+        }
+        startSeries(System.currentTimeMillis());
+    }
+
+    private void startSeries(long timeMillis) {
+        DecayingAverage[] averages = new DecayingAverage[ParkingType.values().length];
+        RunningIntegral[] integrals = new RunningIntegral[ParkingType.values().length];
+        for (ParkingType parkingType : ParkingType.values()) {
+            averages[parkingType.ordinal()] = new DecayingAverage(HALF_LIFE_MILLIS, getFillRatio(parkingType), timeMillis);
+            integrals[parkingType.ordinal()] = new RunningIntegral(getFillRatio(parkingType), timeMillis);
+        }
+        averageFill = averages;
+        fillIntegral = integrals;
+    }
+
+    /**
+     * Moves the clock of the fill series to the time of a vehicle let in or out, before its spot changes state.
+     * The clock never goes back: a time older than the latest one counts as the latest one.
+     */
+    public void advanceClock(long timeMillis) {
+        if (clock.get() == NO_TIME) {
+            synchronized (this) {
+                if (clock.get() == NO_TIME) {
+                    // the series start with this vehicle, whatever the time it carries
+                    startSeries(timeMillis);
+                    clock.set(timeMillis);
+                    return;
+                }
+            }
+        }
+        clock.accumulateAndGet(timeMillis, Math::max);
+    }
+
+    // time of the series: that of the latest vehicle, the wall clock before the first one
+    private long now() {
+        long time = clock.get();
+        return time != NO_TIME ? time : System.currentTimeMillis();
+    }
+
+    private static String zoneName(ParkingSpot spot) {
+        return spot.getZone() != null ? spot.getZone() : "";
+    }
+
+    void spotFreed(ParkingType parkingType, int parkingNumber) {
+        available[parkingType.ordinal()].increment();
+        zoneAvailable(parkingType, parkingNumber).increment();
+        fillChanged(parkingType);
+    }
+
+    void spotTaken(ParkingType parkingType, int parkingNumber) {
+        available[parkingType.ordinal()].decrement();
+        zoneAvailable(parkingType, parkingNumber).decrement();
+        fillChanged(parkingType);
+    }
+
+    private LongAdder zoneAvailable(ParkingType parkingType, int parkingNumber) {
+        int type = parkingType.ordinal();
+        return zoneAvailable[type][zoneOf[type][parkingNumber]];
+    }
+
+    private void fillChanged(ParkingType parkingType) {
+        long now = now();
+        averageFill[parkingType.ordinal()].update(() -> getFillRatio(parkingType), now);
+        fillIntegral[parkingType.ordinal()].update(() -> getFillRatio(parkingType), now);
+    }
+
+    public int getCapacity(ParkingType parkingType) {
+        return capacity[parkingType.ordinal()];
+    }
+
+    public int getAvailable(ParkingType parkingType) {
+        return (int) available[parkingType.ordinal()].sum();
+    }
+
+    public int getOccupied(ParkingType parkingType) {
+        return getCapacity(parkingType) - getAvailable(parkingType);
+    }
+
+    /**
+     * @return the zones of the lot in the order of the parking table, "" standing for the spots without a zone
+     */
+    public List<String> getZones() {
+        return Collections.unmodifiableList(new ArrayList<>(zones.keySet()));
+    }
+
+    /**
+     * @return the number of spots of this type in the zone, 0 for an unknown zone
+     */
+    public int getCapacity(ParkingType parkingType, String zone) {
+        Integer index = zones.get(zone);
+        return index != null ? zoneCapacity[parkingType.ordinal()][index] : 0;
+    }
+
+    public int getAvailable(ParkingType parkingType, String zone) {
+        Integer index = zones.get(zone);
+        return index != null ? (int) zoneAvailable[parkingType.ordinal()][index].sum() : 0;
+    }
+
+    public int getOccupied(ParkingType parkingType, String zone) {
+        return getCapacity(parkingType, zone) - getAvailable(parkingType, zone);
+    }
+
+    /**
+     * @return the share of the spots of this type occupied now, from 0 to 1, 0 for a type without spots
+     */
+    public double getFillRatio(ParkingType parkingType) {
+        int capacity = getCapacity(parkingType);
+        return capacity > 0 ? Math.min(1, Math.max(0, (double) getOccupied(parkingType) / capacity)) : 0;
+    }
+
+    /**
+     * @return the fill ratio of this type averaged up to the latest vehicle, recent moments weighing more
+     */
+    public double getAverageFillRatio(ParkingType parkingType) {
+        return averageFill[parkingType.ordinal()].get(now());
+    }
+
+    /**
+     * Reads the fill ratio of this type integrated over time up to the entry time of a vehicle, to be recorded on
+     * its ticket (see Ticket.setEntryFill).
+     * @return the integral, in fill-milliseconds
+     */
+    public double getFillIntegral(ParkingType parkingType, long timeMillis) {
+        return fillIntegral[parkingType.ordinal()].get(timeMillis);
+    }
+
+    /**
+     * @return the fill ratio of this type averaged from the reading of its integral at this time up to the exit
+     * time, the part of the stay before the series started not counted
+     */
+    public double getAverageFillRatioSince(ParkingType parkingType, double fillIntegral, long timeMillis,
+                                           long exitTimeMillis) {
+        return this.fillIntegral[parkingType.ordinal()].averageSince(fillIntegral, timeMillis, exitTimeMillis);
+    }
+}
@@ -0,0 +1,77 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.model.Ticket;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of the tickets without out time, keyed by registration number.
+ * Like the free spot index, it assumes this process is the only one writing tickets.
+ */
+public class OpenTicketRegistry {
+
+    private final ConcurrentHashMap<String, Ticket> openTickets = new ConcurrentHashMap<>();
+
+    public void load(Collection<Ticket> tickets) {
+        openTickets.clear();
+        for (Ticket ticket : tickets) {
+            openTickets.put(ticket.getVehicleRegNumber(), ticket);
+        }
+    }
+
+    /**
+     * @return the registered ticket itself, callers must not modify it
+     */
+    public Ticket get(String vehicleRegNumber) {
+        return openTickets.get(vehicleRegNumber);
+    }
+
+    public void put(Ticket ticket) {
+        openTickets.put(ticket.getVehicleRegNumber(), ticket);
+    }
+
+    /**
+     * Removes this exact ticket, leaves a newer ticket of the same vehicle in place.
+     */
+    public void remove(Ticket ticket) {
+        openTickets.remove(ticket.getVehicleRegNumber(), ticket);
+    }
+
+    public void close(String vehicleRegNumber, int ticketId) {
+        openTickets.computeIfPresent(vehicleRegNumber, (key, ticket) -> ticket.getId() == ticketId ? null : ticket);
+    }
+
+    /**
+     * Removes the ticket of the vehicle if it is the one of the stay starting at this time, whatever its id
+     * (tickets of the journal mode have none yet).
+     * @return the ticket removed, null if the stay is no longer open
+     */
+    public Ticket closeStay(String vehicleRegNumber, Date inTime) {
+        Ticket[] removed = new Ticket[1];
+        openTickets.computeIfPresent(vehicleRegNumber, (key, ticket) -> {
+            if (ticket.getInTime().getTime() != inTime.getTime()) {
+                return ticket;
+            }
+            removed[0] = ticket;
+            return null;
+        });
+        return removed[0];
+    }
+
+    public void updateInTime(String vehicleRegNumber, int ticketId, Date inTime) {
+        openTickets.computeIfPresent(vehicleRegNumber, (key, ticket) -> {
+            if (ticket.getId() != ticketId) {
+                return ticket;
+            }
+            Ticket updated = new Ticket(ticket);
+            updated.setInTime(inTime);
+            return updated;
+        });
+    }
+
+    public int size() {
+        return openTickets.size();
+    }
+}
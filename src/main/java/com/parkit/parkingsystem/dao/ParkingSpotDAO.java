@@ -3,57 +3,433 @@ package com.parkit.parkingsystem.dao;
 import com.parkit.parkingsystem.config.DataBaseConfig;
 import com.parkit.parkingsystem.constants.DBConstants;
 import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.metrics.MetricsRegistry;
 import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.tracing.Span;
+import com.parkit.parkingsystem.tracing.Tracer;
+import com.parkit.parkingsystem.util.LatencyHistogram;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class ParkingSpotDAO {
     private static final Logger logger = LogManager.getLogger("ParkingSpotDAO");
 
+    // durations of the public methods, including the calls served from memory; within a trace each call is a span
+    private static final LatencyHistogram GET_NEXT_AVAILABLE_SLOT_TIME = MetricsRegistry.getDefault().timer("ParkingSpotDAO.getNextAvailableSlot");
+    private static final LatencyHistogram COUNT_AVAILABLE_SLOTS_TIME = MetricsRegistry.getDefault().timer("ParkingSpotDAO.countAvailableSlots");
+    private static final LatencyHistogram UPDATE_PARKING_TIME = MetricsRegistry.getDefault().timer("ParkingSpotDAO.updateParking");
+    private static final LatencyHistogram CLAIM_PARKING_SPOT_TIME = MetricsRegistry.getDefault().timer("ParkingSpotDAO.claimParkingSpot");
+    private static final LatencyHistogram CLAIM_NEXT_AVAILABLE_SLOT_TIME = MetricsRegistry.getDefault().timer("ParkingSpotDAO.claimNextAvailableSlot");
+    private static final LatencyHistogram GET_PARKING_SPOTS_TIME = MetricsRegistry.getDefault().timer("ParkingSpotDAO.getParkingSpots");
+
+    // wait after a failed load of the free spot index before a call loads it again, the table is queried meanwhile
+    private static final long INDEX_RETRY_MILLIS = Long.getLong("parkit.spotIndex.retryMs", 5000L);
+
+    // outcomes of a spot claim
+    private static final int CLAIMED = 0;
+    private static final int ALREADY_TAKEN = 1;
+    private static final int CLAIM_ERROR = 2;
+
     public DataBaseConfig dataBaseConfig = new DataBaseConfig();
 
+    // lot whose parking table dataBaseConfig points to, set on the spots read
+    public String lotId = ParkingSpot.DEFAULT_LOT_ID;
+
+    // loaded on first use, null until then or when it could not be loaded
+    private volatile FreeSpotIndex freeSpotIndex;
+
+    // System.nanoTime() before which getFreeSpotIndex does not load the index, set when a load fails
+    private volatile long nextIndexLoad;
+    private volatile boolean indexLoadFailed;
+
+    // null unless journal mode is enabled
+    private volatile JournalReplayer journalReplayer;
+
+    // null unless reservations are enabled
+    private volatile ReservationDAO reservationDAO;
+
+    // null to hand out the lowest free parking number
+    private volatile SpotAllocationStrategy allocationStrategy;
+
+    /**
+     * Switches to journal mode, along with TicketDAO.enableJournal: spots are claimed and released in the free spot
+     * index only, the replayer of the ticket journal updates the parking table as it applies the tickets.
+     */
+    public synchronized void enableJournal(JournalReplayer replayer){
+        journalReplayer = replayer;
+        // the parking table has the spots of the journaled tickets once the replayer has applied them
+        if(!loadFreeSpotIndex()){
+            // the index loaded before may miss journaled tickets, it is loaded again on first use
+            freeSpotIndex = null;
+        }
+    }
+
+    public void disableJournal(){
+        journalReplayer = null;
+    }
+
+    /**
+     * Sets how the free spot index picks the next spot and reloads it. The lowest free parking number is still
+     * picked when the index could not be loaded and spots are looked for in the parking table.
+     * @param strategy null for the lowest free parking number
+     * @return false if the index could not be reloaded
+     */
+    public boolean setAllocationStrategy(SpotAllocationStrategy strategy){
+        allocationStrategy = strategy;
+        return loadFreeSpotIndex();
+    }
+
+    /**
+     * Makes walk-in vehicles leave free the spots held for the reservations about to start, see getNextAvailableSlot.
+     */
+    public void setReservationDAO(ReservationDAO reservationDAO){
+        this.reservationDAO = reservationDAO;
+    }
+
+    /**
+     * Next spot for a vehicle without reservation.
+     */
     public int getNextAvailableSlot(ParkingType parkingType){
-        Connection con = null;
-        int result=-1;
+        return getNextAvailableSlot(parkingType, false);
+    }
+
+    /**
+     * @param reserved true for a vehicle arriving for its reservation, false for a walk-in vehicle, which only gets
+     * a spot if more spots are free than held for the reservations starting soon or started and not arrived yet
+     * @return the lowest available parking number of this type, 0 if there is none, -1 on error
+     */
+    public int getNextAvailableSlot(ParkingType parkingType, boolean reserved){
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("ParkingSpotDAO.getNextAvailableSlot", null);
         try {
-            con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.GET_NEXT_PARKING_SPOT);
-            ps.setString(1, parkingType.toString());
-            ResultSet rs = ps.executeQuery();
-            if(rs.next()){
-                result = rs.getInt(1);;
+            FreeSpotIndex index = getFreeSpotIndex();
+            if(!reserved && !leavesHeldSpots(parkingType, index)){
+                return 0;
             }
-            dataBaseConfig.closeResultSet(rs);
-            dataBaseConfig.closePreparedStatement(ps);
-        }catch (Exception ex){
-            logger.error("Error fetching next available slot",ex);
-        }finally {
-            dataBaseConfig.closeConnection(con);
+            if(index != null){
+                return index.firstAvailable(parkingType);
+            }
+            Connection con = null;
+            int result=-1;
+            try {
+                con = dataBaseConfig.getConnection();
+                PreparedStatement ps = con.prepareStatement(DBConstants.GET_NEXT_PARKING_SPOT);
+                ps.setString(1, parkingType.toString());
+                ResultSet rs = ps.executeQuery();
+                if(rs.next()){
+                    result = rs.getInt(1);;
+                }
+                dataBaseConfig.closeResultSet(rs);
+                dataBaseConfig.closePreparedStatement(ps);
+                // the table answers again, the index is loaded on the next call
+                indexLoadFailed = false;
+            }catch (Exception ex){
+                logger.error("Error fetching next available slot",ex);
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+            return result;
+        } finally {
+            span.end();
+            GET_NEXT_AVAILABLE_SLOT_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the number of free spots of this type, -1 if it could not be read
+     */
+    public int countAvailableSlots(ParkingType parkingType){
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("ParkingSpotDAO.countAvailableSlots", null);
+        try {
+            FreeSpotIndex index = getFreeSpotIndex();
+            if(index != null){
+                return index.countAvailable(parkingType);
+            }
+            Connection con = null;
+            int result=-1;
+            try {
+                con = dataBaseConfig.getConnection();
+                PreparedStatement ps = con.prepareStatement(DBConstants.COUNT_AVAILABLE_PARKING_SPOTS);
+                ps.setString(1, parkingType.toString());
+                ResultSet rs = ps.executeQuery();
+                if(rs.next()){
+                    result = rs.getInt(1);
+                }
+                dataBaseConfig.closeResultSet(rs);
+                dataBaseConfig.closePreparedStatement(ps);
+                // the table answers again, the index is loaded on the next call
+                indexLoadFailed = false;
+            }catch (Exception ex){
+                logger.error("Error counting available slots",ex);
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+            return result;
+        } finally {
+            span.end();
+            COUNT_AVAILABLE_SLOTS_TIME.record(System.nanoTime() - start);
         }
-        return result;
+    }
+
+    /**
+     * @return the live count of free and occupied spots per type, null if the parking table could not be read
+     */
+    public OccupancyModel getOccupancy(){
+        FreeSpotIndex index = getFreeSpotIndex();
+        return index != null ? index.getOccupancy() : null;
     }
 
     public boolean updateParking(ParkingSpot parkingSpot){
-        //update the availability fo that parking slot
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("ParkingSpotDAO.updateParking", null);
+        try {
+            if(journalReplayer != null){
+                // written to the parking table along with the journaled ticket
+                updateFreeSpotIndex(parkingSpot);
+                return true;
+            }
+            //update the availability fo that parking slot
+            Connection con = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_PARKING_SPOT);
+                ps.setBoolean(1, parkingSpot.isAvailable());
+                ps.setInt(2, parkingSpot.getId());
+                int updateRowCount = ps.executeUpdate();
+                dataBaseConfig.closePreparedStatement(ps);
+                if(updateRowCount == 1){
+                    updateFreeSpotIndex(parkingSpot);
+                }
+                return (updateRowCount == 1);
+            }catch (Exception ex){
+                logger.error("Error updating parking info",ex);
+                return false;
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+        } finally {
+            span.end();
+            UPDATE_PARKING_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Marks the spot as occupied, only if it is still available.
+     * @return false if another gate claimed it first or the DB could not be updated
+     */
+    public boolean claimParkingSpot(ParkingSpot parkingSpot){
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("ParkingSpotDAO.claimParkingSpot", null);
+        try {
+            return claim(parkingSpot) == CLAIMED;
+        } finally {
+            span.end();
+            CLAIM_PARKING_SPOT_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Claims the lowest available spot of this type for a vehicle without reservation.
+     */
+    public int claimNextAvailableSlot(ParkingType parkingType){
+        return claimNextAvailableSlot(parkingType, false);
+    }
+
+    /**
+     * Claims the lowest available spot of this type. When another gate wins the race for a spot,
+     * the next candidate is tried.
+     * @param reserved see getNextAvailableSlot
+     * @return the claimed parking number, 0 if no spot is available, -1 on error
+     */
+    public int claimNextAvailableSlot(ParkingType parkingType, boolean reserved){
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("ParkingSpotDAO.claimNextAvailableSlot", null);
+        try {
+            while(true){
+                int parkingNumber = getNextAvailableSlot(parkingType, reserved);
+                if(parkingNumber <= 0){
+                    return parkingNumber;
+                }
+                // every lost race means that spot is gone from the free ones, so this loop ends
+                int status = claim(new ParkingSpot(lotId, parkingNumber, parkingType, true));
+                if(status == CLAIMED){
+                    return parkingNumber;
+                }
+                if(status == CLAIM_ERROR){
+                    return -1;
+                }
+            }
+        } finally {
+            span.end();
+            CLAIM_NEXT_AVAILABLE_SLOT_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    // gates checking at the same time may both pass, the hold is a soft limit
+    private boolean leavesHeldSpots(ParkingType parkingType, FreeSpotIndex index){
+        ReservationDAO reservations = reservationDAO;
+        int held = reservations != null ? reservations.getHeldSpots(parkingType) : 0;
+        if(held == 0){
+            return true;
+        }
+        int available = index != null ? index.countAvailable(parkingType) : countAvailableSlots(parkingType);
+        return available > held;
+    }
+
+    private int claim(ParkingSpot parkingSpot){
+        FreeSpotIndex index = getFreeSpotIndex();
+        boolean indexed = index != null && index.contains(parkingSpot.getParkingType(), parkingSpot.getId());
+        if(journalReplayer != null){
+            // written to the parking table along with the journaled ticket
+            if(!indexed){
+                return CLAIM_ERROR;
+            }
+            if(!index.claim(parkingSpot.getParkingType(), parkingSpot.getId())){
+                return ALREADY_TAKEN;
+            }
+            parkingSpot.setAvailable(false);
+            return CLAIMED;
+        }
+        // gates of this process race on the index first, so only the winner goes to the DB
+        if(indexed && !index.claim(parkingSpot.getParkingType(), parkingSpot.getId())){
+            return ALREADY_TAKEN;
+        }
         Connection con = null;
         try {
             con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_PARKING_SPOT);
-            ps.setBoolean(1, parkingSpot.isAvailable());
-            ps.setInt(2, parkingSpot.getId());
+            PreparedStatement ps = con.prepareStatement(DBConstants.CLAIM_PARKING_SPOT);
+            ps.setInt(1, parkingSpot.getId());
             int updateRowCount = ps.executeUpdate();
             dataBaseConfig.closePreparedStatement(ps);
-            return (updateRowCount == 1);
+            if(updateRowCount == 1){
+                parkingSpot.setAvailable(false);
+                return CLAIMED;
+            }
+            // taken by another process, the index was right to drop it
+            return ALREADY_TAKEN;
         }catch (Exception ex){
-            logger.error("Error updating parking info",ex);
-            return false;
+            logger.error("Error claiming parking spot " + parkingSpot.getId(),ex);
+            if(indexed){
+                index.markAvailable(parkingSpot.getParkingType(), parkingSpot.getId());
+            }
+            return CLAIM_ERROR;
         }finally {
             dataBaseConfig.closeConnection(con);
         }
     }
 
+    /**
+     * Records in the free spot index a spot freed in the DB outside of this DAO (see TicketDAO.closeTicket).
+     */
+    public void parkingSpotReleased(ParkingSpot parkingSpot){
+        ParkingSpot released = new ParkingSpot(parkingSpot.getLotId(), parkingSpot.getId(), parkingSpot.getParkingType(), true);
+        updateFreeSpotIndex(released);
+    }
+
+    public List<ParkingSpot> getParkingSpots(){
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("ParkingSpotDAO.getParkingSpots", null);
+        try {
+            Connection con = null;
+            List<ParkingSpot> parkingSpots = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                PreparedStatement ps = con.prepareStatement(DBConstants.GET_PARKING_SPOTS);
+                ResultSet rs = ps.executeQuery();
+                parkingSpots = new ArrayList<>();
+                while(rs.next()){
+                    ParkingSpot parkingSpot = new ParkingSpot(lotId, rs.getInt(1), ParkingType.valueOf(rs.getString(3)), rs.getBoolean(2));
+                    parkingSpot.setZone(rs.getString(4));
+                    parkingSpot.setDistance(rs.getInt(5));
+                    parkingSpots.add(parkingSpot);
+                }
+                dataBaseConfig.closeResultSet(rs);
+                dataBaseConfig.closePreparedStatement(ps);
+            }catch (Exception ex){
+                logger.error("Error fetching parking spots",ex);
+                parkingSpots = null;
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+            return parkingSpots;
+        } finally {
+            span.end();
+            GET_PARKING_SPOTS_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * (Re)loads the in-memory index of free spots from the parking table.
+     * Needed after the parking table has been changed outside of this DAO.
+     * @return false if the table could not be read, the DAO then falls back to querying the table. In journal
+     * mode, false if the journal could not be applied first, the index is then kept.
+     */
+    public synchronized boolean loadFreeSpotIndex(){
+        JournalReplayer replayer = journalReplayer;
+        if(replayer != null && !replayer.awaitCaughtUp()){
+            // the table misses journaled changes, the index is more up to date than it
+            return false;
+        }
+        List<ParkingSpot> parkingSpots = getParkingSpots();
+        if(parkingSpots == null){
+            freeSpotIndex = null;
+            nextIndexLoad = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(INDEX_RETRY_MILLIS);
+            indexLoadFailed = true;
+            return false;
+        }
+        freeSpotIndex = new FreeSpotIndex(parkingSpots, allocationStrategy);
+        indexLoadFailed = false;
+        logger.info("Loaded free spot index for " + parkingSpots.size() + " parking spots");
+        return true;
+    }
+
+    /**
+     * @return the index, loading it on first use, or null while it could not be loaded: after a failed load, calls
+     * go to the parking table without trying again for INDEX_RETRY_MILLIS or until the table answers, so a database
+     * down does not make every call wait for the monitor and a full scan
+     */
+    private FreeSpotIndex getFreeSpotIndex(){
+        FreeSpotIndex index = freeSpotIndex;
+        if(index == null && !indexLoadDue()){
+            return null;
+        }
+        if(index == null){
+            synchronized (this){
+                // the gates waiting here while a load failed do not try again
+                if(freeSpotIndex == null && indexLoadDue()){
+                    loadFreeSpotIndex();
+                }
+                index = freeSpotIndex;
+            }
+        }
+        return index;
+    }
+
+    private boolean indexLoadDue(){
+        return !indexLoadFailed || System.nanoTime() - nextIndexLoad >= 0;
+    }
+
+    private void updateFreeSpotIndex(ParkingSpot parkingSpot){
+        FreeSpotIndex index = freeSpotIndex;
+        if(index == null){
+            return;
+        }
+        if(!index.contains(parkingSpot.getParkingType(), parkingSpot.getId())){
+            // a spot added to the table after the index was loaded
+            loadFreeSpotIndex();
+        }else if(parkingSpot.isAvailable()){
+            index.markAvailable(parkingSpot.getParkingType(), parkingSpot.getId());
+        }else{
+            index.markOccupied(parkingSpot.getParkingType(), parkingSpot.getId());
+        }
+    }
+
 }
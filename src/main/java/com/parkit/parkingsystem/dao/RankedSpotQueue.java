@@ -0,0 +1,67 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.model.ParkingSpot;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Free spots sorted by a rank given when each spot is freed, then by parking number, in a skip list: peek, add and
+ * remove are O(log n) and never block each other.
+ */
+class RankedSpotQueue implements FreeSpotQueue {
+
+    // the parking number takes the low bits of a key, the rank the high ones
+    private static final int NUMBER_BITS = 24;
+    static final long MAX_RANK = Long.MAX_VALUE >>> NUMBER_BITS;
+
+    private final ConcurrentSkipListSet<Long> free = new ConcurrentSkipListSet<>();
+    // key of each parking number in free, -1 when not in it; guarded by the lock FreeSpotIndex holds for the number
+    private final long[] keys;
+    private final IntToLongFunction rank;
+
+    /**
+     * @param rank of a spot being freed, from 0 to MAX_RANK, lowest first
+     */
+    RankedSpotQueue(int maxNumber, IntToLongFunction rank) {
+        if (maxNumber >= 1 << NUMBER_BITS) {
+            throw new IllegalArgumentException("Parking number too high: " + maxNumber);
+        }
+        this.keys = new long[maxNumber + 1];
+        Arrays.fill(keys, -1);
+        this.rank = rank;
+    }
+
+    @Override
+    public int peek() {
+        Long first = free.ceiling(0L);
+        return first != null ? (int) (first & ((1 << NUMBER_BITS) - 1)) : 0;
+    }
+
+    @Override
+    public void add(int parkingNumber) {
+        remove(parkingNumber);
+        long key = (Math.min(MAX_RANK, rank.applyAsLong(parkingNumber)) << NUMBER_BITS) | parkingNumber;
+        keys[parkingNumber] = key;
+        free.add(key);
+    }
+
+    @Override
+    public void remove(int parkingNumber) {
+        long key = keys[parkingNumber];
+        if (key >= 0) {
+            free.remove(key);
+            keys[parkingNumber] = -1;
+        }
+    }
+
+    static int maxNumber(List<ParkingSpot> spots) {
+        int maxNumber = 0;
+        for (ParkingSpot spot : spots) {
+            maxNumber = Math.max(maxNumber, spot.getId());
+        }
+        return maxNumber;
+    }
+}
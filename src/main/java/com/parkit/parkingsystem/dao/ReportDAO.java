@@ -0,0 +1,165 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.metrics.MetricsRegistry;
+import com.parkit.parkingsystem.tracing.Span;
+import com.parkit.parkingsystem.tracing.Tracer;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Reads the ticket history for reports. Tickets are streamed row by row from a forward-only cursor and handed
+ * over as plain values, without building a Ticket per row, so scanning any number of tickets takes the memory
+ * of one fetch.
+ */
+public class ReportDAO {
+
+    private static final Logger logger = LogManager.getLogger("ReportDAO");
+
+    private static final LatencyHistogram SCAN_TICKETS_TIME = MetricsRegistry.getDefault().timer("ReportDAO.scanTickets");
+    private static final LatencyHistogram SCAN_TICKET_HISTORY_TIME = MetricsRegistry.getDefault().timer("ReportDAO.scanTicketHistory");
+
+    public DataBaseConfig dataBaseConfig = new DataBaseConfig();
+
+    // rows fetched per round trip; MySQL Connector/J only streams with Integer.MIN_VALUE, used for it instead
+    public int fetchSize = Integer.getInteger("parkit.report.fetchSize", 1000);
+
+    /**
+     * Receives the tickets scanned, one call per row.
+     */
+    public interface TicketRowHandler {
+        /**
+         * @param outTime epoch milliseconds, -1 while the vehicle is still parked
+         */
+        void onTicket(ParkingType parkingType, long inTime, long outTime, double price);
+    }
+
+    /**
+     * Receives the tickets scanned with their vehicle, one call per row.
+     */
+    public interface TicketHistoryHandler {
+        /**
+         * @param outTime epoch milliseconds, -1 while the vehicle is still parked
+         */
+        void onTicket(String vehicleRegNumber, int parkingNumber, ParkingType parkingType, long inTime, long outTime,
+                      double price);
+    }
+
+    /**
+     * Streams the tickets, archived ones included, that entered from enteredFrom (inclusive) to enteredTo
+     * (exclusive) and were still parked at presentFrom or later.
+     * @return the number of tickets scanned, -1 if the scan failed
+     */
+    public long scanTickets(Date enteredFrom, Date enteredTo, Date presentFrom, TicketRowHandler handler) {
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("ReportDAO.scanTickets", null);
+        try {
+            Connection con = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                ParkingType[] parkingTypes = readParkingTypes(con);
+                boolean mySql = "MySQL".equals(con.getMetaData().getDatabaseProductName());
+                PreparedStatement ps = con.prepareStatement(DBConstants.SCAN_TICKETS,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                ps.setFetchSize(mySql ? Integer.MIN_VALUE : fetchSize);
+                // same bounds for the ticket and the ticket_archive halves of the query
+                for (int table = 0; table < 2; table++) {
+                    ps.setTimestamp(3 * table + 1, new Timestamp(enteredFrom.getTime()));
+                    ps.setTimestamp(3 * table + 2, new Timestamp(enteredTo.getTime()));
+                    ps.setTimestamp(3 * table + 3, new Timestamp(presentFrom.getTime()));
+                }
+                ResultSet rs = ps.executeQuery();
+                long rows = 0;
+                while (rs.next()) {
+                    Timestamp outTime = rs.getTimestamp(3);
+                    handler.onTicket(parkingTypes[rs.getInt(1)], rs.getTimestamp(2).getTime(),
+                            outTime == null ? -1 : outTime.getTime(), rs.getDouble(4));
+                    rows++;
+                }
+                dataBaseConfig.closeResultSet(rs);
+                dataBaseConfig.closePreparedStatement(ps);
+                return rows;
+            } catch (Exception ex) {
+                logger.error("Error scanning tickets", ex);
+                return -1;
+            } finally {
+                dataBaseConfig.closeConnection(con);
+            }
+        } finally {
+            span.end();
+            SCAN_TICKETS_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Streams the tickets that entered from (inclusive) to (exclusive), the archived ones then the others,
+     * each in the order of entry.
+     * @return the number of tickets scanned, -1 if the scan failed
+     */
+    public long scanTicketHistory(Date from, Date to, TicketHistoryHandler handler) {
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("ReportDAO.scanTicketHistory", null);
+        try {
+            Connection con = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                ParkingType[] parkingTypes = readParkingTypes(con);
+                boolean mySql = "MySQL".equals(con.getMetaData().getDatabaseProductName());
+                long rows = 0;
+                // two queries, each following the IN_TIME index, rather than sorting their union
+                for (String sql : new String[]{DBConstants.SCAN_ARCHIVED_TICKET_HISTORY, DBConstants.SCAN_TICKET_HISTORY}) {
+                    PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    ps.setFetchSize(mySql ? Integer.MIN_VALUE : fetchSize);
+                    ps.setTimestamp(1, new Timestamp(from.getTime()));
+                    ps.setTimestamp(2, new Timestamp(to.getTime()));
+                    ResultSet rs = ps.executeQuery();
+                    while (rs.next()) {
+                        int parkingNumber = rs.getInt(2);
+                        Timestamp outTime = rs.getTimestamp(4);
+                        handler.onTicket(rs.getString(1), parkingNumber, parkingTypes[parkingNumber],
+                                rs.getTimestamp(3).getTime(), outTime == null ? -1 : outTime.getTime(), rs.getDouble(5));
+                        rows++;
+                    }
+                    dataBaseConfig.closeResultSet(rs);
+                    dataBaseConfig.closePreparedStatement(ps);
+                }
+                return rows;
+            } catch (Exception ex) {
+                logger.error("Error scanning ticket history", ex);
+                return -1;
+            } finally {
+                dataBaseConfig.closeConnection(con);
+            }
+        } finally {
+            span.end();
+            SCAN_TICKET_HISTORY_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    // type of each parking number, read once per scan rather than joined on every row
+    private ParkingType[] readParkingTypes(Connection con) throws Exception {
+        PreparedStatement ps = con.prepareStatement(DBConstants.GET_PARKING_SPOTS);
+        ResultSet rs = ps.executeQuery();
+        ParkingType[] parkingTypes = new ParkingType[0];
+        while (rs.next()) {
+            int parkingNumber = rs.getInt(1);
+            if (parkingNumber >= parkingTypes.length) {
+                parkingTypes = Arrays.copyOf(parkingTypes, Math.max(parkingNumber + 1, 2 * parkingTypes.length));
+            }
+            parkingTypes[parkingNumber] = ParkingType.valueOf(rs.getString(3));
+        }
+        dataBaseConfig.closeResultSet(rs);
+        dataBaseConfig.closePreparedStatement(ps);
+        return parkingTypes;
+    }
+}
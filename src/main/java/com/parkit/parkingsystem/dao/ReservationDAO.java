@@ -0,0 +1,249 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.metrics.MetricsRegistry;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Reservation;
+import com.parkit.parkingsystem.tracing.Span;
+import com.parkit.parkingsystem.tracing.Tracer;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reservations of a parking type for a time window. Bookings are admitted against the in-memory reservation index,
+ * loaded from the reservation table on first use, then written to the table.
+ */
+public class ReservationDAO {
+    private static final Logger logger = LogManager.getLogger("ReservationDAO");
+
+    private static final LatencyHistogram RESERVE_TIME = MetricsRegistry.getDefault().timer("ReservationDAO.reserve");
+    private static final LatencyHistogram CANCEL_TIME = MetricsRegistry.getDefault().timer("ReservationDAO.cancel");
+    private static final LatencyHistogram CHECK_IN_TIME = MetricsRegistry.getDefault().timer("ReservationDAO.checkIn");
+
+    private static final long SLOT_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong("parkit.reservation.slotMinutes", 15L));
+    private static final long HORIZON_MILLIS = TimeUnit.DAYS.toMillis(Long.getLong("parkit.reservation.horizonDays", 30L));
+    private static final long HOLD_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong("parkit.reservation.holdAheadMinutes", 60L));
+
+    public DataBaseConfig dataBaseConfig = new DataBaseConfig();
+
+    // lot whose reservation table dataBaseConfig points to, set on the reservations read
+    public String lotId = ParkingSpot.DEFAULT_LOT_ID;
+
+    // loaded on first use, null until then or when it could not be loaded
+    private volatile ReservationIndex reservationIndex;
+
+    /**
+     * Books a spot of this type for the window, if there is one left at every moment of it.
+     * @return the saved reservation, null if the type is fully booked at some point of the window or it could not be saved
+     * @throws IllegalArgumentException if the window is empty, over or beyond the booking horizon
+     */
+    public Reservation reserve(ParkingType parkingType, String vehicleRegNumber, Date start, Date end){
+        long startNanos = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("ReservationDAO.reserve", null);
+        try {
+            ReservationIndex index = getReservationIndex();
+            if(index == null){
+                return null;
+            }
+            Reservation reservation = new Reservation(parkingType, vehicleRegNumber, start, end);
+            reservation.setLotId(lotId);
+            // the window is taken in memory first, so concurrent bookings cannot both get the last spot
+            if(!index.book(reservation, System.currentTimeMillis())){
+                return null;
+            }
+            Connection con = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                PreparedStatement ps = con.prepareStatement(DBConstants.SAVE_RESERVATION, Statement.RETURN_GENERATED_KEYS);
+                ps.setString(1, parkingType.toString());
+                ps.setString(2, vehicleRegNumber);
+                ps.setTimestamp(3, new Timestamp(start.getTime()));
+                ps.setTimestamp(4, new Timestamp(end.getTime()));
+                ps.executeUpdate();
+                ResultSet generatedKeys = ps.getGeneratedKeys();
+                if(generatedKeys.next()){
+                    reservation.setId(generatedKeys.getInt(1));
+                }
+                dataBaseConfig.closeResultSet(generatedKeys);
+                dataBaseConfig.closePreparedStatement(ps);
+                index.register(reservation);
+                return reservation;
+            }catch (Exception ex){
+                logger.error("Error saving reservation",ex);
+                index.cancel(reservation);
+                return null;
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+        } finally {
+            span.end();
+            RESERVE_TIME.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * @return false if the reservation is unknown, already checked in or cancelled, or could not be updated
+     */
+    public boolean cancel(int id){
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("ReservationDAO.cancel", null);
+        try {
+            ReservationIndex index = getReservationIndex();
+            Reservation reservation = index != null ? index.get(id) : null;
+            if(reservation == null || reservation.getStatus() != Reservation.Status.BOOKED){
+                return false;
+            }
+            Connection con = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                PreparedStatement ps = con.prepareStatement(DBConstants.CANCEL_RESERVATION);
+                ps.setInt(1, id);
+                int updateRowCount = ps.executeUpdate();
+                dataBaseConfig.closePreparedStatement(ps);
+                return updateRowCount == 1 && index.cancel(reservation);
+            }catch (Exception ex){
+                logger.error("Error cancelling reservation " + id,ex);
+                return false;
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+        } finally {
+            span.end();
+            CANCEL_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records that the vehicle of the reservation has been given a spot.
+     * @return false if the reservation was not booked any more or could not be updated
+     */
+    public boolean checkIn(Reservation reservation){
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("ReservationDAO.checkIn", null);
+        try {
+            ReservationIndex index = getReservationIndex();
+            if(index == null){
+                return false;
+            }
+            Connection con = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                PreparedStatement ps = con.prepareStatement(DBConstants.CHECK_IN_RESERVATION);
+                ps.setInt(1, reservation.getId());
+                int updateRowCount = ps.executeUpdate();
+                dataBaseConfig.closePreparedStatement(ps);
+                return updateRowCount == 1 && index.checkIn(reservation);
+            }catch (Exception ex){
+                logger.error("Error checking in reservation " + reservation.getId(),ex);
+                return false;
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+        } finally {
+            span.end();
+            CHECK_IN_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return true if a spot of this type can be booked from start to end
+     */
+    public boolean isAvailable(ParkingType parkingType, Date start, Date end){
+        ReservationIndex index = getReservationIndex();
+        return index != null && index.isAvailable(parkingType, start.getTime(), end.getTime(), System.currentTimeMillis());
+    }
+
+    /**
+     * Served from the index as loaded, without loading it, as it is asked at every entry.
+     * @return the booked reservation the vehicle arriving at this time comes for, null if it has none
+     */
+    public Reservation findArrival(String vehicleRegNumber, ParkingType parkingType, Date time){
+        ReservationIndex index = reservationIndex;
+        return index != null ? index.findArrival(vehicleRegNumber, parkingType, time.getTime()) : null;
+    }
+
+    /**
+     * Served from the index as loaded, without loading it, as it is asked at every entry.
+     * @return the number of free spots of this type walk-in vehicles must leave to the vehicles with a reservation
+     */
+    public int getHeldSpots(ParkingType parkingType){
+        ReservationIndex index = reservationIndex;
+        return index != null ? index.getHeldSpots(parkingType, System.currentTimeMillis()) : 0;
+    }
+
+    /**
+     * (Re)loads the reservation index from the parking and reservation tables.
+     * @return false if the tables could not be read, reservations are then refused until the next load
+     */
+    public synchronized boolean loadReservationIndex(){
+        Connection con = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            Map<ParkingType, Integer> capacities = new EnumMap<>(ParkingType.class);
+            PreparedStatement ps = con.prepareStatement(DBConstants.COUNT_PARKING_SPOTS_BY_TYPE);
+            ResultSet rs = ps.executeQuery();
+            while(rs.next()){
+                capacities.put(ParkingType.valueOf(rs.getString(1)), rs.getInt(2));
+            }
+            dataBaseConfig.closeResultSet(rs);
+            dataBaseConfig.closePreparedStatement(ps);
+            long now = System.currentTimeMillis();
+            List<Reservation> reservations = new ArrayList<>();
+            ps = con.prepareStatement(DBConstants.GET_LIVE_RESERVATIONS);
+            ps.setTimestamp(1, new Timestamp(now));
+            rs = ps.executeQuery();
+            while(rs.next()){
+                Reservation reservation = new Reservation(ParkingType.valueOf(rs.getString(2)), rs.getString(3),
+                        rs.getTimestamp(4), rs.getTimestamp(5));
+                reservation.setId(rs.getInt(1));
+                reservation.setLotId(lotId);
+                reservation.setStatus(Reservation.Status.valueOf(rs.getString(6)));
+                reservations.add(reservation);
+            }
+            dataBaseConfig.closeResultSet(rs);
+            dataBaseConfig.closePreparedStatement(ps);
+            ReservationIndex index = new ReservationIndex(capacities, SLOT_MILLIS, HORIZON_MILLIS, HOLD_AHEAD_MILLIS);
+            index.load(reservations, now);
+            reservationIndex = index;
+            logger.info("Loaded reservation index with " + reservations.size() + " reservations");
+            return true;
+        }catch (Exception ex){
+            logger.error("Error loading reservation index",ex);
+            reservationIndex = null;
+            return false;
+        }finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    /**
+     * @return the reservation index, loaded if needed, null if it could not be loaded
+     */
+    public ReservationIndex getReservationIndex(){
+        ReservationIndex index = reservationIndex;
+        if(index == null){
+            synchronized (this){
+                if(reservationIndex == null){
+                    loadReservationIndex();
+                }
+                index = reservationIndex;
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,279 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.Reservation;
+import com.parkit.parkingsystem.util.IntervalMaxTree;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-memory timeline of the live reservations, one per parking type, cut in slots of a fixed length from now to the
+ * booking horizon. Reservations are bound to a parking type, not to a spot: the spot is taken among the free ones
+ * when the vehicle arrives. A set of windows fits in the spots of a type as long as no slot is booked more times
+ * than there are spots, so a window can be booked if the most booked slot it covers still has room, which the
+ * timeline answers in O(log slots) whatever the number of spots and reservations. Windows are rounded outwards to
+ * whole slots. Like the free spot index, it assumes this process is the only one writing reservations.
+ */
+public class ReservationIndex {
+
+    private final long slotMillis;
+    private final int horizonSlots;
+    private final long holdAheadMillis;
+    private final Map<ParkingType, Timeline> timelines = new EnumMap<>(ParkingType.class);
+    private final ConcurrentHashMap<Integer, Reservation> byId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, List<Reservation>> byVehicle = new ConcurrentHashMap<>();
+
+    /**
+     * @param capacities number of spots per parking type
+     * @param holdAheadMillis how long before its start a booked window keeps a spot from walk-in vehicles
+     */
+    public ReservationIndex(Map<ParkingType, Integer> capacities, long slotMillis, long horizonMillis, long holdAheadMillis) {
+        if (slotMillis <= 0 || horizonMillis < slotMillis) {
+            throw new IllegalArgumentException("Invalid slot " + slotMillis + " or horizon " + horizonMillis);
+        }
+        this.slotMillis = slotMillis;
+        this.horizonSlots = (int) Math.min(Integer.MAX_VALUE / 8, (horizonMillis + slotMillis - 1) / slotMillis);
+        this.holdAheadMillis = holdAheadMillis;
+        for (ParkingType parkingType : ParkingType.values()) {
+            timelines.put(parkingType, new Timeline(capacities.getOrDefault(parkingType, 0)));
+        }
+    }
+
+    /**
+     * Adds reservations read from the DB, already booked, without checking the capacity.
+     */
+    public void load(Collection<Reservation> reservations, long now) {
+        for (Reservation reservation : reservations) {
+            if (reservation.getStatus() == Reservation.Status.CANCELLED || reservation.getEnd().getTime() <= now) {
+                continue;
+            }
+            timelines.get(reservation.getParkingType()).add(reservation, now);
+            addToVehicle(reservation);
+            register(reservation);
+        }
+    }
+
+    /**
+     * Books the window of the reservation if every slot of it has a spot left.
+     * @return false if the parking type is fully booked at some point of the window
+     * @throws IllegalArgumentException if the window is empty, over or beyond the booking horizon
+     */
+    public boolean book(Reservation reservation, long now) {
+        long start = reservation.getStart().getTime();
+        long end = reservation.getEnd().getTime();
+        if (end <= start || end <= now) {
+            throw new IllegalArgumentException("Invalid reservation window " + reservation.getStart() + " to " + reservation.getEnd());
+        }
+        if (Math.floorDiv(end - 1, slotMillis) >= Math.floorDiv(now, slotMillis) + horizonSlots) {
+            throw new IllegalArgumentException("Reservation window ends beyond the booking horizon: " + reservation.getEnd());
+        }
+        if (!timelines.get(reservation.getParkingType()).book(reservation, now)) {
+            return false;
+        }
+        addToVehicle(reservation);
+        return true;
+    }
+
+    /**
+     * Makes a booked reservation findable by its id, once it has one.
+     */
+    public void register(Reservation reservation) {
+        byId.put(reservation.getId(), reservation);
+    }
+
+    public Reservation get(int id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Frees the window of a reservation not checked in yet.
+     * @return false if the reservation was already checked in or cancelled
+     */
+    public boolean cancel(Reservation reservation) {
+        if (!timelines.get(reservation.getParkingType()).cancel(reservation)) {
+            return false;
+        }
+        forget(reservation);
+        return true;
+    }
+
+    /**
+     * Records that the vehicle got its spot: the window stays booked but no longer keeps a spot from walk-in vehicles.
+     * @return false if the reservation was not booked any more
+     */
+    public boolean checkIn(Reservation reservation) {
+        return timelines.get(reservation.getParkingType()).checkIn(reservation);
+    }
+
+    /**
+     * @return true if a spot of this type can be booked from start to end
+     */
+    public boolean isAvailable(ParkingType parkingType, long start, long end, long now) {
+        if (end <= start || end <= now || Math.floorDiv(end - 1, slotMillis) >= Math.floorDiv(now, slotMillis) + horizonSlots) {
+            return false;
+        }
+        return timelines.get(parkingType).isAvailable(start, end, now);
+    }
+
+    /**
+     * @return the number of spots of this type to keep for the vehicles with a reservation starting within the hold
+     * time or already started, that have not arrived yet
+     */
+    public int getHeldSpots(ParkingType parkingType, long now) {
+        return timelines.get(parkingType).held(now);
+    }
+
+    /**
+     * @return the booked reservation of this vehicle and parking type covering the time, counting the hold time
+     * before its start, the earliest one if several do; null if there is none
+     */
+    public Reservation findArrival(String vehicleRegNumber, ParkingType parkingType, long time) {
+        List<Reservation> reservations = byVehicle.get(vehicleRegNumber);
+        if (reservations == null) {
+            return null;
+        }
+        Reservation arrival = null;
+        for (Reservation reservation : reservations) {
+            if (reservation.getStatus() == Reservation.Status.BOOKED && reservation.getParkingType() == parkingType
+                    && reservation.getStart().getTime() - holdAheadMillis <= time && time < reservation.getEnd().getTime()
+                    && (arrival == null || reservation.getStart().before(arrival.getStart()))) {
+                arrival = reservation;
+            }
+        }
+        return arrival;
+    }
+
+    public int getCapacity(ParkingType parkingType) {
+        return timelines.get(parkingType).capacity;
+    }
+
+    private void addToVehicle(Reservation reservation) {
+        byVehicle.computeIfAbsent(reservation.getVehicleRegNumber(), key -> new CopyOnWriteArrayList<>()).add(reservation);
+    }
+
+    private void forget(Reservation reservation) {
+        byId.remove(reservation.getId(), reservation);
+        byVehicle.computeIfPresent(reservation.getVehicleRegNumber(), (key, reservations) -> {
+            reservations.remove(reservation);
+            return reservations.isEmpty() ? null : reservations;
+        });
+    }
+
+    /**
+     * Slots from base to base + 2 * horizonSlots: every window booked ends within horizonSlots of now, and the
+     * timeline moves its base to now once now is horizonSlots past it.
+     */
+    private class Timeline {
+        private final int capacity;
+        // reservations counted in booked, the ones still BOOKED being also counted in pending
+        private final Set<Reservation> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        private long base = Long.MIN_VALUE;
+        private IntervalMaxTree booked;
+        private IntervalMaxTree pending;
+
+        Timeline(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void add(Reservation reservation, long now) {
+            advance(now);
+            live.add(reservation);
+            count(reservation, 1);
+        }
+
+        synchronized boolean book(Reservation reservation, long now) {
+            advance(now);
+            if (booked.max(from(reservation.getStart().getTime()), to(reservation.getEnd().getTime())) >= capacity) {
+                return false;
+            }
+            reservation.setStatus(Reservation.Status.BOOKED);
+            live.add(reservation);
+            count(reservation, 1);
+            return true;
+        }
+
+        synchronized boolean cancel(Reservation reservation) {
+            if (reservation.getStatus() != Reservation.Status.BOOKED) {
+                return false;
+            }
+            if (live.remove(reservation)) {
+                count(reservation, -1);
+            }
+            reservation.setStatus(Reservation.Status.CANCELLED);
+            return true;
+        }
+
+        synchronized boolean checkIn(Reservation reservation) {
+            if (reservation.getStatus() != Reservation.Status.BOOKED) {
+                return false;
+            }
+            if (live.contains(reservation)) {
+                pending.add(from(reservation.getStart().getTime()), to(reservation.getEnd().getTime()), -1);
+            }
+            reservation.setStatus(Reservation.Status.CHECKED_IN);
+            return true;
+        }
+
+        synchronized boolean isAvailable(long start, long end, long now) {
+            advance(now);
+            return booked.max(from(start), to(end)) < capacity;
+        }
+
+        synchronized int held(long now) {
+            if (live.isEmpty()) {
+                return 0;
+            }
+            advance(now);
+            return pending.max(from(now), to(now + holdAheadMillis + 1));
+        }
+
+        private void count(Reservation reservation, int delta) {
+            int from = from(reservation.getStart().getTime());
+            int to = to(reservation.getEnd().getTime());
+            booked.add(from, to, delta);
+            if (reservation.getStatus() == Reservation.Status.BOOKED) {
+                pending.add(from, to, delta);
+            }
+        }
+
+        private void advance(long now) {
+            long nowSlot = Math.floorDiv(now, slotMillis);
+            if (booked != null && nowSlot - base < horizonSlots) {
+                return;
+            }
+            base = nowSlot;
+            booked = new IntervalMaxTree(2 * horizonSlots);
+            pending = new IntervalMaxTree(2 * horizonSlots);
+            live.removeIf(reservation -> {
+                if (reservation.getEnd().getTime() > now) {
+                    return false;
+                }
+                forget(reservation);
+                return true;
+            });
+            for (Reservation reservation : live) {
+                count(reservation, 1);
+            }
+        }
+
+        private int from(long millis) {
+            return clamp(Math.floorDiv(millis, slotMillis));
+        }
+
+        private int to(long millis) {
+            return clamp(Math.floorDiv(millis + slotMillis - 1, slotMillis));
+        }
+
+        private int clamp(long slot) {
+            return (int) Math.max(0, Math.min(booked.size(), slot - base));
+        }
+    }
+}
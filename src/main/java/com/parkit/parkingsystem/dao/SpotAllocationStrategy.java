@@ -0,0 +1,70 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.model.ParkingSpot;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Which free spot of a parking type a vehicle gets, see ParkingSpotDAO.setAllocationStrategy. Without a strategy
+ * the free spot index hands out the lowest free parking number.
+ */
+@FunctionalInterface
+public interface SpotAllocationStrategy {
+
+    /**
+     * @param spots all the spots of one parking type, free or not
+     * @return an empty queue, the free spot index then adds the free spots in parking number order
+     */
+    FreeSpotQueue newQueue(List<ParkingSpot> spots);
+
+    /**
+     * The free spot closest to the entrance gate (DISTANCE column), the lowest number among spots as close.
+     */
+    static SpotAllocationStrategy nearestToGate() {
+        return spots -> {
+            int[] distances = new int[RankedSpotQueue.maxNumber(spots) + 1];
+            for (ParkingSpot spot : spots) {
+                distances[spot.getId()] = Math.max(0, spot.getDistance());
+            }
+            return new RankedSpotQueue(distances.length - 1, parkingNumber -> distances[parkingNumber]);
+        };
+    }
+
+    /**
+     * Each zone (ZONE column) in turn, nearest free spot to the gate first within a zone, so vehicles and the rows
+     * of their spots are spread over the whole lot.
+     */
+    static SpotAllocationStrategy zoneRoundRobin() {
+        return spots -> new ZoneRoundRobinQueue(spots, RankedSpotQueue.maxNumber(spots));
+    }
+
+    /**
+     * The free spot that has been free the longest, so wear and traffic are spread over all the spots.
+     */
+    static SpotAllocationStrategy leastRecentlyUsed() {
+        return spots -> {
+            AtomicLong clock = new AtomicLong();
+            return new RankedSpotQueue(RankedSpotQueue.maxNumber(spots), parkingNumber -> clock.incrementAndGet());
+        };
+    }
+
+    /**
+     * @param name lowest, nearest, zones or lru
+     * @return the built-in strategy of this name, null for lowest
+     */
+    static SpotAllocationStrategy named(String name) {
+        switch (name) {
+            case "lowest":
+                return null;
+            case "nearest":
+                return nearestToGate();
+            case "zones":
+                return zoneRoundRobin();
+            case "lru":
+                return leastRecentlyUsed();
+            default:
+                throw new IllegalArgumentException("Unknown spot allocation strategy: " + name);
+        }
+    }
+}
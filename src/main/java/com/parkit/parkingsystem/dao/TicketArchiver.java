@@ -0,0 +1,186 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.metrics.MetricsRegistry;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moves the tickets closed for longer than a given age from the ticket table to ticket_archive, so the ticket
+ * table only holds the open and recent tickets the gates work on. Tickets are moved by batches of consecutive ids,
+ * each batch copied and deleted in a transaction of its own: locks are only held for one batch, and a failure
+ * leaves every ticket in exactly one of the two tables.
+ * Archived tickets keep their id. MySQL before 8.0 sets the AUTO_INCREMENT of a table to its max id + 1 when the
+ * server restarts, which would hand out the ids of archived tickets again once the latest tickets are archived: each
+ * run first moves the AUTO_INCREMENT of the ticket table above the ids in the archive.
+ */
+public class TicketArchiver {
+
+    private static final Logger logger = LogManager.getLogger("TicketArchiver");
+
+    private static final LatencyHistogram BATCH_TIME = MetricsRegistry.getDefault().timer("TicketArchiver.batch");
+    private static final LongAdder ARCHIVED = MetricsRegistry.getDefault().counter("TicketArchiver.archived");
+
+    private final DataBaseConfig dataBaseConfig;
+    private final long maxAgeMillis;
+    private final int batchSize;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param maxAgeMillis tickets closed for longer are archived
+     * @param batchSize tickets moved per transaction
+     */
+    public TicketArchiver(DataBaseConfig dataBaseConfig, long maxAgeMillis, int batchSize) {
+        this.dataBaseConfig = dataBaseConfig;
+        this.maxAgeMillis = maxAgeMillis;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Archives every period from a background thread, the first run starting right away.
+     */
+    public synchronized void start(long periodMillis) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ticket-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::archive, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background thread, letting the batch in progress finish.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Archives the tickets closed for longer than the max age.
+     * @return the number of tickets archived, -1 if a batch failed
+     */
+    public int archive() {
+        return archive(new Date(System.currentTimeMillis() - maxAgeMillis));
+    }
+
+    /**
+     * Archives the tickets closed before the cutoff, batch after batch until none is left.
+     * @return the number of tickets archived, -1 if a batch failed
+     */
+    public int archive(Date cutoff) {
+        if (!keepIdsAboveArchive()) {
+            return -1;
+        }
+        int archived = 0;
+        int batch;
+        do {
+            batch = archiveBatch(new Timestamp(cutoff.getTime()));
+            if (batch < 0) {
+                return -1;
+            }
+            archived += batch;
+        } while (batch > 0);
+        if (archived > 0) {
+            logger.info("Archived " + archived + " tickets closed before " + cutoff);
+        }
+        return archived;
+    }
+
+    // when the newest tickets are all archived, the next ticket id must still be above theirs
+    private boolean keepIdsAboveArchive() {
+        Connection con = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            PreparedStatement ps = con.prepareStatement(DBConstants.GET_MAX_TICKET_IDS);
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            long maxTicketId = rs.getLong(1);
+            long maxArchivedId = rs.getLong(2);
+            dataBaseConfig.closeResultSet(rs);
+            dataBaseConfig.closePreparedStatement(ps);
+            if (maxArchivedId > 0 && maxArchivedId >= maxTicketId) {
+                Statement statement = con.createStatement();
+                statement.executeUpdate(DBConstants.SET_TICKET_AUTO_INCREMENT + (maxArchivedId + 1));
+                statement.close();
+            }
+            return true;
+        } catch (Exception ex) {
+            logger.error("Error moving the ticket ids above the archived ones", ex);
+            return false;
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    // moves the next batch, the tickets closed before the cutoff with an id up to that of the batchSize-th one
+    private int archiveBatch(Timestamp cutoff) {
+        long start = System.nanoTime();
+        Connection con = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            con.setAutoCommit(false);
+            PreparedStatement ps = con.prepareStatement(DBConstants.GET_ARCHIVE_BATCH_LAST_ID);
+            ps.setTimestamp(1, cutoff);
+            ps.setInt(2, batchSize);
+            ResultSet rs = ps.executeQuery();
+            int lastId = rs.next() ? rs.getInt(1) : 0;
+            dataBaseConfig.closeResultSet(rs);
+            dataBaseConfig.closePreparedStatement(ps);
+            if (lastId == 0) {
+                dataBaseConfig.rollback(con);
+                return 0;
+            }
+            ps = con.prepareStatement(DBConstants.ARCHIVE_TICKETS);
+            ps.setTimestamp(1, cutoff);
+            ps.setInt(2, lastId);
+            int copied = ps.executeUpdate();
+            dataBaseConfig.closePreparedStatement(ps);
+            ps = con.prepareStatement(DBConstants.DELETE_ARCHIVED_TICKETS);
+            ps.setTimestamp(1, cutoff);
+            ps.setInt(2, lastId);
+            int deleted = ps.executeUpdate();
+            dataBaseConfig.closePreparedStatement(ps);
+            if (copied != deleted) {
+                // another archiver, or a delete, changed the range between the copy and the delete: the copies
+                // would not match the rows removed, leave this batch to the next run
+                dataBaseConfig.rollback(con);
+                logger.error("Archive batch up to ticket " + lastId + " changed while being moved, rolled back");
+                return -1;
+            }
+            con.commit();
+            ARCHIVED.add(copied);
+            return copied;
+        } catch (Exception ex) {
+            logger.error("Error archiving tickets", ex);
+            dataBaseConfig.rollback(con);
+            return -1;
+        } finally {
+            dataBaseConfig.closeConnection(con);
+            BATCH_TIME.record(System.nanoTime() - start);
+        }
+    }
+}
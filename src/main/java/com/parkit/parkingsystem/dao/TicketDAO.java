@@ -3,88 +3,614 @@ package com.parkit.parkingsystem.dao;
 import com.parkit.parkingsystem.config.DataBaseConfig;
 import com.parkit.parkingsystem.constants.DBConstants;
 import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.metrics.MetricsRegistry;
+import com.parkit.parkingsystem.model.ExitTicket;
 import com.parkit.parkingsystem.model.ParkingSpot;
 import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.tracing.Span;
+import com.parkit.parkingsystem.tracing.Tracer;
+import com.parkit.parkingsystem.util.LatencyHistogram;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class TicketDAO {
 
     private static final Logger logger = LogManager.getLogger("TicketDAO");
 
+    // durations of the public methods, including the calls served from memory; within a trace each call is a span
+    private static final LatencyHistogram LOAD_OPEN_TICKETS_TIME = MetricsRegistry.getDefault().timer("TicketDAO.loadOpenTickets");
+    private static final LatencyHistogram SAVE_TICKET_TIME = MetricsRegistry.getDefault().timer("TicketDAO.saveTicket");
+    private static final LatencyHistogram GET_TICKET_TIME = MetricsRegistry.getDefault().timer("TicketDAO.getTicket");
+    private static final LatencyHistogram GET_TICKET_FOR_EXIT_TIME = MetricsRegistry.getDefault().timer("TicketDAO.getTicketForExit");
+    private static final LatencyHistogram CLOSE_TICKET_TIME = MetricsRegistry.getDefault().timer("TicketDAO.closeTicket");
+    private static final LatencyHistogram UPDATE_TICKET_TIME = MetricsRegistry.getDefault().timer("TicketDAO.updateTicket");
+    private static final LatencyHistogram UPDATE_IN_TIME_TICKET_TIME = MetricsRegistry.getDefault().timer("TicketDAO.updateInTimeTicket");
+    private static final LatencyHistogram GET_NB_TICKET_TIME = MetricsRegistry.getDefault().timer("TicketDAO.getNbTicket");
+    private static final LatencyHistogram GET_TICKETS_TIME = MetricsRegistry.getDefault().timer("TicketDAO.getTickets");
+    private static final LatencyHistogram GET_REVENUE_TIME = MetricsRegistry.getDefault().timer("TicketDAO.getRevenue");
+
     public DataBaseConfig dataBaseConfig = new DataBaseConfig();
 
+    // lot whose ticket table dataBaseConfig points to, set on the tickets read
+    public String lotId = ParkingSpot.DEFAULT_LOT_ID;
+
+    private static final int VISIT_COUNT_CACHE_SIZE = Integer.getInteger("parkit.ticket.visitCache.size", 100000);
+
+    private final VisitCountCache visitCountCache = new VisitCountCache(VISIT_COUNT_CACHE_SIZE);
+
+    private final OpenTicketRegistry openTicketRegistry = new OpenTicketRegistry();
+    private volatile boolean openTicketsLoaded;
+
+    // null unless write-behind mode is enabled
+    private volatile TicketWriteBehind writeBehind;
+    private volatile boolean durableWriteBehind;
+
+    // null unless journal mode is enabled
+    private volatile EventJournal journal;
+    private volatile JournalReplayer journalReplayer;
+    private volatile boolean durableJournal;
+    // journal sequence of the last entry of each vehicle, until its exit: the cached count is only known to be
+    // right once the replayer has applied that entry, as entries journaled while the vehicle was not cached
+    // are not counted by the cache
+    private final Map<String, Long> journaledEntries = new ConcurrentHashMap<>();
+
+    // null unless archival is enabled
+    private TicketArchiver archiver;
+
+    /**
+     * Switches saveTicket to write-behind mode: tickets are queued and inserted in batches by a background thread.
+     * @param durable if true, saveTicket still waits for the commit of the batch holding the ticket
+     */
+    public void enableWriteBehind(int queueCapacity, int maxBatchSize, long maxDelayMillis, boolean durable){
+        enableWriteBehind(queueCapacity, maxBatchSize, maxDelayMillis, durable, null);
+    }
+
+    /**
+     * @param parkingSpotDAO when not durable, gets back the spot of each ticket that cannot be saved, as the gate
+     * has already let the vehicle in; in durable mode saveTicket returns false and the caller gives the spot back
+     */
+    public synchronized void enableWriteBehind(int queueCapacity, int maxBatchSize, long maxDelayMillis, boolean durable,
+                                               ParkingSpotDAO parkingSpotDAO){
+        disableWriteBehind();
+        durableWriteBehind = durable;
+        writeBehind = new TicketWriteBehind(dataBaseConfig, visitCountCache, openTicketRegistry,
+                durable ? null : parkingSpotDAO, queueCapacity, maxBatchSize, maxDelayMillis);
+    }
+
+    /**
+     * Writes the queued tickets and goes back to inserting each ticket as it is saved.
+     */
+    public synchronized void disableWriteBehind(){
+        if(writeBehind != null){
+            writeBehind.shutdown();
+            writeBehind = null;
+        }
+    }
+
+    /**
+     * Switches the ticket writes to journal mode: saveTicket and closeTicket append the change to the local journal
+     * and update the open ticket index, without waiting for the DB, and a background replayer applies the journal
+     * to the tables whenever the DB can be reached. The events left in the journal by a previous run are applied
+     * first, then the open tickets are reloaded; when the DB cannot be reached, journal mode is enabled all the
+     * same and the open tickets are loaded on first use once the replayer has caught up, entries and exits being
+     * refused until then. Reads of the ticket history first wait for the replayer to apply the pending events,
+     * see JournalReplayer.awaitCaughtUp. Exits never read the DB: the visit count comes from the cache, which the
+     * replayer and the loading of the open tickets fill, and on a miss the recurring user discount is settled when
+     * the exit is applied (see closeTicket(Ticket, double)).
+     * The DAO closes the journal when journal mode is disabled.
+     * @param durable if true, writes still wait for the fsync of the journal
+     * @return false if the pending events could not be applied yet
+     */
+    public synchronized boolean enableJournal(EventJournal eventJournal, int batchSize, long retryMillis,
+                                              long maxRetryMillis, boolean durable){
+        disableWriteBehind();
+        disableJournal();
+        JournalReplayer replayer = new JournalReplayer(dataBaseConfig, eventJournal, visitCountCache, batchSize,
+                retryMillis, maxRetryMillis);
+        // the open tickets are read again once the events left by a previous run are applied
+        openTicketsLoaded = false;
+        boolean applied = replayer.replayAll();
+        durableJournal = durable;
+        journalReplayer = replayer;
+        journal = eventJournal;
+        replayer.start();
+        if(!applied || !loadOpenTickets()){
+            logger.warn("Events of journal " + eventJournal.getDirectory() + " not applied yet, entries and exits"
+                    + " are refused until the replayer has caught up");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Applies what the DB accepts of the journal, closes it and goes back to writing the tickets to the DB.
+     * Events that could not be applied stay in the journal until it is enabled again.
+     */
+    public synchronized void disableJournal(){
+        EventJournal eventJournal = journal;
+        if(eventJournal == null){
+            return;
+        }
+        journal = null;
+        journaledEntries.clear();
+        JournalReplayer replayer = journalReplayer;
+        journalReplayer = null;
+        replayer.stop();
+        if(!replayer.replayAll()){
+            logger.warn(replayer.getLag() + " events left in journal " + eventJournal.getDirectory());
+        }
+        try {
+            eventJournal.close();
+        }catch (IOException ex){
+            logger.error("Error closing journal " + eventJournal.getDirectory(), ex);
+        }
+    }
+
+    /**
+     * Starts moving the tickets closed for longer than the max age to ticket_archive, every period from a
+     * background thread. Reads needing older tickets (latest ticket of a vehicle gone quiet, full history,
+     * revenue) also look in the archive.
+     */
+    public synchronized void enableArchival(long maxAgeMillis, int batchSize, long periodMillis){
+        disableArchival();
+        archiver = new TicketArchiver(dataBaseConfig, maxAgeMillis, batchSize);
+        archiver.start(periodMillis);
+    }
+
+    public synchronized void disableArchival(){
+        if(archiver != null){
+            archiver.stop();
+            archiver = null;
+        }
+    }
+
+    public TicketWriteBehind getWriteBehind(){
+        return writeBehind;
+    }
+
+    /**
+     * @return the replayer of the journal, null unless journal mode is enabled
+     */
+    public JournalReplayer getJournalReplayer(){
+        return journalReplayer;
+    }
+
+    public OpenTicketRegistry getOpenTicketRegistry(){
+        return openTicketRegistry;
+    }
+
+    public VisitCountCache getVisitCountCache(){
+        return visitCountCache;
+    }
+
+    /**
+     * (Re)loads the in-memory index of open tickets from the ticket table.
+     * Needed after the ticket table has been changed outside of this DAO.
+     * @return false if the table could not be read, exit lookups then go to the DB
+     */
+    public synchronized boolean loadOpenTickets(){
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("TicketDAO.loadOpenTickets", null);
+        try {
+            syncWriteBehind();
+            if(!syncJournal()){
+                // the table misses journaled tickets, the index is more up to date than it
+                return false;
+            }
+            Connection con = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                PreparedStatement ps = con.prepareStatement(DBConstants.GET_OPEN_TICKETS);
+                ResultSet rs = ps.executeQuery();
+                List<Ticket> tickets = new ArrayList<>();
+                while(rs.next()){
+                    Ticket ticket = readTicket(rs, rs.getString(7));
+                    tickets.add(ticket);
+                    // the exits to come, whose visit count is then served from memory
+                    visitCountCache.put(ticket.getVehicleRegNumber(), rs.getInt(8));
+                }
+                dataBaseConfig.closeResultSet(rs);
+                dataBaseConfig.closePreparedStatement(ps);
+                openTicketRegistry.load(tickets);
+                openTicketsLoaded = true;
+                logger.info("Loaded " + tickets.size() + " open tickets");
+                return true;
+            }catch (Exception ex){
+                logger.error("Error loading open tickets",ex);
+                openTicketsLoaded = false;
+                return false;
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+        } finally {
+            span.end();
+            LOAD_OPEN_TICKETS_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean ensureOpenTicketsLoaded(){
+        if(!openTicketsLoaded){
+            synchronized (this){
+                if(!openTicketsLoaded){
+                    loadOpenTickets();
+                }
+            }
+        }
+        return openTicketsLoaded;
+    }
+
+    // columns PARKING_NUMBER, ID, PRICE, IN_TIME, OUT_TIME, TYPE
+    private Ticket readTicket(ResultSet rs, String vehicleRegNumber) throws SQLException {
+        Ticket ticket = new Ticket();
+        ParkingSpot parkingSpot = new ParkingSpot(lotId, rs.getInt(1), ParkingType.valueOf(rs.getString(6)),false);
+        ticket.setLotId(lotId);
+        ticket.setParkingSpot(parkingSpot);
+        ticket.setId(rs.getInt(2));
+        ticket.setVehicleRegNumber(vehicleRegNumber);
+        ticket.setPrice(rs.getDouble(3));
+        ticket.setInTime(rs.getTimestamp(4));
+        ticket.setOutTime(rs.getTimestamp(5));
+        return ticket;
+    }
+
     public boolean saveTicket(Ticket ticket){
-        Connection con = null;
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("TicketDAO.saveTicket", null);
         try {
-            con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.SAVE_TICKET);
-            //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
-            //ps.setInt(1,ticket.getId());
-            ps.setInt(1,ticket.getParkingSpot().getId());
-            ps.setString(2, ticket.getVehicleRegNumber());
-            ps.setDouble(3, ticket.getPrice());
-            ps.setTimestamp(4, new Timestamp(ticket.getInTime().getTime()));
-            ps.setTimestamp(5, (ticket.getOutTime() == null)?null: (new Timestamp(ticket.getOutTime().getTime())) );
-            return ps.execute();
-        }catch (Exception ex){
-            logger.error("Error fetching next available slot",ex);
-        }finally {
-            dataBaseConfig.closeConnection(con);
+            EventJournal eventJournal = journal;
+            if(eventJournal != null){
+                if(!ensureOpenTicketsLoaded()){
+                    logger.error("Open tickets not loaded, ticket of vehicle " + ticket.getVehicleRegNumber() + " not journaled");
+                    return false;
+                }
+                try {
+                    long sequence = eventJournal.append(JournalEvent.entry(ticket.getVehicleRegNumber(),
+                            ticket.getParkingSpot().getParkingType(), ticket.getParkingSpot().getId(),
+                            ticket.getInTime().getTime(), ticket.getOutTime() == null ? -1 : ticket.getOutTime().getTime(),
+                            ticket.getPrice()));
+                    if(durableJournal){
+                        eventJournal.awaitSynced(sequence);
+                    }
+                    visitCountCache.increment(ticket.getVehicleRegNumber());
+                    journaledEntries.put(ticket.getVehicleRegNumber(), sequence);
+                    if(ticket.getOutTime() == null){
+                        openTicketRegistry.put(new Ticket(ticket));
+                    }
+                    return true;
+                }catch (Exception ex){
+                    logger.error("Error journaling ticket",ex);
+                    return false;
+                }
+            }
+            TicketWriteBehind queue = writeBehind;
+            if(queue != null){
+                try {
+                    Ticket registered = new Ticket(ticket);
+                    if(openTicketsLoaded && ticket.getOutTime() == null){
+                        openTicketRegistry.put(registered);
+                    }
+                    // the ticket id is set on the registered copy once its group is written
+                    CompletableFuture<Boolean> committed = queue.save(registered);
+                    return !durableWriteBehind || committed.get();
+                }catch (Exception ex){
+                    logger.error("Error queuing ticket",ex);
+                    return false;
+                }
+            }
+            Connection con = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                //the ticket and the visit counter of the vehicle are written together
+                con.setAutoCommit(false);
+                PreparedStatement ps = con.prepareStatement(DBConstants.SAVE_TICKET, Statement.RETURN_GENERATED_KEYS);
+                //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
+                //ps.setInt(1,ticket.getId());
+                ps.setInt(1,ticket.getParkingSpot().getId());
+                ps.setString(2, ticket.getVehicleRegNumber());
+                ps.setDouble(3, ticket.getPrice());
+                ps.setTimestamp(4, new Timestamp(ticket.getInTime().getTime()));
+                ps.setTimestamp(5, (ticket.getOutTime() == null)?null: (new Timestamp(ticket.getOutTime().getTime())) );
+                int updateRowCount = ps.executeUpdate();
+                ResultSet generatedKeys = ps.getGeneratedKeys();
+                if(generatedKeys.next()){
+                    ticket.setId(generatedKeys.getInt(1));
+                }
+                dataBaseConfig.closeResultSet(generatedKeys);
+                dataBaseConfig.closePreparedStatement(ps);
+                ps = con.prepareStatement(DBConstants.INCREMENT_VISIT_COUNT);
+                ps.setString(1, ticket.getVehicleRegNumber());
+                ps.executeUpdate();
+                dataBaseConfig.closePreparedStatement(ps);
+                con.commit();
+                visitCountCache.increment(ticket.getVehicleRegNumber());
+                if(openTicketsLoaded && ticket.getOutTime() == null){
+                    openTicketRegistry.put(new Ticket(ticket));
+                }
+                return (updateRowCount == 1);
+            }catch (Exception ex){
+                logger.error("Error saving ticket",ex);
+                dataBaseConfig.rollback(con);
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+            return false;
+        } finally {
+            span.end();
+            SAVE_TICKET_TIME.record(System.nanoTime() - start);
         }
-        return false;
     }
 
     public Ticket getTicket(String vehicleRegNumber) {
-        Connection con = null;
-        Ticket ticket = null;
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("TicketDAO.getTicket", null);
         try {
-            con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.GET_TICKET);
-          //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
-            ps.setString(1,vehicleRegNumber);
-            ResultSet rs = ps.executeQuery();
-            if(rs.next()){
-                ticket = new Ticket();
-                ParkingSpot parkingSpot = new ParkingSpot(rs.getInt(1), ParkingType.valueOf(rs.getString(6)),false);
-                ticket.setParkingSpot(parkingSpot);
-                ticket.setId(rs.getInt(2));
-                ticket.setVehicleRegNumber(vehicleRegNumber);
-                ticket.setPrice(rs.getDouble(3));
-                ticket.setInTime(rs.getTimestamp(4));
-                ticket.setOutTime(rs.getTimestamp(5));
+            syncWriteBehind();
+            syncJournal();
+            Connection con = null;
+            Ticket ticket = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                PreparedStatement ps = con.prepareStatement(DBConstants.GET_TICKET);
+              //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
+                ps.setString(1,vehicleRegNumber);
+                ResultSet rs = ps.executeQuery();
+                if(rs.next()){
+                    ticket = readTicket(rs, vehicleRegNumber);
+                }
+                dataBaseConfig.closeResultSet(rs);
+                dataBaseConfig.closePreparedStatement(ps);
+                if(ticket == null){
+                    // no ticket recent enough to be in the ticket table
+                    ps = con.prepareStatement(DBConstants.GET_ARCHIVED_TICKET);
+                    ps.setString(1,vehicleRegNumber);
+                    rs = ps.executeQuery();
+                    if(rs.next()){
+                        ticket = readTicket(rs, vehicleRegNumber);
+                    }
+                    dataBaseConfig.closeResultSet(rs);
+                    dataBaseConfig.closePreparedStatement(ps);
+                }
+            }catch (Exception ex){
+                logger.error("Error fetching next available slot",ex);
+            }finally {
+                dataBaseConfig.closeConnection(con);
             }
-            dataBaseConfig.closeResultSet(rs);
-            dataBaseConfig.closePreparedStatement(ps);
-        }catch (Exception ex){
-            logger.error("Error fetching next available slot",ex);
-        }finally {
-            dataBaseConfig.closeConnection(con);
+            return ticket;
+        } finally {
+            span.end();
+            GET_TICKET_TIME.record(System.nanoTime() - start);
         }
-        return ticket;
     }
 
-    public boolean updateTicket(Ticket ticket) {
-        Connection con = null;
+    /**
+     * Returns the open ticket of the vehicle and its number of visits. Served from the open ticket index
+     * and the visit count cache when loaded, otherwise fetched in a single query.
+     * @return null if the vehicle has no open ticket
+     */
+    public ExitTicket getTicketForExit(String vehicleRegNumber) {
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("TicketDAO.getTicketForExit", null);
         try {
-            con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_TICKET);
-            ps.setDouble(1, ticket.getPrice());
-            ps.setTimestamp(2, new Timestamp(ticket.getOutTime().getTime()));
-            ps.setInt(3,ticket.getId());
-            ps.execute();
+            if(journal != null){
+                // journaled tickets have no id until they are applied, the index is the reference
+                if(!ensureOpenTicketsLoaded()){
+                    return null;
+                }
+                Ticket openTicket = openTicketRegistry.get(vehicleRegNumber);
+                if(openTicket == null){
+                    return null;
+                }
+                // the DB may be slow or down, the count is only read from memory
+                Integer visitCount = visitCountCache.get(vehicleRegNumber);
+                Long entrySequence = journaledEntries.get(vehicleRegNumber);
+                JournalReplayer replayer = journalReplayer;
+                if(visitCount == null || entrySequence != null && replayer != null
+                        && replayer.getAppliedSequence() < entrySequence){
+                    return new ExitTicket(new Ticket(openTicket), ExitTicket.UNKNOWN_VISIT_COUNT);
+                }
+                return new ExitTicket(new Ticket(openTicket), visitCount);
+            }
+            if(ensureOpenTicketsLoaded()){
+                Ticket openTicket = openTicketRegistry.get(vehicleRegNumber);
+                if(openTicket != null && openTicket.getId() == 0){
+                    // still waiting in the write-behind queue
+                    syncWriteBehind();
+                    openTicket = openTicketRegistry.get(vehicleRegNumber);
+                }
+                if(openTicket == null){
+                    return null;
+                }
+                if(openTicket.getId() > 0){
+                    return new ExitTicket(new Ticket(openTicket), getNbTicket(vehicleRegNumber));
+                }
+            }
+            Connection con = null;
+            ExitTicket exitTicket = null;
+            visitCountCache.startLoad(vehicleRegNumber);
+            try {
+                syncWriteBehind(vehicleRegNumber);
+                con = dataBaseConfig.getConnection();
+                PreparedStatement ps = con.prepareStatement(DBConstants.GET_TICKET_FOR_EXIT);
+                ps.setString(1,vehicleRegNumber);
+                ResultSet rs = ps.executeQuery();
+                if(rs.next()){
+                    exitTicket = new ExitTicket(readTicket(rs, vehicleRegNumber), rs.getInt(7));
+                }
+                dataBaseConfig.closeResultSet(rs);
+                dataBaseConfig.closePreparedStatement(ps);
+            }catch (Exception ex){
+                logger.error("Error fetching ticket for exit",ex);
+            }finally {
+                if(exitTicket != null){
+                    visitCountCache.finishLoad(vehicleRegNumber, exitTicket.getVisitCount());
+                }else{
+                    visitCountCache.abortLoad(vehicleRegNumber);
+                }
+                dataBaseConfig.closeConnection(con);
+            }
+            return exitTicket;
+        } finally {
+            span.end();
+            GET_TICKET_FOR_EXIT_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Saves the price and out time of the ticket and frees its parking spot, in one transaction.
+     * @return false if the ticket was already closed or the DB could not be updated, nothing is changed then
+     */
+    public boolean closeTicket(Ticket ticket) {
+        return closeTicket(ticket, -1);
+    }
+
+    /**
+     * Closes the ticket of a vehicle whose visit count was unknown at its exit (see ExitTicket.isVisitCountKnown),
+     * priced without the recurring user discount. In journal mode the discount is settled when the exit is applied:
+     * the ticket is closed at recurringUserPrice if the vehicle is a regular. Otherwise the count is read first.
+     * @param recurringUserPrice price with the recurring user discount, -1 to keep the price of the ticket
+     */
+    public boolean closeTicket(Ticket ticket, double recurringUserPrice) {
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("TicketDAO.closeTicket", null);
+        try {
+            EventJournal eventJournal = journal;
+            if(eventJournal != null){
+                return journalClose(eventJournal, ticket, recurringUserPrice);
+            }
+            if(recurringUserPrice >= 0 && getNbTicket(ticket.getVehicleRegNumber()) > 1){
+                ticket.setPrice(recurringUserPrice);
+            }
+            Connection con = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                con.setAutoCommit(false);
+                PreparedStatement ps = con.prepareStatement(DBConstants.CLOSE_TICKET);
+                ps.setDouble(1, ticket.getPrice());
+                ps.setTimestamp(2, new Timestamp(ticket.getOutTime().getTime()));
+                ps.setInt(3,ticket.getId());
+                int updateRowCount = ps.executeUpdate();
+                dataBaseConfig.closePreparedStatement(ps);
+                if(updateRowCount != 1){
+                    // closed in the meantime by another gate
+                    dataBaseConfig.rollback(con);
+                    return false;
+                }
+                ps = con.prepareStatement(DBConstants.UPDATE_PARKING_SPOT);
+                ps.setBoolean(1, true);
+                ps.setInt(2, ticket.getParkingSpot().getId());
+                ps.executeUpdate();
+                dataBaseConfig.closePreparedStatement(ps);
+                con.commit();
+                ticket.getParkingSpot().setAvailable(true);
+                openTicketRegistry.close(ticket.getVehicleRegNumber(), ticket.getId());
+                return true;
+            }catch (Exception ex){
+                logger.error("Error closing ticket",ex);
+                dataBaseConfig.rollback(con);
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+            return false;
+        } finally {
+            span.end();
+            CLOSE_TICKET_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean journalClose(EventJournal eventJournal, Ticket ticket, double recurringUserPrice){
+        // only the first gate closing the stay gets it out of the index
+        Ticket openTicket = openTicketRegistry.closeStay(ticket.getVehicleRegNumber(), ticket.getInTime());
+        if(openTicket == null){
+            return false;
+        }
+        try {
+            long sequence = eventJournal.append(JournalEvent.exit(ticket.getVehicleRegNumber(),
+                    ticket.getParkingSpot().getParkingType(), ticket.getParkingSpot().getId(),
+                    ticket.getInTime().getTime(), ticket.getOutTime().getTime(), ticket.getPrice(), recurringUserPrice));
+            if(durableJournal){
+                eventJournal.awaitSynced(sequence);
+            }
+            journaledEntries.remove(ticket.getVehicleRegNumber());
+            ticket.getParkingSpot().setAvailable(true);
             return true;
         }catch (Exception ex){
-            logger.error("Error saving ticket info",ex);
-        }finally {
-            dataBaseConfig.closeConnection(con);
+            logger.error("Error journaling ticket closing",ex);
+            openTicketRegistry.put(openTicket);
+            return false;
+        }
+    }
+
+    // lets reads see the journaled changes, once the replayer thread has applied them
+    private boolean syncJournal(){
+        JournalReplayer replayer = journalReplayer;
+        return replayer == null || replayer.awaitCaughtUp();
+    }
+
+    // lets reads see tickets still waiting in the write-behind queue
+    private void syncWriteBehind(){
+        TicketWriteBehind queue = writeBehind;
+        if(queue != null && queue.hasPending()){
+            try {
+                queue.sync();
+            }catch (InterruptedException ex){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // same, only when a ticket of this vehicle is still waiting: the reads of other vehicles do not wait for the flush
+    private void syncWriteBehind(String vehicleRegNumber){
+        TicketWriteBehind queue = writeBehind;
+        if(queue != null && queue.hasPending(vehicleRegNumber)){
+            try {
+                queue.sync();
+            }catch (InterruptedException ex){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean updateTicket(Ticket ticket) {
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("TicketDAO.updateTicket", null);
+        try {
+            Connection con = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_TICKET);
+                ps.setDouble(1, ticket.getPrice());
+                ps.setTimestamp(2, new Timestamp(ticket.getOutTime().getTime()));
+                ps.setInt(3,ticket.getId());
+                ps.execute();
+                dataBaseConfig.closePreparedStatement(ps);
+                if(ticket.getOutTime() != null){
+                    openTicketRegistry.close(ticket.getVehicleRegNumber(), ticket.getId());
+                }
+                return true;
+            }catch (Exception ex){
+                logger.error("Error saving ticket info",ex);
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+            return false;
+        } finally {
+            span.end();
+            UPDATE_TICKET_TIME.record(System.nanoTime() - start);
         }
-        return false;
     }
     
     /**
@@ -93,43 +619,178 @@ public class TicketDAO {
      * @return
      */
     public boolean updateInTimeTicket(Ticket ticket) {
-        Connection con = null;
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("TicketDAO.updateInTimeTicket", null);
         try {
-            con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_TICKET_IN_TIME);
-            ps.setTimestamp(1, new Timestamp(ticket.getInTime().getTime()));
-            ps.setInt(2,ticket.getId());
-            ps.execute();
-            return true;
-        }catch (Exception ex){
-            logger.error("Error saving ticket info",ex);
-        }finally {
-            dataBaseConfig.closeConnection(con);
+            Connection con = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_TICKET_IN_TIME);
+                ps.setTimestamp(1, new Timestamp(ticket.getInTime().getTime()));
+                ps.setInt(2,ticket.getId());
+                ps.execute();
+                dataBaseConfig.closePreparedStatement(ps);
+                openTicketRegistry.updateInTime(ticket.getVehicleRegNumber(), ticket.getId(), ticket.getInTime());
+                return true;
+            }catch (Exception ex){
+                logger.error("Error saving ticket info",ex);
+            }finally {
+                dataBaseConfig.closeConnection(con);
+            }
+            return false;
+        } finally {
+            span.end();
+            UPDATE_IN_TIME_TICKET_TIME.record(System.nanoTime() - start);
         }
-        return false;
     }
     
- // New method to return the total number of tickets associated with a vehicle registration number
-    public int getNbTicket(String vehicleRegNumber) {
+    /**
+     * Tells a vehicle that is not parked from a lookup that failed, when getTicketForExit returned null.
+     * @return the number of open tickets of the vehicle, 0 if it is not parked, -1 if they could not be read
+     */
+    public int countOpenTickets(String vehicleRegNumber) {
+        if(ensureOpenTicketsLoaded()){
+            return openTicketRegistry.get(vehicleRegNumber) != null ? 1 : 0;
+        }
+        if(journal != null){
+            // the table misses the journaled tickets
+            return -1;
+        }
+        syncWriteBehind();
         Connection con = null;
-        int ticketCount = 0;
         try {
             con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement("SELECT COUNT(*) FROM ticket WHERE VEHICLE_REG_NUMBER = ?");
+            PreparedStatement ps = con.prepareStatement(DBConstants.COUNT_OPEN_TICKETS);
             ps.setString(1, vehicleRegNumber);
             ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                ticketCount = rs.getInt(1);
-            }
+            int openTickets = rs.next() ? rs.getInt(1) : 0;
             dataBaseConfig.closeResultSet(rs);
             dataBaseConfig.closePreparedStatement(ps);
+            return openTickets;
         } catch (Exception ex) {
-            logger.error("Error counting tickets for vehicle registration number: " + vehicleRegNumber, ex);
+            logger.error("Error looking up the open ticket of vehicle " + vehicleRegNumber, ex);
+            return -1;
         } finally {
             dataBaseConfig.closeConnection(con);
         }
-        return ticketCount;
     }
- 
-   
+
+    /**
+     * Returns the number of tickets recorded for the vehicle, from the visit count cache or
+     * the vehicle_visit counter table.
+     */
+    public int getNbTicket(String vehicleRegNumber) {
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("TicketDAO.getNbTicket", null);
+        try {
+            // queued tickets are counted in the cache already
+            Integer cachedCount = visitCountCache.get(vehicleRegNumber);
+            if (cachedCount != null) {
+                return cachedCount;
+            }
+            Connection con = null;
+            int ticketCount = 0;
+            boolean read = false;
+            // a ticket saved while reading keeps the count out of the cache
+            visitCountCache.startLoad(vehicleRegNumber);
+            try {
+                // the counter table misses the tickets of the vehicle still queued
+                syncWriteBehind(vehicleRegNumber);
+                con = dataBaseConfig.getConnection();
+                PreparedStatement ps = con.prepareStatement(DBConstants.GET_VISIT_COUNT);
+                ps.setString(1, vehicleRegNumber);
+                ResultSet rs = ps.executeQuery();
+                if (rs.next()) {
+                    ticketCount = rs.getInt(1);
+                }
+                dataBaseConfig.closeResultSet(rs);
+                dataBaseConfig.closePreparedStatement(ps);
+                read = true;
+            } catch (Exception ex) {
+                logger.error("Error counting tickets for vehicle registration number: " + vehicleRegNumber, ex);
+            } finally {
+                if (read) {
+                    visitCountCache.finishLoad(vehicleRegNumber, ticketCount);
+                } else {
+                    visitCountCache.abortLoad(vehicleRegNumber);
+                }
+                dataBaseConfig.closeConnection(con);
+            }
+            return ticketCount;
+        } finally {
+            span.end();
+            GET_NB_TICKET_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the tickets of the vehicle in this lot, archived ones included, latest entry first, null if they
+     * could not be read
+     */
+    public List<Ticket> getTickets(String vehicleRegNumber) {
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("TicketDAO.getTickets", null);
+        try {
+            syncWriteBehind();
+            syncJournal();
+            Connection con = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                PreparedStatement ps = con.prepareStatement(DBConstants.GET_TICKETS_OF_VEHICLE);
+                ps.setString(1, vehicleRegNumber);
+                ps.setString(2, vehicleRegNumber);
+                ResultSet rs = ps.executeQuery();
+                List<Ticket> tickets = new ArrayList<>();
+                while (rs.next()) {
+                    tickets.add(readTicket(rs, vehicleRegNumber));
+                }
+                dataBaseConfig.closeResultSet(rs);
+                dataBaseConfig.closePreparedStatement(ps);
+                return tickets;
+            } catch (Exception ex) {
+                logger.error("Error fetching tickets for vehicle registration number: " + vehicleRegNumber, ex);
+                return null;
+            } finally {
+                dataBaseConfig.closeConnection(con);
+            }
+        } finally {
+            span.end();
+            GET_TICKETS_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the sum of the prices of the tickets closed from (inclusive) to (exclusive), archived ones included,
+     * -1 if it could not be read
+     */
+    public double getRevenue(Date from, Date to) {
+        long start = System.nanoTime();
+        Span span = Tracer.getDefault().startChild("TicketDAO.getRevenue", null);
+        try {
+            syncWriteBehind();
+            syncJournal();
+            Connection con = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                PreparedStatement ps = con.prepareStatement(DBConstants.GET_REVENUE);
+                ps.setTimestamp(1, new Timestamp(from.getTime()));
+                ps.setTimestamp(2, new Timestamp(to.getTime()));
+                ps.setTimestamp(3, new Timestamp(from.getTime()));
+                ps.setTimestamp(4, new Timestamp(to.getTime()));
+                ResultSet rs = ps.executeQuery();
+                double revenue = rs.next() ? rs.getDouble(1) : 0;
+                dataBaseConfig.closeResultSet(rs);
+                dataBaseConfig.closePreparedStatement(ps);
+                return revenue;
+            } catch (Exception ex) {
+                logger.error("Error computing revenue", ex);
+                return -1;
+            } finally {
+                dataBaseConfig.closeConnection(con);
+            }
+        } finally {
+            span.end();
+            GET_REVENUE_TIME.record(System.nanoTime() - start);
+        }
+    }
 }
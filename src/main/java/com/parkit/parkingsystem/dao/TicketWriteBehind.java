@@ -0,0 +1,366 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Queues ticket inserts and writes them from a background thread, as JDBC batches committed once per group.
+ * A group is flushed when it reaches the batch size or when its oldest ticket has waited for the max delay.
+ * When a group cannot be inserted, its tickets are inserted one by one, so only the ones the tables refuse fail.
+ * A ticket is counted in the visit count cache as soon as it is queued, and taken back off if it cannot be written;
+ * the plates with a ticket still queued are known, so only the reads of those vehicles have to wait for a flush.
+ */
+public class TicketWriteBehind {
+
+    private static final Logger logger = LogManager.getLogger("TicketWriteBehind");
+
+    private final DataBaseConfig dataBaseConfig;
+    private final VisitCountCache visitCountCache;
+    private final OpenTicketRegistry openTicketRegistry;
+    // null if the callers give back the spots of the tickets not saved
+    private final ParkingSpotDAO parkingSpotDAO;
+    private final BlockingQueue<PendingTicket> queue;
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+    private final Thread flusher;
+    private volatile boolean running = true;
+    // enqueuers share it, shutdown takes it alone: nothing is queued once the flusher may have drained the queue
+    private final ReadWriteLock runningLock = new ReentrantReadWriteLock();
+
+    // queued or being written
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // plate -> tickets of the vehicle queued or being written
+    private final Map<String, Integer> pendingPlates = new ConcurrentHashMap<>();
+    private final AtomicLong savedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /**
+     * @param parkingSpotDAO gets back the spot of each ticket that cannot be saved, null to leave that to the callers
+     */
+    public TicketWriteBehind(DataBaseConfig dataBaseConfig, VisitCountCache visitCountCache,
+                             OpenTicketRegistry openTicketRegistry, ParkingSpotDAO parkingSpotDAO,
+                             int queueCapacity, int maxBatchSize, long maxDelayMillis) {
+        this.dataBaseConfig = dataBaseConfig;
+        this.visitCountCache = visitCountCache;
+        this.openTicketRegistry = openTicketRegistry;
+        this.parkingSpotDAO = parkingSpotDAO;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.flusher = new Thread(this::run, "ticket-write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Queues the ticket, waiting for room when the queue is full.
+     * @return completed with true once the group holding this ticket is committed, false if it could not be written
+     */
+    public CompletableFuture<Boolean> save(Ticket ticket) throws InterruptedException {
+        String vehicleRegNumber = ticket.getVehicleRegNumber();
+        // marked pending before it is counted, so a count read from the table meanwhile waits for it
+        pendingPlates.merge(vehicleRegNumber, 1, Integer::sum);
+        visitCountCache.increment(vehicleRegNumber);
+        try {
+            return enqueue(new PendingTicket(ticket));
+        } catch (InterruptedException | RuntimeException e) {
+            visitCountCache.decrement(vehicleRegNumber);
+            pendingPlates.computeIfPresent(vehicleRegNumber, (plate, count) -> count > 1 ? count - 1 : null);
+            throw e;
+        }
+    }
+
+    /**
+     * Flushes right away and waits until every ticket queued before this call has been written.
+     */
+    public void sync() throws InterruptedException {
+        if (pendingCount.get() == 0) {
+            return;
+        }
+        enqueue(new PendingTicket(null)).join();
+    }
+
+    public boolean hasPending() {
+        return pendingCount.get() > 0;
+    }
+
+    /**
+     * @return true if a ticket of the vehicle is queued or being written
+     */
+    public boolean hasPending(String vehicleRegNumber) {
+        return pendingPlates.containsKey(vehicleRegNumber);
+    }
+
+    private CompletableFuture<Boolean> enqueue(PendingTicket pending) throws InterruptedException {
+        runningLock.readLock().lockInterruptibly();
+        try {
+            if (!running) {
+                throw new IllegalStateException("Ticket write-behind is stopped");
+            }
+            pendingCount.incrementAndGet();
+            try {
+                // the flusher keeps draining while shutdown waits for the lock, so a full queue makes room
+                queue.put(pending);
+            } catch (InterruptedException e) {
+                pendingCount.decrementAndGet();
+                throw e;
+            }
+            return pending.committed;
+        } finally {
+            runningLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes what is still queued, then stops the background thread.
+     */
+    public void shutdown() {
+        runningLock.writeLock().lock();
+        try {
+            if (!running) {
+                return;
+            }
+            running = false;
+        } finally {
+            runningLock.writeLock().unlock();
+        }
+        try {
+            // wakes the flusher up so the last group is written without waiting for the max delay
+            pendingCount.incrementAndGet();
+            queue.put(new PendingTicket(null));
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<PendingTicket> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingTicket first = queue.poll(maxDelayMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                boolean syncRequested = first.ticket == null;
+                while (!syncRequested && batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingTicket next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    syncRequested = next.ticket == null;
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                logger.error("Ticket write-behind interrupted", e);
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error in ticket write-behind", e);
+                complete(batch, false);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<PendingTicket> batch) {
+        if (batch.size() == 1 && batch.get(0).ticket == null) {
+            // sync marker alone, everything before it is already written
+            complete(batch, true);
+            return;
+        }
+        int tickets = 0;
+        Connection con = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            con.setAutoCommit(false);
+            PreparedStatement ps = con.prepareStatement(DBConstants.SAVE_TICKET, Statement.RETURN_GENERATED_KEYS);
+            PreparedStatement visitPs = con.prepareStatement(DBConstants.INCREMENT_VISIT_COUNT);
+            for (PendingTicket pending : batch) {
+                if (pending.ticket == null) {
+                    continue;
+                }
+                Ticket ticket = pending.ticket;
+                ps.setInt(1, ticket.getParkingSpot().getId());
+                ps.setString(2, ticket.getVehicleRegNumber());
+                ps.setDouble(3, ticket.getPrice());
+                ps.setTimestamp(4, new Timestamp(ticket.getInTime().getTime()));
+                ps.setTimestamp(5, (ticket.getOutTime() == null) ? null : new Timestamp(ticket.getOutTime().getTime()));
+                ps.addBatch();
+                visitPs.setString(1, ticket.getVehicleRegNumber());
+                visitPs.addBatch();
+                tickets++;
+            }
+            if (tickets > 0) {
+                ps.executeBatch();
+                visitPs.executeBatch();
+                setGeneratedIds(ps, batch);
+            }
+            dataBaseConfig.closePreparedStatement(ps);
+            dataBaseConfig.closePreparedStatement(visitPs);
+            con.commit();
+            batchCount.incrementAndGet();
+            savedCount.addAndGet(tickets);
+            complete(batch, true);
+        } catch (Exception ex) {
+            logger.error("Error saving a batch of " + tickets + " tickets, saving them one by one", ex);
+            dataBaseConfig.rollback(con);
+            dataBaseConfig.closeConnection(con);
+            con = null;
+            writeOneByOne(batch);
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    // a ticket the tables refuse fails alone, the others of its group are still saved
+    private void writeOneByOne(List<PendingTicket> batch) {
+        for (PendingTicket pending : batch) {
+            if (pending.ticket == null) {
+                continue;
+            }
+            Ticket ticket = pending.ticket;
+            boolean saved = writeOne(ticket);
+            if (saved) {
+                savedCount.incrementAndGet();
+            } else {
+                failedCount.incrementAndGet();
+                openTicketRegistry.remove(ticket);
+                logger.error("Ticket not saved for vehicle " + ticket.getVehicleRegNumber());
+                giveBackSpot(ticket);
+            }
+            complete(pending, saved);
+        }
+        // the sync markers, everything before them is written or failed
+        complete(batch, true);
+    }
+
+    private boolean writeOne(Ticket ticket) {
+        Connection con = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            con.setAutoCommit(false);
+            PreparedStatement ps = con.prepareStatement(DBConstants.SAVE_TICKET, Statement.RETURN_GENERATED_KEYS);
+            ps.setInt(1, ticket.getParkingSpot().getId());
+            ps.setString(2, ticket.getVehicleRegNumber());
+            ps.setDouble(3, ticket.getPrice());
+            ps.setTimestamp(4, new Timestamp(ticket.getInTime().getTime()));
+            ps.setTimestamp(5, (ticket.getOutTime() == null) ? null : new Timestamp(ticket.getOutTime().getTime()));
+            ps.executeUpdate();
+            ResultSet generatedKeys = ps.getGeneratedKeys();
+            if (generatedKeys.next()) {
+                ticket.setId(generatedKeys.getInt(1));
+            }
+            dataBaseConfig.closeResultSet(generatedKeys);
+            dataBaseConfig.closePreparedStatement(ps);
+            PreparedStatement visitPs = con.prepareStatement(DBConstants.INCREMENT_VISIT_COUNT);
+            visitPs.setString(1, ticket.getVehicleRegNumber());
+            visitPs.executeUpdate();
+            dataBaseConfig.closePreparedStatement(visitPs);
+            con.commit();
+            return true;
+        } catch (Exception ex) {
+            logger.error("Error saving ticket of vehicle " + ticket.getVehicleRegNumber(), ex);
+            dataBaseConfig.rollback(con);
+            return false;
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    // the gate was answered before the ticket was written, nobody else knows its spot is held for nothing
+    private void giveBackSpot(Ticket ticket) {
+        if (parkingSpotDAO == null) {
+            return;
+        }
+        ParkingSpot spot = ticket.getParkingSpot();
+        ParkingSpot freed = new ParkingSpot(spot.getLotId(), spot.getId(), spot.getParkingType(), true);
+        if (!parkingSpotDAO.updateParking(freed)) {
+            logger.error("Parking spot " + spot.getId() + " of the ticket not saved for vehicle "
+                    + ticket.getVehicleRegNumber() + " stays occupied");
+        }
+    }
+
+    private void setGeneratedIds(PreparedStatement ps, List<PendingTicket> batch) throws SQLException {
+        ResultSet generatedKeys = ps.getGeneratedKeys();
+        for (PendingTicket pending : batch) {
+            if (pending.ticket != null && generatedKeys.next()) {
+                pending.ticket.setId(generatedKeys.getInt(1));
+            }
+        }
+        dataBaseConfig.closeResultSet(generatedKeys);
+    }
+
+    private void complete(List<PendingTicket> batch, boolean committed) {
+        for (PendingTicket pending : batch) {
+            complete(pending, committed);
+        }
+    }
+
+    private void complete(PendingTicket pending, boolean committed) {
+        if (!pending.committed.isDone()) {
+            if (pending.ticket != null) {
+                String vehicleRegNumber = pending.ticket.getVehicleRegNumber();
+                if (!committed) {
+                    // counted when queued
+                    visitCountCache.decrement(vehicleRegNumber);
+                }
+                pendingPlates.computeIfPresent(vehicleRegNumber, (plate, count) -> count > 1 ? count - 1 : null);
+            }
+            pendingCount.decrementAndGet();
+            pending.committed.complete(committed);
+        }
+    }
+
+    public long getSavedCount() {
+        return savedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    private static final class PendingTicket {
+        // null for a sync marker
+        private final Ticket ticket;
+        private final CompletableFuture<Boolean> committed = new CompletableFuture<>();
+
+        private PendingTicket(Ticket ticket) {
+            this.ticket = ticket;
+        }
+    }
+}
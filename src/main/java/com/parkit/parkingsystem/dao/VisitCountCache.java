@@ -0,0 +1,215 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.util.LongIntHashMap;
+import com.parkit.parkingsystem.util.PlateCodec;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the number of tickets recorded per registration number. Counts are loaded from the vehicle_visit
+ * table on a miss and incremented as tickets are saved.
+ * Plates are kept as their PlateCodec code, mapped to a slot of flat arrays, so a lookup allocates nothing and an entry
+ * takes about 40 bytes instead of 100. Once full, the slot of a vehicle not looked up since the clock hand last went by
+ * it is reused (clock approximation of least recently used). The rare plates without a code are kept apart, in a least
+ * recently used map of at most the same size.
+ * A count read from the DB is cached through startLoad and finishLoad: a ticket counted while the read was in flight
+ * may or may not be in what was read, so the read is then not cached and the next lookup reads the DB again.
+ */
+public class VisitCountCache {
+
+    private final int maxSize;
+    // plate code -> slot in plates and counts
+    private final LongIntHashMap slots;
+    private long[] plates = new long[16];
+    private int[] counts = new int[16];
+    private boolean[] referenced = new boolean[16];
+    private int used;
+    private int hand;
+    private final Map<String, Integer> otherPlates;
+    // vehicles whose count is being read from the DB
+    private final Map<String, Load> loads = new HashMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public VisitCountCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.slots = new LongIntHashMap(Math.min(Math.max(maxSize, 0), 1024));
+        this.otherPlates = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the cached count, or null if the vehicle is not cached
+     */
+    public synchronized Integer get(String vehicleRegNumber) {
+        Integer count;
+        long plate = PlateCodec.encode(vehicleRegNumber);
+        if (plate == PlateCodec.NO_CODE) {
+            count = otherPlates.get(vehicleRegNumber);
+        } else {
+            int slot = slots.getOrDefault(plate, -1);
+            if (slot >= 0) {
+                referenced[slot] = true;
+                count = counts[slot];
+            } else {
+                count = null;
+            }
+        }
+        if (count == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return count;
+    }
+
+    public synchronized void put(String vehicleRegNumber, int count) {
+        long plate = PlateCodec.encode(vehicleRegNumber);
+        if (plate == PlateCodec.NO_CODE) {
+            otherPlates.put(vehicleRegNumber, count);
+            return;
+        }
+        int slot = slots.getOrDefault(plate, -1);
+        if (slot < 0) {
+            if (maxSize <= 0) {
+                return;
+            }
+            slot = used < maxSize ? newSlot() : evict();
+            plates[slot] = plate;
+            slots.put(plate, slot);
+        }
+        counts[slot] = count;
+        referenced[slot] = true;
+    }
+
+    /**
+     * Marks the count of the vehicle as being read from the DB, to be followed by finishLoad or abortLoad.
+     */
+    public synchronized void startLoad(String vehicleRegNumber) {
+        loads.computeIfAbsent(vehicleRegNumber, plate -> new Load()).readers++;
+    }
+
+    /**
+     * Caches the count read since startLoad, unless a ticket of the vehicle was counted in between.
+     */
+    public synchronized void finishLoad(String vehicleRegNumber, int count) {
+        if (endLoad(vehicleRegNumber)) {
+            put(vehicleRegNumber, count);
+        }
+    }
+
+    public synchronized void abortLoad(String vehicleRegNumber) {
+        endLoad(vehicleRegNumber);
+    }
+
+    // true if no ticket was counted since the load started
+    private boolean endLoad(String vehicleRegNumber) {
+        Load load = loads.get(vehicleRegNumber);
+        if (load == null) {
+            return false;
+        }
+        if (--load.readers == 0) {
+            loads.remove(vehicleRegNumber);
+        }
+        return !load.stale;
+    }
+
+    /**
+     * Counts one more ticket for the vehicle. Nothing to do when it is not cached, the count is read
+     * from the DB on the next lookup.
+     */
+    public synchronized void increment(String vehicleRegNumber) {
+        markLoadsStale(vehicleRegNumber);
+        long plate = PlateCodec.encode(vehicleRegNumber);
+        if (plate == PlateCodec.NO_CODE) {
+            otherPlates.computeIfPresent(vehicleRegNumber, (key, count) -> count + 1);
+            return;
+        }
+        int slot = slots.getOrDefault(plate, -1);
+        if (slot >= 0) {
+            counts[slot]++;
+        }
+    }
+
+    /**
+     * Takes back a ticket counted by increment that was not recorded after all.
+     */
+    public synchronized void decrement(String vehicleRegNumber) {
+        markLoadsStale(vehicleRegNumber);
+        long plate = PlateCodec.encode(vehicleRegNumber);
+        if (plate == PlateCodec.NO_CODE) {
+            otherPlates.computeIfPresent(vehicleRegNumber, (key, count) -> count - 1);
+            return;
+        }
+        int slot = slots.getOrDefault(plate, -1);
+        if (slot >= 0) {
+            counts[slot]--;
+        }
+    }
+
+    private void markLoadsStale(String vehicleRegNumber) {
+        if (!loads.isEmpty()) {
+            Load load = loads.get(vehicleRegNumber);
+            if (load != null) {
+                load.stale = true;
+            }
+        }
+    }
+
+    private int newSlot() {
+        if (used == plates.length) {
+            int length = (int) Math.min((long) maxSize, plates.length * 2L);
+            plates = Arrays.copyOf(plates, length);
+            counts = Arrays.copyOf(counts, length);
+            referenced = Arrays.copyOf(referenced, length);
+        }
+        return used++;
+    }
+
+    // the first slot of the clock not referenced since its last turn, clearing the references on the way
+    private int evict() {
+        while (referenced[hand]) {
+            referenced[hand] = false;
+            hand = (hand + 1) % used;
+        }
+        int slot = hand;
+        hand = (hand + 1) % used;
+        slots.remove(plates[slot]);
+        return slot;
+    }
+
+    public synchronized void clear() {
+        slots.clear();
+        Arrays.fill(referenced, 0, used, false);
+        used = 0;
+        hand = 0;
+        otherPlates.clear();
+        loads.values().forEach(load -> load.stale = true);
+    }
+
+    public synchronized int size() {
+        return slots.size() + otherPlates.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private static final class Load {
+        private int readers;
+        // a ticket was counted while reading, or the cache was cleared
+        private boolean stale;
+    }
+}
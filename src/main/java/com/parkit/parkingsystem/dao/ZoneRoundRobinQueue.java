@@ -0,0 +1,70 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.model.ParkingSpot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * One ranked queue per zone, nearest spot to the gate first. Peek starts from the zone after the one of the last
+ * spot taken, so consecutive vehicles go to consecutive zones.
+ */
+class ZoneRoundRobinQueue implements FreeSpotQueue {
+
+    private final RankedSpotQueue[] zones;
+    // index in zones of each parking number
+    private final int[] zoneOf;
+    private volatile int nextZone;
+
+    ZoneRoundRobinQueue(List<ParkingSpot> spots, int maxNumber) {
+        TreeSet<String> names = new TreeSet<>();
+        for (ParkingSpot spot : spots) {
+            names.add(zoneName(spot));
+        }
+        Map<String, Integer> indexes = new HashMap<>();
+        for (String name : names) {
+            indexes.put(name, indexes.size());
+        }
+        int[] distances = new int[maxNumber + 1];
+        zoneOf = new int[maxNumber + 1];
+        for (ParkingSpot spot : spots) {
+            distances[spot.getId()] = Math.max(0, spot.getDistance());
+            zoneOf[spot.getId()] = indexes.get(zoneName(spot));
+        }
+        List<RankedSpotQueue> queues = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, names.size()); i++) {
+            queues.add(new RankedSpotQueue(maxNumber, parkingNumber -> distances[parkingNumber]));
+        }
+        zones = queues.toArray(new RankedSpotQueue[0]);
+    }
+
+    private static String zoneName(ParkingSpot spot) {
+        return spot.getZone() != null ? spot.getZone() : "";
+    }
+
+    @Override
+    public int peek() {
+        int start = nextZone;
+        for (int i = 0; i < zones.length; i++) {
+            int parkingNumber = zones[(start + i) % zones.length].peek();
+            if (parkingNumber > 0) {
+                return parkingNumber;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void add(int parkingNumber) {
+        zones[zoneOf[parkingNumber]].add(parkingNumber);
+    }
+
+    @Override
+    public void remove(int parkingNumber) {
+        zones[zoneOf[parkingNumber]].remove(parkingNumber);
+        nextZone = (zoneOf[parkingNumber] + 1) % zones.length;
+    }
+}
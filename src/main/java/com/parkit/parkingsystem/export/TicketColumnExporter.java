@@ -0,0 +1,301 @@
+package com.parkit.parkingsystem.export;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ReportDAO;
+import com.parkit.parkingsystem.report.ReportService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports the ticket history to a columnar file (see TicketColumnFile for the layout), read from a single
+ * streamed pass over the ticket tables. Each column is written to a temporary file as the tickets come, then the
+ * columns are put together behind the header, so memory only holds the plate dictionary and the block index.
+ */
+public class TicketColumnExporter {
+
+    private static final Logger logger = LogManager.getLogger("TicketColumnExporter");
+
+    private final ReportDAO reportDAO;
+
+    public TicketColumnExporter(ReportDAO reportDAO) {
+        this.reportDAO = reportDAO;
+    }
+
+    /**
+     * Writes the tickets that entered from (inclusive) to (exclusive) to the file, replacing it.
+     * @return the number of tickets exported, -1 if they could not be read
+     */
+    public long export(Date from, Date to, Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        ColumnsWriter columns = new ColumnsWriter(directory);
+        try {
+            long rows = reportDAO.scanTicketHistory(from, to, columns);
+            if (columns.failure != null) {
+                throw columns.failure;
+            }
+            if (rows < 0) {
+                return -1;
+            }
+            columns.finish();
+            Path partial = Files.createTempFile(directory, "tickets", ".partial");
+            try {
+                columns.writeTo(partial);
+                Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(partial);
+            }
+            logger.info("Exported " + rows + " tickets to " + file);
+            return rows;
+        } finally {
+            columns.delete();
+        }
+    }
+
+    /**
+     * Encodes the tickets as they are streamed, one temporary file per column.
+     */
+    private static class ColumnsWriter implements ReportDAO.TicketHistoryHandler {
+        private final Column inTimes;
+        private final Column stays;
+        private final Column types;
+        private final Column parkingNumbers;
+        private final Column plates;
+        private final Column prices;
+        private final Map<String, Integer> plateCodes = new HashMap<>();
+        private final List<String> dictionary = new ArrayList<>();
+        // inTime offset, stay offset, min and max in time of each block
+        private final List<long[]> blocks = new ArrayList<>();
+        private int rowCount;
+        private long previousInTime;
+        private IOException failure;
+
+        ColumnsWriter(Path directory) throws IOException {
+            List<Column> created = new ArrayList<>();
+            try {
+                inTimes = add(created, new Column(directory));
+                stays = add(created, new Column(directory));
+                types = add(created, new Column(directory));
+                parkingNumbers = add(created, new Column(directory));
+                plates = add(created, new Column(directory));
+                prices = add(created, new Column(directory));
+            } catch (IOException e) {
+                for (Column column : created) {
+                    column.delete();
+                }
+                throw e;
+            }
+        }
+
+        private static Column add(List<Column> created, Column column) {
+            created.add(column);
+            return column;
+        }
+
+        @Override
+        public void onTicket(String vehicleRegNumber, int parkingNumber, ParkingType parkingType, long inTime,
+                             long outTime, double price) {
+            if (failure != null) {
+                return;
+            }
+            if (outTime >= 0 && outTime < inTime) {
+                // its stay cannot be told apart from a vehicle still parked
+                failure = new IOException("Ticket of " + vehicleRegNumber + " exits at " + new Date(outTime)
+                        + ", before its entry at " + new Date(inTime));
+                return;
+            }
+            try {
+                long inSeconds = TimeUnit.MILLISECONDS.toSeconds(inTime);
+                if (rowCount % TicketColumnFile.BLOCK_ROWS == 0) {
+                    // each block starts its own delta chain, so it can be decoded on its own
+                    blocks.add(new long[]{inTimes.size(), stays.size(), inSeconds, inSeconds});
+                    previousInTime = 0;
+                }
+                long[] block = blocks.get(blocks.size() - 1);
+                block[2] = Math.min(block[2], inSeconds);
+                block[3] = Math.max(block[3], inSeconds);
+                inTimes.writeVarLong(TicketColumnFile.zigZag(inSeconds - previousInTime));
+                previousInTime = inSeconds;
+                // 0 while parked, the stay in seconds plus one otherwise
+                stays.writeVarLong(outTime < 0 ? 0 : TimeUnit.MILLISECONDS.toSeconds(outTime) - inSeconds + 1);
+                types.writeByte(parkingType.ordinal());
+                parkingNumbers.writeInt(parkingNumber);
+                Integer plateCode = plateCodes.get(vehicleRegNumber);
+                if (plateCode == null) {
+                    plateCode = dictionary.size();
+                    plateCodes.put(vehicleRegNumber, plateCode);
+                    dictionary.add(vehicleRegNumber);
+                }
+                plates.writeInt(plateCode);
+                prices.writeInt((int) Math.round(price * 100));
+                rowCount++;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        void finish() throws IOException {
+            for (Column column : new Column[]{inTimes, stays, types, parkingNumbers, plates, prices}) {
+                column.close();
+            }
+        }
+
+        void writeTo(Path file) throws IOException {
+            ByteBuffer blockIndex = ByteBuffer.allocate(blocks.size() * TicketColumnFile.BLOCK_ENTRY_SIZE);
+            for (long[] block : blocks) {
+                for (long value : block) {
+                    blockIndex.putLong(value);
+                }
+            }
+            blockIndex.flip();
+            int dictionaryLength = 0;
+            List<byte[]> encodedPlates = new ArrayList<>(dictionary.size());
+            for (String plate : dictionary) {
+                byte[] encoded = plate.getBytes(StandardCharsets.UTF_8);
+                encodedPlates.add(encoded);
+                dictionaryLength += 2 + encoded.length;
+            }
+            ByteBuffer dictionaryBuffer = ByteBuffer.allocate(dictionaryLength);
+            for (byte[] encoded : encodedPlates) {
+                dictionaryBuffer.putShort((short) encoded.length).put(encoded);
+            }
+            dictionaryBuffer.flip();
+
+            long blockIndexOffset = TicketColumnFile.HEADER_SIZE;
+            long inTimeOffset = blockIndexOffset + blockIndex.remaining();
+            long stayOffset = inTimeOffset + inTimes.size();
+            long typeOffset = stayOffset + stays.size();
+            long parkingNumberOffset = typeOffset + types.size();
+            long plateOffset = parkingNumberOffset + parkingNumbers.size();
+            long priceOffset = plateOffset + plates.size();
+            long dictionaryOffset = priceOffset + prices.size();
+            long length = dictionaryOffset + dictionaryBuffer.remaining();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Export of " + length + " bytes is too large to be mapped, export a shorter period");
+            }
+            ByteBuffer header = ByteBuffer.allocate(TicketColumnFile.HEADER_SIZE);
+            header.putInt(TicketColumnFile.MAGIC).putInt(TicketColumnFile.VERSION).putInt(rowCount)
+                    .putInt(TicketColumnFile.BLOCK_ROWS).putInt(blocks.size()).putInt(dictionary.size())
+                    .putLong(blockIndexOffset).putLong(inTimeOffset).putLong(stayOffset).putLong(typeOffset)
+                    .putLong(parkingNumberOffset).putLong(plateOffset).putLong(priceOffset).putLong(dictionaryOffset)
+                    .putLong(length);
+            header.flip();
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(channel, header);
+                write(channel, blockIndex);
+                for (Column column : new Column[]{inTimes, stays, types, parkingNumbers, plates, prices}) {
+                    try (FileChannel columnChannel = FileChannel.open(column.file, StandardOpenOption.READ)) {
+                        long position = 0;
+                        while (position < column.size()) {
+                            position += columnChannel.transferTo(position, column.size() - position, channel);
+                        }
+                    }
+                }
+                write(channel, dictionaryBuffer);
+                channel.force(true);
+            }
+        }
+
+        private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        void delete() throws IOException {
+            for (Column column : new Column[]{inTimes, stays, types, parkingNumbers, plates, prices}) {
+                column.delete();
+            }
+        }
+    }
+
+    /**
+     * One column being written, in a temporary file.
+     */
+    private static class Column {
+        private final Path file;
+        private final DataOutputStream out;
+        // counted here, DataOutputStream.size() stops at Integer.MAX_VALUE
+        private long size;
+
+        Column(Path directory) throws IOException {
+            file = Files.createTempFile(directory, "tickets", ".column");
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+        }
+
+        long size() {
+            return size;
+        }
+
+        void writeByte(int value) throws IOException {
+            out.writeByte(value);
+            size++;
+        }
+
+        void writeInt(int value) throws IOException {
+            out.writeInt(value);
+            size += 4;
+        }
+
+        // 7 bits per byte, the high bit set on every byte but the last
+        void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        void close() throws IOException {
+            out.close();
+        }
+
+        void delete() throws IOException {
+            out.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Exports the tickets of a period of the production database to the file. Dates are local dates (whole days)
+     * or local date times.
+     */
+    public static void run(String from, String to, String file) throws IOException {
+        ReportDAO reportDAO = new ReportDAO();
+        reportDAO.dataBaseConfig = new DataBaseConfig();
+        long start = System.nanoTime();
+        long rows;
+        try {
+            rows = new TicketColumnExporter(reportDAO).export(ReportService.parseDate(from), ReportService.parseDate(to),
+                    Paths.get(file));
+        } finally {
+            reportDAO.dataBaseConfig.shutdown();
+        }
+        if (rows < 0) {
+            System.out.println("Unable to export the tickets, see the logs");
+            return;
+        }
+        System.out.println(rows + " tickets exported to " + file + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+}
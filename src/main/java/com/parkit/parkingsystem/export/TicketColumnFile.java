@@ -0,0 +1,202 @@
+package com.parkit.parkingsystem.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ticket history exported by TicketColumnExporter, memory-mapped: queries (see query) read the columns in place,
+ * without copying them to the heap, and the file can be shared by any number of threads.
+ * <pre>
+ * header         magic, version, row count, rows per block, block count, dictionary size, offset of each section
+ * block index    per block of BLOCK_ROWS tickets: offsets of the block in the in time and stay columns,
+ *                lowest and highest in time, so blocks out of a date filter are skipped without being read
+ * in time        epoch seconds, zig-zag varint of the difference with the previous ticket of the block
+ * stay           varint, 0 while parked, the stay in seconds plus one otherwise
+ * type           one byte per ticket, ParkingType ordinal
+ * parking number int per ticket
+ * plate          int per ticket, index in the dictionary
+ * price          int per ticket, in cents
+ * dictionary     distinct plates, length-prefixed UTF-8
+ * </pre>
+ * Numbers are big-endian. Files are limited to 2 GB, the size of one mapping.
+ */
+public class TicketColumnFile implements Closeable {
+
+    static final int MAGIC = 0x504B5443;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 96;
+    static final int BLOCK_ROWS = 4096;
+    static final int BLOCK_ENTRY_SIZE = 32;
+
+    private final ByteBuffer buffer;
+    private final int rowCount;
+    private final int blockCount;
+    private final int dictionarySize;
+    private final int blockIndexOffset;
+    private final int inTimeOffset;
+    private final int stayOffset;
+    private final int typeOffset;
+    private final int plateOffset;
+    private final int priceOffset;
+    private final int dictionaryOffset;
+    // decoded on first use
+    private volatile String[] dictionary;
+    private volatile Map<String, Integer> plateCodes;
+
+    private TicketColumnFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a ticket column file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported ticket column file version " + buffer.getInt(4));
+        }
+        rowCount = buffer.getInt(8);
+        if (buffer.getInt(12) != BLOCK_ROWS) {
+            throw new IOException("Unsupported block size " + buffer.getInt(12));
+        }
+        blockCount = buffer.getInt(16);
+        dictionarySize = buffer.getInt(20);
+        blockIndexOffset = (int) buffer.getLong(24);
+        inTimeOffset = (int) buffer.getLong(32);
+        stayOffset = (int) buffer.getLong(40);
+        typeOffset = (int) buffer.getLong(48);
+        // parking numbers at 56 are not queried
+        plateOffset = (int) buffer.getLong(64);
+        priceOffset = (int) buffer.getLong(72);
+        dictionaryOffset = (int) buffer.getLong(80);
+        if (buffer.getLong(88) != buffer.capacity()) {
+            throw new IOException("Truncated ticket column file");
+        }
+    }
+
+    /**
+     * Maps the file, which can be closed or deleted afterwards: the mapping stays valid until it is garbage collected.
+     */
+    public static TicketColumnFile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Ticket column file larger than 2 GB: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new TicketColumnFile(mapped);
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return a query over every ticket of the file, to narrow down with its filters
+     */
+    public TicketQuery query() {
+        return new TicketQuery(this);
+    }
+
+    // the mapping is released by the garbage collector, Java 8 has no API to unmap it earlier
+    @Override
+    public void close() {
+    }
+
+    int getBlockCount() {
+        return blockCount;
+    }
+
+    long getBlockMinInSeconds(int block) {
+        return buffer.getLong(blockIndexOffset + block * BLOCK_ENTRY_SIZE + 16);
+    }
+
+    long getBlockMaxInSeconds(int block) {
+        return buffer.getLong(blockIndexOffset + block * BLOCK_ENTRY_SIZE + 24);
+    }
+
+    int getBlockInTimePosition(int block) {
+        return inTimeOffset + (int) buffer.getLong(blockIndexOffset + block * BLOCK_ENTRY_SIZE);
+    }
+
+    int getBlockStayPosition(int block) {
+        return stayOffset + (int) buffer.getLong(blockIndexOffset + block * BLOCK_ENTRY_SIZE + 8);
+    }
+
+    int getType(int row) {
+        return buffer.get(typeOffset + row);
+    }
+
+    int getPlateCode(int row) {
+        return buffer.getInt(plateOffset + 4 * row);
+    }
+
+    int getPriceCents(int row) {
+        return buffer.getInt(priceOffset + 4 * row);
+    }
+
+    /**
+     * Reads the varint at the position, 7 bits per byte, low bits first, the high bit set on every byte but the last.
+     * @return the value, the position following it is put in next[0]
+     */
+    long readVarLong(int position, int[] next) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(position++);
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        next[0] = position;
+        return value;
+    }
+
+    /**
+     * @return the code of the plate in the dictionary, -1 if no ticket has this plate
+     */
+    int getPlateCode(String plate) {
+        Map<String, Integer> codes = plateCodes;
+        if (codes == null) {
+            String[] plates = getDictionary();
+            codes = new HashMap<>(plates.length * 2);
+            for (int code = 0; code < plates.length; code++) {
+                codes.put(plates[code], code);
+            }
+            plateCodes = codes;
+        }
+        Integer code = codes.get(plate);
+        return code == null ? -1 : code;
+    }
+
+    private String[] getDictionary() {
+        String[] plates = dictionary;
+        if (plates == null) {
+            plates = new String[dictionarySize];
+            int position = dictionaryOffset;
+            for (int code = 0; code < dictionarySize; code++) {
+                int length = buffer.getShort(position) & 0xFFFF;
+                byte[] encoded = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    encoded[i] = buffer.get(position + 2 + i);
+                }
+                plates[code] = new String(encoded, StandardCharsets.UTF_8);
+                position += 2 + length;
+            }
+            dictionary = plates;
+        }
+        return plates;
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,120 @@
+package com.parkit.parkingsystem.export;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Count and sums over the tickets of a TicketColumnFile matching all the filters set, computed straight from the
+ * mapped columns. Blocks whose entries are all out of the date filter are skipped, the plate filter compares
+ * dictionary codes, and only the columns the filters and the result need are read.
+ */
+public class TicketQuery {
+
+    private final TicketColumnFile file;
+    private long fromSeconds = Long.MIN_VALUE;
+    private long toSeconds = Long.MAX_VALUE;
+    private int type = -1;
+    private String plate;
+
+    TicketQuery(TicketColumnFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Keeps the tickets that entered from this time (inclusive).
+     */
+    public TicketQuery enteredFrom(Date from) {
+        fromSeconds = TimeUnit.MILLISECONDS.toSeconds(from.getTime() + 999);
+        return this;
+    }
+
+    /**
+     * Keeps the tickets that entered before this time (exclusive).
+     */
+    public TicketQuery enteredTo(Date to) {
+        toSeconds = TimeUnit.MILLISECONDS.toSeconds(to.getTime() + 999);
+        return this;
+    }
+
+    public TicketQuery type(ParkingType parkingType) {
+        type = parkingType.ordinal();
+        return this;
+    }
+
+    public TicketQuery plate(String vehicleRegNumber) {
+        plate = vehicleRegNumber;
+        return this;
+    }
+
+    public long count() {
+        return scan(false, false)[0];
+    }
+
+    /**
+     * @return the sum of the prices, open tickets counting for 0
+     */
+    public double sumPrice() {
+        return scan(true, false)[1] / 100.0;
+    }
+
+    /**
+     * @return the sum of the stays of the closed tickets, in seconds
+     */
+    public long sumStaySeconds() {
+        return scan(false, true)[2];
+    }
+
+    // count, price in cents and stay of the matching tickets
+    private long[] scan(boolean prices, boolean stays) {
+        long[] result = new long[3];
+        int plateCode = -1;
+        if (plate != null) {
+            plateCode = file.getPlateCode(plate);
+            if (plateCode < 0) {
+                return result;
+            }
+        }
+        boolean filterTime = fromSeconds != Long.MIN_VALUE || toSeconds != Long.MAX_VALUE;
+        int[] next = new int[1];
+        int[] nextStay = new int[1];
+        for (int block = 0; block < file.getBlockCount(); block++) {
+            if (file.getBlockMaxInSeconds(block) < fromSeconds || file.getBlockMinInSeconds(block) >= toSeconds) {
+                continue;
+            }
+            int firstRow = block * TicketColumnFile.BLOCK_ROWS;
+            int endRow = Math.min(file.getRowCount(), firstRow + TicketColumnFile.BLOCK_ROWS);
+            boolean wholeBlock = file.getBlockMinInSeconds(block) >= fromSeconds
+                    && file.getBlockMaxInSeconds(block) < toSeconds;
+            boolean readTimes = filterTime && !wholeBlock;
+            next[0] = file.getBlockInTimePosition(block);
+            nextStay[0] = file.getBlockStayPosition(block);
+            long inSeconds = 0;
+            for (int row = firstRow; row < endRow; row++) {
+                if (readTimes) {
+                    inSeconds += TicketColumnFile.unZigZag(file.readVarLong(next[0], next));
+                }
+                // the stay column can only be read in sequence
+                long stay = stays ? file.readVarLong(nextStay[0], nextStay) : 0;
+                if (readTimes && (inSeconds < fromSeconds || inSeconds >= toSeconds)) {
+                    continue;
+                }
+                if (type >= 0 && file.getType(row) != type) {
+                    continue;
+                }
+                if (plateCode >= 0 && file.getPlateCode(row) != plateCode) {
+                    continue;
+                }
+                result[0]++;
+                if (prices) {
+                    result[1] += file.getPriceCents(row);
+                }
+                if (stay > 0) {
+                    result[2] += stay - 1;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,60 @@
+package com.parkit.parkingsystem.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events and their rate per second over the last few seconds. Marking is lock-free: events go to a
+ * ring of one-second slots, a slot is cleared by the first event of the second reusing it. An event marked
+ * while its slot is being cleared can be missed by the rate, never by the count.
+ */
+public class Meter {
+
+    private static final int SLOTS = 8;
+    private static final int RATE_SECONDS = 5;
+
+    private final LongAdder count = new LongAdder();
+    private final AtomicLongArray slotCounts = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray slotSeconds = new AtomicLongArray(SLOTS);
+
+    public Meter() {
+        for (int slot = 0; slot < SLOTS; slot++) {
+            slotSeconds.set(slot, Long.MIN_VALUE);
+        }
+    }
+
+    public void mark() {
+        long second = currentSecond();
+        int slot = (int) (second & (SLOTS - 1));
+        long slotSecond = slotSeconds.get(slot);
+        if (slotSecond != second && slotSeconds.compareAndSet(slot, slotSecond, second)) {
+            slotCounts.set(slot, 0);
+        }
+        slotCounts.incrementAndGet(slot);
+        count.increment();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the mean number of events per second over the last 5 complete seconds
+     */
+    public double getRatePerSecond() {
+        long second = currentSecond();
+        long events = 0;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            long age = second - slotSeconds.get(slot);
+            if (age >= 1 && age <= RATE_SECONDS) {
+                events += slotCounts.get(slot);
+            }
+        }
+        return (double) events / RATE_SECONDS;
+    }
+
+    private long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    }
+}
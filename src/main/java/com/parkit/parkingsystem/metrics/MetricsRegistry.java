@@ -0,0 +1,133 @@
+package com.parkit.parkingsystem.metrics;
+
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Named timers, counters, meters and gauges, readable over JMX as the attributes of one MBean
+ * (com.parkit.parkingsystem:type=Metrics, see registerMBean). Instruments are created once and kept
+ * in fields, so recording is only a few lock-free updates; all the aggregation is done when reading.
+ */
+public class MetricsRegistry {
+
+    private static final Logger logger = LogManager.getLogger("MetricsRegistry");
+
+    public static final String OBJECT_NAME = "com.parkit.parkingsystem:type=Metrics";
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final ConcurrentMap<String, LatencyHistogram> timers = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Meter> meters = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private ObjectName registeredName;
+
+    /**
+     * @return the registry the DAOs and services of the app record to
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the durations of an operation, in nanoseconds
+     */
+    public LatencyHistogram timer(String name) {
+        return timers.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    public Meter meter(String name) {
+        return meters.computeIfAbsent(name, key -> new Meter());
+    }
+
+    /**
+     * Registers a value computed when read, replacing the gauge of the same name if any.
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * @return the current value of every metric, by attribute name: count, mean, p50, p99 and max in microseconds
+     * for the timers, count and rate per second for the meters, the value for the counters and gauges
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> timer : timers.entrySet()) {
+            LatencyHistogram latency = timer.getValue();
+            String name = timer.getKey();
+            values.put(name + ".count", latency.getCount());
+            values.put(name + ".meanMicros", latency.getMean(TimeUnit.MICROSECONDS));
+            values.put(name + ".p50Micros", latency.getPercentile(50, TimeUnit.MICROSECONDS));
+            values.put(name + ".p99Micros", latency.getPercentile(99, TimeUnit.MICROSECONDS));
+            values.put(name + ".maxMicros", latency.getMax(TimeUnit.MICROSECONDS));
+        }
+        for (Map.Entry<String, Meter> meter : meters.entrySet()) {
+            values.put(meter.getKey() + ".count", meter.getValue().getCount());
+            values.put(meter.getKey() + ".perSecond", meter.getValue().getRatePerSecond());
+        }
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().sum());
+        }
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            try {
+                values.put(gauge.getKey(), gauge.getValue().getAsLong());
+            } catch (RuntimeException e) {
+                logger.error("Error reading gauge " + gauge.getKey(), e);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Exposes the registry on the platform MBean server, does nothing if it is already registered.
+     * @return false if JMX refused the registration
+     */
+    public synchronized boolean registerMBean() {
+        if (registeredName != null) {
+            return true;
+        }
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new MetricsMBean(this), name);
+            registeredName = name;
+            return true;
+        } catch (JMException e) {
+            logger.error("Error registering the metrics MBean", e);
+            return false;
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException e) {
+            logger.error("Error unregistering the metrics MBean", e);
+        }
+        registeredName = null;
+    }
+}
@@ -0,0 +1,36 @@
+package com.parkit.parkingsystem.model;
+
+/**
+ * The open ticket of an exiting vehicle, along with the number of tickets recorded for that vehicle
+ * (the open one included).
+ */
+public class ExitTicket {
+
+    /**
+     * Visit count of a vehicle whose count could not be read without going to the DB, in journal mode.
+     */
+    public static final int UNKNOWN_VISIT_COUNT = -1;
+
+    private final Ticket ticket;
+    private final int visitCount;
+
+    public ExitTicket(Ticket ticket, int visitCount) {
+        this.ticket = ticket;
+        this.visitCount = visitCount;
+    }
+
+    public Ticket getTicket() {
+        return ticket;
+    }
+
+    /**
+     * @return the number of tickets of the vehicle, or UNKNOWN_VISIT_COUNT
+     */
+    public int getVisitCount() {
+        return visitCount;
+    }
+
+    public boolean isVisitCountKnown() {
+        return visitCount != UNKNOWN_VISIT_COUNT;
+    }
+}
@@ -0,0 +1,52 @@
+package com.parkit.parkingsystem.model;
+
+/**
+ * Outcome of an entry or an exit at a gate: the ticket, or whether the vehicle was refused (no spot free, not
+ * parked) or could not be served because of an error, so gates can tell a vehicle to go away from one to try again.
+ */
+public class GateResult {
+
+    public enum Status {
+        DONE, REFUSED, FAILED
+    }
+
+    private final Status status;
+    private final Ticket ticket;
+    private final String reason;
+
+    private GateResult(Status status, Ticket ticket, String reason) {
+        this.status = status;
+        this.ticket = ticket;
+        this.reason = reason;
+    }
+
+    public static GateResult done(Ticket ticket) {
+        return new GateResult(Status.DONE, ticket, null);
+    }
+
+    public static GateResult refused(String reason) {
+        return new GateResult(Status.REFUSED, null, reason);
+    }
+
+    public static GateResult failed(String reason) {
+        return new GateResult(Status.FAILED, null, reason);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the ticket, null unless the status is DONE
+     */
+    public Ticket getTicket() {
+        return ticket;
+    }
+
+    /**
+     * @return why there is no ticket, null if the status is DONE
+     */
+    public String getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,42 @@
+package com.parkit.parkingsystem.model;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+
+/**
+ * A vehicle going through a gate, as reported by the gate controller.
+ */
+public class ParkingEvent {
+
+    public enum Action {
+        ENTRY, EXIT
+    }
+
+    private final Action action;
+    // only set for entries
+    private final ParkingType parkingType;
+    private final String vehicleRegNumber;
+    private final long timeMillis;
+
+    public ParkingEvent(Action action, ParkingType parkingType, String vehicleRegNumber, long timeMillis) {
+        this.action = action;
+        this.parkingType = parkingType;
+        this.vehicleRegNumber = vehicleRegNumber;
+        this.timeMillis = timeMillis;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    public ParkingType getParkingType() {
+        return parkingType;
+    }
+
+    public String getVehicleRegNumber() {
+        return vehicleRegNumber;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+}
@@ -2,17 +2,43 @@ package com.parkit.parkingsystem.model;
 
 import com.parkit.parkingsystem.constants.ParkingType;
 
+import java.util.Objects;
+
 public class ParkingSpot {
+
+    /**
+     * Lot of the spots when the app manages a single lot.
+     */
+    public static final String DEFAULT_LOT_ID = "default";
+
+    private String lotId;
     private int number;
     private ParkingType parkingType;
     private boolean isAvailable;
+    // level or zone of the lot, null if the lot has a single one
+    private String zone;
+    // walking distance from the entrance gate, in any unit
+    private int distance;
 
     public ParkingSpot(int number, ParkingType parkingType, boolean isAvailable) {
+        this(DEFAULT_LOT_ID, number, parkingType, isAvailable);
+    }
+
+    public ParkingSpot(String lotId, int number, ParkingType parkingType, boolean isAvailable) {
+        this.lotId = lotId;
         this.number = number;
         this.parkingType = parkingType;
         this.isAvailable = isAvailable;
     }
 
+    public String getLotId() {
+        return lotId;
+    }
+
+    public void setLotId(String lotId) {
+        this.lotId = lotId;
+    }
+
     public int getId() {
         return number;
     }
@@ -37,16 +63,32 @@ public class ParkingSpot {
         isAvailable = available;
     }
 
+    public String getZone() {
+        return zone;
+    }
+
+    public void setZone(String zone) {
+        this.zone = zone;
+    }
+
+    public int getDistance() {
+        return distance;
+    }
+
+    public void setDistance(int distance) {
+        this.distance = distance;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ParkingSpot that = (ParkingSpot) o;
-        return number == that.number;
+        return number == that.number && Objects.equals(lotId, that.lotId);
     }
 
     @Override
     public int hashCode() {
-        return number;
+        return 31 * Objects.hashCode(lotId) + number;
     }
 }
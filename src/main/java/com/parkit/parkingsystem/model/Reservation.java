@@ -0,0 +1,93 @@
+package com.parkit.parkingsystem.model;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+
+import java.util.Date;
+
+/**
+ * A parking type booked by a vehicle for a time window. The spot is only chosen when the vehicle arrives, among
+ * the free spots of the type.
+ */
+public class Reservation {
+
+    public enum Status {
+        BOOKED, CHECKED_IN, CANCELLED
+    }
+
+    private String lotId = ParkingSpot.DEFAULT_LOT_ID;
+    private int id;
+    private ParkingType parkingType;
+    private String vehicleRegNumber;
+    private Date start;
+    private Date end;
+    private volatile Status status = Status.BOOKED;
+
+    public Reservation() {
+    }
+
+    public Reservation(ParkingType parkingType, String vehicleRegNumber, Date start, Date end) {
+        this.parkingType = parkingType;
+        this.vehicleRegNumber = vehicleRegNumber;
+        this.start = start;
+        this.end = end;
+    }
+
+    public String getLotId() {
+        return lotId;
+    }
+
+    public void setLotId(String lotId) {
+        this.lotId = lotId;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public ParkingType getParkingType() {
+        return parkingType;
+    }
+
+    public void setParkingType(ParkingType parkingType) {
+        this.parkingType = parkingType;
+    }
+
+    public String getVehicleRegNumber() {
+        return vehicleRegNumber;
+    }
+
+    public void setVehicleRegNumber(String vehicleRegNumber) {
+        this.vehicleRegNumber = vehicleRegNumber;
+    }
+
+    public Date getStart() {
+        return start;
+    }
+
+    public void setStart(Date start) {
+        this.start = start;
+    }
+
+    /**
+     * @return the end of the window, exclusive
+     */
+    public Date getEnd() {
+        return end;
+    }
+
+    public void setEnd(Date end) {
+        this.end = end;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+}
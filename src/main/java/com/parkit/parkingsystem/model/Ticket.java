@@ -3,12 +3,52 @@ package com.parkit.parkingsystem.model;
 import java.util.Date;
 
 public class Ticket {
+
+    /**
+     * Size of the VEHICLE_REG_NUMBER columns.
+     */
+    public static final int MAX_VEHICLE_REG_NUMBER_LENGTH = 10;
+
+    private String lotId = ParkingSpot.DEFAULT_LOT_ID;
     private int id;
     private ParkingSpot parkingSpot;
     private String vehicleRegNumber;
     private double price;
     private Date inTime;
     private Date outTime;
+    // fill integral of the parking type read at entry and its time, see OccupancyModel.getFillIntegral
+    private double entryFillIntegral = Double.NaN;
+    private long entryFillTime;
+
+    public Ticket() {
+    }
+
+    /**
+     * Copies the ticket, its parking spot included.
+     */
+    public Ticket(Ticket ticket) {
+        this.lotId = ticket.lotId;
+        this.id = ticket.id;
+        this.parkingSpot = ticket.parkingSpot == null ? null : new ParkingSpot(ticket.parkingSpot.getLotId(),
+                ticket.parkingSpot.getId(), ticket.parkingSpot.getParkingType(), ticket.parkingSpot.isAvailable());
+        this.vehicleRegNumber = ticket.vehicleRegNumber;
+        this.price = ticket.price;
+        this.inTime = ticket.inTime == null ? null : new Date(ticket.inTime.getTime());
+        this.outTime = ticket.outTime == null ? null : new Date(ticket.outTime.getTime());
+        this.entryFillIntegral = ticket.entryFillIntegral;
+        this.entryFillTime = ticket.entryFillTime;
+    }
+
+    /**
+     * @return the lot the ticket was issued in, ticket ids are only unique within a lot
+     */
+    public String getLotId() {
+        return lotId;
+    }
+
+    public void setLotId(String lotId) {
+        this.lotId = lotId;
+    }
 
     public int getId() {
         return id;
@@ -57,4 +97,44 @@ public class Ticket {
     public void setOutTime(Date outTime) {
         this.outTime = outTime;
     }
+
+    /**
+     * Records the fill integral of the parking type read when the vehicle came in, so the surge can be priced on
+     * the fill averaged over the stay. Kept in memory only: tickets read from the DB have none.
+     */
+    public void setEntryFill(double fillIntegral, long timeMillis) {
+        this.entryFillIntegral = fillIntegral;
+        this.entryFillTime = timeMillis;
+    }
+
+    public boolean hasEntryFill() {
+        return !Double.isNaN(entryFillIntegral);
+    }
+
+    public double getEntryFillIntegral() {
+        return entryFillIntegral;
+    }
+
+    public long getEntryFillTime() {
+        return entryFillTime;
+    }
+
+    /**
+     * @return true if the registration number fits the VEHICLE_REG_NUMBER columns: 1 to 10 characters, not all
+     * blank, without control characters or characters outside the Basic Multilingual Plane (which the MySQL utf8
+     * charset cannot store)
+     */
+    public static boolean isValidVehicleRegNumber(String vehicleRegNumber) {
+        if (vehicleRegNumber == null || vehicleRegNumber.length() > MAX_VEHICLE_REG_NUMBER_LENGTH
+                || vehicleRegNumber.trim().isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < vehicleRegNumber.length(); i++) {
+            char c = vehicleRegNumber.charAt(i);
+            if (Character.isISOControl(c) || Character.isSurrogate(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,239 @@
+package com.parkit.parkingsystem.report;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ReportDAO;
+import com.parkit.parkingsystem.service.GateExecutor;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds ticket reports in a single pass over the ticket history. The period is split in consecutive ranges of
+ * entry time, each one streamed by its own query on its own connection, plus one range for the vehicles that
+ * entered before the period and were still parked when it started (looked for up to maxStay before it).
+ *
+ * Memory depends on the length of the period, not on the number of tickets: hourly counters per range, and one
+ * occupancy change counter per minute shared by the ranges. Each range only writes the minutes it covers; the few
+ * exits falling after its end are kept aside and added once every range is done.
+ */
+public class ReportService {
+
+    private static final Logger logger = LogManager.getLogger("ReportService");
+
+    private final ReportDAO reportDAO;
+    private final int parallelism;
+    private final long maxStayMillis;
+
+    /**
+     * @param parallelism number of ranges read at once, each one using a connection
+     * @param maxStayMillis longest stay of a vehicle parked when the period starts that is taken into account
+     */
+    public ReportService(ReportDAO reportDAO, int parallelism, long maxStayMillis) {
+        this.reportDAO = reportDAO;
+        this.parallelism = parallelism;
+        this.maxStayMillis = maxStayMillis;
+    }
+
+    /**
+     * @return the report of the period from (inclusive) to (exclusive), null if the tickets could not be read
+     */
+    public TicketReport build(Date from, Date to) {
+        long start = from.getTime();
+        long end = to.getTime();
+        if (end <= start) {
+            throw new IllegalArgumentException("Empty report period: " + from + " to " + to);
+        }
+        int minutes = (int) ((end - start + TicketReport.MINUTE - 1) / TicketReport.MINUTE);
+        int hours = (minutes + 59) / 60;
+        int[][] occupancyChanges = new int[ParkingType.values().length][minutes + 1];
+        LatencyHistogram[] stays = new LatencyHistogram[ParkingType.values().length];
+        for (int type = 0; type < stays.length; type++) {
+            stays[type] = new LatencyHistogram();
+        }
+
+        List<RangeAggregator> ranges = new ArrayList<>();
+        // vehicles parked before the period own no minute, all their changes are kept aside
+        ranges.add(new RangeAggregator(start - maxStayMillis, start, 0, 0, start, end, hours, occupancyChanges, stays));
+        int rangeCount = Math.min(parallelism, hours);
+        for (int range = 0; range < rangeCount; range++) {
+            int firstHour = range * hours / rangeCount;
+            int lastHour = (range + 1) * hours / rangeCount;
+            ranges.add(new RangeAggregator(start + firstHour * TicketReport.HOUR,
+                    Math.min(end, start + lastHour * TicketReport.HOUR), firstHour * 60, Math.min(minutes, lastHour * 60),
+                    start, end, hours, occupancyChanges, stays));
+        }
+
+        ExecutorService executor = GateExecutor.newExecutor(ranges.size(), true);
+        long ticketCount = 0;
+        try {
+            List<CompletableFuture<Long>> scans = new ArrayList<>();
+            for (RangeAggregator range : ranges) {
+                scans.add(CompletableFuture.supplyAsync(() -> reportDAO.scanTickets(new Date(range.enteredFrom),
+                        new Date(range.enteredTo), from, range), executor));
+            }
+            for (CompletableFuture<Long> scan : scans) {
+                long rows = scan.join();
+                if (rows < 0) {
+                    logger.error("Unable to read the tickets from " + from + " to " + to);
+                    return null;
+                }
+                ticketCount += rows;
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        int types = ParkingType.values().length;
+        long[][] entries = new long[types][hours];
+        long[][] exits = new long[types][hours];
+        double[][] revenue = new double[types][hours];
+        for (RangeAggregator range : ranges) {
+            for (int type = 0; type < types; type++) {
+                for (int hour = 0; hour < hours; hour++) {
+                    entries[type][hour] += range.entries[type][hour];
+                    exits[type][hour] += range.exits[type][hour];
+                    revenue[type][hour] += range.revenue[type][hour];
+                }
+            }
+            for (Map.Entry<Long, Integer> change : range.changesAside.entrySet()) {
+                occupancyChanges[(int) (change.getKey() / (minutes + 1))][(int) (change.getKey() % (minutes + 1))]
+                        += change.getValue();
+            }
+        }
+        int[][] peakOccupancy = new int[types][hours];
+        for (int type = 0; type < types; type++) {
+            int occupancy = 0;
+            for (int minute = 0; minute < minutes; minute++) {
+                occupancy += occupancyChanges[type][minute];
+                int hour = minute / 60;
+                peakOccupancy[type][hour] = Math.max(peakOccupancy[type][hour], occupancy);
+            }
+        }
+        return new TicketReport(start, end, ticketCount, entries, exits, revenue, peakOccupancy, stays);
+    }
+
+    /**
+     * Aggregates the tickets of one range of entry time as they are streamed.
+     */
+    private static class RangeAggregator implements ReportDAO.TicketRowHandler {
+        private final long enteredFrom;
+        private final long enteredTo;
+        // minutes of the shared occupancy changes this range writes to
+        private final int firstMinute;
+        private final int endMinute;
+        private final long start;
+        private final long end;
+        private final int minutes;
+        private final int[][] occupancyChanges;
+        private final LatencyHistogram[] stays;
+        private final long[][] entries;
+        private final long[][] exits;
+        private final double[][] revenue;
+        // changes outside of the minutes of this range, by type * (minutes + 1) + minute
+        private final Map<Long, Integer> changesAside = new HashMap<>();
+
+        RangeAggregator(long enteredFrom, long enteredTo, int firstMinute, int endMinute, long start, long end,
+                        int hours, int[][] occupancyChanges, LatencyHistogram[] stays) {
+            this.enteredFrom = enteredFrom;
+            this.enteredTo = enteredTo;
+            this.firstMinute = firstMinute;
+            this.endMinute = endMinute;
+            this.start = start;
+            this.end = end;
+            this.minutes = occupancyChanges[0].length - 1;
+            this.occupancyChanges = occupancyChanges;
+            this.stays = stays;
+            int types = ParkingType.values().length;
+            this.entries = new long[types][hours];
+            this.exits = new long[types][hours];
+            this.revenue = new double[types][hours];
+        }
+
+        @Override
+        public void onTicket(ParkingType parkingType, long inTime, long outTime, double price) {
+            int type = parkingType.ordinal();
+            if (inTime >= start) {
+                entries[type][(int) ((inTime - start) / TicketReport.HOUR)]++;
+                changeOccupancy(type, (int) ((inTime - start) / TicketReport.MINUTE), 1);
+            } else {
+                changeOccupancy(type, 0, 1);
+            }
+            if (outTime >= 0 && outTime < end) {
+                int hour = (int) ((outTime - start) / TicketReport.HOUR);
+                exits[type][hour]++;
+                revenue[type][hour] += price;
+                stays[type].record(TimeUnit.MILLISECONDS.toNanos(outTime - inTime));
+                // the spot is in use until the end of the minute the vehicle left in
+                changeOccupancy(type, (int) ((outTime - start) / TicketReport.MINUTE) + 1, -1);
+            }
+        }
+
+        private void changeOccupancy(int type, int minute, int change) {
+            if (minute >= firstMinute && minute < endMinute) {
+                occupancyChanges[type][minute] += change;
+            } else {
+                changesAside.merge((long) type * (minutes + 1) + minute, change, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Prints the report of a period of the production database as CSV on the standard output, followed by
+     * the totals per parking type. Dates are local dates (whole days) or local date times.
+     */
+    public static void run(String from, String to, int parallelism) throws IOException {
+        ReportDAO reportDAO = new ReportDAO();
+        reportDAO.dataBaseConfig = new DataBaseConfig();
+        ReportService reportService = new ReportService(reportDAO, parallelism,
+                TimeUnit.DAYS.toMillis(Long.getLong("parkit.report.maxStayDays", 30L)));
+        long start = System.nanoTime();
+        TicketReport report;
+        try {
+            report = reportService.build(parseDate(from), parseDate(to));
+        } finally {
+            reportDAO.dataBaseConfig.shutdown();
+        }
+        if (report == null) {
+            System.out.println("Unable to build the report, see the logs");
+            return;
+        }
+        Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        report.writeCsv(out);
+        out.flush();
+        System.out.println(report.getTicketCount() + " tickets read in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        for (ParkingType parkingType : ParkingType.values()) {
+            LatencyHistogram stays = report.getStayDurations(parkingType);
+            System.out.println(parkingType + ": revenue " + String.format("%.2f", report.getRevenue(parkingType))
+                    + ", peak occupancy " + report.getPeakOccupancy(parkingType)
+                    + ", stays " + stays.getCount()
+                    + " (p50 " + stays.getPercentile(50, TimeUnit.MINUTES) + " min"
+                    + ", p99 " + stays.getPercentile(99, TimeUnit.MINUTES) + " min)");
+        }
+    }
+
+    /**
+     * @param date a local date, for the start of that day, or a local date time
+     */
+    public static Date parseDate(String date) {
+        LocalDateTime dateTime = date.contains("T") ? LocalDateTime.parse(date) : LocalDate.parse(date).atStartOfDay();
+        return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+}
@@ -0,0 +1,147 @@
+package com.parkit.parkingsystem.report;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Revenue, entries, exits and peak occupancy per hour and parking type over a period, with the distribution of
+ * the stay durations per parking type. Hours and days are counted from the start of the period. Exits, revenue and
+ * stays are those of the tickets closed within the period. Occupancy is counted per minute, a vehicle taking its
+ * spot for every minute it was parked during, so the peak of an hour is the highest number of spots in use within
+ * one of its minutes.
+ */
+public class TicketReport {
+
+    static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private final long from;
+    private final long to;
+    private final long ticketCount;
+    private final long[][] entries;
+    private final long[][] exits;
+    private final double[][] revenue;
+    private final int[][] peakOccupancy;
+    private final LatencyHistogram[] stays;
+
+    TicketReport(long from, long to, long ticketCount, long[][] entries, long[][] exits, double[][] revenue,
+                 int[][] peakOccupancy, LatencyHistogram[] stays) {
+        this.from = from;
+        this.to = to;
+        this.ticketCount = ticketCount;
+        this.entries = entries;
+        this.exits = exits;
+        this.revenue = revenue;
+        this.peakOccupancy = peakOccupancy;
+        this.stays = stays;
+    }
+
+    public Date getFrom() {
+        return new Date(from);
+    }
+
+    public Date getTo() {
+        return new Date(to);
+    }
+
+    /**
+     * @return the number of tickets read to build the report
+     */
+    public long getTicketCount() {
+        return ticketCount;
+    }
+
+    public int getHours() {
+        return revenue[0].length;
+    }
+
+    public int getDays() {
+        return (getHours() + 23) / 24;
+    }
+
+    public long getEntries(ParkingType parkingType, int hour) {
+        return entries[parkingType.ordinal()][hour];
+    }
+
+    public long getExits(ParkingType parkingType, int hour) {
+        return exits[parkingType.ordinal()][hour];
+    }
+
+    public double getRevenue(ParkingType parkingType, int hour) {
+        return revenue[parkingType.ordinal()][hour];
+    }
+
+    public int getPeakOccupancy(ParkingType parkingType, int hour) {
+        return peakOccupancy[parkingType.ordinal()][hour];
+    }
+
+    public double getRevenueOfDay(ParkingType parkingType, int day) {
+        double dayRevenue = 0;
+        for (int hour = day * 24; hour < Math.min(getHours(), (day + 1) * 24); hour++) {
+            dayRevenue += getRevenue(parkingType, hour);
+        }
+        return dayRevenue;
+    }
+
+    public int getPeakOccupancyOfDay(ParkingType parkingType, int day) {
+        int peak = 0;
+        for (int hour = day * 24; hour < Math.min(getHours(), (day + 1) * 24); hour++) {
+            peak = Math.max(peak, getPeakOccupancy(parkingType, hour));
+        }
+        return peak;
+    }
+
+    /**
+     * @return the revenue of the whole period
+     */
+    public double getRevenue(ParkingType parkingType) {
+        double total = 0;
+        for (double hourRevenue : revenue[parkingType.ordinal()]) {
+            total += hourRevenue;
+        }
+        return total;
+    }
+
+    /**
+     * @return the peak occupancy of the whole period
+     */
+    public int getPeakOccupancy(ParkingType parkingType) {
+        int peak = 0;
+        for (int hourPeak : peakOccupancy[parkingType.ordinal()]) {
+            peak = Math.max(peak, hourPeak);
+        }
+        return peak;
+    }
+
+    /**
+     * @return durations of the stays ended within the period
+     */
+    public LatencyHistogram getStayDurations(ParkingType parkingType) {
+        return stays[parkingType.ordinal()];
+    }
+
+    /**
+     * Writes one line per hour and parking type: hour,type,entries,exits,revenue,peakOccupancy, the hour being
+     * the UTC time it starts at.
+     */
+    public void writeCsv(Appendable out) throws IOException {
+        out.append("hour,type,entries,exits,revenue,peakOccupancy\n");
+        for (int hour = 0; hour < getHours(); hour++) {
+            String start = Instant.ofEpochMilli(from + hour * HOUR).toString();
+            for (ParkingType parkingType : ParkingType.values()) {
+                out.append(start).append(',').append(parkingType.toString())
+                        .append(',').append(String.valueOf(getEntries(parkingType, hour)))
+                        .append(',').append(String.valueOf(getExits(parkingType, hour)))
+                        .append(',').append(String.format(Locale.ROOT, "%.2f", getRevenue(parkingType, hour)))
+                        .append(',').append(String.valueOf(getPeakOccupancy(parkingType, hour)))
+                        .append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingEvent;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes gate events read from a stream, one per line, without any operator:
+ * <pre>
+ * ENTRY,CAR,ABC123,2024-05-01T08:00:00
+ * EXIT,,ABC123,2024-05-01T10:30:00
+ * </pre>
+ * The time is a local date time or epoch milliseconds. Blank lines and lines starting with # are skipped.
+ *
+ * Events are replayed as fast as they can be processed, with the time they carry. They go through a pipeline:
+ * the reader parses lines into bounded queues, one per worker, and a vehicle always goes to the same worker
+ * so its entry is processed before its exit. Each worker is a gate session run by a GateExecutor.
+ * A worker that stops on an error no longer drains its queue: the reader then stops, and the stream is reported as
+ * aborted, rather than waiting forever for room in that queue.
+ */
+public class EventStreamProcessor {
+
+    private static final Logger logger = LogManager.getLogger("EventStreamProcessor");
+
+    private static final ParkingEvent END_OF_STREAM = new ParkingEvent(null, null, null, 0);
+    // how long the reader waits for room in a queue before checking its worker is still running
+    private static final long ENQUEUE_WAIT_MILLIS = 100;
+
+    private final ParkingService parkingService;
+    private final int workers;
+    private final int queueCapacity;
+    private final ZoneId zoneId;
+
+    public EventStreamProcessor(ParkingService parkingService, int workers, int queueCapacity) {
+        this(parkingService, workers, queueCapacity, ZoneId.systemDefault());
+    }
+
+    public EventStreamProcessor(ParkingService parkingService, int workers, int queueCapacity, ZoneId zoneId) {
+        this.parkingService = parkingService;
+        this.workers = workers;
+        this.queueCapacity = queueCapacity;
+        this.zoneId = zoneId;
+    }
+
+    /**
+     * Processes every event of the stream, then returns once they have all been handled.
+     */
+    public Report process(BufferedReader reader) throws IOException, InterruptedException {
+        Report report = new Report();
+        List<BlockingQueue<ParkingEvent>> queues = new ArrayList<>();
+        List<Future<GateSession.Result>> sessions = new ArrayList<>();
+        GateExecutor gateExecutor = new GateExecutor(workers, true);
+        for (int i = 0; i < workers; i++) {
+            BlockingQueue<ParkingEvent> queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity / workers));
+            queues.add(queue);
+            sessions.add(gateExecutor.open(new GateSession("worker-" + i, GateInput.of(queue, END_OF_STREAM),
+                    parkingService, report.latency)));
+        }
+        long start = System.nanoTime();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ParkingEvent event;
+                try {
+                    event = parseEvent(line);
+                } catch (IllegalArgumentException e) {
+                    logger.error("Invalid event: " + line, e);
+                    report.invalid++;
+                    continue;
+                }
+                if (event != null) {
+                    int worker = (event.getVehicleRegNumber().hashCode() & Integer.MAX_VALUE) % workers;
+                    if (!enqueue(queues.get(worker), sessions.get(worker), event)) {
+                        logger.error("Event worker-" + worker + " stopped, stream aborted at line: " + line);
+                        report.aborted = true;
+                        break;
+                    }
+                }
+            }
+        } finally {
+            for (int i = 0; i < workers; i++) {
+                enqueue(queues.get(i), sessions.get(i), END_OF_STREAM);
+            }
+            gateExecutor.shutdown();
+            report.elapsedNanos = System.nanoTime() - start;
+        }
+        for (Future<GateSession.Result> session : sessions) {
+            try {
+                report.processed += session.get().getProcessed();
+                report.rejected += session.get().getRejected();
+            } catch (ExecutionException e) {
+                logger.error("Event worker failed", e.getCause());
+            }
+        }
+        return report;
+    }
+
+    // false if the worker of the queue is no longer running, the event is then dropped
+    private static boolean enqueue(BlockingQueue<ParkingEvent> queue, Future<GateSession.Result> session,
+                                   ParkingEvent event) throws InterruptedException {
+        while (!queue.offer(event, ENQUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (session.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the event of the line, or null for a blank or comment line
+     * @throws IllegalArgumentException if the line is not a valid event
+     */
+    ParkingEvent parseEvent(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return null;
+        }
+        String[] fields = trimmed.split(",", -1);
+        if (fields.length != 4) {
+            throw new IllegalArgumentException("Expected action,vehicleType,vehicleRegNumber,time");
+        }
+        ParkingEvent.Action action = ParkingEvent.Action.valueOf(fields[0].trim().toUpperCase());
+        String type = fields[1].trim();
+        ParkingType parkingType = type.isEmpty() ? null : ParkingType.valueOf(type.toUpperCase());
+        if (action == ParkingEvent.Action.ENTRY && parkingType == null) {
+            throw new IllegalArgumentException("Missing vehicle type");
+        }
+        String vehicleRegNumber = fields[2].trim();
+        if (vehicleRegNumber.isEmpty()) {
+            throw new IllegalArgumentException("Missing vehicle registration number");
+        }
+        return new ParkingEvent(action, parkingType, vehicleRegNumber, parseTime(fields[3].trim()));
+    }
+
+    private long parseTime(String time) {
+        try {
+            if (!time.isEmpty() && time.chars().allMatch(Character::isDigit)) {
+                return Long.parseLong(time);
+            }
+            return LocalDateTime.parse(time).atZone(zoneId).toInstant().toEpochMilli();
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time: " + time, e);
+        }
+    }
+
+    /**
+     * Reads the events from a file, or from the standard input when the file name is "-", and processes them
+     * against the production database. The report is printed once the stream is over.
+     */
+    public static void run(String source, int workers) {
+        ParkingSystem parkingSystem = ParkingSystem.start();
+        ParkingService parkingService = new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO(),
+                parkingSystem.getReservationDAO());
+        EventStreamProcessor processor = new EventStreamProcessor(parkingService, workers, 1024 * workers);
+        try (InputStream in = "-".equals(source) ? System.in : new FileInputStream(source);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            Report report = processor.process(reader);
+            System.out.println(report);
+        } catch (IOException e) {
+            logger.error("Unable to read events from " + source, e);
+            System.out.println("Unable to read events from " + source);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            parkingSystem.shutdown();
+        }
+    }
+
+    /**
+     * Outcome of a stream: event counts, throughput and processing time per event.
+     */
+    public static class Report {
+        private long processed;
+        private long rejected;
+        private long invalid;
+        private boolean aborted;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private long elapsedNanos;
+
+        // events carried out
+        public long getProcessed() {
+            return processed;
+        }
+
+        // events refused by the service: no free spot, vehicle not parked, or a DB error
+        public long getRejected() {
+            return rejected;
+        }
+
+        // lines that could not be parsed
+        public long getInvalid() {
+            return invalid;
+        }
+
+        // a worker stopped before the end of the stream, the events after it were not read
+        public boolean isAborted() {
+            return aborted;
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getElapsed(TimeUnit unit) {
+            return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public double getEventsPerSecond() {
+            return elapsedNanos == 0 ? 0 : latency.getCount() * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format((aborted ? "Stream aborted, an event worker stopped%n" : "")
+                            + "Events processed: %d, rejected: %d, invalid: %d%n"
+                            + "Elapsed: %d ms, throughput: %.0f events/s%n"
+                            + "Latency (us): mean %.0f, p50 %d, p99 %d, max %d",
+                    getProcessed(), getRejected(), getInvalid(),
+                    getElapsed(TimeUnit.MILLISECONDS), getEventsPerSecond(),
+                    latency.getMean(TimeUnit.MICROSECONDS), latency.getPercentile(50, TimeUnit.MICROSECONDS),
+                    latency.getPercentile(99, TimeUnit.MICROSECONDS), latency.getMax(TimeUnit.MICROSECONDS));
+        }
+    }
+}
@@ -1,62 +1,146 @@
 package com.parkit.parkingsystem.service;
 
-import java.time.Duration;
+import java.time.Instant;
 import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.TimeZone;
 
-import com.parkit.parkingsystem.constants.Fare;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.OccupancyModel;
+import com.parkit.parkingsystem.metrics.MetricsRegistry;
 import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.util.LatencyHistogram;
 
 public class FareCalculatorService {
 
+	private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+	// Only the Ticket path is timed, the primitive and bulk paths stay free of clock reads
+	private static final LatencyHistogram CALCULATE_FARE_TIME = MetricsRegistry.getDefault().timer("FareCalculatorService.calculateFare");
+
+	// Prices come from the current tariff of this engine, read once per ticket
+	private final TariffEngine tariffEngine;
+
+	// Durations are measured in wall clock time of this zone, captured once
+	private final TimeZone timeZone;
+	private final boolean fixedOffset;
+	private final long fixedOffsetMillis;
+
+	public FareCalculatorService() {
+		this(ZoneId.systemDefault());
+	}
+
+	public FareCalculatorService(ZoneId zoneId) {
+		this(zoneId, TariffEngine.getShared());
+	}
+
+	public FareCalculatorService(ZoneId zoneId, TariffEngine tariffEngine) {
+		this.tariffEngine = tariffEngine;
+		this.timeZone = TimeZone.getTimeZone(zoneId);
+		ZoneRules rules = zoneId.getRules();
+		this.fixedOffset = rules.isFixedOffset();
+		this.fixedOffsetMillis = fixedOffset ? rules.getOffset(Instant.EPOCH).getTotalSeconds() * 1000L : 0;
+	}
+
+	public TariffEngine getTariffEngine() {
+		return tariffEngine;
+	}
+
 	// Method without the discount parameter
 	public void calculateFare(Ticket ticket) {
 		calculateFare(ticket, false); // Calls the overloaded method with "discount" set to false
 	}
 
 	public void calculateFare(Ticket ticket, boolean discount) {
+		calculateFare(ticket, discount, null);
+	}
+
+	/**
+	 * Dynamic pricing: when the tariff has surge levels, the fare is multiplied according to the fill ratio of the
+	 * parking type of the ticket, read from the live occupancy counters: averaged over the stay when the ticket has
+	 * the reading taken at entry (see Ticket.setEntryFill), over time otherwise, or taken now with surge.basis=current.
+	 * @param occupancy occupancy of the lot of the ticket, null to price without surge
+	 */
+	public void calculateFare(Ticket ticket, boolean discount, OccupancyModel occupancy) {
 
 		// Data validation
 		if ((ticket.getOutTime() == null) || (ticket.getOutTime().before(ticket.getInTime()))) {
 			throw new IllegalArgumentException("Out time provided is incorrect: " + ticket.getOutTime());
 		}
 
-		// Precise calculation of duration in minutes
-		long durationInMinutes = Duration
-				.between(ticket.getInTime().toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime(),
-						ticket.getOutTime().toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime())
-				.toMinutes();
-
-		// Free parking for the first 30 minutes
-		if (durationInMinutes <= 30) {
-			ticket.setPrice(0);
-			return; // End of the method
+		// Calculate the fare based on the vehicle type and the stay
+		long start = System.nanoTime();
+		Tariff tariff = tariffEngine.getTariff();
+		ParkingType parkingType = ticket.getParkingSpot().getParkingType();
+		double fillRatio = 0;
+		if (occupancy != null && tariff.hasSurge()) {
+			if (tariff.isSurgeOnCurrentFill()) {
+				fillRatio = occupancy.getFillRatio(parkingType);
+			} else if (ticket.hasEntryFill()) {
+				fillRatio = occupancy.getAverageFillRatioSince(parkingType, ticket.getEntryFillIntegral(),
+						ticket.getEntryFillTime(), ticket.getOutTime().getTime());
+			} else {
+				fillRatio = occupancy.getAverageFillRatio(parkingType);
+			}
 		}
+		ticket.setPrice(calculateFare(tariff, ticket.getInTime().getTime(), ticket.getOutTime().getTime(),
+				parkingType.ordinal(), discount, fillRatio));
+		CALCULATE_FARE_TIME.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Prices a stay with times given in epoch milliseconds, the same price as calculateFare(Ticket, boolean).
+	 * Works on primitives only: nothing is allocated and no ticket is changed.
+	 * @param parkingTypeOrdinal ordinal of the ParkingType of the spot
+	 * @return the price
+	 */
+	public double calculateFare(long inTimeMillis, long outTimeMillis, int parkingTypeOrdinal, boolean discount) {
+		return calculateFare(tariffEngine.getTariff(), inTimeMillis, outTimeMillis, parkingTypeOrdinal, discount, 0);
+	}
 
-		// Convert the duration to hours with fractions
-		double durationInHours = durationInMinutes / 60.0;
-
-		// Temporary debugging
-		// TODO: SUPPRIMER LES LOGS EN PRODUCTION
-		//System.out.println("Duration in minutes: " + durationInMinutes);
-		//System.out.println("Duration in hours: " + durationInHours);
-		//System.out.println("Parking Type: " + ticket.getParkingSpot().getParkingType());
-
-		// Calculate the fare based on the vehicle type
-		switch (ticket.getParkingSpot().getParkingType()) {
-		case CAR:
-			ticket.setPrice(durationInHours * Fare.CAR_RATE_PER_HOUR);
-			break;
-		case BIKE:
-			ticket.setPrice(durationInHours * Fare.BIKE_RATE_PER_HOUR);
-			break;
-		default:
+	/**
+	 * Primitive method of dynamic pricing, see calculateFare(Ticket, boolean, OccupancyModel).
+	 * @param fillRatio share of the spots of the parking type occupied, from 0 to 1
+	 */
+	public double calculateFare(long inTimeMillis, long outTimeMillis, int parkingTypeOrdinal, boolean discount,
+			double fillRatio) {
+		return calculateFare(tariffEngine.getTariff(), inTimeMillis, outTimeMillis, parkingTypeOrdinal, discount, fillRatio);
+	}
+
+	private double calculateFare(Tariff tariff, long inTimeMillis, long outTimeMillis, int parkingTypeOrdinal,
+			boolean discount, double fillRatio) {
+		// Data validation
+		if (outTimeMillis < inTimeMillis) {
+			throw new IllegalArgumentException("Out time provided is incorrect: " + outTimeMillis);
+		}
+		if (!tariff.hasRate(parkingTypeOrdinal)) {
 			throw new IllegalArgumentException("Unknown Parking Type");
 		}
 
-		// Apply the discount if the ticket has a discount
-		if (discount) {
-			ticket.setPrice(ticket.getPrice() * 0.95);
+		// Duration in wall clock minutes, as Duration.between on the local date times
+		long localInTime = toLocalMillis(inTimeMillis);
+		long durationInMinutes = (toLocalMillis(outTimeMillis) - localInTime) / MILLIS_PER_MINUTE;
+		double price = tariff.price(localInTime, durationInMinutes, parkingTypeOrdinal, discount);
+		return tariff.hasSurge() ? price * tariff.surgeMultiplier(fillRatio) : price;
+	}
+
+	/**
+	 * Bulk version of the primitive method over parallel arrays, prices[i] is the fare of ticket i.
+	 */
+	public void calculateFares(long[] inTimeMillis, long[] outTimeMillis, int[] parkingTypeOrdinals,
+			boolean[] discounts, double[] prices) {
+		int count = inTimeMillis.length;
+		if (outTimeMillis.length != count || parkingTypeOrdinals.length != count || discounts.length != count
+				|| prices.length < count) {
+			throw new IllegalArgumentException("Arrays of different lengths");
 		}
+		for (int i = 0; i < count; i++) {
+			prices[i] = calculateFare(inTimeMillis[i], outTimeMillis[i], parkingTypeOrdinals[i], discounts[i]);
+		}
+	}
+
+	private long toLocalMillis(long epochMillis) {
+		return epochMillis + (fixedOffset ? fixedOffsetMillis : timeZone.getOffset(epochMillis));
 	}
 
 }
@@ -0,0 +1,69 @@
+package com.parkit.parkingsystem.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs gate sessions, each on its own virtual thread when the JDK has them (21 and later), so a blocked gate
+ * costs no platform thread. On older JDKs sessions run on a bounded pool of platform threads, and sessions
+ * beyond the pool size wait for a free thread. Either way the DB connection pool bounds the DB work in flight.
+ */
+public class GateExecutor {
+
+    private static final Logger logger = LogManager.getLogger("GateExecutor");
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    /**
+     * @param maxPlatformThreads size of the pool used when virtual threads are not available or not wanted
+     * @param preferVirtualThreads false to always use platform threads
+     */
+    public GateExecutor(int maxPlatformThreads, boolean preferVirtualThreads) {
+        this.executor = newExecutor(maxPlatformThreads, preferVirtualThreads);
+        this.virtualThreads = !(executor instanceof ThreadPoolExecutor);
+        logger.info("Gate sessions run on " + (virtualThreads ? "virtual threads" : maxPlatformThreads + " platform threads"));
+    }
+
+    /**
+     * @return an executor starting a virtual thread per task if possible and wanted, a fixed pool of platform
+     * threads otherwise
+     */
+    public static ExecutorService newExecutor(int maxPlatformThreads, boolean preferVirtualThreads) {
+        ExecutorService virtualThreadExecutor = preferVirtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+        return virtualThreadExecutor != null ? virtualThreadExecutor : Executors.newFixedThreadPool(maxPlatformThreads);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor(), looked up at runtime as the app is built for Java 8
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public Future<GateSession.Result> open(GateSession session) {
+        return executor.submit(session);
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Lets the open sessions finish, then releases the threads.
+     */
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            logger.info("Waiting for gate sessions to finish");
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.model.ParkingEvent;
+
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Source of the events of one gate, kept apart from the service so a gate can be a controller feed,
+ * a replayed file or a test script.
+ */
+public interface GateInput {
+
+    /**
+     * Waits for the next event of the gate.
+     * @return the event, or null once the gate is closed
+     */
+    ParkingEvent nextEvent() throws InterruptedException;
+
+    static GateInput of(Iterable<ParkingEvent> events) {
+        Iterator<ParkingEvent> iterator = events.iterator();
+        return () -> iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * Takes the events from a queue, the gate is closed when the end marker is taken.
+     */
+    static GateInput of(BlockingQueue<ParkingEvent> queue, ParkingEvent endMarker) {
+        return () -> {
+            ParkingEvent event = queue.take();
+            return event == endMarker ? null : event;
+        };
+    }
+}
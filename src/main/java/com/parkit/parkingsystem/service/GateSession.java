@@ -0,0 +1,78 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.model.ParkingEvent;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.Callable;
+
+/**
+ * One gate: processes the events of its input one after the other, until the input is closed.
+ * Sessions of different gates run concurrently on a shared ParkingService.
+ */
+public class GateSession implements Callable<GateSession.Result> {
+
+    private static final Logger logger = LogManager.getLogger("GateSession");
+
+    private final String gateId;
+    private final GateInput input;
+    private final ParkingService parkingService;
+    private final LatencyHistogram latency;
+
+    /**
+     * @param latency where the processing time of each event is recorded, can be shared by several sessions
+     */
+    public GateSession(String gateId, GateInput input, ParkingService parkingService, LatencyHistogram latency) {
+        this.gateId = gateId;
+        this.input = input;
+        this.parkingService = parkingService;
+        this.latency = latency;
+    }
+
+    @Override
+    public Result call() throws InterruptedException {
+        Result result = new Result(gateId);
+        ParkingEvent event;
+        while ((event = input.nextEvent()) != null) {
+            long start = System.nanoTime();
+            boolean done;
+            try {
+                done = parkingService.process(event) != null;
+            } catch (RuntimeException e) {
+                logger.error("Gate " + gateId + " unable to process event for vehicle " + event.getVehicleRegNumber(), e);
+                done = false;
+            }
+            latency.record(System.nanoTime() - start);
+            if (done) {
+                result.processed++;
+            } else {
+                result.rejected++;
+            }
+        }
+        return result;
+    }
+
+    public static class Result {
+        private final String gateId;
+        private long processed;
+        private long rejected;
+
+        Result(String gateId) {
+            this.gateId = gateId;
+        }
+
+        public String getGateId() {
+            return gateId;
+        }
+
+        public long getProcessed() {
+            return processed;
+        }
+
+        // events refused by the service: no free spot, vehicle not parked, or a DB error
+        public long getRejected() {
+            return rejected;
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package com.parkit.parkingsystem.service;
 
-import com.parkit.parkingsystem.dao.ParkingSpotDAO;
-import com.parkit.parkingsystem.dao.TicketDAO;
 import com.parkit.parkingsystem.util.InputReaderUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -16,9 +14,10 @@ public class InteractiveShell {
 
         boolean continueApp = true;
         InputReaderUtil inputReaderUtil = new InputReaderUtil();
-        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
-        TicketDAO ticketDAO = new TicketDAO();
-        ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO);
+        ParkingSystem parkingSystem = ParkingSystem.start();
+        ParkingService parkingService = new ParkingService(inputReaderUtil,
+                parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO(), new FareCalculatorService(),
+                parkingSystem.getReservationDAO());
 
         while(continueApp){
             loadMenu();
@@ -35,6 +34,7 @@ public class InteractiveShell {
                 case 3: {
                     System.out.println("Exiting from the system!");
                     continueApp = false;
+                    parkingSystem.shutdown();
                     break;
                 }
                 default: System.out.println("Unsupported option. Please enter a number corresponding to the provided menu");
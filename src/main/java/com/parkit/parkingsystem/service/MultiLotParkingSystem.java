@@ -0,0 +1,147 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.config.ShardMap;
+import com.parkit.parkingsystem.model.Ticket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+/**
+ * Several parking lots, each with its own database as given by a shard map, its own ParkingSystem and
+ * ParkingService. Entries and exits go to the service of their lot; queries spanning all the lots (vehicle
+ * history, revenue) run on every lot at once, so they take as long as the slowest lot rather than the sum.
+ */
+public class MultiLotParkingSystem {
+
+    private static final Logger logger = LogManager.getLogger("MultiLotParkingSystem");
+
+    private final Map<String, ParkingSystem> parkingSystems = new LinkedHashMap<>();
+    private final Map<String, ParkingService> parkingServices = new LinkedHashMap<>();
+    private final ExecutorService fanOutExecutor;
+
+    public MultiLotParkingSystem(ShardMap shardMap) {
+        this(shardMap, false);
+    }
+
+    private MultiLotParkingSystem(ShardMap shardMap, boolean withOptions) {
+        for (String lotId : shardMap.getLotIds()) {
+            ParkingSystem parkingSystem = withOptions ? ParkingSystem.start(lotId, shardMap.get(lotId))
+                    : new ParkingSystem(lotId, shardMap.get(lotId));
+            parkingSystems.put(lotId, parkingSystem);
+            parkingServices.put(lotId, new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO(), parkingSystem.getReservationDAO()));
+        }
+        fanOutExecutor = GateExecutor.newExecutor(parkingSystems.size(), true);
+    }
+
+    /**
+     * Connects to the lots listed by -Dparkit.lots (see ShardMap.fromProperties), with the options set as
+     * system properties (ticket write-behind, tariff reloading).
+     */
+    public static MultiLotParkingSystem start() {
+        return new MultiLotParkingSystem(ShardMap.fromProperties(System.getProperties()), true);
+    }
+
+    public Set<String> getLotIds() {
+        return Collections.unmodifiableSet(parkingSystems.keySet());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the lot is unknown
+     */
+    public ParkingSystem getParkingSystem(String lotId) {
+        ParkingSystem parkingSystem = parkingSystems.get(lotId);
+        if (parkingSystem == null) {
+            throw new IllegalArgumentException("Unknown parking lot: " + lotId);
+        }
+        return parkingSystem;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the lot is unknown
+     */
+    public ParkingService getParkingService(String lotId) {
+        getParkingSystem(lotId);
+        return parkingServices.get(lotId);
+    }
+
+    /**
+     * @return the service of each lot, in the order of the shard map
+     */
+    public Map<String, ParkingService> getParkingServices() {
+        return Collections.unmodifiableMap(parkingServices);
+    }
+
+    /**
+     * @return the tickets of the vehicle in all the lots, latest entry first, null if a lot could not be read
+     */
+    public List<Ticket> getVehicleHistory(String vehicleRegNumber) {
+        Map<String, List<Ticket>> ticketsByLot = fanOut(parkingSystem ->
+                parkingSystem.getTicketDAO().getTickets(vehicleRegNumber));
+        List<Ticket> history = new ArrayList<>();
+        for (Map.Entry<String, List<Ticket>> tickets : ticketsByLot.entrySet()) {
+            if (tickets.getValue() == null) {
+                logger.error("Unable to read the tickets of lot " + tickets.getKey());
+                return null;
+            }
+            history.addAll(tickets.getValue());
+        }
+        history.sort(Comparator.comparing(Ticket::getInTime).reversed());
+        return history;
+    }
+
+    /**
+     * @return the revenue of each lot for the tickets closed from (inclusive) to (exclusive), -1 for a lot
+     * that could not be read
+     */
+    public Map<String, Double> getRevenueByLot(Date from, Date to) {
+        return fanOut(parkingSystem -> parkingSystem.getTicketDAO().getRevenue(from, to));
+    }
+
+    /**
+     * @return the revenue of all the lots for the tickets closed from (inclusive) to (exclusive), -1 if a lot
+     * could not be read
+     */
+    public double getRevenue(Date from, Date to) {
+        double revenue = 0;
+        for (Map.Entry<String, Double> lotRevenue : getRevenueByLot(from, to).entrySet()) {
+            if (lotRevenue.getValue() < 0) {
+                logger.error("Unable to read the revenue of lot " + lotRevenue.getKey());
+                return -1;
+            }
+            revenue += lotRevenue.getValue();
+        }
+        return revenue;
+    }
+
+    // runs the query on every lot at once and waits for all of them
+    private <T> Map<String, T> fanOut(Function<ParkingSystem, T> query) {
+        Map<String, CompletableFuture<T>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, ParkingSystem> parkingSystem : parkingSystems.entrySet()) {
+            futures.put(parkingSystem.getKey(),
+                    CompletableFuture.supplyAsync(() -> query.apply(parkingSystem.getValue()), fanOutExecutor));
+        }
+        Map<String, T> results = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<T>> future : futures.entrySet()) {
+            results.put(future.getKey(), future.getValue().join());
+        }
+        return results;
+    }
+
+    public void shutdown() {
+        fanOutExecutor.shutdown();
+        for (ParkingSystem parkingSystem : parkingSystems.values()) {
+            parkingSystem.shutdown();
+        }
+    }
+}
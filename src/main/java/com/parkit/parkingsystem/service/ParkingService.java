@@ -1,65 +1,218 @@
 package com.parkit.parkingsystem.service;
 
 import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.OccupancyModel;
 import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.ReservationDAO;
 import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.metrics.Meter;
+import com.parkit.parkingsystem.metrics.MetricsRegistry;
+import com.parkit.parkingsystem.model.ExitTicket;
+import com.parkit.parkingsystem.model.GateResult;
+import com.parkit.parkingsystem.model.ParkingEvent;
 import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Reservation;
 import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.tracing.Span;
+import com.parkit.parkingsystem.tracing.Tracer;
 import com.parkit.parkingsystem.util.InputReaderUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.Date;
 
+/**
+ * Entry and exit of vehicles. The service keeps no state of its own between calls, so one instance can serve
+ * any number of gates at the same time; the interactive methods are the only ones reading from the operator input.
+ */
 public class ParkingService {
 
     private static final Logger logger = LogManager.getLogger("ParkingService");
 
-    private static FareCalculatorService fareCalculatorService = new FareCalculatorService();
+    // vehicles let in and out by all the services of the process
+    private static final Meter ENTRIES = MetricsRegistry.getDefault().meter("ParkingService.entries");
+    private static final Meter EXITS = MetricsRegistry.getDefault().meter("ParkingService.exits");
 
-    private InputReaderUtil inputReaderUtil;
-    private ParkingSpotDAO parkingSpotDAO;
-    private  TicketDAO ticketDAO;
+    private final FareCalculatorService fareCalculatorService;
+
+    private final InputReaderUtil inputReaderUtil;
+    private final ParkingSpotDAO parkingSpotDAO;
+    private final TicketDAO ticketDAO;
+    // null when reservations are not used
+    private final ReservationDAO reservationDAO;
 
     public ParkingService(InputReaderUtil inputReaderUtil, ParkingSpotDAO parkingSpotDAO, TicketDAO ticketDAO){
+        this(inputReaderUtil, parkingSpotDAO, ticketDAO, new FareCalculatorService());
+    }
+
+    public ParkingService(InputReaderUtil inputReaderUtil, ParkingSpotDAO parkingSpotDAO, TicketDAO ticketDAO,
+                          FareCalculatorService fareCalculatorService){
+        this(inputReaderUtil, parkingSpotDAO, ticketDAO, fareCalculatorService, null);
+    }
+
+    public ParkingService(InputReaderUtil inputReaderUtil, ParkingSpotDAO parkingSpotDAO, TicketDAO ticketDAO,
+                          FareCalculatorService fareCalculatorService, ReservationDAO reservationDAO){
         this.inputReaderUtil = inputReaderUtil;
         this.parkingSpotDAO = parkingSpotDAO;
         this.ticketDAO = ticketDAO;
+        this.fareCalculatorService = fareCalculatorService;
+        this.reservationDAO = reservationDAO;
+    }
+
+    /**
+     * Constructor for headless use, without input from an operator: only the methods taking the vehicle
+     * and the time as parameters can be used.
+     */
+    public ParkingService(ParkingSpotDAO parkingSpotDAO, TicketDAO ticketDAO){
+        this(null, parkingSpotDAO, ticketDAO);
+    }
+
+    /**
+     * Headless constructor letting the vehicles with a reservation in on the spots held for them.
+     */
+    public ParkingService(ParkingSpotDAO parkingSpotDAO, TicketDAO ticketDAO, ReservationDAO reservationDAO){
+        this(null, parkingSpotDAO, ticketDAO, new FareCalculatorService(), reservationDAO);
     }
 
+    /**
+     * Processes an event reported by a gate, see processIncomingVehicle and processExitingVehicle.
+     * @return the ticket, or null if the event was refused
+     */
+    public Ticket process(ParkingEvent event) {
+        Date time = new Date(event.getTimeMillis());
+        if(event.getAction() == ParkingEvent.Action.ENTRY){
+            return processIncomingVehicle(event.getParkingType(), event.getVehicleRegNumber(), time);
+        }
+        return processExitingVehicle(event.getVehicleRegNumber(), time);
+    }
+
+    /**
+     * Parks the vehicle typed in by the operator, see enter: the plate is read before looking for a spot, so a
+     * vehicle coming for its reservation gets one of the spots held for it.
+     */
     public void processIncomingVehicle() {
         try{
-            ParkingSpot parkingSpot = getNextParkingNumberIfAvailable();
-            if(parkingSpot !=null && parkingSpot.getId() > 0){
-                String vehicleRegNumber = getVehichleRegNumber();
-                parkingSpot.setAvailable(false);
-                parkingSpotDAO.updateParking(parkingSpot);//allot this parking space and mark it's availability as false
-
-             // Check for returning user
-                int ticketCount = ticketDAO.getNbTicket(vehicleRegNumber);
-                if (ticketCount > 0) {
-                    System.out.println("Welcome back! As a regular user of our parking, you will receive a 5% discount.");
-                }
-        
-                Date inTime = new Date();
-                Ticket ticket = new Ticket();
-                //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
-                //ticket.setId(ticketID);
-                ticket.setParkingSpot(parkingSpot);
-                ticket.setVehicleRegNumber(vehicleRegNumber);
-                ticket.setPrice(0);
-                ticket.setInTime(inTime);
-                ticket.setOutTime(null);
-                ticketDAO.saveTicket(ticket);
-                System.out.println("Generated Ticket and saved in DB");
-                System.out.println("Please park your vehicle in spot number:"+parkingSpot.getId());
-                System.out.println("Recorded in-time for vehicle number:"+vehicleRegNumber+" is:"+inTime);
+            ParkingType parkingType;
+            try {
+                parkingType = getVehichleType();
+            } catch (IllegalArgumentException ie) {
+                logger.error("Error parsing user input for type of vehicle", ie);
+                return;
+            }
+            String vehicleRegNumber = getVehichleRegNumber();
+            Date inTime = new Date();
+            // Check for returning user
+            int ticketCount = ticketDAO.getNbTicket(vehicleRegNumber);
+            GateResult result = enter(parkingType, vehicleRegNumber, inTime);
+            if(result.getStatus() == GateResult.Status.REFUSED){
+                System.out.println(result.getReason() + ". Parking slots might be full");
+                return;
+            }
+            if(result.getStatus() == GateResult.Status.FAILED){
+                System.out.println(result.getReason() + ". Error occurred, please try again");
+                return;
             }
+            if (ticketCount > 0) {
+                System.out.println("Welcome back! As a regular user of our parking, you will receive a 5% discount.");
+            }
+            System.out.println("Generated Ticket and saved in DB");
+            System.out.println("Please park your vehicle in spot number:"+result.getTicket().getParkingSpot().getId());
+            System.out.println("Recorded in-time for vehicle number:"+vehicleRegNumber+" is:"+inTime);
         }catch(Exception e){
             logger.error("Unable to process incoming vehicle",e);
         }
     }
 
+    /**
+     * Parks a vehicle without any interaction: allots a spot of the given type and saves the ticket.
+     * A vehicle coming for its reservation may take the spots held for the reservations, and checks it in.
+     * @return the saved ticket, or null if no spot is free or the ticket could not be saved
+     */
+    public Ticket processIncomingVehicle(ParkingType parkingType, String vehicleRegNumber, Date inTime) {
+        return enter(parkingType, vehicleRegNumber, inTime).getTicket();
+    }
+
+    /**
+     * Same as processIncomingVehicle, telling a vehicle refused for want of a free spot from an entry that failed.
+     */
+    public GateResult enter(ParkingType parkingType, String vehicleRegNumber, Date inTime) {
+        Span span = Tracer.getDefault().start("ParkingService.processIncomingVehicle");
+        try {
+            advanceOccupancyClock(inTime);
+            Reservation reservation = reservationDAO != null ? reservationDAO.findArrival(vehicleRegNumber, parkingType, inTime) : null;
+            boolean reserved = reservation != null;
+            int parkingNumber = reserved ? parkingSpotDAO.getNextAvailableSlot(parkingType, true)
+                    : parkingSpotDAO.getNextAvailableSlot(parkingType);
+            if(parkingNumber > 0){
+                parkingNumber = claimSpot(new ParkingSpot(parkingSpotDAO.lotId, parkingNumber, parkingType, true), reserved);
+            }
+            if(parkingNumber == 0){
+                return GateResult.refused("Unable to allocate a parking spot");
+            }
+            if(parkingNumber < 0){
+                return GateResult.failed("Unable to read the available parking spots");
+            }
+            Ticket ticket = issueTicket(new ParkingSpot(parkingSpotDAO.lotId, parkingNumber, parkingType, false),
+                    vehicleRegNumber, inTime);
+            if(ticket == null){
+                return GateResult.failed("Unable to save the ticket");
+            }
+            if(reserved && !reservationDAO.checkIn(reservation)){
+                logger.warn("Reservation " + reservation.getId() + " of vehicle " + vehicleRegNumber + " not checked in");
+            }
+            return GateResult.done(ticket);
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Claims this parking space, or the next free one if another gate took it in the meantime.
+     * @return the claimed parking number, 0 if every spot was taken by other gates, -1 on error
+     */
+    private int claimSpot(ParkingSpot parkingSpot, boolean reserved) {
+        if(parkingSpotDAO.claimParkingSpot(parkingSpot)){
+            return parkingSpot.getId();
+        }
+        ParkingType parkingType = parkingSpot.getParkingType();
+        return reserved ? parkingSpotDAO.claimNextAvailableSlot(parkingType, true)
+                : parkingSpotDAO.claimNextAvailableSlot(parkingType);
+    }
+
+    // saves the ticket of the vehicle on the claimed spot, or gives the spot back and returns null
+    private Ticket issueTicket(ParkingSpot parkingSpot, String vehicleRegNumber, Date inTime) {
+        Ticket ticket = new Ticket();
+        //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
+        ticket.setLotId(parkingSpot.getLotId());
+        ticket.setParkingSpot(parkingSpot);
+        ticket.setVehicleRegNumber(vehicleRegNumber);
+        ticket.setPrice(0);
+        ticket.setInTime(inTime);
+        ticket.setOutTime(null);
+        // the surge is priced on the fill averaged from the entry to the exit
+        OccupancyModel occupancy = parkingSpotDAO.getOccupancy();
+        if(occupancy != null){
+            ticket.setEntryFill(occupancy.getFillIntegral(parkingSpot.getParkingType(), inTime.getTime()), inTime.getTime());
+        }
+        if(!ticketDAO.saveTicket(ticket)){
+            logger.error("Ticket not saved for vehicle " + vehicleRegNumber);
+            // give the spot back, no ticket holds it
+            parkingSpot.setAvailable(true);
+            parkingSpotDAO.updateParking(parkingSpot);
+            return null;
+        }
+        ENTRIES.mark();
+        return ticket;
+    }
+
+    // the fill changes of this entry or exit are recorded at its time
+    private void advanceOccupancyClock(Date time) {
+        OccupancyModel occupancy = parkingSpotDAO.getOccupancy();
+        if(occupancy != null){
+            occupancy.advanceClock(time.getTime());
+        }
+    }
+
     public String getVehichleRegNumber() throws Exception {
         System.out.println("Please type the vehicle registration number and press enter key");
         return inputReaderUtil.readVehicleRegistrationNumber();
@@ -93,7 +246,7 @@ public class ParkingService {
             ParkingType parkingType = getVehichleType();
             parkingNumber = parkingSpotDAO.getNextAvailableSlot(parkingType);
             if(parkingNumber > 0){
-                parkingSpot = new ParkingSpot(parkingNumber,parkingType, true);
+                parkingSpot = new ParkingSpot(parkingSpotDAO.lotId, parkingNumber,parkingType, true);
             }else{
                 throw new Exception("Error fetching parking number from DB. Parking slots might be full");
             }
@@ -108,20 +261,29 @@ public class ParkingService {
     public void processExitingVehicle() {
         try{
             String vehicleRegNumber = getVehichleRegNumber();
-            Ticket ticket = ticketDAO.getTicket(vehicleRegNumber);
             Date outTime = new Date();
-            ticket.setOutTime(outTime);
-     
-         // Check for discount eligibility
-            int ticketCount = ticketDAO.getNbTicket(vehicleRegNumber);
-            boolean discount = ticketCount > 1;
-            
-            fareCalculatorService.calculateFare(ticket, discount);
-            if(ticketDAO.updateTicket(ticket)) {
-                ParkingSpot parkingSpot = ticket.getParkingSpot();
-                parkingSpot.setAvailable(true);
-                parkingSpotDAO.updateParking(parkingSpot);
+            ExitTicket exitTicket;
+            boolean checkedOut = false;
+            // traced from here, the operator input is not part of the transaction
+            Span span = Tracer.getDefault().start("ParkingService.processExitingVehicle");
+            try {
+                exitTicket = ticketDAO.getTicketForExit(vehicleRegNumber);
+                if(exitTicket != null){
+                    checkedOut = checkOut(exitTicket, outTime);
+                }
+            } finally {
+                span.end();
+            }
+            if(exitTicket == null){
+                System.out.println("No parked vehicle found with registration number:" + vehicleRegNumber);
+                return;
+            }
+            if(checkedOut) {
+                Ticket ticket = exitTicket.getTicket();
                 System.out.println("Please pay the parking fare:" + ticket.getPrice());
+                if(!exitTicket.isVisitCountKnown()){
+                    System.out.println("The recurring user discount, if you are eligible, is granted once your visit is recorded");
+                }
                 System.out.println("Recorded out-time for vehicle number:" + ticket.getVehicleRegNumber() + " is:" + outTime);
             }else{
                 System.out.println("Unable to update ticket information. Error occurred");
@@ -130,4 +292,96 @@ public class ParkingService {
             logger.error("Unable to process exiting vehicle",e);
         }
     }
+
+    /**
+     * Lets a vehicle out without any interaction: prices its ticket, closes it and frees the spot.
+     * @return the closed ticket with its price, or null if the vehicle is not parked or the ticket could not be closed
+     */
+    public Ticket processExitingVehicle(String vehicleRegNumber, Date outTime) {
+        return leave(vehicleRegNumber, outTime).getTicket();
+    }
+
+    /**
+     * Same as processExitingVehicle, telling a vehicle that is not parked from an exit that failed.
+     */
+    public GateResult leave(String vehicleRegNumber, Date outTime) {
+        Span span = Tracer.getDefault().start("ParkingService.processExitingVehicle");
+        try {
+            ExitTicket exitTicket = ticketDAO.getTicketForExit(vehicleRegNumber);
+            if(exitTicket != null && checkOut(exitTicket, outTime)){
+                return GateResult.done(exitTicket.getTicket());
+            }
+            // not parked, or let out by another gate in the meantime
+            if(ticketDAO.countOpenTickets(vehicleRegNumber) == 0){
+                return GateResult.refused("No parked vehicle found with registration number: " + vehicleRegNumber);
+            }
+            return GateResult.failed(exitTicket == null ? "Unable to look up the ticket" : "Unable to close the ticket");
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Prices the stay of a parked vehicle as if it left at the given time, without closing its ticket.
+     * @return a copy of the open ticket with the price and out time set, or null if the vehicle is not parked
+     */
+    public Ticket quoteExit(String vehicleRegNumber, Date outTime) {
+        ExitTicket exitTicket = ticketDAO.getTicketForExit(vehicleRegNumber);
+        if(exitTicket == null){
+            return null;
+        }
+        Ticket ticket = new Ticket(exitTicket.getTicket());
+        ticket.setOutTime(outTime);
+        fareCalculatorService.calculateFare(ticket, exitTicket.getVisitCount() > 1, parkingSpotDAO.getOccupancy());
+        return ticket;
+    }
+
+    /**
+     * @return the number of open tickets of the vehicle, 0 if it is not parked, -1 if they could not be read
+     */
+    public int countOpenTickets(String vehicleRegNumber) {
+        return ticketDAO.countOpenTickets(vehicleRegNumber);
+    }
+
+    /**
+     * @return the number of free spots of this type, -1 if it could not be read
+     */
+    public int countAvailableSpots(ParkingType parkingType) {
+        return parkingSpotDAO.countAvailableSlots(parkingType);
+    }
+
+    /**
+     * @return the live occupancy per parking type, null if it could not be loaded from the DB
+     */
+    public OccupancyModel getOccupancy() {
+        return parkingSpotDAO.getOccupancy();
+    }
+
+    private boolean checkOut(ExitTicket exitTicket, Date outTime) {
+        Ticket ticket = exitTicket.getTicket();
+        ticket.setOutTime(outTime);
+
+        // Check for discount eligibility
+        boolean discount = exitTicket.getVisitCount() > 1;
+
+        OccupancyModel occupancy = parkingSpotDAO.getOccupancy();
+        advanceOccupancyClock(outTime);
+        fareCalculatorService.calculateFare(ticket, discount, occupancy);
+        boolean closed;
+        if(exitTicket.isVisitCountKnown()){
+            //close the ticket and free its parking spot in one transaction
+            closed = ticketDAO.closeTicket(ticket);
+        }else{
+            // charged without the discount, settled once it is known whether the vehicle is a regular
+            Ticket recurringUserTicket = new Ticket(ticket);
+            fareCalculatorService.calculateFare(recurringUserTicket, true, occupancy);
+            closed = ticketDAO.closeTicket(ticket, recurringUserTicket.getPrice());
+        }
+        if(closed) {
+            parkingSpotDAO.parkingSpotReleased(ticket.getParkingSpot());
+            EXITS.mark();
+            return true;
+        }
+        return false;
+    }
 }
@@ -0,0 +1,186 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.EventJournal;
+import com.parkit.parkingsystem.dao.JournalReplayer;
+import com.parkit.parkingsystem.dao.OccupancyModel;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.ReservationDAO;
+import com.parkit.parkingsystem.dao.SpotAllocationStrategy;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.metrics.MetricsRegistry;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.tracing.Tracer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The DAOs of one parking lot, sharing one connection pool, with their in-memory indexes loaded.
+ * Their occupancy is published as gauges of the default metrics registry, prefixed with lot.&lt;lotId&gt;.
+ * for the lots other than the default one.
+ */
+public class ParkingSystem {
+
+    private static final Logger logger = LogManager.getLogger("ParkingSystem");
+
+    private final String lotId;
+    private final DataBaseConfig dataBaseConfig;
+    private final ParkingSpotDAO parkingSpotDAO;
+    private final TicketDAO ticketDAO;
+    private final ReservationDAO reservationDAO;
+
+    public ParkingSystem(DataBaseConfig dataBaseConfig) {
+        this(ParkingSpot.DEFAULT_LOT_ID, dataBaseConfig);
+    }
+
+    /**
+     * @param dataBaseConfig database or schema holding the tables of the lot
+     */
+    public ParkingSystem(String lotId, DataBaseConfig dataBaseConfig) {
+        this.lotId = lotId;
+        this.dataBaseConfig = dataBaseConfig;
+        parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.dataBaseConfig = dataBaseConfig;
+        parkingSpotDAO.lotId = lotId;
+        ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBaseConfig;
+        ticketDAO.lotId = lotId;
+        reservationDAO = new ReservationDAO();
+        reservationDAO.dataBaseConfig = dataBaseConfig;
+        reservationDAO.lotId = lotId;
+        parkingSpotDAO.loadFreeSpotIndex();
+        ticketDAO.loadOpenTickets();
+        reservationDAO.loadReservationIndex();
+        parkingSpotDAO.setReservationDAO(reservationDAO);
+        registerGauges(MetricsRegistry.getDefault());
+    }
+
+    private void registerGauges(MetricsRegistry metrics) {
+        String prefix = ParkingSpot.DEFAULT_LOT_ID.equals(lotId) ? "" : "lot." + lotId + ".";
+        for(ParkingType parkingType : ParkingType.values()){
+            metrics.gauge(prefix + "occupancy." + parkingType + ".available", () -> parkingSpotDAO.countAvailableSlots(parkingType));
+            metrics.gauge(prefix + "occupancy." + parkingType + ".capacity", () -> {
+                OccupancyModel occupancy = parkingSpotDAO.getOccupancy();
+                return occupancy != null ? occupancy.getCapacity(parkingType) : -1;
+            });
+            metrics.gauge(prefix + "occupancy." + parkingType + ".averageFillPermille", () -> {
+                OccupancyModel occupancy = parkingSpotDAO.getOccupancy();
+                return occupancy != null ? Math.round(1000 * occupancy.getAverageFillRatio(parkingType)) : -1;
+            });
+        }
+        metrics.gauge(prefix + "occupancy.openTickets", () -> ticketDAO.getOpenTicketRegistry().size());
+        metrics.gauge(prefix + "journal.lag", () -> {
+            JournalReplayer replayer = ticketDAO.getJournalReplayer();
+            return replayer != null ? replayer.getLag() : 0;
+        });
+        metrics.gauge(prefix + "ConnectionPool.active", () -> dataBaseConfig.getPool().getActiveCount());
+        metrics.gauge(prefix + "ConnectionPool.idle", () -> dataBaseConfig.getPool().getIdleCount());
+    }
+
+    /**
+     * Connects to the production database, with the options set as system properties
+     * (spot allocation, ticket write-behind or journal, ticket archival, tariff reloading).
+     */
+    public static ParkingSystem start() {
+        return start(ParkingSpot.DEFAULT_LOT_ID, new DataBaseConfig());
+    }
+
+    /**
+     * Connects to the database of the lot, with the options set as system properties.
+     */
+    public static ParkingSystem start(String lotId, DataBaseConfig dataBaseConfig) {
+        ParkingSystem parkingSystem = new ParkingSystem(lotId, dataBaseConfig);
+        String allocation = System.getProperty("parkit.spot.allocation");
+        if(allocation != null){
+            parkingSystem.parkingSpotDAO.setAllocationStrategy(SpotAllocationStrategy.named(allocation));
+        }
+        if(!"false".equals(System.getProperty("parkit.metrics.jmx"))){
+            MetricsRegistry.getDefault().registerMBean();
+        }
+        if(Boolean.getBoolean("parkit.ticket.writeBehind")){
+            parkingSystem.ticketDAO.enableWriteBehind(Integer.getInteger("parkit.ticket.writeBehind.queueCapacity", 10000),
+                    Integer.getInteger("parkit.ticket.writeBehind.batchSize", 200),
+                    Long.getLong("parkit.ticket.writeBehind.maxDelayMs", 20L),
+                    Boolean.getBoolean("parkit.ticket.writeBehind.durable"), parkingSystem.parkingSpotDAO);
+        }
+        String journalDir = System.getProperty("parkit.journal.dir");
+        if(journalDir != null){
+            try {
+                parkingSystem.enableJournal(Paths.get(journalDir, lotId));
+            }catch (IOException e){
+                throw new IllegalStateException("Unable to open the journal of lot " + lotId, e);
+            }
+        }
+        Long archiveAfterDays = Long.getLong("parkit.ticket.archive.afterDays");
+        if(archiveAfterDays != null){
+            parkingSystem.ticketDAO.enableArchival(TimeUnit.DAYS.toMillis(archiveAfterDays),
+                    Integer.getInteger("parkit.ticket.archive.batchSize", 1000),
+                    Long.getLong("parkit.ticket.archive.periodMs", 600000L));
+        }
+        Long tariffReloadMillis = Long.getLong("parkit.tariff.reloadMs");
+        if(tariffReloadMillis != null){
+            TariffEngine.getShared().watch(tariffReloadMillis);
+        }
+        return parkingSystem;
+    }
+
+    /**
+     * Switches both DAOs to journal mode (see TicketDAO.enableJournal), with the journal kept in this directory.
+     * Replaces the ticket write-behind. With the DB down, the gates start all the same and serve vehicles once the
+     * replayer has applied the events left in the journal.
+     */
+    public void enableJournal(Path directory) throws IOException {
+        EventJournal journal = EventJournal.open(directory, Long.getLong("parkit.journal.segmentBytes", 64L << 20),
+                Long.getLong("parkit.journal.syncMs", 5L));
+        ticketDAO.enableJournal(journal, Integer.getInteger("parkit.journal.batchSize", 500),
+                Long.getLong("parkit.journal.retryMs", 100L), Long.getLong("parkit.journal.maxRetryMs", 30000L),
+                Boolean.getBoolean("parkit.journal.durable"));
+        parkingSpotDAO.enableJournal(ticketDAO.getJournalReplayer());
+    }
+
+    public String getLotId() {
+        return lotId;
+    }
+
+    public DataBaseConfig getDataBaseConfig() {
+        return dataBaseConfig;
+    }
+
+    public ParkingSpotDAO getParkingSpotDAO() {
+        return parkingSpotDAO;
+    }
+
+    public TicketDAO getTicketDAO() {
+        return ticketDAO;
+    }
+
+    public ReservationDAO getReservationDAO() {
+        return reservationDAO;
+    }
+
+    /**
+     * Writes the queued or journaled tickets and closes the connections. When tracing is on, the kept traces are exported
+     * to -Dparkit.trace.file (default traces.json).
+     */
+    public void shutdown() {
+        ticketDAO.disableArchival();
+        ticketDAO.disableWriteBehind();
+        parkingSpotDAO.disableJournal();
+        ticketDAO.disableJournal();
+        dataBaseConfig.shutdown();
+        Tracer tracer = Tracer.getDefault();
+        if(tracer.isEnabled()){
+            try {
+                tracer.export(Paths.get(System.getProperty("parkit.trace.file", "traces.json")));
+            }catch (IOException e){
+                logger.error("Error exporting traces", e);
+            }
+        }
+    }
+}
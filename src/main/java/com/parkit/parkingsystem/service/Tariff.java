@@ -0,0 +1,312 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.constants.Fare;
+import com.parkit.parkingsystem.constants.ParkingType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Pricing rules compiled into lookup tables: hourly rate and daily cap per parking type, time-of-day bands
+ * turned into a cumulative table of charged minutes, a grace period, the recurring user discount and the surge
+ * multipliers applied on occupancy.
+ * Immutable, so a tariff can be shared between threads and replaced as a whole (see TariffEngine).
+ */
+public final class Tariff {
+
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final long MILLIS_PER_DAY = MINUTES_PER_DAY * MILLIS_PER_MINUTE;
+
+    public static final long DEFAULT_GRACE_MINUTES = 30;
+    public static final double DEFAULT_DISCOUNT_FACTOR = 0.95;
+
+    private final long graceMinutes;
+    private final double discountFactor;
+    // indexed by ParkingType ordinal, NaN when the type has no rate
+    private final double[] ratePerHour;
+    // indexed by ParkingType ordinal, price of a full day after the cap
+    private final double[] cappedDayPrice;
+    private final double[] dailyCap;
+    private final boolean capped;
+    // chargedMinutes[i] = minutes charged from midnight to minute i, over two days so a stay can start at any minute
+    private final double[] chargedMinutes;
+    // every minute charged at the plain rate, the price only depends on the duration
+    private final boolean flat;
+    // surge levels by increasing fill ratio, empty without surge pricing
+    private final double[] surgeFills;
+    private final double[] surgeMultipliers;
+    private final boolean surgeOnCurrentFill;
+
+    private Tariff(long graceMinutes, double discountFactor, double[] ratePerHour, double[] dailyCap,
+                   double[] minuteMultiplier, double[] surgeFills, double[] surgeMultipliers, boolean surgeOnCurrentFill) {
+        this.graceMinutes = graceMinutes;
+        this.discountFactor = discountFactor;
+        this.ratePerHour = ratePerHour;
+        this.dailyCap = dailyCap;
+        this.surgeFills = surgeFills;
+        this.surgeMultipliers = surgeMultipliers;
+        this.surgeOnCurrentFill = surgeOnCurrentFill;
+
+        boolean allOnes = true;
+        chargedMinutes = new double[2 * MINUTES_PER_DAY + 1];
+        for (int i = 0; i < 2 * MINUTES_PER_DAY; i++) {
+            double multiplier = minuteMultiplier[i % MINUTES_PER_DAY];
+            allOnes &= multiplier == 1.0;
+            chargedMinutes[i + 1] = chargedMinutes[i] + multiplier;
+        }
+        this.flat = allOnes;
+
+        boolean anyCap = false;
+        cappedDayPrice = new double[ratePerHour.length];
+        for (int i = 0; i < ratePerHour.length; i++) {
+            cappedDayPrice[i] = Math.min((chargedMinutes[MINUTES_PER_DAY] / 60.0) * ratePerHour[i], dailyCap[i]);
+            anyCap |= dailyCap[i] != Double.POSITIVE_INFINITY;
+        }
+        this.capped = anyCap;
+    }
+
+    /**
+     * The tariff used before tariffs were configurable: rates from Fare, 30 free minutes, 5% discount.
+     */
+    public static Tariff defaultTariff() {
+        return compile(new Properties());
+    }
+
+    /**
+     * Builds a tariff from properties, missing keys keep the default tariff values:
+     * <pre>
+     * grace.minutes=30
+     * discount.factor=0.95
+     * rate.CAR=1.5
+     * cap.CAR=20
+     * bands=night
+     * band.night.from=20:00
+     * band.night.to=08:00
+     * band.night.multiplier=0.5
+     * surge.levels=0.8:1.25,0.95:1.5
+     * surge.basis=average
+     * </pre>
+     * Bands may wrap around midnight, a band whose to equals its from covers the whole day, a band listed later wins
+     * where bands overlap. Surge levels are fill ratio and
+     * multiplier pairs, the fare is multiplied by that of the highest level the fill ratio of the parking type
+     * reaches: its average over the stay, or with surge.basis=current its value at exit.
+     * @throws IllegalArgumentException if a value is invalid
+     */
+    public static Tariff compile(Properties properties) {
+        long graceMinutes = parseLong(properties, "grace.minutes", DEFAULT_GRACE_MINUTES);
+        double discountFactor = parseDouble(properties, "discount.factor", DEFAULT_DISCOUNT_FACTOR);
+        if (graceMinutes < 0) {
+            throw new IllegalArgumentException("grace.minutes must not be negative: " + graceMinutes);
+        }
+        if (discountFactor < 0) {
+            throw new IllegalArgumentException("discount.factor must not be negative: " + discountFactor);
+        }
+
+        ParkingType[] parkingTypes = ParkingType.values();
+        double[] ratePerHour = new double[parkingTypes.length];
+        double[] dailyCap = new double[parkingTypes.length];
+        for (ParkingType parkingType : parkingTypes) {
+            double rate = parseDouble(properties, "rate." + parkingType, defaultRate(parkingType));
+            double cap = parseDouble(properties, "cap." + parkingType, Double.POSITIVE_INFINITY);
+            if (rate < 0 || cap < 0) {
+                throw new IllegalArgumentException("Negative rate or cap for " + parkingType);
+            }
+            ratePerHour[parkingType.ordinal()] = rate;
+            dailyCap[parkingType.ordinal()] = cap;
+        }
+
+        double[] minuteMultiplier = new double[MINUTES_PER_DAY];
+        Arrays.fill(minuteMultiplier, 1.0);
+        for (String band : listBands(properties)) {
+            int from = parseTimeOfDay(properties, "band." + band + ".from");
+            int to = parseTimeOfDay(properties, "band." + band + ".to");
+            double multiplier = parseDouble(properties, "band." + band + ".multiplier", 1.0);
+            if (multiplier < 0) {
+                throw new IllegalArgumentException("Negative multiplier for band " + band);
+            }
+            // a band ending when it starts covers the whole day
+            int minute = from;
+            do {
+                minuteMultiplier[minute] = multiplier;
+                minute = (minute + 1) % MINUTES_PER_DAY;
+            } while (minute != to);
+        }
+        List<double[]> levels = parseSurgeLevels(properties);
+        levels.sort((a, b) -> Double.compare(a[0], b[0]));
+        double[] surgeFills = new double[levels.size()];
+        double[] surgeMultipliers = new double[levels.size()];
+        for (int i = 0; i < levels.size(); i++) {
+            surgeFills[i] = levels.get(i)[0];
+            surgeMultipliers[i] = levels.get(i)[1];
+        }
+        String basis = properties.getProperty("surge.basis", "average").trim();
+        if (!basis.equals("average") && !basis.equals("current")) {
+            throw new IllegalArgumentException("Invalid value for surge.basis, expected average or current: " + basis);
+        }
+        return new Tariff(graceMinutes, discountFactor, ratePerHour, dailyCap, minuteMultiplier,
+                surgeFills, surgeMultipliers, basis.equals("current"));
+    }
+
+    /**
+     * @return true if the tariff has a rate for the parking type with this ordinal
+     */
+    public boolean hasRate(int parkingTypeOrdinal) {
+        return parkingTypeOrdinal >= 0 && parkingTypeOrdinal < ratePerHour.length
+                && !Double.isNaN(ratePerHour[parkingTypeOrdinal]);
+    }
+
+    /**
+     * Price of a stay, in constant time whatever its duration.
+     * @param startLocalMillis start of the stay in local wall clock milliseconds, only used by time-of-day bands
+     * @param durationInMinutes wall clock duration of the stay
+     */
+    public double price(long startLocalMillis, long durationInMinutes, int parkingTypeOrdinal, boolean discount) {
+        // Free parking during the grace period
+        if (durationInMinutes <= graceMinutes) {
+            return 0;
+        }
+        double rate = ratePerHour[parkingTypeOrdinal];
+        double price;
+        if (flat && !capped) {
+            price = (durationInMinutes / 60.0) * rate;
+        } else {
+            long fullDays = durationInMinutes / MINUTES_PER_DAY;
+            int startMinute = (int) (Math.floorMod(startLocalMillis, MILLIS_PER_DAY) / MILLIS_PER_MINUTE);
+            int remainingMinutes = (int) (durationInMinutes % MINUTES_PER_DAY);
+            double remainingCharged = flat ? remainingMinutes
+                    : chargedMinutes[startMinute + remainingMinutes] - chargedMinutes[startMinute];
+            if (capped) {
+                price = fullDays * cappedDayPrice[parkingTypeOrdinal]
+                        + Math.min((remainingCharged / 60.0) * rate, dailyCap[parkingTypeOrdinal]);
+            } else {
+                price = ((fullDays * chargedMinutes[MINUTES_PER_DAY] + remainingCharged) / 60.0) * rate;
+            }
+        }
+        if (discount) {
+            price = price * discountFactor;
+        }
+        return price;
+    }
+
+    /**
+     * @return true if fares depend on occupancy
+     */
+    public boolean hasSurge() {
+        return surgeFills.length > 0;
+    }
+
+    /**
+     * @return true if surge levels apply to the fill ratio at exit rather than to its average over time
+     */
+    public boolean isSurgeOnCurrentFill() {
+        return surgeOnCurrentFill;
+    }
+
+    /**
+     * @param fillRatio share of the spots of the parking type occupied, from 0 to 1
+     * @return the multiplier of the highest surge level reached, 1 if none is
+     */
+    public double surgeMultiplier(double fillRatio) {
+        for (int i = surgeFills.length - 1; i >= 0; i--) {
+            if (fillRatio >= surgeFills[i]) {
+                return surgeMultipliers[i];
+            }
+        }
+        return 1.0;
+    }
+
+    public long getGraceMinutes() {
+        return graceMinutes;
+    }
+
+    public double getDiscountFactor() {
+        return discountFactor;
+    }
+
+    public double getRatePerHour(ParkingType parkingType) {
+        return ratePerHour[parkingType.ordinal()];
+    }
+
+    private static double defaultRate(ParkingType parkingType) {
+        switch (parkingType) {
+            case CAR:
+                return Fare.CAR_RATE_PER_HOUR;
+            case BIKE:
+                return Fare.BIKE_RATE_PER_HOUR;
+            default:
+                return Double.NaN;
+        }
+    }
+
+    private static List<String> listBands(Properties properties) {
+        List<String> bands = new ArrayList<>();
+        String value = properties.getProperty("bands", "").trim();
+        if (!value.isEmpty()) {
+            for (String band : value.split(",")) {
+                bands.add(band.trim());
+            }
+        }
+        return bands;
+    }
+
+    // fill:multiplier pairs
+    private static List<double[]> parseSurgeLevels(Properties properties) {
+        List<double[]> levels = new ArrayList<>();
+        String value = properties.getProperty("surge.levels", "").trim();
+        if (value.isEmpty()) {
+            return levels;
+        }
+        for (String level : value.split(",")) {
+            String[] parts = level.trim().split(":");
+            try {
+                double fill = parts.length == 2 ? Double.parseDouble(parts[0]) : Double.NaN;
+                double multiplier = parts.length == 2 ? Double.parseDouble(parts[1]) : Double.NaN;
+                if (fill >= 0 && fill <= 1 && multiplier >= 0) {
+                    levels.add(new double[]{fill, multiplier});
+                    continue;
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            throw new IllegalArgumentException("Invalid surge level, expected fill:multiplier with a fill from 0 to 1: " + level);
+        }
+        return levels;
+    }
+
+    private static long parseLong(Properties properties, String key, long defaultValue) {
+        String value = properties.getProperty(key, "").trim();
+        try {
+            return value.isEmpty() ? defaultValue : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + key + ": " + value, e);
+        }
+    }
+
+    private static double parseDouble(Properties properties, String key, double defaultValue) {
+        String value = properties.getProperty(key, "").trim();
+        try {
+            return value.isEmpty() ? defaultValue : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + key + ": " + value, e);
+        }
+    }
+
+    // HH:mm to minute of the day
+    private static int parseTimeOfDay(Properties properties, String key) {
+        String value = properties.getProperty(key, "").trim();
+        String[] parts = value.split(":");
+        try {
+            int hours = Integer.parseInt(parts[0]);
+            int minutes = parts.length == 2 ? Integer.parseInt(parts[1]) : -1;
+            if (hours >= 0 && hours < 24 && minutes >= 0 && minutes < 60) {
+                return hours * 60 + minutes;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid time for " + key + ", expected HH:mm: " + value);
+    }
+}
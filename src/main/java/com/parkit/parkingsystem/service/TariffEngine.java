@@ -0,0 +1,130 @@
+package com.parkit.parkingsystem.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the current tariff. Pricing only reads a volatile field, a new tariff is compiled on the side
+ * and then swapped in, so it can be replaced at runtime without locking the pricing path.
+ */
+public class TariffEngine {
+
+    private static final Logger logger = LogManager.getLogger("TariffEngine");
+
+    // Tariff file, read from the classpath resource /tariff.properties when not set
+    public static final String TARIFF_FILE_PROPERTY = "parkit.tariff.file";
+    private static final String TARIFF_RESOURCE = "/tariff.properties";
+
+    private static volatile TariffEngine shared;
+
+    private final File tariffFile;
+    private volatile Tariff tariff;
+    private long lastModified;
+    private ScheduledExecutorService watcher;
+
+    public TariffEngine(Tariff tariff) {
+        this.tariffFile = null;
+        this.tariff = tariff;
+    }
+
+    /**
+     * Loads the tariff from a file, or from the classpath resource when the file is null.
+     * The default tariff is used if the tariff cannot be loaded.
+     */
+    public TariffEngine(File tariffFile) {
+        this.tariffFile = tariffFile;
+        this.tariff = Tariff.defaultTariff();
+        reload();
+    }
+
+    /**
+     * @return the engine used by fare calculators built without one, loading the file set by -Dparkit.tariff.file
+     */
+    public static TariffEngine getShared() {
+        TariffEngine result = shared;
+        if (result == null) {
+            synchronized (TariffEngine.class) {
+                result = shared;
+                if (result == null) {
+                    String fileName = System.getProperty(TARIFF_FILE_PROPERTY);
+                    result = new TariffEngine(fileName == null ? null : new File(fileName));
+                    shared = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    public Tariff getTariff() {
+        return tariff;
+    }
+
+    public void setTariff(Tariff tariff) {
+        this.tariff = tariff;
+        logger.info("Tariff replaced");
+    }
+
+    /**
+     * Reads and compiles the tariff again, the current tariff is kept if the new one is invalid.
+     * @return true if the new tariff is in use
+     */
+    public synchronized boolean reload() {
+        try {
+            Properties properties = new Properties();
+            if (tariffFile != null) {
+                lastModified = tariffFile.lastModified();
+                try (InputStream in = new FileInputStream(tariffFile)) {
+                    properties.load(in);
+                }
+            } else {
+                try (InputStream in = TariffEngine.class.getResourceAsStream(TARIFF_RESOURCE)) {
+                    if (in != null) {
+                        properties.load(in);
+                    }
+                }
+            }
+            setTariff(Tariff.compile(properties));
+            return true;
+        } catch (IOException | IllegalArgumentException ex) {
+            logger.error("Error loading tariff, keeping the current one", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Checks the tariff file every period and reloads it when it has changed.
+     */
+    public synchronized void watch(long periodMillis) {
+        if (tariffFile == null || watcher != null) {
+            return;
+        }
+        watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tariff-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(this::reloadIfModified, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopWatching() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+    }
+
+    private synchronized void reloadIfModified() {
+        if (tariffFile.lastModified() != lastModified) {
+            reload();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.parkit.parkingsystem.tracing;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes spans in the Chrome trace event format, one complete event per span, which chrome://tracing and
+ * ui.perfetto.dev open as a timeline per thread. The trace, span and parent ids are in the args of each event.
+ */
+class ChromeTraceWriter {
+
+    private final Tracer tracer;
+
+    ChromeTraceWriter(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    void write(List<Span> spans, Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            write(spans, out);
+        }
+    }
+
+    void write(List<Span> spans, Writer out) throws IOException {
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        Map<Long, String> threads = new LinkedHashMap<>();
+        boolean first = true;
+        for (Span span : spans) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            threads.putIfAbsent(span.getThreadId(), span.getThreadName());
+            out.write("\n{\"name\":\"" + escape(span.getName()) + "\",\"cat\":\"parkit\",\"ph\":\"X\",\"pid\":1"
+                    + ",\"tid\":" + span.getThreadId()
+                    + ",\"ts\":" + tracer.toEpochMicros(span.getStartNanos())
+                    + ",\"dur\":" + span.getDurationNanos() / 1000.0
+                    + ",\"args\":{\"traceId\":\"" + hex(span.getTraceId())
+                    + "\",\"spanId\":\"" + hex(span.getSpanId()) + '"');
+            if (span.getParentId() != 0) {
+                out.write(",\"parentId\":\"" + hex(span.getParentId()) + '"');
+            }
+            if (span.getDetail() != null) {
+                out.write(",\"detail\":\"" + escape(span.getDetail()) + '"');
+            }
+            out.write("}}");
+        }
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            out.write("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + thread.getKey()
+                    + ",\"args\":{\"name\":\"" + escape(thread.getValue()) + "\"}}");
+        }
+        out.write("\n]}\n");
+    }
+
+    private static String hex(long id) {
+        String digits = Long.toHexString(id);
+        return "0000000000000000".substring(digits.length()) + digits;
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
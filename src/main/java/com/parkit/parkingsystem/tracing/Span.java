@@ -0,0 +1,109 @@
+package com.parkit.parkingsystem.tracing;
+
+/**
+ * One timed operation of a trace, ended by the thread that started it. Spans are meant to be used as
+ * <pre>
+ * Span span = Tracer.getDefault().start("TicketDAO.getTicket");
+ * try {
+ *     ...
+ * } finally {
+ *     span.end();
+ * }
+ * </pre>
+ */
+public class Span {
+
+    /**
+     * Returned when tracing is off, or for a child span without a trace in progress: records nothing.
+     */
+    static final Span NOOP = new Span(null, null, null, null, null);
+
+    private final Tracer tracer;
+    private final Trace trace;
+    private final Span parent;
+    private final long spanId;
+    private final String name;
+    private final String detail;
+    private final long threadId;
+    private final String threadName;
+    private final long startNanos;
+    private long durationNanos = -1;
+
+    Span(Tracer tracer, Trace trace, Span parent, String name, String detail) {
+        this.tracer = tracer;
+        this.trace = trace;
+        this.parent = parent;
+        this.name = name;
+        this.detail = detail;
+        this.spanId = trace == null ? 0 : tracer.nextId();
+        Thread thread = Thread.currentThread();
+        this.threadId = thread.getId();
+        this.threadName = thread.getName();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Ends the span and makes its parent the current span of the thread again. Ending the root span of a trace
+     * decides whether the trace is kept. Calling end again does nothing.
+     */
+    public void end() {
+        if (trace == null || durationNanos >= 0) {
+            return;
+        }
+        durationNanos = System.nanoTime() - startNanos;
+        tracer.ended(this);
+    }
+
+    Trace getTrace() {
+        return trace;
+    }
+
+    Span getParent() {
+        return parent;
+    }
+
+    public long getTraceId() {
+        return trace == null ? 0 : trace.getTraceId();
+    }
+
+    public long getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * @return the id of the parent span, 0 for the root span of a trace
+     */
+    public long getParentId() {
+        return parent == null ? 0 : parent.spanId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return what the span worked on, the SQL text for statements, null if nothing was given
+     */
+    public String getDetail() {
+        return detail;
+    }
+
+    public long getThreadId() {
+        return threadId;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * @return the duration, -1 while the span is not ended
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+}
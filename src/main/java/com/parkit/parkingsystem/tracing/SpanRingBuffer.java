@@ -0,0 +1,62 @@
+package com.parkit.parkingsystem.tracing;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The most recent spans of the kept traces. Adding is lock-free and overwrites the oldest span once full,
+ * so tracing never blocks or grows the heap however many transactions run.
+ */
+public class SpanRingBuffer {
+
+    private final AtomicReferenceArray<Span> slots;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public SpanRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public void add(Span span) {
+        slots.set((int) (next.getAndIncrement() & mask), span);
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    /**
+     * @return the spans held, oldest start first
+     */
+    public List<Span> snapshot() {
+        List<Span> spans = new ArrayList<>(slots.length());
+        for (int i = 0; i < slots.length(); i++) {
+            Span span = slots.get(i);
+            if (span != null) {
+                spans.add(span);
+            }
+        }
+        spans.sort(Comparator.comparingLong(Span::getStartNanos));
+        return spans;
+    }
+
+    public void clear() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, null);
+        }
+    }
+}
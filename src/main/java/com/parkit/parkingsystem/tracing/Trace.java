@@ -0,0 +1,39 @@
+package com.parkit.parkingsystem.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The spans of one transaction, gathered until the root span ends. A trace is confined to the thread
+ * that started it, so the spans need no synchronization.
+ */
+class Trace {
+
+    private final long traceId;
+    private final boolean sampled;
+    private final List<Span> spans = new ArrayList<>();
+
+    Trace(long traceId, boolean sampled) {
+        this.traceId = traceId;
+        this.sampled = sampled;
+    }
+
+    long getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * @return true if the trace was picked by the sample rate when it started, it is then kept however fast it is
+     */
+    boolean isSampled() {
+        return sampled;
+    }
+
+    void add(Span span) {
+        spans.add(span);
+    }
+
+    List<Span> getSpans() {
+        return spans;
+    }
+}
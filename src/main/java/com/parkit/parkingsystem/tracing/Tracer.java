@@ -0,0 +1,178 @@
+package com.parkit.parkingsystem.tracing;
+
+import com.parkit.parkingsystem.metrics.MetricsRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process tracing of gate transactions. The first span started on a thread opens a trace, spans started
+ * while it is in progress become its children. When the root span ends, the trace is kept if it was picked
+ * by the sample rate or if it took longer than the slow threshold, its spans then go to a ring buffer that
+ * can be written to a file in the Chrome trace event format (see ChromeTraceWriter).
+ *
+ * Tracing is off unless -Dparkit.trace.enabled=true; the other settings are -Dparkit.trace.sampleRate
+ * (default 0.01), -Dparkit.trace.slowMs (default 100) and -Dparkit.trace.bufferSize (default 65536 spans).
+ * When off, starting a span only reads a volatile field.
+ */
+public class Tracer {
+
+    private static final Logger logger = LogManager.getLogger("Tracer");
+
+    private static final Tracer DEFAULT = new Tracer(Boolean.getBoolean("parkit.trace.enabled"),
+            Double.parseDouble(System.getProperty("parkit.trace.sampleRate", "0.01")),
+            Long.getLong("parkit.trace.slowMs", 100L),
+            Integer.getInteger("parkit.trace.bufferSize", 65536));
+
+    private static final LongAdder SAMPLED_TRACES = MetricsRegistry.getDefault().counter("Tracer.sampledTraces");
+    private static final LongAdder SLOW_TRACES = MetricsRegistry.getDefault().counter("Tracer.slowTraces");
+
+    private final ThreadLocal<Span> current = new ThreadLocal<>();
+    private final SpanRingBuffer buffer;
+    // wall clock time matching System.nanoTime() at construction, to date the spans in the export
+    private final long originEpochMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    private final long originNanos = System.nanoTime();
+
+    private volatile boolean enabled;
+    private volatile double sampleRate;
+    private volatile long slowThresholdNanos;
+
+    public Tracer(boolean enabled, double sampleRate, long slowThresholdMillis, int bufferSize) {
+        this.buffer = new SpanRingBuffer(bufferSize);
+        this.enabled = enabled;
+        setSampleRate(sampleRate);
+        setSlowThresholdMillis(slowThresholdMillis);
+    }
+
+    /**
+     * @return the tracer the gate API, the service and the DAOs record to
+     */
+    public static Tracer getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Starts a span, as the root of a new trace if none is in progress on this thread.
+     */
+    public Span start(String name) {
+        if (!enabled) {
+            return Span.NOOP;
+        }
+        Span parent = current.get();
+        Trace trace = parent != null ? parent.getTrace()
+                : new Trace(nextId(), ThreadLocalRandom.current().nextDouble() < sampleRate);
+        return open(trace, parent, name, null);
+    }
+
+    /**
+     * Starts a span only if a trace is in progress on this thread, for operations not worth a trace of their own
+     * (SQL statements, connection setup).
+     * @param detail what the span works on, the SQL text for statements
+     */
+    public Span startChild(String name, String detail) {
+        Span parent = enabled ? current.get() : null;
+        if (parent == null) {
+            return Span.NOOP;
+        }
+        return open(parent.getTrace(), parent, name, detail);
+    }
+
+    /**
+     * @return true if a trace is in progress on this thread
+     */
+    public boolean isTracing() {
+        return enabled && current.get() != null;
+    }
+
+    private Span open(Trace trace, Span parent, String name, String detail) {
+        Span span = new Span(this, trace, parent, name, detail);
+        current.set(span);
+        return span;
+    }
+
+    void ended(Span span) {
+        Trace trace = span.getTrace();
+        trace.add(span);
+        Span parent = span.getParent();
+        if (parent != null) {
+            current.set(parent);
+            return;
+        }
+        current.remove();
+        boolean slow = span.getDurationNanos() >= slowThresholdNanos;
+        if (slow || trace.isSampled()) {
+            (slow ? SLOW_TRACES : SAMPLED_TRACES).increment();
+            for (Span ended : trace.getSpans()) {
+                buffer.add(ended);
+            }
+        }
+    }
+
+    long nextId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    long toEpochMicros(long nanos) {
+        return originEpochMicros + TimeUnit.NANOSECONDS.toMicros(nanos - originNanos);
+    }
+
+    /**
+     * @return the spans of the kept traces still in the ring buffer, oldest first
+     */
+    public List<Span> getSpans() {
+        return buffer.snapshot();
+    }
+
+    public void clear() {
+        buffer.clear();
+    }
+
+    /**
+     * Writes the spans of the ring buffer to the file, in the Chrome trace event format.
+     * @return the number of spans written
+     */
+    public int export(Path file) throws IOException {
+        List<Span> spans = getSpans();
+        new ChromeTraceWriter(this).write(spans, file);
+        logger.info("Exported " + spans.size() + " spans to " + file);
+        return spans.size();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns tracing on or off, traces in progress are completed either way.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param sampleRate share of the traces kept whatever their duration, between 0 and 1
+     */
+    public void setSampleRate(double sampleRate) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("Sample rate must be between 0 and 1: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @param slowThresholdMillis traces lasting at least this long are always kept
+     */
+    public void setSlowThresholdMillis(long slowThresholdMillis) {
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+    }
+}
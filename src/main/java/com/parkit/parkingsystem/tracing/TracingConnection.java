@@ -0,0 +1,60 @@
+package com.parkit.parkingsystem.tracing;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+/**
+ * Wraps a connection so that each statement execution, commit and rollback is a span of the trace in progress.
+ * Only connections borrowed while a trace is in progress are wrapped, the others are used as they are.
+ */
+public final class TracingConnection {
+
+    private TracingConnection() {
+    }
+
+    public static Connection wrap(Connection connection, Tracer tracer) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.equals("commit") || name.equals("rollback")) {
+                        return traced(tracer, "SQL " + name, null, connection, method, args);
+                    }
+                    Object result = invoke(connection, method, args);
+                    if (result instanceof PreparedStatement && name.equals("prepareStatement")) {
+                        result = wrap((PreparedStatement) result, (String) args[0], tracer);
+                    }
+                    return result;
+                });
+    }
+
+    private static PreparedStatement wrap(PreparedStatement statement, String sql, Tracer tracer) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    if (method.getName().startsWith("execute")) {
+                        return traced(tracer, "SQL " + method.getName(), sql, statement, method, args);
+                    }
+                    return invoke(statement, method, args);
+                });
+    }
+
+    private static Object traced(Tracer tracer, String name, String sql, Object target, Method method, Object[] args)
+            throws Throwable {
+        Span span = tracer.startChild(name, sql);
+        try {
+            return invoke(target, method, args);
+        } finally {
+            span.end();
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.parkit.parkingsystem.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size bit set whose bits can be set and cleared from several threads without locking.
+ */
+public class ConcurrentBitSet {
+
+    private final AtomicLongArray words;
+    private final int size;
+
+    public ConcurrentBitSet(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size: " + size);
+        }
+        this.size = size;
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean get(int index) {
+        checkIndex(index);
+        return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Sets the bit, returns true if it was previously clear.
+     */
+    public boolean set(int index) {
+        checkIndex(index);
+        long mask = 1L << index;
+        return (words.getAndAccumulate(index >>> 6, mask, (word, m) -> word | m) & mask) == 0;
+    }
+
+    /**
+     * Clears the bit, returns true if it was previously set. Only one of several threads
+     * clearing the same bit concurrently gets true.
+     */
+    public boolean clear(int index) {
+        checkIndex(index);
+        long mask = 1L << index;
+        return (words.getAndAccumulate(index >>> 6, mask, (word, m) -> word & ~m) & mask) != 0;
+    }
+
+    /**
+     * Returns the index of the first set bit at or after fromIndex, or -1 if there is none.
+     */
+    public int nextSetBit(int fromIndex) {
+        if (fromIndex < 0) {
+            throw new IndexOutOfBoundsException("fromIndex < 0: " + fromIndex);
+        }
+        int wordIndex = fromIndex >>> 6;
+        if (fromIndex >= size) {
+            return -1;
+        }
+        long word = words.get(wordIndex) & (-1L << fromIndex);
+        while (true) {
+            if (word != 0) {
+                int index = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+                return index < size ? index : -1;
+            }
+            if (++wordIndex == words.length()) {
+                return -1;
+            }
+            word = words.get(wordIndex);
+        }
+    }
+
+    public int cardinality() {
+        int count = 0;
+        for (int i = 0; i < words.length(); i++) {
+            count += Long.bitCount(words.get(i));
+        }
+        return count;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.parkit.parkingsystem.util;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Exponentially weighted average over time of a value changing by steps: each moment weighs half as much as a
+ * moment one half-life later. Updated in O(1) on every change of the value, without storing its history.
+ * Lock-free: writers swap an immutable state, readers never wait.
+ */
+public class DecayingAverage {
+
+    private final double decayPerMilli;
+    private final AtomicReference<State> state;
+
+    /**
+     * @param value value, and average, from the given time
+     */
+    public DecayingAverage(long halfLifeMillis, double value, long timeMillis) {
+        if (halfLifeMillis <= 0) {
+            throw new IllegalArgumentException("Half-life must be positive: " + halfLifeMillis);
+        }
+        this.decayPerMilli = Math.log(2) / halfLifeMillis;
+        this.state = new AtomicReference<>(new State(timeMillis, value, value));
+    }
+
+    /**
+     * Records that the value changed at this time. A time before the last change counts as that of the last change.
+     */
+    public void set(double value, long timeMillis) {
+        update(() -> value, timeMillis);
+    }
+
+    /**
+     * Same as set, with the value read once the state to replace is known: of writers updating the average at the
+     * same time from a shared source, the last one records the latest value.
+     */
+    public void update(DoubleSupplier value, long timeMillis) {
+        while (true) {
+            State current = state.get();
+            State next = new State(Math.max(timeMillis, current.time), value.getAsDouble(),
+                    current.averageAt(timeMillis, decayPerMilli));
+            if (state.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the average up to this time
+     */
+    public double get(long timeMillis) {
+        return state.get().averageAt(timeMillis, decayPerMilli);
+    }
+
+    /**
+     * @return the value as last set
+     */
+    public double getValue() {
+        return state.get().value;
+    }
+
+    private static final class State {
+        final long time;
+        final double value;
+        // average up to time
+        final double average;
+
+        State(long time, double value, double average) {
+            this.time = time;
+            this.value = value;
+            this.average = average;
+        }
+
+        double averageAt(long timeMillis, double decayPerMilli) {
+            if (timeMillis <= time) {
+                return average;
+            }
+            // the value held from time on, its weight grows towards 1 as the earlier average fades
+            return value + (average - value) * Math.exp(-decayPerMilli * (timeMillis - time));
+        }
+    }
+}
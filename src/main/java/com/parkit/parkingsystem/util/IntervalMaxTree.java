@@ -0,0 +1,83 @@
+package com.parkit.parkingsystem.util;
+
+/**
+ * Segment tree over a fixed number of slots, all starting at 0, with an add to a range of slots and the max over
+ * a range of slots, both in O(log size). An add covering the whole range of a node is kept on that node and
+ * counted in its max instead of being pushed down to its children. Not thread-safe.
+ */
+public class IntervalMaxTree {
+
+    private final int size;
+    // max of the slots of the node, its own add included
+    private final int[] max;
+    // added to every slot of the node
+    private final int[] add;
+
+    public IntervalMaxTree(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be positive: " + size);
+        }
+        this.size = size;
+        this.max = new int[4 * size];
+        this.add = new int[4 * size];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds delta to the slots from (inclusive) to (exclusive).
+     */
+    public void add(int from, int to, int delta) {
+        checkRange(from, to);
+        if (from < to) {
+            add(1, 0, size, from, to, delta);
+        }
+    }
+
+    private void add(int node, int low, int high, int from, int to, int delta) {
+        if (from <= low && high <= to) {
+            max[node] += delta;
+            add[node] += delta;
+            return;
+        }
+        int middle = (low + high) >>> 1;
+        if (from < middle) {
+            add(2 * node, low, middle, from, to, delta);
+        }
+        if (to > middle) {
+            add(2 * node + 1, middle, high, from, to, delta);
+        }
+        max[node] = add[node] + Math.max(max[2 * node], max[2 * node + 1]);
+    }
+
+    /**
+     * @return the highest value of the slots from (inclusive) to (exclusive), 0 for an empty range
+     */
+    public int max(int from, int to) {
+        checkRange(from, to);
+        return from < to ? max(1, 0, size, from, to) : 0;
+    }
+
+    private int max(int node, int low, int high, int from, int to) {
+        if (from <= low && high <= to) {
+            return max[node];
+        }
+        int middle = (low + high) >>> 1;
+        int result = Integer.MIN_VALUE;
+        if (from < middle) {
+            result = max(2 * node, low, middle, from, to);
+        }
+        if (to > middle) {
+            result = Math.max(result, max(2 * node + 1, middle, high, from, to));
+        }
+        return result + add[node];
+    }
+
+    private void checkRange(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range " + from + " to " + to + " out of 0 to " + size);
+        }
+    }
+}
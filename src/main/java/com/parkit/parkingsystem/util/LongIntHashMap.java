@@ -0,0 +1,153 @@
+package com.parkit.parkingsystem.util;
+
+import java.util.Arrays;
+
+/**
+ * Map of long keys to int values in two flat arrays, open addressing with linear probing: no entry objects and no
+ * boxing, 12 bytes per slot with at most two thirds of the slots used. Not thread-safe.
+ */
+public class LongIntHashMap {
+
+    private static final long FREE = 0;
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+    // the FREE key is kept out of the arrays
+    private boolean hasFreeKey;
+    private int freeKeyValue;
+
+    public LongIntHashMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Negative size: " + expectedSize);
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < (1 << 30) && capacity / 3 * 2 < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        // at most two thirds full, so probe sequences stay short
+        resizeAt = capacity / 3 * 2;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ hash >>> 32) & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE) {
+            return hasFreeKey;
+        }
+        return keys[find(key)] == key;
+    }
+
+    /**
+     * @return the value of the key, or defaultValue if it is not in the map
+     */
+    public int getOrDefault(long key, int defaultValue) {
+        if (key == FREE) {
+            return hasFreeKey ? freeKeyValue : defaultValue;
+        }
+        int slot = find(key);
+        return keys[slot] == key ? values[slot] : defaultValue;
+    }
+
+    public void put(long key, int value) {
+        if (key == FREE) {
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeKeyValue = value;
+            return;
+        }
+        int slot = find(key);
+        if (keys[slot] == key) {
+            values[slot] = value;
+            return;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * @return true if the key was in the map
+     */
+    public boolean remove(long key) {
+        if (key == FREE) {
+            if (!hasFreeKey) {
+                return false;
+            }
+            hasFreeKey = false;
+            size--;
+            return true;
+        }
+        int slot = find(key);
+        if (keys[slot] != key) {
+            return false;
+        }
+        // shift back the following keys of the probe sequence into the hole, no tombstones to clean up later
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+            int home = slot(keys[next]);
+            // the key can fill the hole if its home is not cyclically in (hole, next]
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        keys[hole] = FREE;
+        size--;
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        hasFreeKey = false;
+        size = 0;
+    }
+
+    // slot of the key, or the free slot ending its probe sequence
+    private int find(long key) {
+        int slot = slot(key);
+        while (keys[slot] != key && keys[slot] != FREE) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.parkit.parkingsystem.util;
+
+/**
+ * Packs a registration number of up to 10 characters (the size of the column) into a long, 6 bits per character,
+ * so in-memory indexes can key vehicles by a primitive instead of a String. The code stands for the exact string:
+ * plates differing only by case or dashes get different codes, as they are different keys in the tables.
+ */
+public final class PlateCodec {
+
+    /**
+     * Returned for plates that cannot be packed, all other codes are positive or zero (the empty plate).
+     */
+    public static final long NO_CODE = -1;
+
+    public static final int MAX_LENGTH = 10;
+
+    // 0 marks the end of the plate, so codes of different lengths never collide
+    private static final String ALPHABET = "\0" + "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz-";
+    private static final byte[] DIGITS = new byte[128];
+
+    static {
+        for (int i = 1; i < ALPHABET.length(); i++) {
+            DIGITS[ALPHABET.charAt(i)] = (byte) i;
+        }
+    }
+
+    private PlateCodec() {
+    }
+
+    /**
+     * @return the code of the plate, or NO_CODE if it is null, longer than 10 characters or holds characters other
+     * than ASCII letters, digits and dashes
+     */
+    public static long encode(CharSequence vehicleRegNumber) {
+        if (vehicleRegNumber == null || vehicleRegNumber.length() > MAX_LENGTH) {
+            return NO_CODE;
+        }
+        long code = 0;
+        for (int i = 0; i < vehicleRegNumber.length(); i++) {
+            char c = vehicleRegNumber.charAt(i);
+            int digit = c < DIGITS.length ? DIGITS[c] : 0;
+            if (digit == 0) {
+                return NO_CODE;
+            }
+            code = code << 6 | digit;
+        }
+        return code;
+    }
+
+    /**
+     * @return the plate of a code returned by encode
+     */
+    public static String decode(long code) {
+        if (code < 0 || code >>> (6 * MAX_LENGTH) != 0) {
+            throw new IllegalArgumentException("Not a plate code: " + code);
+        }
+        char[] chars = new char[MAX_LENGTH];
+        int start = MAX_LENGTH;
+        for (long rest = code; rest != 0; rest >>>= 6) {
+            int digit = (int) (rest & 63);
+            if (digit == 0) {
+                throw new IllegalArgumentException("Not a plate code: " + code);
+            }
+            chars[--start] = ALPHABET.charAt(digit);
+        }
+        return new String(chars, start, MAX_LENGTH - start);
+    }
+}
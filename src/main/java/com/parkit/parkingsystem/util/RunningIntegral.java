@@ -0,0 +1,92 @@
+package com.parkit.parkingsystem.util;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Integral over time of a value changing by steps, from a start time: the difference of two readings divided by the
+ * time between them is the average of the value in between. Updated in O(1) on every change of the value, without
+ * storing its history. Lock-free: writers swap an immutable state, readers never wait.
+ */
+public class RunningIntegral {
+
+    private final long startTime;
+    private final AtomicReference<State> state;
+
+    /**
+     * @param value value from the given time, when the integral is 0
+     */
+    public RunningIntegral(double value, long timeMillis) {
+        this.startTime = timeMillis;
+        this.state = new AtomicReference<>(new State(timeMillis, value, 0));
+    }
+
+    /**
+     * Records that the value changed at this time. A time before the last change counts as that of the last change.
+     */
+    public void set(double value, long timeMillis) {
+        update(() -> value, timeMillis);
+    }
+
+    /**
+     * Same as set, with the value read once the state to replace is known: of writers updating the integral at the
+     * same time from a shared source, the last one records the latest value.
+     */
+    public void update(DoubleSupplier value, long timeMillis) {
+        while (true) {
+            State current = state.get();
+            State next = new State(Math.max(timeMillis, current.time), value.getAsDouble(), current.integralAt(timeMillis));
+            if (state.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the integral of the value, in value-milliseconds, from the start time up to this time
+     */
+    public double get(long timeMillis) {
+        return state.get().integralAt(timeMillis);
+    }
+
+    /**
+     * @return the average of the value from a reading of the integral to this time, or the value as last set if no
+     * time has passed. A reading older than the start time counts from the start time.
+     */
+    public double averageSince(double integral, long integralTimeMillis, long timeMillis) {
+        State current = state.get();
+        if (integralTimeMillis < startTime) {
+            integral = 0;
+            integralTimeMillis = startTime;
+        }
+        if (timeMillis <= integralTimeMillis) {
+            return current.value;
+        }
+        return (current.integralAt(timeMillis) - integral) / (timeMillis - integralTimeMillis);
+    }
+
+    /**
+     * @return the value as last set
+     */
+    public double getValue() {
+        return state.get().value;
+    }
+
+    private static final class State {
+        final long time;
+        final double value;
+        // integral up to time
+        final double integral;
+
+        State(long time, double value, double integral) {
+            this.time = time;
+            this.value = value;
+            this.integral = integral;
+        }
+
+        double integralAt(long timeMillis) {
+            // the value held from time on
+            return timeMillis <= time ? integral : integral + value * (timeMillis - time);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.ConnectionPool;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import static org.mockito.Mockito.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectionPoolTest {
+
+	private List<Connection> created;
+
+	@BeforeEach
+	public void setUp() {
+		created = new ArrayList<>();
+	}
+
+	private Connection newMockConnection() throws SQLException {
+		Connection connection = mock(Connection.class);
+		when(connection.getAutoCommit()).thenReturn(true);
+		when(connection.isValid(anyInt())).thenReturn(true);
+		created.add(connection);
+		return connection;
+	}
+
+	// A returned connection is handed out again instead of opening a new one
+	@Test
+	public void testConnectionIsReused() throws Exception {
+		ConnectionPool pool = new ConnectionPool(this::newMockConnection, 2, 100, 60000, 1);
+		Connection first = pool.borrow();
+		first.close();
+		Connection second = pool.borrow();
+		second.close();
+		// Only one physical connection should have been opened and none closed
+		assertEquals(1, created.size());
+		assertEquals(1, pool.getCreatedCount());
+		assertEquals(2, pool.getAcquireCount());
+		verify(created.get(0), never()).close();
+	}
+
+	// A closed lease can no longer reach the physical connection
+	@Test
+	public void testClosedLeaseIsRejected() throws Exception {
+		ConnectionPool pool = new ConnectionPool(this::newMockConnection, 1, 100, 60000, 1);
+		Connection connection = pool.borrow();
+		connection.close();
+		assertTrue(connection.isClosed());
+		assertThrows(Exception.class, () -> connection.prepareStatement("select 1"));
+	}
+
+	// Borrowing past the pool size times out and is counted
+	@Test
+	public void testAcquireTimeout() throws Exception {
+		ConnectionPool pool = new ConnectionPool(this::newMockConnection, 1, 50, 60000, 1);
+		Connection connection = pool.borrow();
+		assertThrows(SQLTimeoutException.class, pool::borrow);
+		assertEquals(1, pool.getAcquireTimeoutCount());
+		connection.close();
+		// Once given back the connection is available again
+		pool.borrow().close();
+		assertEquals(0, pool.getActiveCount());
+	}
+
+	// A transaction left open by the borrower is rolled back before reuse
+	@Test
+	public void testOpenTransactionIsRolledBack() throws Exception {
+		ConnectionPool pool = new ConnectionPool(this::newMockConnection, 1, 100, 60000, 1);
+		Connection connection = pool.borrow();
+		when(created.get(0).getAutoCommit()).thenReturn(false);
+		connection.close();
+		verify(created.get(0)).rollback();
+		verify(created.get(0)).setAutoCommit(true);
+	}
+
+	// Statements left open by the borrower are closed when the connection is given back
+	@Test
+	public void testStatementsAreClosedWithTheLease() throws Exception {
+		ConnectionPool pool = new ConnectionPool(this::newMockConnection, 1, 100, 60000, 1);
+		Connection connection = pool.borrow();
+		PreparedStatement statement = mock(PreparedStatement.class);
+		when(created.get(0).prepareStatement("select 1")).thenReturn(statement);
+		assertSame(statement, connection.prepareStatement("select 1"));
+		connection.close();
+		verify(statement).close();
+		// the next borrower does not close it again
+		pool.borrow().close();
+		verify(statement, times(1)).close();
+	}
+
+	// Connections idle longer than the idle timeout are closed
+	@Test
+	public void testIdleConnectionIsEvicted() throws Exception {
+		ConnectionPool pool = new ConnectionPool(this::newMockConnection, 1, 100, 0, 1);
+		pool.borrow().close();
+		Thread.sleep(5);
+		pool.evictIdle();
+		verify(created.get(0)).close();
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(1, pool.getEvictedCount());
+	}
+}
@@ -0,0 +1,225 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.EventJournal;
+import com.parkit.parkingsystem.dao.JournalEvent;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.service.ParkingSystem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventJournalTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private FlakyDataBaseConfig dataBaseConfig;
+    private ParkingSystem parkingSystem;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dataBaseConfig = new FlakyDataBaseConfig();
+        dataBaseConfig.createSchema(3, 2);
+        parkingSystem = new ParkingSystem(dataBaseConfig);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dataBaseConfig.down = false;
+        parkingSystem.getParkingSpotDAO().disableJournal();
+        parkingSystem.getTicketDAO().disableJournal();
+        dataBaseConfig.shutdown();
+    }
+
+    // With the DB down, gates keep letting vehicles in and out; the tables catch up once it is back
+    @Test
+    public void gatesKeepWorkingWhileTheDatabaseIsDown(@TempDir Path dir) throws Exception {
+        parkingSystem.enableJournal(dir);
+        ParkingService parkingService = new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO());
+        dataBaseConfig.down = true;
+        for (String vehicle : new String[]{"CAR1", "CAR2", "CAR3"}) {
+            assertNotNull(parkingService.processIncomingVehicle(ParkingType.CAR, vehicle, new Date(0)));
+        }
+        // the car spots are all taken
+        assertNull(parkingService.processIncomingVehicle(ParkingType.CAR, "CAR4", new Date(0)));
+        Ticket exit = parkingService.processExitingVehicle("CAR2", new Date(2 * HOUR));
+        assertNotNull(exit);
+        assertTrue(exit.getPrice() > 0);
+        // the stay can only be closed once
+        assertNull(parkingService.processExitingVehicle("CAR2", new Date(3 * HOUR)));
+        Ticket entry = parkingService.processIncomingVehicle(ParkingType.CAR, "CAR4", new Date(HOUR));
+        assertEquals(2, entry.getParkingSpot().getId());
+        assertEquals(0, parkingService.countAvailableSpots(ParkingType.CAR));
+
+        dataBaseConfig.down = false;
+        assertTrue(parkingSystem.getTicketDAO().getJournalReplayer().replayAll());
+        assertEquals(0, parkingSystem.getTicketDAO().getJournalReplayer().getLag());
+        List<Ticket> tickets = parkingSystem.getTicketDAO().getTickets("CAR2");
+        assertEquals(1, tickets.size());
+        assertEquals(exit.getPrice(), tickets.get(0).getPrice(), 0.001);
+        assertEquals(2 * HOUR, tickets.get(0).getOutTime().getTime());
+        assertEquals(2, parkingSystem.getTicketDAO().getTicket("CAR4").getParkingSpot().getId());
+        assertEquals(1, parkingSystem.getTicketDAO().getNbTicket("CAR4"));
+        for (ParkingSpot spot : parkingSystem.getParkingSpotDAO().getParkingSpots()) {
+            assertEquals(spot.getParkingType() == ParkingType.BIKE, spot.isAvailable(), "spot " + spot.getId());
+        }
+    }
+
+    // Events left in the journal are applied when it is opened again, and only once
+    @Test
+    public void pendingEventsAreAppliedOnceAfterARestart(@TempDir Path dir) throws Exception {
+        parkingSystem.enableJournal(dir);
+        ParkingService parkingService = new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO());
+        dataBaseConfig.down = true;
+        assertNotNull(parkingService.processIncomingVehicle(ParkingType.BIKE, "BIKE1", new Date(0)));
+        assertNotNull(parkingService.processIncomingVehicle(ParkingType.CAR, "CAR1", new Date(0)));
+        assertNotNull(parkingService.processExitingVehicle("BIKE1", new Date(HOUR)));
+        // stopped while the DB is still down, the events stay in the journal
+        parkingSystem.getParkingSpotDAO().disableJournal();
+        parkingSystem.getTicketDAO().disableJournal();
+        dataBaseConfig.down = false;
+
+        for (int restart = 0; restart < 2; restart++) {
+            parkingSystem = new ParkingSystem(dataBaseConfig);
+            parkingSystem.enableJournal(dir);
+            parkingService = new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO());
+            assertEquals(1, parkingSystem.getTicketDAO().getTickets("BIKE1").size());
+            assertEquals(1, parkingSystem.getTicketDAO().getTickets("CAR1").size());
+            assertEquals(2, parkingService.countAvailableSpots(ParkingType.CAR));
+            assertEquals(2, parkingService.countAvailableSpots(ParkingType.BIKE));
+            parkingSystem.getParkingSpotDAO().disableJournal();
+            parkingSystem.getTicketDAO().disableJournal();
+        }
+        assertNotNull(parkingService.processExitingVehicle("CAR1", new Date(2 * HOUR)));
+        assertEquals(3, parkingService.countAvailableSpots(ParkingType.CAR));
+    }
+
+    // Started while the DB is down, journal mode is enabled all the same and catches up once it is back; the
+    // discount of a regular whose visit count was not known at the exit is granted when the exit is applied
+    @Test
+    public void startsWhileTheDatabaseIsDownAndSettlesTheDiscountLater(@TempDir Path dir) throws Exception {
+        parkingSystem.enableJournal(dir);
+        ParkingService parkingService = new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO());
+        assertNotNull(parkingService.processIncomingVehicle(ParkingType.CAR, "CAR1", new Date(0)));
+        assertNotNull(parkingService.processExitingVehicle("CAR1", new Date(HOUR)));
+        assertTrue(parkingSystem.getTicketDAO().getJournalReplayer().replayAll());
+        dataBaseConfig.down = true;
+        assertNotNull(parkingService.processIncomingVehicle(ParkingType.CAR, "CAR1", new Date(2 * HOUR)));
+        // the second entry is not applied, the exit cannot tell whether the vehicle is a regular
+        Ticket exit = parkingService.processExitingVehicle("CAR1", new Date(5 * HOUR));
+        assertNotNull(exit);
+        parkingSystem.getParkingSpotDAO().disableJournal();
+        parkingSystem.getTicketDAO().disableJournal();
+
+        parkingSystem = new ParkingSystem(dataBaseConfig);
+        parkingSystem.enableJournal(dir);
+        parkingService = new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO());
+        // refused until the open tickets can be loaded
+        assertNull(parkingService.processIncomingVehicle(ParkingType.CAR, "CAR2", new Date(6 * HOUR)));
+        dataBaseConfig.down = false;
+        assertTrue(parkingSystem.getTicketDAO().getJournalReplayer().replayAll());
+        List<Ticket> tickets = parkingSystem.getTicketDAO().getTickets("CAR1");
+        assertEquals(2, tickets.size());
+        Ticket settled = tickets.stream().filter(ticket -> ticket.getInTime().getTime() == 2 * HOUR).findFirst().get();
+        assertTrue(settled.getPrice() > 0 && settled.getPrice() < exit.getPrice());
+        assertNotNull(parkingService.processIncomingVehicle(ParkingType.CAR, "CAR2", new Date(6 * HOUR)));
+    }
+
+    // A plate the tables cannot hold is refused at the gate; an event the tables refuse anyway is set aside,
+    // the events after it are still applied
+    @Test
+    public void refusedEventsAreSetAside(@TempDir Path dir) throws Exception {
+        EventJournal journal = EventJournal.open(dir, 1 << 20, 5);
+        assertThrows(IllegalArgumentException.class,
+                () -> journal.append(JournalEvent.entry("ABCDEFGHIJK", ParkingType.CAR, 1, 0, -1, 0)));
+        journal.append(JournalEvent.entry("CAR1", ParkingType.CAR, 1, 0, -1, 0));
+        // there is no spot 99 in the parking table
+        journal.append(JournalEvent.entry("CAR2", ParkingType.CAR, 99, 0, -1, 0));
+        journal.append(JournalEvent.entry("CAR3", ParkingType.CAR, 3, 0, -1, 0));
+        TicketDAO ticketDAO = parkingSystem.getTicketDAO();
+        assertTrue(ticketDAO.enableJournal(journal, 500, 10, 100, false));
+        assertEquals(0, ticketDAO.getJournalReplayer().getLag());
+        assertEquals(1, ticketDAO.getTickets("CAR1").size());
+        assertEquals(0, ticketDAO.getTickets("CAR2").size());
+        assertEquals(1, ticketDAO.getTickets("CAR3").size());
+        Connection con = dataBaseConfig.getConnection();
+        try (Statement statement = con.createStatement();
+             ResultSet rs = statement.executeQuery("select JOURNAL_SEQUENCE, VEHICLE_REG_NUMBER from journal_dead_letter")) {
+            assertTrue(rs.next());
+            assertEquals(2, rs.getLong(1));
+            assertEquals("CAR2", rs.getString(2));
+            assertFalse(rs.next());
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    // Segments roll over and are deleted once applied, an incomplete last record is dropped on opening
+    @Test
+    public void segmentsAndIncompleteRecords(@TempDir Path dir) throws Exception {
+        EventJournal journal = EventJournal.open(dir, 200, 5);
+        for (int i = 1; i <= 20; i++) {
+            assertEquals(i, journal.append(JournalEvent.entry("CAR" + i, ParkingType.CAR, i, i * HOUR, -1, 0)));
+        }
+        journal.awaitSynced(20);
+        assertTrue(journal.getSegmentCount() > 2);
+        journal.close();
+        Path last;
+        try (Stream<Path> files = Files.list(dir)) {
+            last = files.filter(file -> file.toString().endsWith(".log")).sorted().reduce((a, b) -> b).get();
+        }
+        Files.write(last, new byte[]{0, 0, 0, 60, 1, 2}, StandardOpenOption.APPEND);
+
+        journal = EventJournal.open(dir, 200, 5);
+        assertEquals(20, journal.getLastSequence());
+        List<JournalEvent> events = journal.read(0, 100);
+        assertEquals(20, events.size());
+        assertEquals("CAR7", events.get(6).getVehicleRegNumber());
+        assertEquals(7 * HOUR, events.get(6).getInTime());
+        assertEquals(21, journal.append(JournalEvent.exit("CAR7", ParkingType.CAR, 7, 7 * HOUR, 9 * HOUR, 3.0)));
+        journal.awaitSynced(21);
+        int segments = journal.getSegmentCount();
+        journal.release(15);
+        assertTrue(journal.getSegmentCount() < segments);
+        List<Long> sequences = journal.read(15, 100).stream().map(JournalEvent::getSequence).collect(Collectors.toList());
+        assertEquals(16, (long) sequences.get(0));
+        assertEquals(21, (long) sequences.get(sequences.size() - 1));
+        journal.close();
+    }
+
+    private static class FlakyDataBaseConfig extends EmbeddedDataBaseConfig {
+        private volatile boolean down;
+
+        FlakyDataBaseConfig() {
+            super("journal", 2);
+        }
+
+        @Override
+        public Connection getConnection() throws ClassNotFoundException, SQLException {
+            if (down) {
+                throw new SQLException("Database down");
+            }
+            return super.getConnection();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.Fare;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.model.ParkingEvent;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.EventStreamProcessor;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.service.ParkingSystem;
+import com.parkit.parkingsystem.service.Tariff;
+import com.parkit.parkingsystem.service.TariffEngine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Replays event streams against the embedded H2 database
+public class EventStreamProcessorTest {
+
+    private EmbeddedDataBaseConfig dataBaseConfig;
+    private ParkingSystem parkingSystem;
+    private EventStreamProcessor processor;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseConfig("events", 4);
+        dataBaseConfig.createSchema(3, 2);
+        parkingSystem = new ParkingSystem(dataBaseConfig);
+        ParkingService parkingService = new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO());
+        processor = new EventStreamProcessor(parkingService, 3, 16, ZoneId.systemDefault());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        parkingSystem.shutdown();
+    }
+
+    private EventStreamProcessor.Report process(String events) throws Exception {
+        return processor.process(new BufferedReader(new StringReader(events)));
+    }
+
+    // Entries and exits are processed with the time of the event
+    @Test
+    public void processDayOfEvents() throws Exception {
+        EventStreamProcessor.Report report = process("# gate events\n"
+                + "ENTRY,CAR,ABC123,2024-05-01T08:00:00\n"
+                + "ENTRY,BIKE,BIKE1,2024-05-01T08:10:00\n"
+                + "\n"
+                + "EXIT,,ABC123,2024-05-01T10:00:00\n"
+                + "EXIT,,BIKE1,2024-05-01T08:30:00\n"
+                + "ENTRY,CAR,ABC123,2024-05-01T11:00:00\n"
+                + "EXIT,,ABC123,2024-05-01T12:00:00\n");
+        assertEquals(6, report.getProcessed());
+        assertEquals(0, report.getRejected());
+        assertEquals(0, report.getInvalid());
+        assertEquals(6, report.getLatency().getCount());
+        // Second stay of a returning vehicle, one hour with the discount
+        assertEquals(Fare.CAR_RATE_PER_HOUR * 0.95, parkingSystem.getTicketDAO().getTicket("ABC123").getPrice(), 1e-9);
+        assertEquals(0, parkingSystem.getTicketDAO().getTicket("BIKE1").getPrice());
+        assertEquals(0, parkingSystem.getTicketDAO().getOpenTicketRegistry().size());
+    }
+
+    // Replayed at full speed, the surge is priced on the fill over the stay as given by the times of the events
+    @Test
+    public void surgeFollowsTheTimesOfTheEvents() throws Exception {
+        Properties surge = new Properties();
+        surge.setProperty("surge.levels", "0.8:2");
+        FareCalculatorService fareCalculatorService = new FareCalculatorService(ZoneId.systemDefault(),
+                new TariffEngine(Tariff.compile(surge)));
+        ParkingService parkingService = new ParkingService(null, parkingSystem.getParkingSpotDAO(),
+                parkingSystem.getTicketDAO(), fareCalculatorService, null);
+        EventStreamProcessor oneWorker = new EventStreamProcessor(parkingService, 1, 16, ZoneId.systemDefault());
+        EventStreamProcessor.Report report = oneWorker.process(new BufferedReader(new StringReader(
+                "ENTRY,CAR,CAR1,2024-05-01T08:00:00\n"
+                + "ENTRY,CAR,CAR2,2024-05-01T08:00:00\n"
+                + "ENTRY,CAR,CAR3,2024-05-01T08:00:00\n"
+                + "EXIT,,CAR2,2024-05-01T11:00:00\n"
+                + "EXIT,,CAR3,2024-05-01T11:00:00\n"
+                + "EXIT,,CAR1,2024-05-01T12:00:00\n")));
+        assertEquals(6, report.getProcessed());
+        // full for 3 of the 4 hours, a third full for the last one: 0.83 on average
+        assertEquals(4 * Fare.CAR_RATE_PER_HOUR * 2, parkingSystem.getTicketDAO().getTicket("CAR1").getPrice(), 1e-9);
+        assertEquals(3 * Fare.CAR_RATE_PER_HOUR * 2, parkingSystem.getTicketDAO().getTicket("CAR3").getPrice(), 1e-9);
+    }
+
+    // Events the service refuses and lines that cannot be parsed are counted apart
+    @Test
+    public void rejectedAndInvalidEvents() throws Exception {
+        EventStreamProcessor.Report report = process("EXIT,,UNKNOWN,1714550400000\n"
+                + "ENTRY,BIKE,B1,1714550400000\n"
+                + "ENTRY,BIKE,B2,1714550400000\n"
+                + "ENTRY,BIKE,B3,1714550400000\n"
+                + "ENTRY,TRUCK,T1,1714550400000\n"
+                + "ENTRY,CAR,C1,yesterday\n"
+                + "ENTRY,,C2,1714550400000\n");
+        assertEquals(2, report.getProcessed());
+        // unknown vehicle, and a third bike with only two bike spots
+        assertEquals(2, report.getRejected());
+        assertEquals(3, report.getInvalid());
+    }
+
+    // A worker stopped by an error aborts the stream instead of leaving the reader waiting on its full queue
+    @Test
+    public void stoppedWorkerAbortsTheStream() {
+        ParkingService crashing = new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO()) {
+            @Override
+            public Ticket process(ParkingEvent event) {
+                throw new Error("Worker crashed");
+            }
+        };
+        EventStreamProcessor oneWorker = new EventStreamProcessor(crashing, 1, 1, ZoneId.systemDefault());
+        StringBuilder events = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            events.append("ENTRY,CAR,C").append(i).append(",2024-05-01T08:00:00\n");
+        }
+        EventStreamProcessor.Report report = assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> oneWorker.process(new BufferedReader(new StringReader(events.toString()))));
+        assertTrue(report.isAborted());
+        assertEquals(0, report.getProcessed());
+        assertTrue(report.toString().startsWith("Stream aborted"));
+    }
+}
@@ -9,7 +9,9 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
+import java.time.ZoneId;
 import java.util.Date;
+import java.util.Random;
 
 public class FareCalculatorServiceTest {
 
@@ -179,5 +181,50 @@ public class FareCalculatorServiceTest {
         assertEquals(Fare.BIKE_RATE_PER_HOUR * 0.95, ticket.getPrice());
     }
 
-}
 
+ // The primitive method gives bit-identical prices, across daylight saving changes too
+    @Test
+    public void calculateFarePrimitiveMatchesTicketFare() {
+        FareCalculatorService parisFareCalculatorService = new FareCalculatorService(ZoneId.of("Europe/Paris"));
+        Random random = new Random(42);
+        // Around the 2024 summer and winter time changes, then anywhere in the year
+        long[] starts = {1711846800000L, 1729990800000L, 1704067200000L};
+        long[] ranges = {6 * 60 * 60 * 1000L, 6 * 60 * 60 * 1000L, 365L * 24 * 60 * 60 * 1000};
+        for (int i = 0; i < 30000; i++) {
+            long inTime = starts[i % 3] - ranges[i % 3] / 2 + (long) (random.nextDouble() * ranges[i % 3]);
+            long outTime = inTime + (long) (random.nextDouble() * 48 * 60 * 60 * 1000);
+            ParkingType parkingType = ParkingType.values()[i % 2];
+            boolean discount = random.nextBoolean();
+            ticket.setInTime(new Date(inTime));
+            ticket.setOutTime(new Date(outTime));
+            ticket.setParkingSpot(new ParkingSpot(1, parkingType, false));
+            parisFareCalculatorService.calculateFare(ticket, discount);
+            double price = parisFareCalculatorService.calculateFare(inTime, outTime, parkingType.ordinal(), discount);
+            assertEquals(Double.doubleToRawLongBits(ticket.getPrice()), Double.doubleToRawLongBits(price));
+        }
+    }
+
+ // The bulk method prices each ticket of the arrays
+    @Test
+    public void calculateFaresBulk() {
+        long now = System.currentTimeMillis();
+        long[] inTimes = {now - (60 * 60 * 1000), now - (45 * 60 * 1000), now - (15 * 60 * 1000)};
+        long[] outTimes = {now, now, now};
+        int[] parkingTypes = {ParkingType.CAR.ordinal(), ParkingType.BIKE.ordinal(), ParkingType.CAR.ordinal()};
+        boolean[] discounts = {true, false, false};
+        double[] prices = new double[3];
+        fareCalculatorService.calculateFares(inTimes, outTimes, parkingTypes, discounts, prices);
+        assertEquals(Fare.CAR_RATE_PER_HOUR * 0.95, prices[0]);
+        assertEquals(0.75 * Fare.BIKE_RATE_PER_HOUR, prices[1]);
+        assertEquals(0, prices[2]);
+    }
+
+ // Invalid input is rejected by the primitive method as well
+    @Test
+    public void calculateFarePrimitiveInvalidInput() {
+        long now = System.currentTimeMillis();
+        assertThrows(IllegalArgumentException.class, () -> fareCalculatorService.calculateFare(now, now - 1, 0, false));
+        assertThrows(IllegalArgumentException.class, () -> fareCalculatorService.calculateFare(now - 1, now, 7, false));
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.FreeSpotIndex;
+import com.parkit.parkingsystem.dao.OccupancyModel;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.util.ConcurrentBitSet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FreeSpotIndexTest {
+
+	private FreeSpotIndex freeSpotIndex;
+
+	@BeforeEach
+	public void setUp() {
+		// Same layout as Data.sql, with spot 1 already occupied
+		freeSpotIndex = new FreeSpotIndex(Arrays.asList(
+				new ParkingSpot(1, ParkingType.CAR, false),
+				new ParkingSpot(2, ParkingType.CAR, true),
+				new ParkingSpot(3, ParkingType.CAR, true),
+				new ParkingSpot(4, ParkingType.BIKE, true),
+				new ParkingSpot(5, ParkingType.BIKE, true)));
+	}
+
+	// The lowest free number of the requested type is returned
+	@Test
+	public void testFirstAvailable() {
+		assertEquals(2, freeSpotIndex.firstAvailable(ParkingType.CAR));
+		assertEquals(4, freeSpotIndex.firstAvailable(ParkingType.BIKE));
+		assertEquals(2, freeSpotIndex.countAvailable(ParkingType.CAR));
+	}
+
+	// Occupying and releasing spots is reflected, 0 is returned once the type is full
+	@Test
+	public void testMarkOccupiedAndAvailable() {
+		freeSpotIndex.markOccupied(ParkingType.CAR, 2);
+		freeSpotIndex.markOccupied(ParkingType.CAR, 3);
+		assertEquals(0, freeSpotIndex.firstAvailable(ParkingType.CAR));
+		freeSpotIndex.markAvailable(ParkingType.CAR, 1);
+		assertEquals(1, freeSpotIndex.firstAvailable(ParkingType.CAR));
+	}
+
+	// Occupancy follows actual changes only, repeated updates of a spot are counted once
+	@Test
+	public void testOccupancy() throws Exception {
+		OccupancyModel occupancy = freeSpotIndex.getOccupancy();
+		assertEquals(3, occupancy.getCapacity(ParkingType.CAR));
+		assertEquals(1, occupancy.getOccupied(ParkingType.CAR));
+		freeSpotIndex.markOccupied(ParkingType.CAR, 2);
+		freeSpotIndex.markOccupied(ParkingType.CAR, 2);
+		assertFalse(freeSpotIndex.claim(ParkingType.CAR, 2));
+		assertEquals(1, occupancy.getAvailable(ParkingType.CAR));
+		freeSpotIndex.markAvailable(ParkingType.BIKE, 4);
+		assertEquals(2, occupancy.getAvailable(ParkingType.BIKE));
+
+		// gates racing for the same spots: every spot is taken exactly once
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<?>> gates = new ArrayList<>();
+		for (int gate = 0; gate < 4; gate++) {
+			gates.add(executor.submit(() -> {
+				for (int round = 0; round < 1000; round++) {
+					freeSpotIndex.claim(ParkingType.BIKE, 4 + round % 2);
+					freeSpotIndex.markAvailable(ParkingType.BIKE, 4 + (round + 1) % 2);
+				}
+			}));
+		}
+		for (Future<?> gate : gates) {
+			gate.get();
+		}
+		executor.shutdown();
+		int available = occupancy.getAvailable(ParkingType.BIKE);
+		int claimed = (freeSpotIndex.claim(ParkingType.BIKE, 4) ? 1 : 0) + (freeSpotIndex.claim(ParkingType.BIKE, 5) ? 1 : 0);
+		assertEquals(claimed, available);
+		assertEquals(0, occupancy.getAvailable(ParkingType.BIKE));
+	}
+
+	// Spots unknown at load time are reported so the index can be reloaded
+	@Test
+	public void testContains() {
+		assertTrue(freeSpotIndex.contains(ParkingType.BIKE, 5));
+		assertFalse(freeSpotIndex.contains(ParkingType.BIKE, 6));
+		assertFalse(freeSpotIndex.contains(ParkingType.CAR, 0));
+	}
+
+	// Search crosses 64-bit word boundaries and only one clear of a bit succeeds
+	@Test
+	public void testConcurrentBitSet() {
+		ConcurrentBitSet bits = new ConcurrentBitSet(200);
+		bits.set(130);
+		bits.set(199);
+		assertEquals(130, bits.nextSetBit(0));
+		assertEquals(199, bits.nextSetBit(131));
+		assertEquals(-1, bits.nextSetBit(200));
+		assertTrue(bits.clear(130));
+		assertFalse(bits.clear(130));
+		assertEquals(1, bits.cardinality());
+	}
+}
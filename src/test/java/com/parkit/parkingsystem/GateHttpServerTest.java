@@ -0,0 +1,123 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.api.GateHttpServer;
+import com.parkit.parkingsystem.constants.Fare;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.service.ParkingSystem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Calls the gate API over HTTP, in front of the embedded H2 database
+public class GateHttpServerTest {
+
+    private ParkingSystem parkingSystem;
+    private GateHttpServer gateHttpServer;
+    private volatile boolean databaseDown;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        EmbeddedDataBaseConfig dataBaseConfig = new EmbeddedDataBaseConfig("http", 4) {
+            @Override
+            public Connection getConnection() throws ClassNotFoundException, SQLException {
+                if (databaseDown) {
+                    throw new SQLException("Database down");
+                }
+                return super.getConnection();
+            }
+        };
+        dataBaseConfig.createSchema(1, 2);
+        parkingSystem = new ParkingSystem(dataBaseConfig);
+        ParkingService parkingService = new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO());
+        gateHttpServer = new GateHttpServer(parkingService, new InetSocketAddress("localhost", 0), 4);
+        gateHttpServer.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        gateHttpServer.stop(0);
+        parkingSystem.shutdown();
+    }
+
+    // A car enters, gets a quote and leaves with the fare of its stay
+    @Test
+    public void entryQuoteAndExit() throws Exception {
+        Reply entry = call("POST", "/entry?plate=AB-123&type=car&time=0");
+        assertEquals(201, entry.status);
+        assertTrue(entry.body.contains("\"parkingNumber\":1"), entry.body);
+        assertEquals("{\"CAR\":0,\"BIKE\":2}", call("GET", "/availability").body);
+        assertEquals("{\"CAR\":{\"capacity\":1,\"available\":0,\"occupied\":1},"
+                + "\"BIKE\":{\"capacity\":2,\"available\":2,\"occupied\":0}}", call("GET", "/occupancy").body);
+        assertEquals(409, call("POST", "/entry?plate=XYZ&type=CAR").status);
+
+        Reply quote = call("GET", "/quote?plate=AB-123&time=3600000");
+        assertEquals(200, quote.status);
+        assertTrue(quote.body.contains("\"price\":" + Fare.CAR_RATE_PER_HOUR), quote.body);
+        assertEquals("{\"CAR\":0,\"BIKE\":2}", call("GET", "/availability").body);
+
+        Reply exit = call("POST", "/exit?plate=AB-123&time=7200000");
+        assertEquals(200, exit.status);
+        assertTrue(exit.body.contains("\"price\":" + 2 * Fare.CAR_RATE_PER_HOUR), exit.body);
+        assertEquals(404, call("POST", "/exit?plate=AB-123").status);
+        assertEquals("{\"CAR\":1,\"BIKE\":2}", call("GET", "/availability").body);
+    }
+
+    // Invalid requests are refused and counted as errors
+    @Test
+    public void invalidRequests() throws Exception {
+        assertEquals(400, call("POST", "/entry?plate=ABC").status);
+        assertEquals(400, call("POST", "/entry?plate=ABC&type=TRUCK").status);
+        assertEquals(400, call("GET", "/quote?plate=ABC&time=now").status);
+        assertEquals(400, call("POST", "/exit?plate=ABCDEFGHIJK").status);
+        assertEquals(405, call("GET", "/entry?plate=ABC&type=CAR").status);
+        String metrics = call("GET", "/metrics").body;
+        assertTrue(metrics.contains("\"entry\":{\"requests\":3,\"errors\":3"), metrics);
+        assertTrue(metrics.contains("\"quote\":{\"requests\":1,\"errors\":1"), metrics);
+    }
+
+    // A vehicle that cannot be let out because of an error is told to try again, not that it is not parked
+    @Test
+    public void failuresAreNotRefusals() throws Exception {
+        assertEquals(201, call("POST", "/entry?plate=AB-123&type=car&time=0").status);
+        databaseDown = true;
+        assertEquals(503, call("POST", "/exit?plate=AB-123&time=7200000").status);
+        assertEquals(404, call("POST", "/exit?plate=XYZ").status);
+        assertEquals(503, call("POST", "/entry?plate=XYZ&type=BIKE").status);
+    }
+
+    private Reply call(String method, String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + gateHttpServer.getPort() + path)
+                .openConnection();
+        connection.setRequestMethod(method);
+        Reply reply = new Reply();
+        reply.status = connection.getResponseCode();
+        InputStream in = reply.status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            body.write(buffer, 0, read);
+        }
+        in.close();
+        reply.body = new String(body.toByteArray(), StandardCharsets.UTF_8);
+        return reply;
+    }
+
+    private static class Reply {
+        int status;
+        String body;
+    }
+}
@@ -0,0 +1,107 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.model.ParkingEvent;
+import com.parkit.parkingsystem.service.GateExecutor;
+import com.parkit.parkingsystem.service.GateInput;
+import com.parkit.parkingsystem.service.GateSession;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.service.ParkingSystem;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Many gates sharing one ParkingService against the embedded H2 database
+public class GateSessionTest {
+
+    private static final int GATES = 16;
+    private static final int VISITS = 30;
+
+    private EmbeddedDataBaseConfig dataBaseConfig;
+    private ParkingSystem parkingSystem;
+    private ParkingService parkingService;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseConfig("gates", 8);
+        // fewer spots than gates, so gates compete for them and some entries are refused
+        dataBaseConfig.createSchema(GATES / 2, 0);
+        parkingSystem = new ParkingSystem(dataBaseConfig);
+        parkingService = new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        parkingSystem.shutdown();
+    }
+
+    // Every vehicle let in gets out, each ticket is recorded once and the lot ends up empty
+    @Test
+    public void concurrentGates() throws Exception {
+        GateExecutor gateExecutor = new GateExecutor(GATES, true);
+        LatencyHistogram latency = new LatencyHistogram();
+        List<Future<GateSession.Result>> sessions = new ArrayList<>();
+        for (int gate = 0; gate < GATES; gate++) {
+            List<ParkingEvent> events = new ArrayList<>();
+            for (int visit = 0; visit < VISITS; visit++) {
+                events.add(new ParkingEvent(ParkingEvent.Action.ENTRY, ParkingType.CAR, "GATE-" + gate, visit * 10000000L));
+                events.add(new ParkingEvent(ParkingEvent.Action.EXIT, null, "GATE-" + gate, visit * 10000000L + 3600000));
+            }
+            sessions.add(gateExecutor.open(new GateSession("gate-" + gate, GateInput.of(events), parkingService, latency)));
+        }
+        long processed = 0;
+        long rejected = 0;
+        for (Future<GateSession.Result> session : sessions) {
+            GateSession.Result result = session.get();
+            // an exit is refused exactly when the entry before it was
+            assertEquals(0, result.getProcessed() % 2);
+            processed += result.getProcessed();
+            rejected += result.getRejected();
+        }
+        gateExecutor.shutdown();
+
+        assertEquals(2L * GATES * VISITS, processed + rejected);
+        assertEquals(processed + rejected, latency.getCount());
+        assertEquals(processed / 2, countRows("select count(*) from ticket where OUT_TIME is not null"));
+        assertEquals(0, countRows("select count(*) from ticket where OUT_TIME is null"));
+        assertEquals(GATES / 2, countRows("select count(*) from parking where AVAILABLE = true"));
+        assertEquals(0, parkingSystem.getTicketDAO().getOpenTicketRegistry().size());
+        assertEquals(1, parkingSystem.getParkingSpotDAO().getNextAvailableSlot(ParkingType.CAR));
+    }
+
+    // Platform threads are used when virtual threads are not wanted
+    @Test
+    public void platformThreads() throws Exception {
+        GateExecutor gateExecutor = new GateExecutor(2, false);
+        assertFalse(gateExecutor.usesVirtualThreads());
+        List<ParkingEvent> events = new ArrayList<>();
+        events.add(new ParkingEvent(ParkingEvent.Action.ENTRY, ParkingType.CAR, "ABC123", 0));
+        events.add(new ParkingEvent(ParkingEvent.Action.EXIT, null, "UNKNOWN", 0));
+        GateSession.Result result = gateExecutor.open(new GateSession("gate", GateInput.of(events), parkingService,
+                new LatencyHistogram())).get();
+        gateExecutor.shutdown();
+        assertEquals(1, result.getProcessed());
+        assertEquals(1, result.getRejected());
+    }
+
+    private long countRows(String sql) throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try {
+            ResultSet rs = con.createStatement().executeQuery(sql);
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    // Percentiles are within the bucket precision of the recorded values
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMean(TimeUnit.MICROSECONDS), 1e-9);
+        assertEquals(1000, histogram.getMax(TimeUnit.MICROSECONDS));
+        long p50 = histogram.getPercentile(50, TimeUnit.MICROSECONDS);
+        long p99 = histogram.getPercentile(99, TimeUnit.MICROSECONDS);
+        assertTrue(p50 >= 500 && p50 <= 500 * 1.125, "p50 " + p50);
+        assertTrue(p99 >= 990 && p99 <= 1000, "p99 " + p99);
+        assertEquals(1000, histogram.getPercentile(100, TimeUnit.MICROSECONDS));
+    }
+
+    // Small values are exact and nothing recorded gives zeros
+    @Test
+    public void smallAndEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99, TimeUnit.NANOSECONDS));
+        histogram.record(3);
+        histogram.record(5);
+        assertEquals(3, histogram.getPercentile(50, TimeUnit.NANOSECONDS));
+        assertEquals(5, histogram.getPercentile(99, TimeUnit.NANOSECONDS));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100, TimeUnit.NANOSECONDS));
+    }
+}
@@ -0,0 +1,85 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.metrics.MetricsRegistry;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MetricsRegistryTest {
+
+    // Every kind of metric shows up in the snapshot and as an attribute of the MBean
+    @Test
+    public void snapshotIsPublishedOverJmx() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.timer("test.timer").record(TimeUnit.MICROSECONDS.toNanos(200));
+        registry.counter("test.counter").add(3);
+        registry.meter("test.meter").mark();
+        registry.gauge("test.gauge", () -> 42);
+
+        Map<String, Number> snapshot = registry.snapshot();
+        assertEquals(1L, snapshot.get("test.timer.count"));
+        assertEquals(200L, snapshot.get("test.timer.maxMicros"));
+        assertEquals(3L, snapshot.get("test.counter"));
+        assertEquals(1L, snapshot.get("test.meter.count"));
+        assertEquals(42L, snapshot.get("test.gauge"));
+
+        assertTrue(registry.registerMBean());
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MetricsRegistry.OBJECT_NAME);
+            assertEquals(42L, server.getAttribute(name, "test.gauge"));
+            registry.counter("test.later").increment();
+            assertTrue(Arrays.stream(server.getMBeanInfo(name).getAttributes())
+                    .map(MBeanAttributeInfo::getName).anyMatch("test.later"::equals));
+        } finally {
+            registry.unregisterMBean();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(MetricsRegistry.OBJECT_NAME)));
+    }
+
+    // DAO calls are timed even when they fail, fares are timed on the Ticket path
+    @Test
+    public void daoAndFareCallsAreTimed() throws Exception {
+        Map<String, Number> before = MetricsRegistry.getDefault().snapshot();
+        DataBaseConfig dataBaseConfig = mock(DataBaseConfig.class);
+        when(dataBaseConfig.getConnection()).thenThrow(new SQLException("DB down"));
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBaseConfig;
+        assertNull(ticketDAO.getTicket("ABCDEF"));
+
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(1, ParkingType.CAR, false));
+        ticket.setInTime(new Date(0));
+        ticket.setOutTime(new Date(TimeUnit.HOURS.toMillis(1)));
+        new FareCalculatorService(ZoneOffset.UTC).calculateFare(ticket);
+
+        Map<String, Number> after = MetricsRegistry.getDefault().snapshot();
+        assertEquals(count(before, "TicketDAO.getTicket") + 1, count(after, "TicketDAO.getTicket"));
+        assertEquals(count(before, "FareCalculatorService.calculateFare") + 1,
+                count(after, "FareCalculatorService.calculateFare"));
+    }
+
+    private static long count(Map<String, Number> snapshot, String timer) {
+        Number count = snapshot.get(timer + ".count");
+        return count == null ? 0 : count.longValue();
+    }
+}
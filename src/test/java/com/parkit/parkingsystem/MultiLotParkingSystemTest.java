@@ -0,0 +1,90 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.ShardMap;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.MultiLotParkingSystem;
+import com.parkit.parkingsystem.service.ParkingService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MultiLotParkingSystemTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private MultiLotParkingSystem multiLotParkingSystem;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        Map<String, DataBaseConfig> shards = new LinkedHashMap<>();
+        for (String lotId : new String[]{"north", "south", "east"}) {
+            EmbeddedDataBaseConfig dataBaseConfig = new EmbeddedDataBaseConfig("lot-" + lotId, 2);
+            dataBaseConfig.createSchema(2, 1);
+            shards.put(lotId, dataBaseConfig);
+        }
+        multiLotParkingSystem = new MultiLotParkingSystem(new ShardMap(shards));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        multiLotParkingSystem.shutdown();
+    }
+
+    // Each lot has its own database: tickets carry their lot, history and revenue fan out to every lot
+    @Test
+    public void crossLotQueriesCoverEveryLot() {
+        ParkingService north = multiLotParkingSystem.getParkingService("north");
+        ParkingService south = multiLotParkingSystem.getParkingService("south");
+        assertNotNull(north.processIncomingVehicle(ParkingType.CAR, "ROAMER", new Date(0)));
+        Ticket northExit = north.processExitingVehicle("ROAMER", new Date(2 * HOUR));
+        assertNotNull(south.processIncomingVehicle(ParkingType.CAR, "ROAMER", new Date(3 * HOUR)));
+        Ticket southExit = south.processExitingVehicle("ROAMER", new Date(4 * HOUR));
+        assertNotNull(south.processIncomingVehicle(ParkingType.CAR, "ROAMER", new Date(5 * HOUR)));
+        assertEquals("north", northExit.getLotId());
+        assertEquals("south", southExit.getParkingSpot().getLotId());
+        // a lot only sees its own tickets
+        assertEquals(1, multiLotParkingSystem.getParkingSystem("north").getTicketDAO().getTickets("ROAMER").size());
+
+        List<Ticket> history = multiLotParkingSystem.getVehicleHistory("ROAMER");
+        assertEquals(3, history.size());
+        assertEquals("south", history.get(0).getLotId());
+        assertNull(history.get(0).getOutTime());
+        assertEquals("south", history.get(1).getLotId());
+        assertEquals("north", history.get(2).getLotId());
+        assertEquals("north", history.get(2).getParkingSpot().getLotId());
+        assertTrue(multiLotParkingSystem.getVehicleHistory("NOBODY").isEmpty());
+
+        Map<String, Double> revenueByLot = multiLotParkingSystem.getRevenueByLot(new Date(0), new Date(24 * HOUR));
+        assertEquals(northExit.getPrice(), revenueByLot.get("north"), 0.001);
+        assertEquals(southExit.getPrice(), revenueByLot.get("south"), 0.001);
+        assertEquals(0, revenueByLot.get("east"), 0.001);
+        assertEquals(northExit.getPrice() + southExit.getPrice(),
+                multiLotParkingSystem.getRevenue(new Date(0), new Date(24 * HOUR)), 0.001);
+        assertEquals(southExit.getPrice(), multiLotParkingSystem.getRevenue(new Date(3 * HOUR), new Date(24 * HOUR)), 0.001);
+    }
+
+    // Lots are read from properties, unknown lots are rejected
+    @Test
+    public void shardMapFromProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("parkit.lots", "north, south");
+        properties.setProperty("parkit.lot.north.db.url", "jdbc:mysql://db-north:3306/prod");
+        ShardMap shardMap = ShardMap.fromProperties(properties);
+        assertArrayEquals(new String[]{"north", "south"}, shardMap.getLotIds().toArray());
+        assertNotNull(shardMap.get("south"));
+        assertThrows(IllegalArgumentException.class, () -> shardMap.get("west"));
+        assertThrows(IllegalArgumentException.class, () -> multiLotParkingSystem.getParkingService("west"));
+    }
+}
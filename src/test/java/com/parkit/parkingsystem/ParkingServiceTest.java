@@ -1,10 +1,15 @@
 package com.parkit.parkingsystem;
 
+import com.parkit.parkingsystem.constants.Fare;
 import com.parkit.parkingsystem.constants.ParkingType;
 import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.ReservationDAO;
 import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.model.ExitTicket;
 import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Reservation;
 import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.FareCalculatorService;
 import com.parkit.parkingsystem.service.ParkingService;
 import com.parkit.parkingsystem.util.InputReaderUtil;
 import org.junit.jupiter.api.BeforeEach;
@@ -14,6 +19,8 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.junit.jupiter.MockitoExtension;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.util.Date;
 import static org.mockito.Mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
@@ -68,13 +75,65 @@ public class ParkingServiceTest {
 		when(parkingSpotDAO.getNextAvailableSlot(any(ParkingType.class))).thenReturn(1); // Simulate an available spot
 		when(inputReaderUtil.readSelection()).thenReturn(1); // Vehicle type: car
 		when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn("ABC123"); // Simulate a license plate
+		when(parkingSpotDAO.claimParkingSpot(any(ParkingSpot.class))).thenReturn(true); // The spot is still free
 		// Call the method to be tested
 		parkingService.processIncomingVehicle();
 		// Verifications
-		verify(parkingSpotDAO, times(1)).updateParking(any(ParkingSpot.class)); // Verify the spot is updated
+		verify(parkingSpotDAO, times(1)).claimParkingSpot(any(ParkingSpot.class)); // Verify the spot is claimed
 		verify(ticketDAO, times(1)).saveTicket(any(Ticket.class)); // Verify the ticket is recorded
 	}
 
+	// Test to verify that the next spot is claimed when another gate took the first one
+	@Test
+	public void testProcessIncomingVehicleSpotTakenByAnotherGate() throws Exception {
+		// Mock configuration
+		when(parkingSpotDAO.getNextAvailableSlot(any(ParkingType.class))).thenReturn(1);
+		when(inputReaderUtil.readSelection()).thenReturn(1);
+		when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn("ABC123");
+		when(parkingSpotDAO.claimParkingSpot(any(ParkingSpot.class))).thenReturn(false); // Lost the race for spot 1
+		when(parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR)).thenReturn(2);
+		// Call the method to be tested
+		parkingService.processIncomingVehicle();
+		// Verify the ticket is recorded on the spot actually claimed
+		verify(ticketDAO, times(1)).saveTicket(argThat(ticket -> ticket.getParkingSpot().getId() == 2));
+	}
+
+	// Test to verify that no ticket is recorded when every spot was claimed by other gates
+	@Test
+	public void testProcessIncomingVehicleNoSpotLeft() throws Exception {
+		// Mock configuration
+		when(parkingSpotDAO.getNextAvailableSlot(any(ParkingType.class))).thenReturn(1);
+		when(inputReaderUtil.readSelection()).thenReturn(1);
+		when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn("ABC123");
+		when(parkingSpotDAO.claimParkingSpot(any(ParkingSpot.class))).thenReturn(false);
+		when(parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR)).thenReturn(0);
+		// Call the method to be tested
+		parkingService.processIncomingVehicle();
+		// Verify no ticket is recorded
+		verify(ticketDAO, never()).saveTicket(any(Ticket.class));
+	}
+
+	// Test to verify that a vehicle typed in for its reservation takes a held spot and is checked in
+	@Test
+	public void testProcessIncomingVehicleWithReservation() throws Exception {
+		ReservationDAO reservationDAO = mock(ReservationDAO.class);
+		ParkingService service = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO,
+				new FareCalculatorService(), reservationDAO);
+		Reservation reservation = new Reservation(ParkingType.CAR, "ABC123", new Date(), new Date());
+		when(inputReaderUtil.readSelection()).thenReturn(1);
+		when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn("ABC123");
+		when(reservationDAO.findArrival(eq("ABC123"), eq(ParkingType.CAR), any(Date.class))).thenReturn(reservation);
+		// no spot left for walk-in vehicles, only the held ones
+		when(parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR, true)).thenReturn(3);
+		when(parkingSpotDAO.claimParkingSpot(any(ParkingSpot.class))).thenReturn(true);
+		when(ticketDAO.saveTicket(any(Ticket.class))).thenReturn(true);
+		when(reservationDAO.checkIn(reservation)).thenReturn(true);
+		service.processIncomingVehicle();
+		verify(ticketDAO).saveTicket(argThat(ticket -> ticket.getParkingSpot().getId() == 3));
+		verify(reservationDAO).checkIn(reservation);
+		verify(parkingSpotDAO, never()).getNextAvailableSlot(ParkingType.CAR);
+	}
+
 	// Test to verify that an exiting vehicle is properly recorded (case 1)
 	@Test
 	public void testProcessExitingVehicle() throws Exception {
@@ -85,14 +144,44 @@ public class ParkingServiceTest {
 		ticket.setParkingSpot(parkingSpot);
 		ticket.setVehicleRegNumber("ABC123");
 		when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn("ABC123");
-		when(ticketDAO.getTicket("ABC123")).thenReturn(ticket);
-		when(ticketDAO.updateTicket(any(Ticket.class))).thenReturn(true);
-		when(parkingSpotDAO.updateParking(any(ParkingSpot.class))).thenReturn(true);
+		when(ticketDAO.getTicketForExit("ABC123")).thenReturn(new ExitTicket(ticket, 1));
+		when(ticketDAO.closeTicket(any(Ticket.class))).thenReturn(true);
+		// Call the method to be tested
+		parkingService.processExitingVehicle();
+		// Verifications
+		verify(ticketDAO, times(1)).closeTicket(any(Ticket.class)); // Verify the ticket is closed and the spot freed
+		verify(parkingSpotDAO, times(1)).parkingSpotReleased(parkingSpot); // Verify the free spot index is told
+		assertEquals(Fare.CAR_RATE_PER_HOUR, ticket.getPrice()); // First visit, no discount
+	}
+
+	// Test to verify that a returning vehicle gets the discount (case 1)
+	@Test
+	public void testProcessExitingVehicleReturningUser() throws Exception {
+		// Mock configuration
+		ParkingSpot parkingSpot = new ParkingSpot(1, ParkingType.CAR, false);
+		Ticket ticket = new Ticket();
+		ticket.setInTime(new Date(System.currentTimeMillis() - (60 * 60 * 1000)));
+		ticket.setParkingSpot(parkingSpot);
+		ticket.setVehicleRegNumber("ABC123");
+		when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn("ABC123");
+		when(ticketDAO.getTicketForExit("ABC123")).thenReturn(new ExitTicket(ticket, 2)); // Second visit
+		when(ticketDAO.closeTicket(any(Ticket.class))).thenReturn(true);
+		// Call the method to be tested
+		parkingService.processExitingVehicle();
+		// Verify the 5% discount is applied
+		assertEquals(Fare.CAR_RATE_PER_HOUR * 0.95, ticket.getPrice());
+	}
+
+	// Test to verify that an unknown vehicle is rejected without touching the DB (case 2)
+	@Test
+	public void testProcessExitingVehicleNoOpenTicket() throws Exception {
+		when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn("ABC123");
+		when(ticketDAO.getTicketForExit("ABC123")).thenReturn(null);
 		// Call the method to be tested
 		parkingService.processExitingVehicle();
 		// Verifications
-		verify(ticketDAO, times(1)).updateTicket(any(Ticket.class)); // Verify the ticket is updated
-		verify(parkingSpotDAO, times(1)).updateParking(any(ParkingSpot.class)); // Verify the spot is freed
+		verify(ticketDAO, never()).closeTicket(any(Ticket.class));
+		verify(parkingSpotDAO, never()).parkingSpotReleased(any(ParkingSpot.class));
 	}
 
 	// Test to verify that a ticket update failure is handled (case 2)
@@ -105,13 +194,13 @@ public class ParkingServiceTest {
 		ticket.setParkingSpot(parkingSpot);
 		ticket.setVehicleRegNumber("ABC123");
 		when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn("ABC123");
-		when(ticketDAO.getTicket("ABC123")).thenReturn(ticket);
-		when(ticketDAO.updateTicket(any(Ticket.class))).thenReturn(false); // Simulate update failure
+		when(ticketDAO.getTicketForExit("ABC123")).thenReturn(new ExitTicket(ticket, 1));
+		when(ticketDAO.closeTicket(any(Ticket.class))).thenReturn(false); // Simulate update failure
 		// Call the method to be tested
 		parkingService.processExitingVehicle(); // Call the method
 		// Verifications
-		verify(ticketDAO, times(1)).updateTicket(any(Ticket.class)); // Verify the update was attempted
-		verify(parkingSpotDAO, never()).updateParking(any(ParkingSpot.class)); // Verify the spot was not freed
+		verify(ticketDAO, times(1)).closeTicket(any(Ticket.class)); // Verify the update was attempted
+		verify(parkingSpotDAO, never()).parkingSpotReleased(any(ParkingSpot.class)); // Verify the spot was not freed
 
 	}
 
@@ -155,4 +244,78 @@ public class ParkingServiceTest {
 
 	}
 
-}
\ No newline at end of file
+	// Test to verify that a vehicle is parked without operator input, at the given time
+	@Test
+	public void testProcessIncomingVehicleHeadless() {
+		when(parkingSpotDAO.getNextAvailableSlot(ParkingType.BIKE)).thenReturn(4);
+		when(parkingSpotDAO.claimParkingSpot(any(ParkingSpot.class))).thenReturn(true);
+		when(ticketDAO.saveTicket(any(Ticket.class))).thenReturn(true);
+		Date inTime = new Date(1000000);
+		// Call the method to be tested
+		Ticket ticket = parkingService.processIncomingVehicle(ParkingType.BIKE, "ABC123", inTime);
+		// Verifications
+		assertEquals(4, ticket.getParkingSpot().getId());
+		assertEquals(inTime, ticket.getInTime());
+		verifyNoInteractions(inputReaderUtil);
+	}
+
+	// Test to verify that no ticket is created without operator input when the parking is full
+	@Test
+	public void testProcessIncomingVehicleHeadlessParkingFull() {
+		when(parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR)).thenReturn(0);
+		// Call the method to be tested
+		assertNull(parkingService.processIncomingVehicle(ParkingType.CAR, "ABC123", new Date()));
+		verify(ticketDAO, never()).saveTicket(any(Ticket.class));
+	}
+
+	// Test to verify that the claimed spot is given back when the ticket cannot be saved
+	@Test
+	public void testProcessIncomingVehicleHeadlessTicketNotSaved() {
+		when(parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR)).thenReturn(3);
+		when(parkingSpotDAO.claimParkingSpot(any(ParkingSpot.class))).thenReturn(true);
+		when(ticketDAO.saveTicket(any(Ticket.class))).thenReturn(false);
+		// Call the method to be tested
+		assertNull(parkingService.processIncomingVehicle(ParkingType.CAR, "ABC123", new Date()));
+		verify(parkingSpotDAO).updateParking(argThat(spot -> spot.getId() == 3 && spot.isAvailable()));
+	}
+
+	// Test to verify that the operator is told of a ticket not saved, and that its spot is given back
+	@Test
+	public void testProcessIncomingVehicleTicketNotSaved() throws Exception {
+		when(parkingSpotDAO.getNextAvailableSlot(any(ParkingType.class))).thenReturn(2);
+		when(inputReaderUtil.readSelection()).thenReturn(1);
+		when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn("ABC123");
+		when(parkingSpotDAO.claimParkingSpot(any(ParkingSpot.class))).thenReturn(true);
+		when(ticketDAO.saveTicket(any(Ticket.class))).thenReturn(false);
+		PrintStream out = System.out;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(printed));
+		try {
+			parkingService.processIncomingVehicle();
+		} finally {
+			System.setOut(out);
+		}
+		assertTrue(printed.toString().contains("Unable to save the ticket"));
+		assertFalse(printed.toString().contains("Unable to allocate a parking spot"));
+		verify(parkingSpotDAO).updateParking(argThat(spot -> spot.getId() == 2 && spot.isAvailable()));
+	}
+
+	// Test to verify that an exit without operator input is priced at the given time
+	@Test
+	public void testProcessExitingVehicleHeadless() {
+		Ticket ticket = new Ticket();
+		ticket.setInTime(new Date(0));
+		ticket.setParkingSpot(new ParkingSpot(1, ParkingType.CAR, false));
+		ticket.setVehicleRegNumber("ABC123");
+		when(ticketDAO.getTicketForExit("ABC123")).thenReturn(new ExitTicket(ticket, 1));
+		when(ticketDAO.closeTicket(any(Ticket.class))).thenReturn(true);
+		// Call the method to be tested, two hours after the entry
+		Ticket closedTicket = parkingService.processExitingVehicle("ABC123", new Date(2 * 60 * 60 * 1000));
+		// Verifications
+		assertEquals(2 * Fare.CAR_RATE_PER_HOUR, closedTicket.getPrice());
+		verify(parkingSpotDAO, times(1)).parkingSpotReleased(ticket.getParkingSpot());
+		assertNull(parkingService.processExitingVehicle("UNKNOWN", new Date()));
+		verifyNoInteractions(inputReaderUtil);
+	}
+
+}
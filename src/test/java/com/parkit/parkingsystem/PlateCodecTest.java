@@ -0,0 +1,109 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.dao.VisitCountCache;
+import com.parkit.parkingsystem.util.LongIntHashMap;
+import com.parkit.parkingsystem.util.PlateCodec;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PlateCodecTest {
+
+    // Every plate of the alphabet gets its own code and decodes back to itself, the others get none
+    @Test
+    public void platesRoundTripThroughTheirCode() {
+        Set<Long> codes = new HashSet<>();
+        for (String plate : new String[]{"", "0", "00", "A", "ABC123", "abc123", "AB-123-CD", "zzzzzzzzzz", "----------"}) {
+            long code = PlateCodec.encode(plate);
+            assertTrue(code >= 0, plate);
+            assertTrue(codes.add(code), plate);
+            assertEquals(plate, PlateCodec.decode(code));
+        }
+        assertEquals(PlateCodec.NO_CODE, PlateCodec.encode(null));
+        assertEquals(PlateCodec.NO_CODE, PlateCodec.encode("ABCDEFGHIJK"));
+        assertEquals(PlateCodec.NO_CODE, PlateCodec.encode("AB 123"));
+        assertEquals(PlateCodec.NO_CODE, PlateCodec.encode("ÉTÉ-01"));
+    }
+
+    // The map agrees with a HashMap through random puts and removes, resizes and the zero key included
+    @Test
+    public void longIntHashMapBehavesLikeAMap() {
+        LongIntHashMap map = new LongIntHashMap(0);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            // few distinct keys, so removes often hit and probe sequences get shifted
+            long key = random.nextInt(5000) * 64L;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else {
+                map.put(key, i);
+                expected.put(key, i);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = 0; key < 5000 * 64L; key += 64) {
+            assertEquals(expected.getOrDefault(key, -1).intValue(), map.getOrDefault(key, -1));
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(0));
+    }
+
+    // Once full, the cache keeps the vehicles looked up again and evicts the others
+    @Test
+    public void visitCountCacheEvictsVehiclesNotLookedUp() {
+        VisitCountCache cache = new VisitCountCache(3);
+        cache.put("AAA111", 1);
+        cache.put("BBB222", 2);
+        cache.put("CCC333", 3);
+        cache.put("DDD444", 4);
+        cache.get("CCC333");
+        cache.increment("DDD444");
+        cache.put("EEE555", 5);
+        assertEquals(3, cache.size());
+        assertEquals(Integer.valueOf(5), cache.get("DDD444"));
+        assertEquals(Integer.valueOf(5), cache.get("EEE555"));
+        assertEquals(Integer.valueOf(3), cache.get("CCC333"));
+        assertNull(cache.get("AAA111"));
+        assertNull(cache.get("BBB222"));
+
+        // plates without a code are cached all the same
+        cache.put("AB 123", 7);
+        cache.increment("AB 123");
+        assertEquals(Integer.valueOf(8), cache.get("AB 123"));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("EEE555"));
+    }
+
+    // A count read while a ticket of the vehicle is counted is not cached, it may have missed the ticket
+    @Test
+    public void visitCountCacheDropsLoadsRacingAnIncrement() {
+        VisitCountCache cache = new VisitCountCache(3);
+        cache.startLoad("AAA111");
+        cache.increment("AAA111");
+        cache.finishLoad("AAA111", 1);
+        assertNull(cache.get("AAA111"));
+
+        cache.startLoad("AAA111");
+        cache.finishLoad("AAA111", 2);
+        assertEquals(Integer.valueOf(2), cache.get("AAA111"));
+
+        cache.startLoad("AB 123");
+        cache.clear();
+        cache.finishLoad("AB 123", 1);
+        assertNull(cache.get("AB 123"));
+        cache.startLoad("BBB222");
+        cache.abortLoad("BBB222");
+        cache.finishLoad("BBB222", 1);
+        assertNull(cache.get("BBB222"));
+    }
+}
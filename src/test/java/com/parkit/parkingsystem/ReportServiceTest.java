@@ -0,0 +1,154 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ReportDAO;
+import com.parkit.parkingsystem.dao.TicketArchiver;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.report.ReportService;
+import com.parkit.parkingsystem.report.TicketReport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReportServiceTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long FROM = 1714521600000L;
+
+    private EmbeddedDataBaseConfig dataBaseConfig;
+    private ReportDAO reportDAO;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseConfig("report", 8);
+        dataBaseConfig.createSchema(5, 3);
+        reportDAO = new ReportDAO();
+        reportDAO.dataBaseConfig = dataBaseConfig;
+        reportDAO.fetchSize = 16;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    // Ranges read in parallel add up to the figures computed ticket by ticket, archived tickets included
+    @Test
+    public void reportMatchesTheTickets() {
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBaseConfig;
+        Random random = new Random(42);
+        List<Ticket> tickets = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            int parkingNumber = 1 + random.nextInt(8);
+            Ticket ticket = new Ticket();
+            ticket.setParkingSpot(new ParkingSpot(parkingNumber, parkingNumber <= 5 ? ParkingType.CAR : ParkingType.BIKE, false));
+            ticket.setVehicleRegNumber("V" + i);
+            long inTime = FROM - DAY + random.nextInt((int) (3 * DAY / 1000)) * 1000L;
+            ticket.setInTime(new Date(inTime));
+            if (random.nextInt(10) > 0) {
+                ticket.setOutTime(new Date(inTime + random.nextInt((int) (10 * HOUR / 1000)) * 1000L));
+                ticket.setPrice(random.nextInt(2000) / 100.0);
+            }
+            assertTrue(ticketDAO.saveTicket(ticket));
+            tickets.add(ticket);
+        }
+        assertTrue(new TicketArchiver(dataBaseConfig, 0, 50).archive(new Date(FROM + 12 * HOUR)) > 0);
+
+        TicketReport report = new ReportService(reportDAO, 3, 2 * DAY).build(new Date(FROM), new Date(FROM + 2 * DAY));
+        assertNotNull(report);
+        assertEquals(48, report.getHours());
+        assertEquals(2, report.getDays());
+        long stays = 0;
+        for (ParkingType parkingType : ParkingType.values()) {
+            double totalRevenue = 0;
+            for (int hour = 0; hour < 48; hour++) {
+                long hourStart = FROM + hour * HOUR;
+                long entries = 0;
+                long exits = 0;
+                double revenue = 0;
+                for (Ticket ticket : tickets) {
+                    if (ticket.getParkingSpot().getParkingType() != parkingType) {
+                        continue;
+                    }
+                    if (within(ticket.getInTime().getTime(), hourStart, hourStart + HOUR)) {
+                        entries++;
+                    }
+                    if (ticket.getOutTime() != null && within(ticket.getOutTime().getTime(), hourStart, hourStart + HOUR)) {
+                        exits++;
+                        revenue += ticket.getPrice();
+                    }
+                }
+                int peak = 0;
+                for (long minute = hourStart; minute < hourStart + HOUR; minute += MINUTE) {
+                    peak = Math.max(peak, occupancy(tickets, parkingType, minute));
+                }
+                assertEquals(entries, report.getEntries(parkingType, hour));
+                assertEquals(exits, report.getExits(parkingType, hour));
+                assertEquals(revenue, report.getRevenue(parkingType, hour), 0.001);
+                assertEquals(peak, report.getPeakOccupancy(parkingType, hour), parkingType + " hour " + hour);
+                totalRevenue += revenue;
+                stays += exits;
+            }
+            assertEquals(totalRevenue, report.getRevenue(parkingType), 0.001);
+            assertEquals(totalRevenue, report.getRevenueOfDay(parkingType, 0) + report.getRevenueOfDay(parkingType, 1), 0.001);
+        }
+        assertEquals(stays, report.getStayDurations(ParkingType.CAR).getCount() + report.getStayDurations(ParkingType.BIKE).getCount());
+        assertTrue(report.getStayDurations(ParkingType.CAR).getPercentile(99, TimeUnit.MINUTES) <= 10 * 60 * 1.125);
+    }
+
+    // One line per hour and type
+    @Test
+    public void writeCsv() throws Exception {
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBaseConfig;
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(1, ParkingType.CAR, false));
+        ticket.setVehicleRegNumber("CSV");
+        ticket.setInTime(new Date(FROM + 10 * MINUTE));
+        ticket.setOutTime(new Date(FROM + 70 * MINUTE));
+        ticket.setPrice(1.5);
+        assertTrue(ticketDAO.saveTicket(ticket));
+
+        TicketReport report = new ReportService(reportDAO, 2, DAY).build(new Date(FROM), new Date(FROM + 2 * HOUR));
+        StringWriter csv = new StringWriter();
+        report.writeCsv(csv);
+        String[] lines = csv.toString().split("\n");
+        assertEquals(5, lines.length);
+        assertEquals("2024-05-01T00:00:00Z,CAR,1,0,0.00,1", lines[1]);
+        assertEquals("2024-05-01T01:00:00Z,CAR,0,1,1.50,1", lines[3]);
+        assertEquals("2024-05-01T01:00:00Z,BIKE,0,0,0.00,0", lines[4]);
+        assertEquals(1, report.getTicketCount());
+    }
+
+    private static boolean within(long time, long from, long to) {
+        return time >= from && time < to;
+    }
+
+    // vehicles parked at some point of the minute
+    private static int occupancy(List<Ticket> tickets, ParkingType parkingType, long minuteStart) {
+        int occupancy = 0;
+        for (Ticket ticket : tickets) {
+            if (ticket.getParkingSpot().getParkingType() == parkingType
+                    && ticket.getInTime().getTime() < minuteStart + MINUTE
+                    && (ticket.getOutTime() == null || ticket.getOutTime().getTime() >= minuteStart)) {
+                occupancy++;
+            }
+        }
+        return occupancy;
+    }
+}
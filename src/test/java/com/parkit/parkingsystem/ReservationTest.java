@@ -0,0 +1,113 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ReservationDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.model.Reservation;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.service.ParkingSystem;
+import com.parkit.parkingsystem.util.IntervalMaxTree;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReservationTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private EmbeddedDataBaseConfig dataBaseConfig;
+    private ParkingSystem parkingSystem;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseConfig("reservation", 2);
+        dataBaseConfig.createSchema(2, 1);
+        parkingSystem = new ParkingSystem(dataBaseConfig);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    // Range adds and range max agree with a plain array
+    @Test
+    public void intervalMaxTreeMatchesBruteForce() {
+        Random random = new Random(42);
+        IntervalMaxTree tree = new IntervalMaxTree(37);
+        int[] slots = new int[37];
+        for (int i = 0; i < 2000; i++) {
+            int from = random.nextInt(38);
+            int to = from + random.nextInt(38 - from);
+            if (random.nextBoolean()) {
+                int delta = random.nextInt(7) - 3;
+                tree.add(from, to, delta);
+                for (int slot = from; slot < to; slot++) {
+                    slots[slot] += delta;
+                }
+            } else {
+                int max = from < to ? Integer.MIN_VALUE : 0;
+                for (int slot = from; slot < to; slot++) {
+                    max = Math.max(max, slots[slot]);
+                }
+                assertEquals(max, tree.max(from, to), "max from " + from + " to " + to);
+            }
+        }
+    }
+
+    // Windows are admitted as long as no moment is booked more times than there are spots
+    @Test
+    public void bookingsFitTheCapacityAtEveryMoment() {
+        ReservationDAO reservationDAO = parkingSystem.getReservationDAO();
+        long base = (System.currentTimeMillis() / HOUR + 24) * HOUR;
+        assertNotNull(reservationDAO.reserve(ParkingType.CAR, "A", new Date(base), new Date(base + 2 * HOUR)));
+        assertNotNull(reservationDAO.reserve(ParkingType.CAR, "B", new Date(base + 2 * HOUR), new Date(base + 4 * HOUR)));
+        // A and B can share a spot, so the whole afternoon is still free on the other one
+        Reservation c = reservationDAO.reserve(ParkingType.CAR, "C", new Date(base), new Date(base + 4 * HOUR));
+        assertNotNull(c);
+        assertFalse(reservationDAO.isAvailable(ParkingType.CAR, new Date(base + HOUR), new Date(base + 3 * HOUR)));
+        assertNull(reservationDAO.reserve(ParkingType.CAR, "D", new Date(base + HOUR), new Date(base + 3 * HOUR)));
+        assertTrue(reservationDAO.isAvailable(ParkingType.CAR, new Date(base + 4 * HOUR), new Date(base + 5 * HOUR)));
+        assertTrue(reservationDAO.isAvailable(ParkingType.BIKE, new Date(base), new Date(base + 4 * HOUR)));
+
+        assertTrue(reservationDAO.cancel(c.getId()));
+        assertFalse(reservationDAO.cancel(c.getId()));
+        assertNotNull(reservationDAO.reserve(ParkingType.CAR, "D", new Date(base + HOUR), new Date(base + 3 * HOUR)));
+        assertThrows(IllegalArgumentException.class, () -> reservationDAO.reserve(ParkingType.CAR, "E",
+                new Date(base), new Date(base + TimeUnit.DAYS.toMillis(400))));
+
+        // the bookings are read back from the table
+        assertTrue(reservationDAO.loadReservationIndex());
+        assertFalse(reservationDAO.isAvailable(ParkingType.CAR, new Date(base + HOUR), new Date(base + 2 * HOUR)));
+        assertTrue(reservationDAO.isAvailable(ParkingType.CAR, new Date(base + 3 * HOUR), new Date(base + 5 * HOUR)));
+    }
+
+    // Walk-in vehicles leave the spot held for a reservation about to start, the vehicle with the reservation gets it
+    @Test
+    public void spotsAreHeldForUpcomingReservations() {
+        long now = System.currentTimeMillis();
+        ParkingService parkingService = new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO(),
+                parkingSystem.getReservationDAO());
+        Reservation reservation = parkingSystem.getReservationDAO().reserve(ParkingType.CAR, "RES1",
+                new Date(now + TimeUnit.MINUTES.toMillis(20)), new Date(now + 3 * HOUR));
+        assertNotNull(reservation);
+
+        assertNotNull(parkingService.processIncomingVehicle(ParkingType.CAR, "WALK1", new Date(now)));
+        // one spot left, held for RES1
+        assertNull(parkingService.processIncomingVehicle(ParkingType.CAR, "WALK2", new Date(now)));
+        Ticket ticket = parkingService.processIncomingVehicle(ParkingType.CAR, "RES1", new Date(now));
+        assertNotNull(ticket);
+        assertEquals(Reservation.Status.CHECKED_IN, reservation.getStatus());
+        assertEquals(0, parkingService.countAvailableSpots(ParkingType.CAR));
+
+        assertNotNull(parkingService.processExitingVehicle("WALK1", new Date(now + HOUR)));
+        assertNotNull(parkingService.processIncomingVehicle(ParkingType.CAR, "WALK2", new Date(now + HOUR)));
+    }
+}
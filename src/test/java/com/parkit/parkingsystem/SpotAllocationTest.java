@@ -0,0 +1,178 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.FreeSpotIndex;
+import com.parkit.parkingsystem.dao.OccupancyModel;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.SpotAllocationStrategy;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.service.ParkingSystem;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpotAllocationTest {
+
+    // The zone and distance of the spots are read from the parking table and drive the strategies
+    @Test
+    public void strategiesPickSpotsFromZonesAndDistances() throws Exception {
+        EmbeddedDataBaseConfig dataBaseConfig = new EmbeddedDataBaseConfig("allocation", 2);
+        try {
+            dataBaseConfig.createSchema(6, 0);
+            Connection con = dataBaseConfig.getConnection();
+            try (Statement statement = con.createStatement()) {
+                // spots 1 to 3 on level A, 4 to 6 on level B, the higher numbers closer to the gate
+                statement.executeUpdate("update parking set ZONE = case when PARKING_NUMBER <= 3 then 'A' else 'B' end, DISTANCE = 10 - PARKING_NUMBER");
+            } finally {
+                dataBaseConfig.closeConnection(con);
+            }
+            ParkingSpotDAO parkingSpotDAO = new ParkingSystem(dataBaseConfig).getParkingSpotDAO();
+            assertEquals(1, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+            assertEquals(Arrays.asList("A", "B"), parkingSpotDAO.getOccupancy().getZones());
+
+            assertTrue(parkingSpotDAO.setAllocationStrategy(SpotAllocationStrategy.nearestToGate()));
+            assertEquals(6, parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR));
+            assertEquals(5, parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR));
+
+            assertTrue(parkingSpotDAO.setAllocationStrategy(SpotAllocationStrategy.zoneRoundRobin()));
+            // zone A, then B, then A again, nearest spot first in each
+            assertEquals(3, parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR));
+            assertEquals(4, parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR));
+            assertEquals(2, parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR));
+            assertEquals(1, parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR));
+            assertEquals(0, parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR));
+            // counted per zone as the spots are taken and freed
+            OccupancyModel occupancy = parkingSpotDAO.getOccupancy();
+            assertEquals(3, occupancy.getCapacity(ParkingType.CAR, "A"));
+            assertEquals(3, occupancy.getOccupied(ParkingType.CAR, "B"));
+            parkingSpotDAO.parkingSpotReleased(new ParkingSpot(5, ParkingType.CAR, false));
+            assertEquals(1, occupancy.getAvailable(ParkingType.CAR, "B"));
+            assertEquals(0, occupancy.getAvailable(ParkingType.CAR, "A"));
+            assertEquals(0, occupancy.getCapacity(ParkingType.BIKE, "A"));
+            assertEquals(0, occupancy.getCapacity(ParkingType.CAR, "C"));
+        } finally {
+            dataBaseConfig.shutdown();
+        }
+    }
+
+    // The spot freed the longest ago goes first
+    @Test
+    public void leastRecentlyUsedSpotGoesFirst() {
+        List<ParkingSpot> spots = new ArrayList<>();
+        for (int number = 1; number <= 4; number++) {
+            spots.add(new ParkingSpot(number, ParkingType.CAR, true));
+        }
+        FreeSpotIndex index = new FreeSpotIndex(spots, SpotAllocationStrategy.leastRecentlyUsed());
+        for (int number = 1; number <= 4; number++) {
+            assertEquals(number, index.firstAvailable(ParkingType.CAR));
+            assertTrue(index.claim(ParkingType.CAR, number));
+        }
+        assertEquals(0, index.firstAvailable(ParkingType.CAR));
+        index.markAvailable(ParkingType.CAR, 3);
+        index.markAvailable(ParkingType.CAR, 1);
+        index.markAvailable(ParkingType.CAR, 2);
+        assertEquals(3, index.firstAvailable(ParkingType.CAR));
+        assertTrue(index.claim(ParkingType.CAR, 3));
+        index.markAvailable(ParkingType.CAR, 3);
+        assertEquals(1, index.firstAvailable(ParkingType.CAR));
+        assertEquals(3, index.countAvailable(ParkingType.CAR));
+    }
+
+    // Gates claiming and freeing spots at once never get the same spot
+    @Test
+    public void concurrentGatesGetDistinctSpots() throws Exception {
+        List<ParkingSpot> spots = new ArrayList<>();
+        for (int number = 1; number <= 1000; number++) {
+            spots.add(new ParkingSpot(number, ParkingType.CAR, true));
+        }
+        for (SpotAllocationStrategy strategy : new SpotAllocationStrategy[]{SpotAllocationStrategy.nearestToGate(),
+                SpotAllocationStrategy.zoneRoundRobin(), SpotAllocationStrategy.leastRecentlyUsed()}) {
+            FreeSpotIndex index = new FreeSpotIndex(spots, strategy);
+            Set<Integer> taken = Collections.newSetFromMap(new ConcurrentHashMap<>());
+            List<Thread> gates = new ArrayList<>();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+            for (int gate = 0; gate < 8; gate++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 2000; i++) {
+                            int number;
+                            do {
+                                number = index.firstAvailable(ParkingType.CAR);
+                            } while (number > 0 && !index.claim(ParkingType.CAR, number));
+                            if (number == 0) {
+                                continue;
+                            }
+                            assertTrue(taken.add(number), "spot " + number + " handed out twice");
+                            if (i % 3 != 0) {
+                                taken.remove(number);
+                                index.markAvailable(ParkingType.CAR, number);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                });
+                thread.start();
+                gates.add(thread);
+            }
+            start.countDown();
+            for (Thread gate : gates) {
+                gate.join();
+            }
+            assertEquals(Collections.emptyList(), errors);
+            assertEquals(1000 - taken.size(), index.countAvailable(ParkingType.CAR));
+        }
+    }
+
+    // A spot is only in the index with the type and number it was loaded with
+    @Test
+    public void indexContainsOnlyTheSpotsLoaded() {
+        List<ParkingSpot> spots = Arrays.asList(new ParkingSpot(1, ParkingType.CAR, true),
+                new ParkingSpot(2, ParkingType.BIKE, true), new ParkingSpot(3, ParkingType.CAR, false));
+        FreeSpotIndex index = new FreeSpotIndex(spots);
+        assertTrue(index.contains(ParkingType.CAR, 1));
+        assertTrue(index.contains(ParkingType.CAR, 3));
+        assertTrue(index.contains(ParkingType.BIKE, 2));
+        assertFalse(index.contains(ParkingType.CAR, 2));
+        assertFalse(index.contains(ParkingType.BIKE, 1));
+        assertFalse(index.contains(ParkingType.CAR, 4));
+        assertFalse(index.contains(ParkingType.CAR, 0));
+    }
+
+    // After a failed load of the index, calls query the table without loading it again until the retry delay or
+    // until the table answers
+    @Test
+    public void failedIndexLoadIsNotRetriedOnEveryCall() {
+        AtomicInteger connections = new AtomicInteger();
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.dataBaseConfig = new DataBaseConfig() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                connections.incrementAndGet();
+                throw new SQLException("database down");
+            }
+        };
+        // the load of the index, then the query of the table
+        assertEquals(-1, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+        assertEquals(2, connections.get());
+        assertEquals(-1, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+        assertEquals(-1, parkingSpotDAO.countAvailableSlots(ParkingType.CAR));
+        assertEquals(4, connections.get());
+    }
+}
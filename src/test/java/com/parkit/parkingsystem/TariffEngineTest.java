@@ -0,0 +1,219 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.Fare;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.FreeSpotIndex;
+import com.parkit.parkingsystem.dao.OccupancyModel;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.Tariff;
+import com.parkit.parkingsystem.service.TariffEngine;
+import com.parkit.parkingsystem.util.DecayingAverage;
+import com.parkit.parkingsystem.util.RunningIntegral;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TariffEngineTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+    // 2024-01-01T00:00Z
+    private static final long MIDNIGHT = 1704067200000L;
+    private static final int CAR = ParkingType.CAR.ordinal();
+
+    private TariffEngine tariffEngine;
+    private FareCalculatorService fareCalculatorService;
+
+    @BeforeEach
+    public void setUp() {
+        tariffEngine = new TariffEngine(Tariff.defaultTariff());
+        fareCalculatorService = new FareCalculatorService(ZoneOffset.UTC, tariffEngine);
+    }
+
+    private static Tariff tariff(String... keyValues) {
+        Properties properties = new Properties();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            properties.setProperty(keyValues[i], keyValues[i + 1]);
+        }
+        return Tariff.compile(properties);
+    }
+
+    // The bundled tariff file gives the same prices as the default tariff
+    @Test
+    public void bundledTariffMatchesDefault() {
+        Tariff bundled = new TariffEngine((File) null).getTariff();
+        Tariff defaults = Tariff.defaultTariff();
+        assertEquals(defaults.getGraceMinutes(), bundled.getGraceMinutes());
+        assertEquals(defaults.getDiscountFactor(), bundled.getDiscountFactor());
+        assertEquals(Fare.CAR_RATE_PER_HOUR, bundled.getRatePerHour(ParkingType.CAR));
+        assertEquals(Fare.BIKE_RATE_PER_HOUR, bundled.getRatePerHour(ParkingType.BIKE));
+    }
+
+    // Minutes of a band are charged with its multiplier, including bands wrapping around midnight
+    @Test
+    public void timeOfDayBands() {
+        tariffEngine.setTariff(tariff("bands", "night", "band.night.from", "20:00", "band.night.to", "08:00",
+                "band.night.multiplier", "0.5"));
+        // 19:00 to 21:00, one hour at the day rate and one at the night rate
+        assertEquals(1.5 * Fare.CAR_RATE_PER_HOUR,
+                fareCalculatorService.calculateFare(MIDNIGHT + 19 * HOUR, MIDNIGHT + 21 * HOUR, CAR, false));
+        // 23:00 to 09:00 the next day
+        assertEquals(5.5 * Fare.CAR_RATE_PER_HOUR,
+                fareCalculatorService.calculateFare(MIDNIGHT + 23 * HOUR, MIDNIGHT + 33 * HOUR, CAR, false));
+        // Two full days and one hour of night
+        assertEquals((2 * 18 + 0.5) * Fare.CAR_RATE_PER_HOUR,
+                fareCalculatorService.calculateFare(MIDNIGHT, MIDNIGHT + 49 * HOUR, CAR, false), 1e-9);
+    }
+
+    // A band ending when it starts covers the whole day
+    @Test
+    public void fullDayBand() {
+        tariffEngine.setTariff(tariff("bands", "allday", "band.allday.from", "00:00", "band.allday.to", "00:00",
+                "band.allday.multiplier", "2"));
+        assertEquals(2 * 2 * Fare.CAR_RATE_PER_HOUR,
+                fareCalculatorService.calculateFare(MIDNIGHT + 23 * HOUR, MIDNIGHT + 25 * HOUR, CAR, false));
+        tariffEngine.setTariff(tariff("bands", "allday,night", "band.allday.from", "12:30", "band.allday.to", "12:30",
+                "band.allday.multiplier", "2", "band.night.from", "20:00", "band.night.to", "08:00",
+                "band.night.multiplier", "0.5"));
+        // 12 hours of day band and 12 of night band, the band listed later wins
+        assertEquals((12 * 2 + 12 * 0.5) * Fare.CAR_RATE_PER_HOUR,
+                fareCalculatorService.calculateFare(MIDNIGHT, MIDNIGHT + 24 * HOUR, CAR, false), 1e-9);
+    }
+
+    // Each 24 hour period of a stay costs at most the daily cap
+    @Test
+    public void dailyCap() {
+        tariffEngine.setTariff(tariff("cap.CAR", "20"));
+        assertEquals(10 * Fare.CAR_RATE_PER_HOUR,
+                fareCalculatorService.calculateFare(MIDNIGHT, MIDNIGHT + 10 * HOUR, CAR, false));
+        assertEquals(20, fareCalculatorService.calculateFare(MIDNIGHT, MIDNIGHT + 23 * HOUR, CAR, false));
+        assertEquals(40 + 2 * Fare.CAR_RATE_PER_HOUR,
+                fareCalculatorService.calculateFare(MIDNIGHT, MIDNIGHT + 50 * HOUR, CAR, false));
+    }
+
+    // Grace period, rates and discount are read from the tariff
+    @Test
+    public void graceRateAndDiscount() {
+        tariffEngine.setTariff(tariff("grace.minutes", "10", "rate.CAR", "3", "discount.factor", "0.5"));
+        assertEquals(0, fareCalculatorService.calculateFare(MIDNIGHT, MIDNIGHT + 10 * MINUTE, CAR, false));
+        assertEquals(1.0, fareCalculatorService.calculateFare(MIDNIGHT, MIDNIGHT + 20 * MINUTE, CAR, false));
+        assertEquals(0.5, fareCalculatorService.calculateFare(MIDNIGHT, MIDNIGHT + 20 * MINUTE, CAR, true));
+    }
+
+    // An invalid tariff is rejected
+    @Test
+    public void invalidTariff() {
+        assertThrows(IllegalArgumentException.class, () -> tariff("rate.CAR", "-1"));
+        assertThrows(IllegalArgumentException.class, () -> tariff("grace.minutes", "abc"));
+        assertThrows(IllegalArgumentException.class, () -> tariff("bands", "peak", "band.peak.from", "25:00",
+                "band.peak.to", "08:00"));
+    }
+
+    // Reloading the file swaps the tariff in, an invalid file leaves the current tariff in place
+    @Test
+    public void reloadFromFile(@TempDir File directory) throws IOException {
+        File tariffFile = new File(directory, "tariff.properties");
+        write(tariffFile, "rate.CAR=2.0\n");
+        TariffEngine fileTariffEngine = new TariffEngine(tariffFile);
+        FareCalculatorService fileFareCalculatorService = new FareCalculatorService(ZoneOffset.UTC, fileTariffEngine);
+        assertEquals(2.0, fileFareCalculatorService.calculateFare(MIDNIGHT, MIDNIGHT + HOUR, CAR, false));
+
+        write(tariffFile, "rate.CAR=4.0\n");
+        assertTrue(fileTariffEngine.reload());
+        assertEquals(4.0, fileFareCalculatorService.calculateFare(MIDNIGHT, MIDNIGHT + HOUR, CAR, false));
+
+        write(tariffFile, "rate.CAR=free\n");
+        assertFalse(fileTariffEngine.reload());
+        assertEquals(4.0, fileFareCalculatorService.calculateFare(MIDNIGHT, MIDNIGHT + HOUR, CAR, false));
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+    }
+
+    // Surge levels multiply the fare by the level reached by the fill of the parking type
+    @Test
+    public void surgeLevelsFollowTheFillRatio() {
+        tariffEngine.setTariff(tariff("surge.levels", "0.95:1.5,0.8:1.25", "surge.basis", "current"));
+        assertTrue(tariffEngine.getTariff().isSurgeOnCurrentFill());
+        double plain = Fare.CAR_RATE_PER_HOUR * 2;
+        assertEquals(plain, fareCalculatorService.calculateFare(MIDNIGHT, MIDNIGHT + 2 * HOUR, CAR, false, 0.79), 1e-9);
+        assertEquals(plain * 1.25, fareCalculatorService.calculateFare(MIDNIGHT, MIDNIGHT + 2 * HOUR, CAR, false, 0.8), 1e-9);
+        assertEquals(plain * 1.5 * 0.95, fareCalculatorService.calculateFare(MIDNIGHT, MIDNIGHT + 2 * HOUR, CAR, true, 1.0), 1e-9);
+        // still free during the grace period
+        assertEquals(0, fareCalculatorService.calculateFare(MIDNIGHT, MIDNIGHT + 10 * MINUTE, CAR, false, 1.0));
+
+        List<ParkingSpot> spots = new ArrayList<>();
+        for (int number = 1; number <= 10; number++) {
+            spots.add(new ParkingSpot(number, ParkingType.CAR, number > 9));
+        }
+        OccupancyModel occupancy = new FreeSpotIndex(spots).getOccupancy();
+        assertEquals(0.9, occupancy.getFillRatio(ParkingType.CAR), 1e-9);
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(1, ParkingType.CAR, false));
+        ticket.setInTime(new Date(MIDNIGHT));
+        ticket.setOutTime(new Date(MIDNIGHT + 2 * HOUR));
+        fareCalculatorService.calculateFare(ticket, false, occupancy);
+        assertEquals(plain * 1.25, ticket.getPrice(), 1e-9);
+        fareCalculatorService.calculateFare(ticket, false);
+        assertEquals(plain, ticket.getPrice(), 1e-9);
+
+        // averaged over the stay from the reading taken at entry
+        tariffEngine.setTariff(tariff("surge.levels", "0.95:1.5,0.8:1.25"));
+        long now = System.currentTimeMillis();
+        ticket.setEntryFill(occupancy.getFillIntegral(ParkingType.CAR, now), now);
+        fareCalculatorService.calculateFare(ticket, false, occupancy);
+        assertEquals(plain * 1.25, ticket.getPrice(), 1e-9);
+
+        assertThrows(IllegalArgumentException.class, () -> tariff("surge.levels", "1.2:2"));
+        assertThrows(IllegalArgumentException.class, () -> tariff("surge.levels", "0.8"));
+        assertThrows(IllegalArgumentException.class, () -> tariff("surge.basis", "peak"));
+    }
+
+    // The fill averaged over a stay weighs each fill by the time it lasted
+    @Test
+    public void fillIntegralAveragesOverTheStay() {
+        RunningIntegral integral = new RunningIntegral(0.5, MIDNIGHT);
+        double entry = integral.get(MIDNIGHT + HOUR);
+        assertEquals(0.5 * HOUR, entry, 1e-6);
+        assertEquals(0.5, integral.averageSince(entry, MIDNIGHT + HOUR, MIDNIGHT + HOUR), 1e-9);
+        integral.set(1.0, MIDNIGHT + 2 * HOUR);
+        assertEquals(0.75, integral.averageSince(entry, MIDNIGHT + HOUR, MIDNIGHT + 3 * HOUR), 1e-9);
+        integral.set(0.0, MIDNIGHT + 5 * HOUR);
+        assertEquals(0.7, integral.averageSince(entry, MIDNIGHT + HOUR, MIDNIGHT + 6 * HOUR), 1e-9);
+        // a reading older than the integral counts from its start
+        assertEquals(4.0 / 6, integral.averageSince(0, MIDNIGHT - HOUR, MIDNIGHT + 6 * HOUR), 1e-9);
+        assertEquals(0.0, integral.getValue());
+    }
+
+    // The average fill moves towards each new fill at the pace of the half-life
+    @Test
+    public void averageFillDecaysWithHalfLife() {
+        DecayingAverage average = new DecayingAverage(HOUR, 0.2, MIDNIGHT);
+        assertEquals(0.2, average.get(MIDNIGHT + 5 * HOUR), 1e-9);
+        average.set(1.0, MIDNIGHT + 5 * HOUR);
+        assertEquals(0.6, average.get(MIDNIGHT + 6 * HOUR), 1e-9);
+        assertEquals(0.8, average.get(MIDNIGHT + 7 * HOUR), 1e-9);
+        average.set(0.0, MIDNIGHT + 7 * HOUR);
+        assertEquals(0.4, average.get(MIDNIGHT + 8 * HOUR), 1e-9);
+        // a late update counts from the last change
+        average.set(0.5, MIDNIGHT + 6 * HOUR);
+        assertEquals(0.5 + (0.8 - 0.5) / 2, average.get(MIDNIGHT + 8 * HOUR), 1e-9);
+        assertEquals(0.5, average.getValue());
+    }
+}
@@ -0,0 +1,159 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ReportDAO;
+import com.parkit.parkingsystem.dao.TicketArchiver;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.export.TicketColumnExporter;
+import com.parkit.parkingsystem.export.TicketColumnFile;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TicketColumnFileTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long FROM = 1714521600000L;
+
+    private EmbeddedDataBaseConfig dataBaseConfig;
+    private ReportDAO reportDAO;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseConfig("columns", 2);
+        dataBaseConfig.createSchema(5, 3);
+        reportDAO = new ReportDAO();
+        reportDAO.dataBaseConfig = dataBaseConfig;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    // Queries over the mapped columns give the same counts and sums as the tickets, across several blocks
+    @Test
+    public void queriesMatchTheTickets(@TempDir Path dir) throws Exception {
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBaseConfig;
+        Random random = new Random(7);
+        List<Ticket> tickets = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            int parkingNumber = 1 + random.nextInt(8);
+            Ticket ticket = new Ticket();
+            ticket.setParkingSpot(new ParkingSpot(parkingNumber, parkingNumber <= 5 ? ParkingType.CAR : ParkingType.BIKE, false));
+            ticket.setVehicleRegNumber("P" + random.nextInt(500));
+            long inTime = FROM + random.nextInt((int) (30 * DAY / 1000)) * 1000L;
+            ticket.setInTime(new Date(inTime));
+            if (random.nextInt(20) > 0) {
+                ticket.setOutTime(new Date(inTime + random.nextInt((int) (8 * HOUR / 1000)) * 1000L));
+                ticket.setPrice(random.nextInt(3000) / 100.0);
+            }
+            tickets.add(ticket);
+        }
+        // inserted in order of entry, as a real history, so blocks cover distinct periods
+        tickets.sort((a, b) -> a.getInTime().compareTo(b.getInTime()));
+        ticketDAO.enableWriteBehind(10000, 1000, 20, false);
+        for (Ticket ticket : tickets) {
+            assertTrue(ticketDAO.saveTicket(ticket));
+        }
+        ticketDAO.disableWriteBehind();
+        assertTrue(new TicketArchiver(dataBaseConfig, 0, 1000).archive(new Date(FROM + 10 * DAY)) > 0);
+
+        Path file = dir.resolve("tickets.col");
+        assertEquals(5000, new TicketColumnExporter(reportDAO).export(new Date(FROM), new Date(FROM + 30 * DAY), file));
+        // varint times and stays, 4 bytes for each of parking number, plate and price, 1 for the type
+        assertTrue(Files.size(file) < 5000 * 20, "size " + Files.size(file));
+
+        TicketColumnFile columns = TicketColumnFile.open(file);
+        assertEquals(5000, columns.getRowCount());
+        assertEquals(5000, columns.query().count());
+        assertQuery(tickets, ticket -> true, columns.query().count(), columns.query().sumPrice());
+        assertQuery(tickets, ticket -> ticket.getParkingSpot().getParkingType() == ParkingType.BIKE,
+                columns.query().type(ParkingType.BIKE).count(), columns.query().type(ParkingType.BIKE).sumPrice());
+        Date from = new Date(FROM + 5 * DAY + 1234);
+        Date to = new Date(FROM + 12 * DAY);
+        Predicate<Ticket> period = ticket -> !ticket.getInTime().before(from) && ticket.getInTime().before(to);
+        assertQuery(tickets, period, columns.query().enteredFrom(from).enteredTo(to).count(),
+                columns.query().enteredFrom(from).enteredTo(to).sumPrice());
+        Predicate<Ticket> plate = ticket -> "P42".equals(ticket.getVehicleRegNumber());
+        assertQuery(tickets, plate.and(period).and(ticket -> ticket.getParkingSpot().getParkingType() == ParkingType.CAR),
+                columns.query().plate("P42").enteredFrom(from).enteredTo(to).type(ParkingType.CAR).count(),
+                columns.query().plate("P42").enteredFrom(from).enteredTo(to).type(ParkingType.CAR).sumPrice());
+        assertEquals(0, columns.query().plate("UNKNOWN").count());
+
+        long stays = 0;
+        for (Ticket ticket : tickets) {
+            if (plate.test(ticket) && ticket.getOutTime() != null) {
+                stays += (ticket.getOutTime().getTime() - ticket.getInTime().getTime()) / 1000;
+            }
+        }
+        assertEquals(stays, columns.query().plate("P42").sumStaySeconds());
+        columns.close();
+    }
+
+    // Files that are not complete exports are refused
+    @Test
+    public void rejectsOtherFiles(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("tickets.col");
+        new TicketColumnExporter(reportDAO).export(new Date(FROM), new Date(FROM + DAY), file);
+        assertEquals(0, TicketColumnFile.open(file).getRowCount());
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 1));
+        assertThrows(IOException.class, () -> TicketColumnFile.open(file));
+        Files.write(file, "not columns".getBytes("UTF-8"));
+        assertThrows(IOException.class, () -> TicketColumnFile.open(file));
+    }
+
+    // A ticket exiting before its entry fails the export, the file is left as it was
+    @Test
+    public void rejectsTicketsExitingBeforeTheirEntry(@TempDir Path dir) throws Exception {
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBaseConfig;
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(1, ParkingType.CAR, false));
+        ticket.setVehicleRegNumber("ABCDEF");
+        ticket.setInTime(new Date(FROM + HOUR));
+        ticket.setOutTime(new Date(FROM + HOUR - 1000));
+        assertTrue(ticketDAO.saveTicket(ticket));
+        Path file = dir.resolve("tickets.col");
+        assertThrows(IOException.class,
+                () -> new TicketColumnExporter(reportDAO).export(new Date(FROM), new Date(FROM + DAY), file));
+        assertFalse(Files.exists(file));
+        try (Stream<Path> left = Files.list(dir)) {
+            assertEquals(0, left.count());
+        }
+    }
+
+    private static void assertQuery(List<Ticket> tickets, Predicate<Ticket> filter, long count, double sumPrice) {
+        long expectedCount = 0;
+        double expectedSum = 0;
+        for (Ticket ticket : tickets) {
+            if (filter.test(ticket)) {
+                expectedCount++;
+                expectedSum += ticket.getPrice();
+            }
+        }
+        assertEquals(expectedCount, count);
+        assertEquals(expectedSum, sumPrice, 0.001);
+    }
+}
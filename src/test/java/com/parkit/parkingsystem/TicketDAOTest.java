@@ -0,0 +1,214 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketArchiver;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.model.ExitTicket;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.Date;
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs the DAOs against the embedded H2 database
+public class TicketDAOTest {
+
+	private EmbeddedDataBaseConfig dataBaseConfig;
+	private TicketDAO ticketDAO;
+	private ParkingSpotDAO parkingSpotDAO;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		dataBaseConfig = new EmbeddedDataBaseConfig("ticketdao", 4);
+		dataBaseConfig.createSchema(3, 2);
+		ticketDAO = new TicketDAO();
+		ticketDAO.dataBaseConfig = dataBaseConfig;
+		parkingSpotDAO = new ParkingSpotDAO();
+		parkingSpotDAO.dataBaseConfig = dataBaseConfig;
+	}
+
+	@AfterEach
+	public void tearDown() {
+		ticketDAO.disableWriteBehind();
+		dataBaseConfig.shutdown();
+	}
+
+	private void park(String vehicleRegNumber, long inTimeMillis) {
+		int parkingNumber = parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR);
+		Ticket ticket = new Ticket();
+		ticket.setParkingSpot(new ParkingSpot(parkingNumber, ParkingType.CAR, false));
+		ticket.setVehicleRegNumber(vehicleRegNumber);
+		ticket.setInTime(new Date(inTimeMillis));
+		ticketDAO.saveTicket(ticket);
+	}
+
+	// The open ticket and the visit count come back from one lookup
+	@Test
+	public void testGetTicketForExit() {
+		long now = System.currentTimeMillis();
+		park("ABC123", now - 7200000);
+		ExitTicket firstExit = ticketDAO.getTicketForExit("ABC123");
+		assertEquals(1, firstExit.getVisitCount());
+		assertTrue(ticketDAO.closeTicket(withOutTime(firstExit.getTicket(), now - 3600000)));
+		park("ABC123", now - 1000);
+
+		ExitTicket exitTicket = ticketDAO.getTicketForExit("ABC123");
+		assertNotNull(exitTicket);
+		assertEquals(2, exitTicket.getVisitCount());
+		assertNull(exitTicket.getTicket().getOutTime());
+		assertNull(ticketDAO.getTicketForExit("UNKNOWN"));
+	}
+
+	// Closing frees the spot in the same transaction and cannot happen twice
+	@Test
+	public void testCloseTicket() {
+		park("ABC123", System.currentTimeMillis() - 3600000);
+		assertEquals(2, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+		Ticket ticket = ticketDAO.getTicketForExit("ABC123").getTicket();
+		withOutTime(ticket, System.currentTimeMillis());
+		ticket.setPrice(1.5);
+
+		assertTrue(ticketDAO.closeTicket(ticket));
+		assertFalse(ticketDAO.closeTicket(ticket));
+		// The spot is free again in the DB
+		parkingSpotDAO.loadFreeSpotIndex();
+		assertEquals(1, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+		assertEquals(1.5, ticketDAO.getTicket("ABC123").getPrice());
+		assertNull(ticketDAO.getTicketForExit("ABC123"));
+	}
+
+	// Visit counts come from the counter table and are then served from the cache
+	@Test
+	public void testVisitCount() {
+		long now = System.currentTimeMillis();
+		assertEquals(0, ticketDAO.getNbTicket("ABC123"));
+		park("ABC123", now - 7200000);
+		assertEquals(1, ticketDAO.getNbTicket("ABC123"));
+		assertTrue(ticketDAO.closeTicket(withOutTime(ticketDAO.getTicketForExit("ABC123").getTicket(), now - 3600000)));
+		park("ABC123", now);
+		assertEquals(2, ticketDAO.getNbTicket("ABC123"));
+		// A DAO with an empty cache reads the same count from the counter table
+		TicketDAO otherTicketDAO = new TicketDAO();
+		otherTicketDAO.dataBaseConfig = dataBaseConfig;
+		assertEquals(2, otherTicketDAO.getNbTicket("ABC123"));
+		assertEquals(2, otherTicketDAO.getNbTicket("ABC123"));
+		assertEquals(1, otherTicketDAO.getVisitCountCache().getHitCount());
+	}
+
+	// Exit lookups are served by the open ticket index, kept in sync on save and close
+	@Test
+	public void testOpenTicketIndex() {
+		assertTrue(ticketDAO.loadOpenTickets());
+		park("ABC123", System.currentTimeMillis() - 3600000);
+		assertEquals(1, ticketDAO.getOpenTicketRegistry().size());
+		Ticket ticket = ticketDAO.getTicketForExit("ABC123").getTicket();
+		assertEquals(ticketDAO.getTicket("ABC123").getId(), ticket.getId());
+		// The returned ticket is a copy, changing it leaves the index alone
+		withOutTime(ticket, System.currentTimeMillis());
+		assertNull(ticketDAO.getOpenTicketRegistry().get("ABC123").getOutTime());
+		assertTrue(ticketDAO.closeTicket(ticket));
+		assertEquals(0, ticketDAO.getOpenTicketRegistry().size());
+		assertNull(ticketDAO.getTicketForExit("ABC123"));
+	}
+
+	// Tickets still queued by the write-behind can be found by exit lookups
+	@Test
+	public void testOpenTicketIndexWithWriteBehind() {
+		assertTrue(ticketDAO.loadOpenTickets());
+		ticketDAO.enableWriteBehind(100, 50, 60000, false);
+		park("ABC123", System.currentTimeMillis() - 3600000);
+		ExitTicket exitTicket = ticketDAO.getTicketForExit("ABC123");
+		assertTrue(exitTicket.getTicket().getId() > 0);
+		assertEquals(1, exitTicket.getVisitCount());
+		ticketDAO.disableWriteBehind();
+		// The index rebuilt from the DB matches
+		assertTrue(ticketDAO.loadOpenTickets());
+		assertEquals(exitTicket.getTicket().getId(), ticketDAO.getOpenTicketRegistry().get("ABC123").getId());
+	}
+
+	// Old closed tickets move to the archive in batches, reads needing them still find them
+	@Test
+	public void testArchival() throws Exception {
+		long now = System.currentTimeMillis();
+		long day = 86400000L;
+		for (String vehicleRegNumber : new String[]{"OLD1", "OLD2", "OLD3"}) {
+			park(vehicleRegNumber, now - 40 * day);
+			Ticket ticket = withOutTime(ticketDAO.getTicketForExit(vehicleRegNumber).getTicket(), now - 40 * day + 3600000);
+			ticket.setPrice(2.0);
+			assertTrue(ticketDAO.closeTicket(ticket));
+		}
+		parkingSpotDAO.loadFreeSpotIndex();
+		park("OLD1", now - day);
+		Ticket recent = withOutTime(ticketDAO.getTicketForExit("OLD1").getTicket(), now - day + 3600000);
+		recent.setPrice(3.0);
+		assertTrue(ticketDAO.closeTicket(recent));
+		park("OLD2", now - 3600000);
+
+		TicketArchiver archiver = new TicketArchiver(dataBaseConfig, 30 * day, 2);
+		assertEquals(3, archiver.archive());
+		assertEquals(0, archiver.archive());
+		assertEquals(2, countRows("ticket"));
+		assertEquals(3, countRows("ticket_archive"));
+
+		// the open ticket is untouched, the latest ticket of a vehicle gone quiet comes from the archive
+		assertNull(ticketDAO.getTicketForExit("OLD2").getTicket().getOutTime());
+		assertEquals(2.0, ticketDAO.getTicket("OLD3").getPrice());
+		assertEquals(3.0, ticketDAO.getTicket("OLD1").getPrice());
+		assertEquals(2, ticketDAO.getTickets("OLD1").size());
+		assertEquals(2, ticketDAO.getNbTicket("OLD2"));
+		assertEquals(9.0, ticketDAO.getRevenue(new Date(now - 50 * day), new Date(now)), 0.001);
+	}
+
+	// Ids of archived tickets are not handed out again when the AUTO_INCREMENT went back to the max id of the table
+	@Test
+	public void testArchivedIdsAreNotReused() throws Exception {
+		long now = System.currentTimeMillis();
+		long day = 86400000L;
+		for (String vehicleRegNumber : new String[]{"OLD1", "OLD2"}) {
+			park(vehicleRegNumber, now - 40 * day);
+			assertTrue(ticketDAO.closeTicket(withOutTime(ticketDAO.getTicketForExit(vehicleRegNumber).getTicket(), now - 39 * day)));
+		}
+		parkingSpotDAO.loadFreeSpotIndex();
+		TicketArchiver archiver = new TicketArchiver(dataBaseConfig, 30 * day, 10);
+		assertEquals(2, archiver.archive());
+		// as a MySQL 5.7 server restart does
+		execute("alter table ticket alter column ID restart with 1");
+		assertEquals(0, archiver.archive());
+		park("NEW1", now - 40 * day);
+		assertTrue(ticketDAO.getTicket("NEW1").getId() > 2);
+		assertTrue(ticketDAO.closeTicket(withOutTime(ticketDAO.getTicketForExit("NEW1").getTicket(), now - 39 * day)));
+		assertEquals(1, archiver.archive());
+		assertEquals(3, countRows("ticket_archive"));
+	}
+
+	private void execute(String sql) throws Exception {
+		Connection con = dataBaseConfig.getConnection();
+		try {
+			con.createStatement().executeUpdate(sql);
+		} finally {
+			dataBaseConfig.closeConnection(con);
+		}
+	}
+
+	private int countRows(String table) throws Exception {
+		Connection con = dataBaseConfig.getConnection();
+		try {
+			ResultSet rs = con.createStatement().executeQuery("select count(*) from " + table);
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			dataBaseConfig.closeConnection(con);
+		}
+	}
+
+	private static Ticket withOutTime(Ticket ticket, long outTimeMillis) {
+		ticket.setOutTime(new Date(outTimeMillis));
+		return ticket;
+	}
+}
@@ -0,0 +1,156 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.dao.TicketWriteBehind;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TicketWriteBehindTest {
+
+	private EmbeddedDataBaseConfig dataBaseConfig;
+	private TicketDAO ticketDAO;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		dataBaseConfig = new EmbeddedDataBaseConfig("writebehind", 4);
+		dataBaseConfig.createSchema(3, 2);
+		ticketDAO = new TicketDAO();
+		ticketDAO.dataBaseConfig = dataBaseConfig;
+	}
+
+	@AfterEach
+	public void tearDown() {
+		ticketDAO.disableWriteBehind();
+		dataBaseConfig.shutdown();
+	}
+
+	private Ticket newTicket(String vehicleRegNumber) {
+		Ticket ticket = new Ticket();
+		ticket.setParkingSpot(new ParkingSpot(1, ParkingType.CAR, false));
+		ticket.setVehicleRegNumber(vehicleRegNumber);
+		ticket.setInTime(new Date());
+		return ticket;
+	}
+
+	// Queued tickets are written in groups and are visible to reads right away
+	@Test
+	public void testTicketsAreWrittenInBatches() {
+		ticketDAO.enableWriteBehind(1000, 50, 1000, false);
+		for (int i = 0; i < 500; i++) {
+			assertTrue(ticketDAO.saveTicket(newTicket("AB" + (i % 10))));
+		}
+		// Reads flush the queue first
+		assertEquals(50, ticketDAO.getNbTicket("AB3"));
+		assertEquals(500, ticketDAO.getWriteBehind().getSavedCount());
+		assertTrue(ticketDAO.getWriteBehind().getBatchCount() < 500);
+	}
+
+	// In durable mode saveTicket returns once the group is committed
+	@Test
+	public void testDurableSave() {
+		ticketDAO.enableWriteBehind(10, 5, 5, true);
+		assertTrue(ticketDAO.saveTicket(newTicket("ABC123")));
+		assertEquals(1, ticketDAO.getWriteBehind().getSavedCount());
+	}
+
+	// A group that cannot be inserted is reported as failed
+	@Test
+	public void testFailedGroup() {
+		ticketDAO.enableWriteBehind(10, 5, 5, true);
+		Ticket ticket = newTicket("ABC123");
+		ticket.setParkingSpot(new ParkingSpot(99, ParkingType.CAR, false)); // Unknown spot, rejected by the foreign key
+		assertFalse(ticketDAO.saveTicket(ticket));
+		assertEquals(1, ticketDAO.getWriteBehind().getFailedCount());
+	}
+
+	// In a group that cannot be inserted only the refused ticket fails, and its spot is given back
+	@Test
+	public void testFailedTicketInGroup() {
+		ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+		parkingSpotDAO.dataBaseConfig = dataBaseConfig;
+		ticketDAO.enableWriteBehind(10, 5, 60000, false, parkingSpotDAO);
+		for (int parkingNumber = 1; parkingNumber <= 3; parkingNumber++) {
+			assertTrue(parkingSpotDAO.claimParkingSpot(new ParkingSpot(parkingNumber, ParkingType.CAR, true)));
+		}
+		Ticket tooLong = newTicket("ABCDEFGHIJKL"); // Longer than the column
+		tooLong.setParkingSpot(new ParkingSpot(2, ParkingType.CAR, false));
+		Ticket other = newTicket("DEF456");
+		other.setParkingSpot(new ParkingSpot(3, ParkingType.CAR, false));
+		assertTrue(ticketDAO.saveTicket(newTicket("ABC123")));
+		assertTrue(ticketDAO.saveTicket(tooLong));
+		assertTrue(ticketDAO.saveTicket(other));
+		ticketDAO.disableWriteBehind();
+		assertEquals(1, ticketDAO.getNbTicket("ABC123"));
+		assertEquals(1, ticketDAO.getNbTicket("DEF456"));
+		assertEquals(2, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+		assertEquals(1, parkingSpotDAO.countAvailableSlots(ParkingType.CAR));
+	}
+
+	// Reads of a vehicle without a queued ticket do not wait for the queue, queued tickets are counted right away
+	@Test
+	public void testReadsOnlyWaitForTheirVehicle() {
+		ticketDAO.enableWriteBehind(100, 50, 60000, false);
+		assertTrue(ticketDAO.saveTicket(newTicket("ABC123")));
+		assertEquals(0, ticketDAO.getNbTicket("DEF456"));
+		assertTrue(ticketDAO.getWriteBehind().hasPending());
+		assertTrue(ticketDAO.saveTicket(newTicket("DEF456")));
+		// cached from the first read, counted when queued
+		assertEquals(1, ticketDAO.getNbTicket("DEF456"));
+		assertTrue(ticketDAO.getWriteBehind().hasPending());
+		// not cached, read from the table once its ticket is written
+		assertEquals(1, ticketDAO.getNbTicket("ABC123"));
+		assertFalse(ticketDAO.getWriteBehind().hasPending());
+	}
+
+	// Tickets queued while the write-behind shuts down are all written or refused, none is left waiting
+	@Test
+	public void testShutdownLeavesNoTicketWaiting() throws Exception {
+		ticketDAO.enableWriteBehind(8, 4, 1, false);
+		TicketWriteBehind writeBehind = ticketDAO.getWriteBehind();
+		List<CompletableFuture<Boolean>> queued = Collections.synchronizedList(new ArrayList<>());
+		ExecutorService gates = Executors.newFixedThreadPool(4);
+		for (int gate = 0; gate < 4; gate++) {
+			String vehicleRegNumber = "GATE" + gate;
+			gates.submit(() -> {
+				try {
+					while (true) {
+						queued.add(writeBehind.save(newTicket(vehicleRegNumber)));
+					}
+				} catch (IllegalStateException | InterruptedException stopped) {
+					return null;
+				}
+			});
+		}
+		Thread.sleep(50);
+		writeBehind.shutdown();
+		gates.shutdown();
+		assertTrue(gates.awaitTermination(10, TimeUnit.SECONDS));
+		for (CompletableFuture<Boolean> committed : new ArrayList<>(queued)) {
+			assertTrue(committed.get(10, TimeUnit.SECONDS));
+		}
+	}
+
+	// Disabling the write-behind writes what is still queued
+	@Test
+	public void testDisableFlushesQueue() {
+		ticketDAO.enableWriteBehind(100, 50, 60000, false);
+		ticketDAO.saveTicket(newTicket("ABC123"));
+		ticketDAO.disableWriteBehind();
+		assertEquals(1, ticketDAO.getNbTicket("ABC123"));
+	}
+}
@@ -0,0 +1,95 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.service.ParkingSystem;
+import com.parkit.parkingsystem.tracing.Span;
+import com.parkit.parkingsystem.tracing.Tracer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TracerTest {
+
+    // Unsampled traces are dropped unless they are slow, kept spans point to their parent
+    @Test
+    public void slowTracesAreAlwaysKept() throws Exception {
+        Tracer tracer = new Tracer(true, 0.0, 20, 16);
+        Span fast = tracer.start("fast");
+        tracer.start("fast child").end();
+        fast.end();
+        assertTrue(tracer.getSpans().isEmpty());
+        assertFalse(tracer.isTracing());
+
+        Span slow = tracer.start("slow");
+        Span child = tracer.start("slow child");
+        assertTrue(tracer.isTracing());
+        Thread.sleep(25);
+        child.end();
+        tracer.startChild("statement", "SELECT 1").end();
+        slow.end();
+        assertEquals(0, tracer.startChild("outside of a trace", null).getTraceId());
+
+        List<Span> spans = tracer.getSpans();
+        assertEquals(3, spans.size());
+        assertEquals("slow", spans.get(0).getName());
+        assertEquals(0, spans.get(0).getParentId());
+        assertTrue(spans.get(0).getDurationNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals("SELECT 1", spans.get(2).getDetail());
+        for (Span span : spans.subList(1, 3)) {
+            assertEquals(slow.getTraceId(), span.getTraceId());
+            assertEquals(slow.getSpanId(), span.getParentId());
+        }
+    }
+
+    // An exit traced end to end: service, DAO calls, connection and SQL statements, exported as a Chrome trace
+    @Test
+    public void exitIsTracedDownToTheStatements(@TempDir Path dir) throws Exception {
+        EmbeddedDataBaseConfig dataBaseConfig = new EmbeddedDataBaseConfig("tracing", 2);
+        dataBaseConfig.createSchema(1, 0);
+        ParkingSystem parkingSystem = new ParkingSystem(dataBaseConfig);
+        ParkingService parkingService = new ParkingService(parkingSystem.getParkingSpotDAO(), parkingSystem.getTicketDAO());
+        Tracer tracer = Tracer.getDefault();
+        try {
+            assertNotNull(parkingService.processIncomingVehicle(ParkingType.CAR, "TRACED", new Date(0)));
+            tracer.clear();
+            tracer.setSampleRate(1);
+            tracer.setEnabled(true);
+            assertNotNull(parkingService.processExitingVehicle("TRACED", new Date(TimeUnit.HOURS.toMillis(2))));
+            tracer.setEnabled(false);
+
+            List<Span> spans = tracer.getSpans();
+            Span root = spans.get(0);
+            assertEquals("ParkingService.processExitingVehicle", root.getName());
+            assertTrue(spans.stream().allMatch(span -> span.getTraceId() == root.getTraceId()));
+            List<String> names = spans.stream().map(Span::getName).collect(Collectors.toList());
+            assertTrue(names.contains("TicketDAO.getTicketForExit"), names.toString());
+            assertTrue(names.contains("TicketDAO.closeTicket"), names.toString());
+            assertTrue(names.contains("DataBaseConfig.getConnection"), names.toString());
+            assertTrue(names.contains("SQL commit"), names.toString());
+            assertTrue(spans.stream().anyMatch(span -> "SQL executeUpdate".equals(span.getName())
+                    && span.getDetail().startsWith("update ticket")), names.toString());
+
+            Path file = dir.resolve("traces.json");
+            assertEquals(spans.size(), tracer.export(file));
+            String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            assertTrue(json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["), json);
+            assertTrue(json.contains("\"name\":\"TicketDAO.closeTicket\",\"cat\":\"parkit\",\"ph\":\"X\""), json);
+        } finally {
+            tracer.setEnabled(false);
+            tracer.setSampleRate(0.01);
+            tracer.clear();
+            parkingSystem.shutdown();
+        }
+    }
+}
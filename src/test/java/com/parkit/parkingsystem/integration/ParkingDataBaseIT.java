@@ -56,6 +56,10 @@ public class ParkingDataBaseIT {
 		lenient().when(inputReaderUtil.readSelection()).thenReturn(1);
 		when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn("ABCDEF");
 		dataBasePrepareService.clearDataBaseEntries();
+		// The tables were reset behind the DAOs' back
+		parkingSpotDAO.loadFreeSpotIndex();
+		ticketDAO.getVisitCountCache().clear();
+		ticketDAO.loadOpenTickets();
 	}
 
 	/**
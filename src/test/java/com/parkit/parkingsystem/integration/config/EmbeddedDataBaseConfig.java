@@ -0,0 +1,71 @@
+package com.parkit.parkingsystem.integration.config;
+
+import com.parkit.parkingsystem.config.ConnectionPool;
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.Scanner;
+
+/**
+ * In-memory H2 database in MySQL mode, used where a MySQL server is not available (unit tests, benchmarks).
+ */
+public class EmbeddedDataBaseConfig extends DataBaseConfig {
+
+    private final String name;
+    private final int poolSize;
+
+    public EmbeddedDataBaseConfig(String name, int poolSize) {
+        this.name = name;
+        this.poolSize = poolSize;
+    }
+
+    @Override
+    protected Connection createConnection() throws SQLException {
+        return DriverManager.getConnection("jdbc:h2:mem:" + name
+                + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+    }
+
+    @Override
+    protected ConnectionPool createPool() {
+        return new ConnectionPool(this::createConnection, poolSize, 30000, 60000, 2);
+    }
+
+    /**
+     * Drops everything, creates the tables and inserts the given number of free spots per type,
+     * numbered from 1 with cars first.
+     */
+    public void createSchema(int carSpots, int bikeSpots) throws Exception {
+        Connection con = getConnection();
+        try {
+            Statement statement = con.createStatement();
+            statement.execute("drop all objects");
+            for (String sql : readSchema().split(";")) {
+                if (!sql.trim().isEmpty()) {
+                    statement.execute(sql);
+                }
+            }
+            statement.close();
+            PreparedStatement ps = con.prepareStatement("insert into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(?,true,?)");
+            for (int number = 1; number <= carSpots + bikeSpots; number++) {
+                ps.setInt(1, number);
+                ps.setString(2, (number <= carSpots ? ParkingType.CAR : ParkingType.BIKE).toString());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            ps.close();
+        } finally {
+            closeConnection(con);
+        }
+    }
+
+    private String readSchema() {
+        InputStream in = EmbeddedDataBaseConfig.class.getResourceAsStream("/embedded-schema.sql");
+        try (Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name())) {
+            // drop the leading comment
+            return scanner.useDelimiter("\\A").next().replaceAll("(?s)/\\*.*?\\*/", "");
+        }
+    }
+}
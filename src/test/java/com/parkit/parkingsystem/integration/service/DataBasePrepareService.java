@@ -3,6 +3,7 @@ package com.parkit.parkingsystem.integration.service;
 import com.parkit.parkingsystem.integration.config.DataBaseTestConfig;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 
 public class DataBasePrepareService {
 
@@ -14,10 +15,11 @@ public class DataBasePrepareService {
             connection = dataBaseTestConfig.getConnection();
 
             //set parking entries to available
-            connection.prepareStatement("update parking set available = true").execute();
+            execute(connection, "update parking set available = true");
 
             //clear ticket entries;
-            connection.prepareStatement("truncate table ticket").execute();
+            execute(connection, "truncate table ticket");
+            execute(connection, "truncate table vehicle_visit");
 
         }catch(Exception e){
             e.printStackTrace();
@@ -26,5 +28,13 @@ public class DataBasePrepareService {
         }
     }
 
+    private void execute(Connection connection, String sql) throws Exception {
+        PreparedStatement ps = connection.prepareStatement(sql);
+        try {
+            ps.execute();
+        } finally {
+            dataBaseTestConfig.closePreparedStatement(ps);
+        }
+    }
 
 }